@@ -46,7 +46,7 @@ public class RecordingActivity extends AppCompatActivity implements CameraView.C
         mCameraView.setCameraSurfaceListener(this);
         mRecordingControl = (CheckBox) findViewById(R.id.recording_control);
         mRecordingControl.setOnCheckedChangeListener(mControlCheck);
-        mVideoRecorder = new MediaCodecRecorder();
+        mVideoRecorder = new MediaCodecRecorder(this);
     }
 
     private void startRecording() {
@@ -0,0 +1,207 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 两路编码器同时写入本地MP4，比较直接写{@link SyncMediaMuxer}与经过{@link AsyncMediaMuxer}写入时，
+ * 编码器线程在写入调用上花费的时间以及总耗时。Track格式来自设备上真实的编码器，Sample内容是填充数据。
+ * <p>
+ * 默认跳过，需要时运行：
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.muxerBenchmark=true
+ */
+@RunWith(AndroidJUnit4.class)
+public class MuxerIngressBenchmark {
+    private static final String TAG = "MuxerIngressBenchmark";
+
+    private static final String VIDEO_MIME_TYPE = "video/avc";
+    private static final String AUDIO_MIME_TYPE = "audio/mp4a-latm";
+
+    private static final int SAMPLES_PER_PRODUCER = 1800;
+    private static final int VIDEO_WIDTH = 1280;
+    private static final int VIDEO_HEIGHT = 720;
+    private static final int VIDEO_FRAME_RATE = 30;
+    private static final int VIDEO_SAMPLE_SIZE = 4 * 1000 * 1000 / 8 / VIDEO_FRAME_RATE;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_SAMPLE_SIZE = 372;
+    private static final long CODEC_TIMEOUT_US = 10 * 1000;
+    private static final int MAX_CODEC_LOOPS = 500;
+
+    @Test
+    public void compareSyncAndAsyncMuxer() throws IOException {
+        assumeTrue(Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("muxerBenchmark")));
+
+        MediaFormat videoFormat = getEncoderOutputFormat(createVideoFormat());
+        MediaFormat audioFormat = getEncoderOutputFormat(createAudioFormat());
+        File dir = InstrumentationRegistry.getTargetContext().getCacheDir();
+
+        //预热
+        run(new SyncMediaMuxer(new File(dir, "warmup.mp4").getPath()), videoFormat, audioFormat);
+
+        File syncFile = new File(dir, "sync.mp4");
+        Result sync = run(new SyncMediaMuxer(syncFile.getPath()), videoFormat, audioFormat);
+        File asyncFile = new File(dir, "async.mp4");
+        AsyncMediaMuxer asyncMediaMuxer = new AsyncMediaMuxer(new SyncMediaMuxer(asyncFile.getPath()));
+        Result async = run(asyncMediaMuxer, videoFormat, audioFormat);
+        Log.i(TAG, "SyncMediaMuxer : " + sync);
+        Log.i(TAG, "AsyncMediaMuxer: " + async);
+
+        assertEquals(0, asyncMediaMuxer.getDroppedCount());
+        new File(dir, "warmup.mp4").delete();
+        syncFile.delete();
+        asyncFile.delete();
+    }
+
+    private static Result run(IMediaMuxer mediaMuxer, MediaFormat videoFormat, MediaFormat audioFormat) {
+        int videoTrack = mediaMuxer.addVideoTrack(videoFormat);
+        int audioTrack = mediaMuxer.addAudioTrack(audioFormat);
+        mediaMuxer.start();
+
+        Result result = new Result();
+        Thread video = new Thread(new Producer(mediaMuxer, videoTrack, VIDEO_SAMPLE_SIZE,
+                1000000L / VIDEO_FRAME_RATE, VIDEO_FRAME_RATE, result));
+        Thread audio = new Thread(new Producer(mediaMuxer, audioTrack, AUDIO_SAMPLE_SIZE,
+                1024 * 1000000L / AUDIO_SAMPLE_RATE, 1, result));
+        long start = System.nanoTime();
+        video.start();
+        audio.start();
+        try {
+            video.join();
+            audio.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        mediaMuxer.stop();
+        result.totalNanos = System.nanoTime() - start;
+        mediaMuxer.release();
+        return result;
+    }
+
+    private static MediaFormat createVideoFormat() throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, VIDEO_WIDTH, VIDEO_HEIGHT);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, 4 * 1000 * 1000);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, VIDEO_FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        MediaCodec codec = MediaCodec.createEncoderByType(VIDEO_MIME_TYPE);
+        try {
+            int colorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar;
+            for (int supported : codec.getCodecInfo().getCapabilitiesForType(VIDEO_MIME_TYPE).colorFormats) {
+                if (supported == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar) {
+                    colorFormat = supported;
+                }
+            }
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        } finally {
+            codec.release();
+        }
+        return format;
+    }
+
+    private static MediaFormat createAudioFormat() {
+        MediaFormat format = MediaFormat.createAudioFormat(AUDIO_MIME_TYPE, AUDIO_SAMPLE_RATE, 1);
+        format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, 64 * 1000);
+        return format;
+    }
+
+    /**
+     * 用空白的输入驱动编码器，直到输出带有参数集的格式
+     */
+    @SuppressWarnings("deprecation")
+    private static MediaFormat getEncoderOutputFormat(MediaFormat inputFormat) throws IOException {
+        MediaCodec codec = MediaCodec.createEncoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+        try {
+            codec.configure(inputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+            ByteBuffer[] inputBuffers = codec.getInputBuffers();
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            long presentationTimeUs = 0;
+            for (int i = 0; i < MAX_CODEC_LOOPS; i++) {
+                int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                if (inputIndex >= 0) {
+                    ByteBuffer inputBuffer = inputBuffers[inputIndex];
+                    inputBuffer.clear();
+                    int size = inputBuffer.capacity();
+                    inputBuffer.put(new byte[size]);
+                    codec.queueInputBuffer(inputIndex, 0, size, presentationTimeUs, 0);
+                    presentationTimeUs += 1000000L / VIDEO_FRAME_RATE;
+                }
+                int outputIndex = codec.dequeueOutputBuffer(bufferInfo, CODEC_TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    return codec.getOutputFormat();
+                } else if (outputIndex >= 0) {
+                    codec.releaseOutputBuffer(outputIndex, false);
+                }
+            }
+            throw new IllegalStateException("no output format from " + inputFormat);
+        } finally {
+            codec.stop();
+            codec.release();
+        }
+    }
+
+    private static class Producer implements Runnable {
+        private final IMediaMuxer mMediaMuxer;
+        private final int mTrack;
+        private final ByteBuffer mData;
+        private final long mSampleDurationUs;
+        private final int mKeyFrameInterval;
+        private final Result mResult;
+
+        Producer(IMediaMuxer mediaMuxer, int track, int size, long sampleDurationUs, int keyFrameInterval,
+                 Result result) {
+            mMediaMuxer = mediaMuxer;
+            mTrack = track;
+            mData = ByteBuffer.allocateDirect(size);
+            mSampleDurationUs = sampleDurationUs;
+            mKeyFrameInterval = keyFrameInterval;
+            mResult = result;
+        }
+
+        @Override
+        public void run() {
+            MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+            for (int i = 0; i < SAMPLES_PER_PRODUCER; i++) {
+                mData.clear();
+                bufferInfo.set(0, mData.capacity(), i * mSampleDurationUs,
+                        i % mKeyFrameInterval == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+                long start = System.nanoTime();
+                mMediaMuxer.writeSampleData(mTrack, mData, bufferInfo);
+                mResult.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class Result {
+        long totalNanos;
+        private long mCallCount;
+        private long mCallNanos;
+        private long mMaxCallNanos;
+
+        synchronized void record(long nanos) {
+            mCallCount++;
+            mCallNanos += nanos;
+            mMaxCallNanos = Math.max(mMaxCallNanos, nanos);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("total %.1f ms, producer call avg %.1f us, max %.1f us",
+                    totalNanos / 1e6, mCallNanos / 1e3 / mCallCount, mMaxCallNanos / 1e3);
+        }
+    }
+}
@@ -23,11 +23,35 @@ public class Profile {
     public static final int DEFAULT_AUDIO_CHANNEL_COUNT = 1;
     public static final int DEFAULT_AUDIO_CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_MONO;
 
+    /**
+     * 输出格式：MediaMuxer生成的MP4
+     */
+    public static final int OUTPUT_FORMAT_MPEG_4 = 0;
+    /**
+     * 输出格式：Fragmented MP4，边录制边写入索引
+     */
+    public static final int OUTPUT_FORMAT_FRAGMENTED_MPEG_4 = 1;
+    /**
+     * 输出格式：裸流，Annex-B格式的H.264和带ADTS头的AAC分别写入.h264和.aac文件
+     */
+    public static final int OUTPUT_FORMAT_ELEMENTARY_STREAM = 2;
+    /**
+     * 输出格式：MPEG-2 TS，可以边录制边读取，在任意关键帧处切分
+     */
+    public static final int OUTPUT_FORMAT_MPEG_TS = 3;
+    public static final int DEFAULT_OUTPUT_FORMAT = OUTPUT_FORMAT_MPEG_4;
+    public static final int DEFAULT_FRAGMENT_DURATION_MS = 1000;
+    public static final int DEFAULT_REPLAY_DURATION_MS = 30 * 1000;
+    public static final int DEFAULT_JOURNAL_SYNC_INTERVAL = 60;
+
     public int videoBitRate = DEFAULT_VIDEO_BIT_RATE;
     public int videoFrameRate = DEFAULT_VIDEO_FRAME_RATE;
     public int videoWidth;
     public int videoHeight;
     public int videoIFrameInterval = DEFAULT_VIDEO_I_FRAME_INTERVAL;
+    //码率自适应的范围，都为0时不调整码率
+    public int videoMinBitRate = 0;
+    public int videoMaxBitRate = 0;
 
     public int audioBitRate = DEFAULT_AUDIO_BIT_RATE;
     public int audioSamplingRate = DEFAULT_AUDIO_SAMPLING_RATE;
@@ -36,7 +60,20 @@ public class Profile {
 
     public int orientationHint = DEFAULT_ORIENTATION_HINT;
 
+    public int outputFormat = DEFAULT_OUTPUT_FORMAT;
+    public int fragmentDurationMs = DEFAULT_FRAGMENT_DURATION_MS;
+    public int maxInterleaveWindowMs = 0;
+    public int segmentDurationMs = 0;
+    public long segmentMaxBytes = 0;
+    public int replayBufferBytes = 0;
+    public int replayDurationMs = DEFAULT_REPLAY_DURATION_MS;
+    public int journalSyncInterval = DEFAULT_JOURNAL_SYNC_INTERVAL;
+
     public boolean isRequestAsynchronousMode = false;
+    public boolean isRequestMuxerWriterThread = false;
+    public boolean isRequestFastStart = false;
+    public boolean isRequestCrashRecovery = false;
+    public boolean isRequestVideoDrainThread = false;
 
     public static class Builder {
 
@@ -45,6 +82,8 @@ public class Profile {
         private int videoIFrameInterval = DEFAULT_VIDEO_I_FRAME_INTERVAL;
         private int videoWidth;
         private int videoHeight;
+        private int videoMinBitRate = 0;
+        private int videoMaxBitRate = 0;
         private int orientationHint = DEFAULT_ORIENTATION_HINT;
 
         private int audioBitRate = DEFAULT_AUDIO_BIT_RATE;
@@ -52,7 +91,20 @@ public class Profile {
         private int audioChannelCount = DEFAULT_AUDIO_CHANNEL_COUNT;
         private int audioChannelConfig = DEFAULT_AUDIO_CHANNEL_CONFIG;
 
+        private int outputFormat = DEFAULT_OUTPUT_FORMAT;
+        private int fragmentDurationMs = DEFAULT_FRAGMENT_DURATION_MS;
+        private int maxInterleaveWindowMs = 0;
+        private int segmentDurationMs = 0;
+        private long segmentMaxBytes = 0;
+        private int replayBufferBytes = 0;
+        private int replayDurationMs = DEFAULT_REPLAY_DURATION_MS;
+        private int journalSyncInterval = DEFAULT_JOURNAL_SYNC_INTERVAL;
+
         public boolean isRequestAsynchronousMode = false;
+        private boolean isRequestMuxerWriterThread = false;
+        private boolean isRequestFastStart = false;
+        private boolean isRequestCrashRecovery = false;
+        private boolean isRequestVideoDrainThread = false;
 
         /**
          * 设置视频码率
@@ -146,6 +198,82 @@ public class Profile {
             return this;
         }
 
+        /**
+         * 设置输出格式
+         * @param outputFormat {@link #OUTPUT_FORMAT_MPEG_4}、{@link #OUTPUT_FORMAT_FRAGMENTED_MPEG_4}、
+         *                     {@link #OUTPUT_FORMAT_ELEMENTARY_STREAM}或{@link #OUTPUT_FORMAT_MPEG_TS}
+         * @return Builder
+         */
+        public Builder setOutputFormat(int outputFormat) {
+            this.outputFormat = outputFormat;
+            return this;
+        }
+
+        /**
+         * 设置Fragmented MP4每个片段的时长，只在{@link #OUTPUT_FORMAT_FRAGMENTED_MPEG_4}下有效
+         * @param fragmentDurationMs 时长，单位为毫秒
+         * @return Builder
+         */
+        public Builder setFragmentDuration(int fragmentDurationMs) {
+            this.fragmentDurationMs = fragmentDurationMs;
+            return this;
+        }
+
+        /**
+         * 设置音视频按时间戳交织的最大窗口，写入Muxer前先按时间戳排序，0表示关闭
+         * @param windowMs 窗口大小，单位为毫秒
+         * @return Builder
+         */
+        public Builder setMaxInterleaveWindow(int windowMs) {
+            this.maxInterleaveWindowMs = windowMs;
+            return this;
+        }
+
+        /**
+         * 设置分段录制每个文件的时长上限，到达上限后在下一个关键帧处切换到新的文件，0表示不限制
+         * @param segmentDurationMs 时长，单位为毫秒
+         * @return Builder
+         */
+        public Builder setSegmentDuration(int segmentDurationMs) {
+            this.segmentDurationMs = segmentDurationMs;
+            return this;
+        }
+
+        /**
+         * 设置分段录制每个文件的大小上限，到达上限后在下一个关键帧处切换到新的文件，0表示不限制
+         * @param segmentMaxBytes 大小，单位为字节
+         * @return Builder
+         */
+        public Builder setSegmentMaxSize(long segmentMaxBytes) {
+            this.segmentMaxBytes = segmentMaxBytes;
+            return this;
+        }
+
+        /**
+         * 开启回放缓冲区，保存最近一段编码数据，可以随时保存为MP4文件
+         * @param bufferBytes 缓冲区大小，单位为字节，0表示关闭
+         * @param durationMs 最多保存的时长，单位为毫秒
+         * @return Builder
+         */
+        public Builder setReplayBuffer(int bufferBytes, int durationMs) {
+            this.replayBufferBytes = bufferBytes;
+            this.replayDurationMs = durationMs;
+            return this;
+        }
+
+        /**
+         * 录制时根据Muxer的写入情况与编码数据量动态调整视频码率，初始码率为{@link #setVideoBitRate(int)}，
+         * 需要{@link android.os.Build.VERSION_CODES#KITKAT}以上版本
+         * @param minBitRate 最低码率，单位为bit/sec
+         * @param maxBitRate 最高码率，单位为bit/sec，为0时不调整码率
+         * @return Builder
+         */
+        public Builder setAdaptiveBitRate(int minBitRate, int maxBitRate) {
+            this.videoMinBitRate = minBitRate;
+            this.videoMaxBitRate = maxBitRate;
+            return this;
+        }
+
         /**
          * 尝试使用异步回调的方式来进行编码
          * @param on 开关
@@ -156,6 +284,48 @@ public class Profile {
             return this;
         }
 
+        /**
+         * 使用独立的线程写入Muxer，编码器只负责把数据放入无锁队列
+         * @param on 开关
+         * @return Builder
+         */
+        public Builder setMuxerWriterThread(boolean on) {
+            isRequestMuxerWriterThread = on;
+            return this;
+        }
+
+        /**
+         * 使用独立的线程阻塞等待视频编码器的输出，编码完成后立刻写入Muxer，降低延迟，只在同步模式下有效
+         * @param on 开关
+         * @return Builder
+         */
+        public Builder setVideoDrainThread(boolean on) {
+            isRequestVideoDrainThread = on;
+            return this;
+        }
+
+        /**
+         * 录制结束后在后台把moov移动到文件开头，只在{@link #OUTPUT_FORMAT_MPEG_4}并且没有分段时有效
+         * @param on 开关
+         * @return Builder
+         */
+        public Builder setFastStart(boolean on) {
+            isRequestFastStart = on;
+            return this;
+        }
+
+        /**
+         * 录制时同时写入Sample日志，进程意外退出后可以修复MP4，只在{@link #OUTPUT_FORMAT_MPEG_4}下有效
+         * @param on 开关
+         * @param syncIntervalSamples 每写入多少个Sample同步一次数据和日志到存储，0表示不主动同步
+         * @return Builder
+         */
+        public Builder setCrashRecovery(boolean on, int syncIntervalSamples) {
+            this.isRequestCrashRecovery = on;
+            this.journalSyncInterval = syncIntervalSamples;
+            return this;
+        }
+
         public Profile build() {
             Profile profile = new Profile();
             profile.audioBitRate = this.audioBitRate;
@@ -168,10 +338,25 @@ public class Profile {
             profile.videoWidth = this.videoWidth;
             profile.videoHeight = this.videoHeight;
             profile.videoIFrameInterval = this.videoIFrameInterval;
+            profile.videoMinBitRate = this.videoMinBitRate;
+            profile.videoMaxBitRate = this.videoMaxBitRate;
 
             profile.orientationHint = this.orientationHint;
 
+            profile.outputFormat = this.outputFormat;
+            profile.fragmentDurationMs = this.fragmentDurationMs;
+            profile.maxInterleaveWindowMs = this.maxInterleaveWindowMs;
+            profile.segmentDurationMs = this.segmentDurationMs;
+            profile.segmentMaxBytes = this.segmentMaxBytes;
+            profile.replayBufferBytes = this.replayBufferBytes;
+            profile.replayDurationMs = this.replayDurationMs;
+            profile.journalSyncInterval = this.journalSyncInterval;
+
             profile.isRequestAsynchronousMode = this.isRequestAsynchronousMode;
+            profile.isRequestMuxerWriterThread = this.isRequestMuxerWriterThread;
+            profile.isRequestFastStart = this.isRequestFastStart;
+            profile.isRequestCrashRecovery = this.isRequestCrashRecovery;
+            profile.isRequestVideoDrainThread = this.isRequestVideoDrainThread;
             return profile;
         }
     }
@@ -17,12 +17,17 @@ public abstract class VideoRecorder {
 
     private static final String TAG = "VideoRecorder";
 
+    private static final int EVENT_INFO = 1;
+
     /**
      * 输出的Video文件路径
      */
     protected String mPath;
     protected Profile mProfile;
 
+    private OnInfoListener mOnInfoListener;
+    private EventHandler mEventHandler;
+
     public void setProfile(Profile profile) {
         this.mProfile = profile;
     }
@@ -31,6 +36,22 @@ public abstract class VideoRecorder {
         this.mPath = path;
     }
 
+    /**
+     * 设置录制信息的监听，在调用此方法的线程回调，该线程没有Looper时在主线程回调
+     *
+     * @param listener 监听，为null时取消
+     */
+    public void setOnInfoListener(OnInfoListener listener) {
+        if (listener != null && mEventHandler == null) {
+            Looper looper = Looper.myLooper();
+            if (looper == null) {
+                looper = Looper.getMainLooper();
+            }
+            mEventHandler = new EventHandler(this, looper);
+        }
+        this.mOnInfoListener = listener;
+    }
+
     public abstract void reset();
 
     public abstract void prepare();
@@ -43,6 +64,10 @@ public abstract class VideoRecorder {
 
     protected final void notifyRecorderInfo(int info, int extra) {
         Log.d(TAG, "notifyRecorderInfo info:"+info+" extra:"+extra);
+        final EventHandler eventHandler = mEventHandler;
+        if (eventHandler != null && mOnInfoListener != null) {
+            eventHandler.obtainMessage(EVENT_INFO, info, extra).sendToTarget();
+        }
     }
 
     private static class EventHandler extends Handler {
@@ -56,6 +81,29 @@ public abstract class VideoRecorder {
         @Override
         public void handleMessage(Message msg) {
             super.handleMessage(msg);
+            VideoRecorder videoRecorder = mVideoRecorderRef.get();
+            if (videoRecorder == null) {
+                return;
+            }
+
+            switch (msg.what) {
+                case EVENT_INFO:
+                    final OnInfoListener listener = videoRecorder.mOnInfoListener;
+                    if (listener != null) {
+                        listener.onInfo(videoRecorder, msg.arg1, msg.arg2);
+                    }
+                    break;
+                default:
+            }
         }
     }
+
+    public interface OnInfoListener {
+        /**
+         * @param videoRecorder 录制器
+         * @param info          信息类型，与具体的录制器有关
+         * @param extra         附加数据
+         */
+        void onInfo(VideoRecorder videoRecorder, int info, int extra);
+    }
 }
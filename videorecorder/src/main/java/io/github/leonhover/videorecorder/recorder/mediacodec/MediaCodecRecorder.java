@@ -1,29 +1,92 @@
 package io.github.leonhover.videorecorder.recorder.mediacodec;
 
+import android.content.Context;
 import android.graphics.SurfaceTexture;
 import android.opengl.EGLContext;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
+import io.github.leonhover.videorecorder.pub.Profile;
 import io.github.leonhover.videorecorder.recorder.VideoRecorder;
 import io.github.leonhover.videorecorder.recorder.mediacodec.encode.AudioEncoder;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.BitrateController;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.EncoderCapabilityCache;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.EncoderPool;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.H264StreamAnalyzer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.LatencyStats;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.PauseController;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.PcmProcessingChain;
 import io.github.leonhover.videorecorder.recorder.mediacodec.encode.VideoEncoder;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.AsyncMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.ElementaryStreamMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.FanOutMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.FragmentedMp4Muxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.IMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.ISampleSink;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.InterleavingMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.JournaledMp4Muxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.MediaMuxerSink;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.Mp4FastStart;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.ReplayMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.SegmentedMediaMuxer;
 import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.SyncMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.TsMediaMuxer;
 import io.github.leonhover.videorecorder.recorder.mediacodec.surface.OffScreenWindow;
 
 /**
  * Created by wangzongliang on 2017/4/18.
  */
 
-public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.CallBack, AudioEncoder.CallBack {
+public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.CallBack, AudioEncoder.CallBack,
+        SegmentedMediaMuxer.CallBack {
 
     private static final String TAG = "MediaCodecRecorder";
 
+    /**
+     * {@link OnInfoListener}：视频码率已修改，extra为新的码率，手动修改与码率自适应都会通知
+     */
+    public static final int INFO_VIDEO_BIT_RATE_CHANGED = 1000;
+    /**
+     * {@link OnInfoListener}：已经请求视频编码器输出关键帧
+     */
+    public static final int INFO_VIDEO_SYNC_FRAME_REQUESTED = 1001;
+    /**
+     * {@link OnInfoListener}：视频编码器暂停或恢复接收输入，extra为1表示暂停，0表示恢复
+     */
+    public static final int INFO_VIDEO_INPUT_SUSPENDED = 1002;
+    /**
+     * {@link OnInfoListener}：视频编码器出错，之后没有视频数据，需要停止录制
+     */
+    public static final int INFO_VIDEO_CODEC_ERROR = 1003;
+    /**
+     * {@link OnInfoListener}：音频编码器出错，之后没有音频数据，需要停止录制
+     */
+    public static final int INFO_AUDIO_CODEC_ERROR = 1004;
+
     private AudioEncoder mAudioEncoder;
     private VideoEncoder mVideoEncoder;
-    private SyncMediaMuxer mMediaMuxer;
+    private IMediaMuxer mMediaMuxer;
+    private ReplayMediaMuxer mReplayMediaMuxer;
+    private AsyncMediaMuxer mAsyncMediaMuxer;
+    private BitrateController mBitrateController;
+    private final PauseController mPauseController = new PauseController();
+    private final PcmProcessingChain mAudioProcessingChain = new PcmProcessingChain();
+    //除输出文件外的其他Sink以及对应的策略
+    private final List<ISampleSink> mSampleSinks = new ArrayList<ISampleSink>();
+    private final List<Integer> mSampleSinkPolicies = new ArrayList<Integer>();
+    private Mp4FastStart.CallBack mFastStartCallBack;
+    private EncoderPool mEncoderPool;
+
+    //prepare耗时以及从start到第一帧写入Muxer的时间
+    private final LatencyStats mPrepareStats = new LatencyStats();
+    private final LatencyStats mTimeToFirstFrameStats = new LatencyStats();
+    private long mPrepareTimeNs = 0;
+    private long mStartTimeNs = 0;
 
     private CountDownLatch mPrepareLatch;
     private CountDownLatch mStartLatch;
@@ -36,6 +99,16 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
 
     private boolean isRecording = false;
 
+    public MediaCodecRecorder() {
+    }
+
+    /**
+     * 编码器能力的查询结果缓存在context的cache目录，之后启动时不需要再遍历MediaCodecList
+     */
+    public MediaCodecRecorder(Context context) {
+        EncoderCapabilityCache.setCacheDirectory(context.getCacheDir());
+    }
+
     public void setPreviewSize(int width, int height) {
         this.mPreviewWidth = width;
         this.mPreviewHeight = height;
@@ -45,6 +118,80 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
         return isRecording;
     }
 
+    public boolean isPaused() {
+        return mPauseController.isPaused();
+    }
+
+    /**
+     * 除输出文件外，编码数据同时写入sink，需要在{@link #prepare()}之前调用
+     *
+     * @param sink   Sink
+     * @param policy {@link FanOutMediaMuxer#POLICY_DROP}或{@link FanOutMediaMuxer#POLICY_BLOCK}
+     */
+    public void addSampleSink(ISampleSink sink, int policy) {
+        mSampleSinks.add(sink);
+        mSampleSinkPolicies.add(policy);
+    }
+
+    /**
+     * 音频的PCM处理链，在{@link #start()}之前添加增益、限幅、滤波等处理环节
+     */
+    public PcmProcessingChain getAudioProcessingChain() {
+        return mAudioProcessingChain;
+    }
+
+    /**
+     * 设置faststart完成的回调，在后台线程中回调
+     */
+    public void setFastStartCallBack(Mp4FastStart.CallBack callBack) {
+        this.mFastStartCallBack = callBack;
+    }
+
+    /**
+     * 设置编码器池，需要在{@link #prepare()}之前调用。prepare时优先从池中取已经准备好的编码器，
+     * 录制结束后编码器归还到池中而不是释放。编码器池由调用者负责释放。
+     *
+     * @param encoderPool 编码器池，为null时每次录制都创建新的编码器
+     */
+    public void setEncoderPool(EncoderPool encoderPool) {
+        this.mEncoderPool = encoderPool;
+    }
+
+    /**
+     * 每次prepare的耗时统计
+     */
+    public LatencyStats getPrepareStats() {
+        return mPrepareStats;
+    }
+
+    /**
+     * 从调用{@link #start()}到第一帧视频数据写入Muxer的时间统计，每次录制结束时记录一次
+     */
+    public LatencyStats getTimeToFirstFrameStats() {
+        return mTimeToFirstFrameStats;
+    }
+
+    /**
+     * 当前录制的视频码流统计：GOP长度、关键帧间隔、帧大小以及最近一秒的码率与帧率
+     *
+     * @return 没有视频编码器时返回null
+     */
+    public H264StreamAnalyzer.Stats getVideoStreamStats() {
+        VideoEncoder videoEncoder = mVideoEncoder;
+        if (videoEncoder == null) {
+            return null;
+        }
+        return videoEncoder.getStreamAnalyzer().getStats(new H264StreamAnalyzer.Stats());
+    }
+
+    public void removeSampleSink(ISampleSink sink) {
+        int index = mSampleSinks.indexOf(sink);
+        if (index >= 0) {
+            mSampleSinks.remove(index);
+            mSampleSinkPolicies.remove(index);
+        }
+    }
+
     @Override
     public void reset() {
         if (isRecording) {
@@ -71,28 +218,50 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
             return;
         }
 
-        mPrepareLatch = new CountDownLatch(2);
+        mPrepareTimeNs = System.nanoTime();
+        mMediaMuxer = createMediaMuxer();
 
-        mMediaMuxer = new SyncMediaMuxer(mPath);
-        //音频
-        mAudioEncoder = new AudioEncoder(mMediaMuxer);
-        mAudioEncoder.setCallBack(this);
-        mAudioEncoder.setBitRate(mProfile.audioBitRate);
-        mAudioEncoder.setSampleRate(mProfile.audioSamplingRate);
-        mAudioEncoder.setChannelCount(mProfile.audioChannelCount);
-        mAudioEncoder.setChannelMask(mProfile.audioChannelConfig);
-        mAudioEncoder.setSampleRate(mProfile.audioSamplingRate);
-        mAudioEncoder.prepare();
+        final EncoderPool encoderPool = mEncoderPool;
+        AudioEncoder pooledAudioEncoder = null;
+        VideoEncoder pooledVideoEncoder = null;
+        if (encoderPool != null) {
+            pooledAudioEncoder = encoderPool.acquireAudioEncoder(mProfile);
+            pooledVideoEncoder = encoderPool.acquireVideoEncoder(mProfile);
+        }
+
+        mPrepareLatch = new CountDownLatch((pooledAudioEncoder == null ? 1 : 0) + (pooledVideoEncoder == null ? 1 : 0));
 
+        //音频
+        if (pooledAudioEncoder != null) {
+            mAudioEncoder = pooledAudioEncoder;
+            mAudioEncoder.setMediaMuxer(mMediaMuxer);
+            mAudioEncoder.setCallBack(this);
+        } else {
+            mAudioEncoder = new AudioEncoder(mMediaMuxer);
+            mAudioEncoder.setCallBack(this);
+            EncoderPool.applyProfile(mAudioEncoder, mProfile);
+            mAudioEncoder.setReusable(encoderPool != null);
+            mAudioEncoder.prepare();
+        }
 
         //视频
-        mVideoEncoder = new VideoEncoder(mMediaMuxer);
-        mVideoEncoder.setCallBack(this);
-        mVideoEncoder.setBitRate(mProfile.videoBitRate);
-        mVideoEncoder.setFrameRate(mProfile.videoFrameRate);
-        mVideoEncoder.setIFrameInterval(mProfile.videoIFrameInterval);
-        mVideoEncoder.setVideoSize(mProfile.videoWidth, mProfile.videoHeight);
-        mVideoEncoder.prepare();
+        if (pooledVideoEncoder != null) {
+            mVideoEncoder = pooledVideoEncoder;
+            mVideoEncoder.setMediaMuxer(mMediaMuxer);
+            mVideoEncoder.setCallBack(this);
+            attachInputSurface(mVideoEncoder);
+        } else {
+            mVideoEncoder = new VideoEncoder(mMediaMuxer);
+            mVideoEncoder.setCallBack(this);
+            EncoderPool.applyProfile(mVideoEncoder, mProfile);
+            mVideoEncoder.setReusable(encoderPool != null);
+            mVideoEncoder.prepare();
+        }
+        setupBitrateController();
+        mPauseController.reset();
+        mAudioEncoder.setPauseController(mPauseController);
+        mAudioEncoder.setProcessingChain(mAudioProcessingChain);
+        mVideoEncoder.setPauseController(mPauseController);
 
         try {
             mPrepareLatch.await();
@@ -100,7 +269,10 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
             e.printStackTrace();
         }
 
-        Log.d(TAG, "prepare end");
+        long prepareCostUs = (System.nanoTime() - mPrepareTimeNs) / 1000;
+        mPrepareStats.record(prepareCostUs);
+        Log.d(TAG, "prepare end cost:" + prepareCostUs + "us pooled video:" + (pooledVideoEncoder != null)
+                + " audio:" + (pooledAudioEncoder != null));
     }
 
     @Override
@@ -111,6 +283,7 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
             return;
         }
         isRecording = true;
+        mStartTimeNs = System.nanoTime();
         mStartLatch = new CountDownLatch(2);
         mVideoEncoder.start();
         mAudioEncoder.start();
@@ -136,11 +309,87 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
                 e.printStackTrace();
             }
             mMediaMuxer.stop();
+            mMediaMuxer.release();
+
+            if (isFastStartRequested()) {
+                Mp4FastStart.processAsync(new File(mPath), mFastStartCallBack);
+            }
         }
         isRecording = false;
         Log.d(TAG, "stop end");
     }
 
+    /**
+     * 录制中修改视频码率，可以在任意线程调用，结果通过{@link #INFO_VIDEO_BIT_RATE_CHANGED}通知。
+     * 开启了码率自适应时由自适应控制码率，调用无效。
+     *
+     * @param bitRate 码率，单位为bit/sec
+     * @return 是否提交了修改
+     */
+    public boolean setVideoBitRate(int bitRate) {
+        final VideoEncoder videoEncoder = mVideoEncoder;
+        if (!isRecording || videoEncoder == null) {
+            Log.w(TAG, "setVideoBitRate recorder is not recording");
+            return false;
+        }
+        if (mBitrateController != null) {
+            Log.w(TAG, "setVideoBitRate adaptive bitrate is enabled");
+            return false;
+        }
+        videoEncoder.changeBitRate(bitRate);
+        return true;
+    }
+
+    /**
+     * 请求视频编码器尽快输出一个关键帧，可以在任意线程调用
+     */
+    public void requestKeyFrame() {
+        final VideoEncoder videoEncoder = mVideoEncoder;
+        if (isRecording && videoEncoder != null) {
+            videoEncoder.requestSyncFrame();
+        }
+    }
+
+    /**
+     * 暂停或恢复视频编码器接收输入，暂停期间的画面被编码器丢弃，可以在任意线程调用。
+     * 与{@link #pause()}不同，时间戳不会调整，输出文件中这段时间没有画面。
+     *
+     * @param suspended true 暂停，false 恢复
+     */
+    public void setVideoInputSuspended(boolean suspended) {
+        final VideoEncoder videoEncoder = mVideoEncoder;
+        if (isRecording && videoEncoder != null) {
+            videoEncoder.setInputSuspended(suspended);
+        }
+    }
+
+    /**
+     * 暂停录制，编码器、线程与Muxer都保持运行，只是不再送入画面与声音，恢复后输出文件中没有空白。
+     */
+    public void pause() {
+        Log.d(TAG, "pause");
+        if (!isRecording) {
+            Log.d(TAG, "pause recorder is not recording!!");
+            return;
+        }
+        mPauseController.pause(System.nanoTime() / 1000);
+    }
+
+    /**
+     * 恢复录制，同时请求一个关键帧，恢复后的画面可以独立解码
+     */
+    public void resume() {
+        Log.d(TAG, "resume");
+        if (!isRecording) {
+            Log.d(TAG, "resume recorder is not recording!!");
+            return;
+        }
+        if (mPauseController.resume(System.nanoTime() / 1000)) {
+            mVideoEncoder.requestSyncFrame();
+            Log.d(TAG, "resume total paused:" + mPauseController.getTotalPausedUs() + "us");
+        }
+    }
+
     @Override
     public void release() {
         if (mOffScreenWindow != null) {
@@ -151,6 +400,127 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
         isRecording = false;
     }
 
+    /**
+     * 根据Profile中的输出格式创建Muxer
+     */
+    private IMediaMuxer createMediaMuxer() {
+        IMediaMuxer mediaMuxer;
+        if (mProfile.segmentDurationMs > 0 || mProfile.segmentMaxBytes > 0) {
+            SegmentedMediaMuxer segmentedMediaMuxer = new SegmentedMediaMuxer(mPath, mProfile.segmentDurationMs,
+                    mProfile.segmentMaxBytes, new SegmentedMediaMuxer.MuxerFactory() {
+                @Override
+                public IMediaMuxer createMediaMuxer(String path) {
+                    return createFileMediaMuxer(path);
+                }
+            });
+            segmentedMediaMuxer.setCallBack(this);
+            //只有TS分段可以直接列入m3u8
+            segmentedMediaMuxer.setPlaylistEnabled(mProfile.outputFormat == Profile.OUTPUT_FORMAT_MPEG_TS);
+            mediaMuxer = segmentedMediaMuxer;
+        } else {
+            mediaMuxer = createFileMediaMuxer(mPath);
+        }
+
+        if (mProfile.replayBufferBytes > 0) {
+            mReplayMediaMuxer = new ReplayMediaMuxer(mediaMuxer, mProfile.replayBufferBytes, mProfile.replayDurationMs);
+            mediaMuxer = mReplayMediaMuxer;
+        } else {
+            mReplayMediaMuxer = null;
+        }
+
+        if (!mSampleSinks.isEmpty()) {
+            FanOutMediaMuxer fanOutMediaMuxer = new FanOutMediaMuxer();
+            //输出文件不能丢数据
+            fanOutMediaMuxer.addSink(new MediaMuxerSink(mediaMuxer), FanOutMediaMuxer.POLICY_BLOCK);
+            for (int i = 0; i < mSampleSinks.size(); i++) {
+                fanOutMediaMuxer.addSink(mSampleSinks.get(i), mSampleSinkPolicies.get(i));
+            }
+            mediaMuxer = fanOutMediaMuxer;
+        }
+
+        if (mProfile.maxInterleaveWindowMs > 0) {
+            mediaMuxer = new InterleavingMediaMuxer(mediaMuxer, mProfile.maxInterleaveWindowMs);
+        }
+
+        if (mProfile.isRequestMuxerWriterThread) {
+            mAsyncMediaMuxer = new AsyncMediaMuxer(mediaMuxer);
+            mediaMuxer = mAsyncMediaMuxer;
+        } else {
+            mAsyncMediaMuxer = null;
+        }
+        return mediaMuxer;
+    }
+
+    /**
+     * Profile中设置了码率范围时创建码率控制，有独立写入线程时以写入队列的深度判断拥塞
+     */
+    private void setupBitrateController() {
+        mBitrateController = null;
+        if (mProfile.videoMaxBitRate > 0) {
+            if (mProfile.videoMinBitRate > 0 && mProfile.videoMinBitRate <= mProfile.videoMaxBitRate) {
+                mBitrateController = new BitrateController(mProfile.videoMinBitRate, mProfile.videoMaxBitRate,
+                        mProfile.videoBitRate);
+            } else {
+                Log.w(TAG, "bad adaptive bitrate range:" + mProfile.videoMinBitRate + "-" + mProfile.videoMaxBitRate);
+            }
+        }
+
+        BitrateController.QueueMonitor queueMonitor = null;
+        final AsyncMediaMuxer asyncMediaMuxer = mAsyncMediaMuxer;
+        if (mBitrateController != null && asyncMediaMuxer != null) {
+            queueMonitor = new BitrateController.QueueMonitor() {
+                @Override
+                public int getQueueDepth() {
+                    return asyncMediaMuxer.getQueueDepth();
+                }
+            };
+        }
+        //复用的编码器可能带着上一次录制的码率控制，每次都要重新设置
+        mVideoEncoder.setBitrateController(mBitrateController, queueMonitor);
+    }
+
+    /**
+     * 把回放缓冲区中最近的录像保存为MP4文件，不影响正在进行的录制。需要在{@link Profile.Builder#setReplayBuffer(int, int)}中开启。
+     *
+     * @param path     输出文件路径
+     * @param callBack 保存完成的回调，可以为null
+     * @return 是否开始保存
+     */
+    public boolean saveReplay(String path, ReplayMediaMuxer.CallBack callBack) {
+        final ReplayMediaMuxer replayMediaMuxer = mReplayMediaMuxer;
+        if (replayMediaMuxer == null || !isRecording) {
+            Log.w(TAG, "saveReplay replay buffer is not enabled or not recording");
+            return false;
+        }
+        replayMediaMuxer.saveReplay(path, callBack);
+        return true;
+    }
+
+    private boolean isFastStartRequested() {
+        return mProfile.isRequestFastStart && mProfile.outputFormat == Profile.OUTPUT_FORMAT_MPEG_4
+                && mProfile.segmentDurationMs <= 0 && mProfile.segmentMaxBytes <= 0;
+    }
+
+    /**
+     * 按照输出格式创建写入单个文件的Muxer
+     */
+    private IMediaMuxer createFileMediaMuxer(String path) {
+        switch (mProfile.outputFormat) {
+            case Profile.OUTPUT_FORMAT_FRAGMENTED_MPEG_4:
+                return new FragmentedMp4Muxer(path, mProfile.fragmentDurationMs);
+            case Profile.OUTPUT_FORMAT_ELEMENTARY_STREAM:
+                return new ElementaryStreamMuxer(path);
+            case Profile.OUTPUT_FORMAT_MPEG_TS:
+                return new TsMediaMuxer(path);
+            case Profile.OUTPUT_FORMAT_MPEG_4:
+            default:
+                if (mProfile.isRequestCrashRecovery) {
+                    return new JournaledMp4Muxer(path, mProfile.journalSyncInterval);
+                }
+                return new SyncMediaMuxer(path);
+        }
+    }
+
     /**
      * 更新InputSurface用于视频编码
      *
@@ -158,6 +528,9 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
      * @param surfaceTexture
      */
     public void updateInputSurfaceWindow(final int textureIndex, final SurfaceTexture surfaceTexture) {
+        if (mPauseController.isPaused()) {
+            return;
+        }
         mOffScreenWindow.update(textureIndex, surfaceTexture);
     }
 
@@ -170,16 +543,20 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
         mOffScreenWindow = new OffScreenWindow(eglContext);
     }
 
-    @Override
-    public void onPrepared(VideoEncoder videoEncoder) {
-        Log.d(TAG, "onPrepared videoEncoder");
+    private void attachInputSurface(VideoEncoder videoEncoder) {
         if (mOffScreenWindow != null) {
             mOffScreenWindow.setPreviewSize(mPreviewWidth, mPreviewHeight);
             mOffScreenWindow.setWindowSize(mProfile.videoWidth, mProfile.videoHeight);
+            mOffScreenWindow.setFrameRate(mProfile.videoFrameRate);
             mOffScreenWindow.setCallBack(videoEncoder);
             mOffScreenWindow.attachSurface(videoEncoder.getInputSurface());
         }
+    }
 
+    @Override
+    public void onPrepared(VideoEncoder videoEncoder) {
+        Log.d(TAG, "onPrepared videoEncoder");
+        attachInputSurface(videoEncoder);
         mPrepareLatch.countDown();
     }
 
@@ -199,7 +576,18 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
         }
 
         if (videoEncoder != null) {
-            videoEncoder.release();
+            long firstFrameTimeNs = videoEncoder.getFirstFrameTimeNs();
+            if (firstFrameTimeNs > 0) {
+                mTimeToFirstFrameStats.record((firstFrameTimeNs - mStartTimeNs) / 1000);
+                Log.d(TAG, "time to first frame " + mTimeToFirstFrameStats);
+            }
+
+            final EncoderPool encoderPool = mEncoderPool;
+            if (encoderPool != null) {
+                encoderPool.recycle(videoEncoder, mProfile);
+            } else {
+                videoEncoder.release();
+            }
         }
         mStopLatch.countDown();
     }
@@ -207,7 +595,24 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
 
     @Override
     public void onInfo(VideoEncoder videoEncoder, int info) {
-
+        switch (info) {
+            case VideoEncoder.INFO_BIT_RATE_CHANGED:
+                notifyRecorderInfo(INFO_VIDEO_BIT_RATE_CHANGED, videoEncoder.getCurrentBitRate());
+                break;
+            case VideoEncoder.INFO_SYNC_FRAME_REQUESTED:
+                notifyRecorderInfo(INFO_VIDEO_SYNC_FRAME_REQUESTED, 0);
+                break;
+            case VideoEncoder.INFO_INPUT_SUSPENDED:
+                notifyRecorderInfo(INFO_VIDEO_INPUT_SUSPENDED, 1);
+                break;
+            case VideoEncoder.INFO_INPUT_RESUMED:
+                notifyRecorderInfo(INFO_VIDEO_INPUT_SUSPENDED, 0);
+                break;
+            case VideoEncoder.INFO_CODEC_ERROR:
+                notifyRecorderInfo(INFO_VIDEO_CODEC_ERROR, 0);
+                break;
+            default:
+        }
     }
 
     @Override
@@ -227,12 +632,33 @@ public class MediaCodecRecorder extends VideoRecorder implements VideoEncoder.Ca
     public void onStopped(AudioEncoder audioEncoder) {
         Log.d(TAG, "onStopped audioEncoder");
         if (audioEncoder != null) {
-            audioEncoder.release();
+            final EncoderPool encoderPool = mEncoderPool;
+            if (encoderPool != null) {
+                encoderPool.recycle(audioEncoder, mProfile);
+            } else {
+                audioEncoder.release();
+            }
         }
         mStopLatch.countDown();
     }
 
     @Override
     public void onInfo(AudioEncoder audioEncoder, int info) {
+        if (info == AudioEncoder.INFO_CODEC_ERROR) {
+            notifyRecorderInfo(INFO_AUDIO_CODEC_ERROR, 0);
+        }
+    }
+
+    @Override
+    public void onSyncFrameRequested(SegmentedMediaMuxer muxer) {
+        final VideoEncoder videoEncoder = mVideoEncoder;
+        if (videoEncoder != null) {
+            videoEncoder.requestSyncFrame();
+        }
+    }
+
+    @Override
+    public void onSegmentFinished(SegmentedMediaMuxer muxer, String path, long durationUs) {
+        Log.d(TAG, "onSegmentFinished path:" + path + " durationUs:" + durationUs);
     }
 }
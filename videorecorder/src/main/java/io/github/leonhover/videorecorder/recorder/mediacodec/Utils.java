@@ -3,6 +3,11 @@ package io.github.leonhover.videorecorder.recorder.mediacodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.os.Build;
+import android.util.Log;
+
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.EncoderCapability;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.EncoderCapabilityCache;
+import io.github.leonhover.videorecorder.recorder.mediacodec.encode.EncoderScorer;
 
 import static android.media.MediaCodecList.REGULAR_CODECS;
 
@@ -15,10 +20,47 @@ public class Utils {
     private static final String TAG = "Utils";
 
     /**
-     * 根据MimeType选择合适的编码器
+     * 从{@link EncoderCapabilityCache}中选出分数最高的视频编码器，优先硬件编码器
+     *
+     * @return 编码器名称，没有合适的编码器时返回null
+     */
+    public static String chooseVideoEncoder(String mimeType, int width, int height, int frameRate, int bitRate) {
+        EncoderCapability capability = EncoderScorer.chooseVideo(EncoderCapabilityCache.getCapabilities(),
+                mimeType, width, height, frameRate, bitRate);
+        if (capability == null) {
+            Log.w(TAG, "no scored video encoder for " + mimeType + " " + width + "x" + height);
+            return chooseSuitableMediaCodecName(mimeType);
+        }
+        return capability.name;
+    }
+
+    /**
+     * 从{@link EncoderCapabilityCache}中选出分数最高的音频编码器
+     *
+     * @return 编码器名称，没有合适的编码器时返回null
+     */
+    public static String chooseAudioEncoder(String mimeType, int sampleRate, int channelCount, int bitRate) {
+        EncoderCapability capability = EncoderScorer.chooseAudio(EncoderCapabilityCache.getCapabilities(),
+                mimeType, sampleRate, channelCount, bitRate);
+        if (capability == null) {
+            Log.w(TAG, "no scored audio encoder for " + mimeType + " " + sampleRate + "Hz");
+            return chooseSuitableMediaCodecName(mimeType);
+        }
+        return capability.name;
+    }
+
+    private static String chooseSuitableMediaCodecName(String mimeType) {
+        MediaCodecInfo info = chooseSuitableMediaCodec(mimeType);
+        return info != null ? info.getName() : null;
+    }
+
+    /**
+     * 根据MimeType选择第一个支持的编码器，每次调用都会遍历MediaCodecList
      *
      * @param mimeType
      * @return MediaCodecInfo
+     * @see #chooseVideoEncoder(String, int, int, int, int)
+     * @see #chooseAudioEncoder(String, int, int, int)
      */
     public static MediaCodecInfo chooseSuitableMediaCodec(String mimeType) {
         MediaCodecInfo ret = null;
@@ -0,0 +1,217 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 按AAC帧切分PCM数据，每个MediaCodec输入Buffer正好放一帧（每个声道1024个采样），一个输入对应一个输出。
+ * <p>
+ * 采集线程每次读出的长度与AAC帧无关，例如2048字节的双声道16位PCM只有512个采样。数据直接复制到当前的输入Buffer，
+ * 凑满一帧才提交，不经过中间缓冲区。输入Buffer的时间戳是其中第一个采样的时间。
+ * 送入的时间戳与按字节数推算的时间相差超过容差时（例如暂停恢复后），先把不满一帧的数据提交，再开始新的一帧。
+ * <p>
+ * 非线程安全，需要在同一个线程调用。
+ */
+
+public class AacFrameChunker {
+
+    /**
+     * AAC-LC每帧每个声道的采样数
+     */
+    public static final int SAMPLES_PER_AAC_FRAME = 1024;
+    //时间戳容差，超过时不再拼接到当前帧
+    public static final long DEFAULT_DISCONTINUITY_US = 20 * 1000;
+
+    private final int mBytesPerSampleFrame;
+    private final int mFrameBytes;
+    private final int mBytesPerSecond;
+    private long mDiscontinuityUs = DEFAULT_DISCONTINUITY_US;
+
+    //当前正在填充的输入Buffer
+    private int mInputIndex = -1;
+    private ByteBuffer mInputBuffer;
+    private int mInputLimit;
+    private long mInputPtsUs;
+
+    private long mQueuedCount = 0;
+    private long mPartialCount = 0;
+
+    /**
+     * @param sampleRate     采样率
+     * @param channelCount   声道数
+     * @param bytesPerSample 每个采样的字节数，16位PCM为2，float为4
+     */
+    public AacFrameChunker(int sampleRate, int channelCount, int bytesPerSample) {
+        if (sampleRate <= 0 || channelCount <= 0 || bytesPerSample <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate + " channelCount:" + channelCount
+                    + " bytesPerSample:" + bytesPerSample);
+        }
+        this.mBytesPerSampleFrame = channelCount * bytesPerSample;
+        this.mFrameBytes = getFrameBytes(channelCount, bytesPerSample);
+        this.mBytesPerSecond = sampleRate * mBytesPerSampleFrame;
+    }
+
+    /**
+     * 一个AAC帧对应的PCM字节数
+     */
+    public static int getFrameBytes(int channelCount, int bytesPerSample) {
+        return SAMPLES_PER_AAC_FRAME * channelCount * bytesPerSample;
+    }
+
+    public int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * 设置时间戳容差
+     */
+    public void setDiscontinuityThreshold(long thresholdUs) {
+        this.mDiscontinuityUs = thresholdUs;
+    }
+
+    /**
+     * 送入PCM数据，凑满一帧就提交。没有空闲的输入Buffer时返回，剩下的数据由调用者稍后再送入。
+     *
+     * @param src                数据，从position开始，position前进已经处理的长度
+     * @param length             长度
+     * @param presentationTimeUs 第一个采样的时间戳
+     * @return 已经处理的字节数
+     */
+    public int feed(ByteBuffer src, int length, long presentationTimeUs, Sink sink) {
+        if (mInputIndex >= 0) {
+            long expectedUs = mInputPtsUs + toDurationUs(mInputBuffer.position());
+            if (Math.abs(presentationTimeUs - expectedUs) > mDiscontinuityUs) {
+                flush(sink);
+            }
+        }
+
+        int consumed = 0;
+        int srcLimit = src.limit();
+        while (consumed < length) {
+            if (mInputIndex < 0 && !obtainInput(sink, presentationTimeUs + toDurationUs(consumed))) {
+                break;
+            }
+            int count = Math.min(length - consumed, mInputLimit - mInputBuffer.position());
+            src.limit(src.position() + count);
+            mInputBuffer.put(src);
+            src.limit(srcLimit);
+            consumed += count;
+
+            if (mInputBuffer.position() == mInputLimit) {
+                queueInput(sink);
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * 提交不满一帧的数据
+     */
+    public void flush(Sink sink) {
+        if (mInputIndex < 0) {
+            return;
+        }
+        if (mInputBuffer.position() > 0) {
+            mPartialCount++;
+            queueInput(sink);
+        }
+    }
+
+    /**
+     * 提交剩下的数据与结束标记
+     *
+     * @param presentationTimeUs 结束标记的时间戳
+     * @return 没有空闲的输入Buffer时返回false，需要稍后再调用
+     */
+    public boolean endOfStream(long presentationTimeUs, Sink sink) {
+        flush(sink);
+        if (mInputIndex < 0 && !obtainInput(sink, presentationTimeUs)) {
+            return false;
+        }
+        sink.queueInputBuffer(mInputIndex, 0, presentationTimeUs, true);
+        mInputIndex = -1;
+        mInputBuffer = null;
+        return true;
+    }
+
+    private boolean obtainInput(Sink sink, long presentationTimeUs) {
+        int index = sink.dequeueInputBuffer();
+        if (index < 0) {
+            return false;
+        }
+        ByteBuffer inputBuffer = sink.getInputBuffer(index);
+        if (inputBuffer == null) {
+            return false;
+        }
+        inputBuffer.clear();
+        //输入Buffer比一帧小时按整数个采样填充
+        int capacity = inputBuffer.remaining() - inputBuffer.remaining() % mBytesPerSampleFrame;
+        mInputIndex = index;
+        mInputBuffer = inputBuffer;
+        mInputLimit = Math.min(mFrameBytes, capacity);
+        mInputPtsUs = presentationTimeUs;
+        return true;
+    }
+
+    private void queueInput(Sink sink) {
+        sink.queueInputBuffer(mInputIndex, mInputBuffer.position(), mInputPtsUs, false);
+        mInputIndex = -1;
+        mInputBuffer = null;
+        mQueuedCount++;
+    }
+
+    private long toDurationUs(long bytes) {
+        return bytes * 1000000L / mBytesPerSecond;
+    }
+
+    /**
+     * 已经提交的输入数量，不包括结束标记
+     */
+    public long getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * 不满一帧就提交的次数
+     */
+    public long getPartialCount() {
+        return mPartialCount;
+    }
+
+    /**
+     * 丢掉当前的状态，重新开始编码前调用，之前取得的输入Buffer不再使用
+     */
+    public void reset() {
+        mInputIndex = -1;
+        mInputBuffer = null;
+        mQueuedCount = 0;
+        mPartialCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "frameBytes:" + mFrameBytes + " queued:" + mQueuedCount + " partial:" + mPartialCount;
+    }
+
+    /**
+     * MediaCodec的输入Buffer
+     */
+    public interface Sink {
+        /**
+         * @return 空闲的输入Buffer，没有时返回负数
+         */
+        int dequeueInputBuffer();
+
+        /**
+         * @return 输入Buffer，无效时返回null
+         */
+        ByteBuffer getInputBuffer(int index);
+
+        /**
+         * @param index              输入Buffer
+         * @param length             数据长度，结束标记时为0
+         * @param presentationTimeUs 时间戳
+         * @param isEndOfStream      是否是结束标记
+         */
+        void queueInputBuffer(int index, int length, long presentationTimeUs, boolean isEndOfStream);
+    }
+}
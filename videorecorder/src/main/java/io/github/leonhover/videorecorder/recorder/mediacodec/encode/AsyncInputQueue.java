@@ -0,0 +1,206 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 异步模式下编码器输入的调度，把采集线程送来的PCM数据与MediaCodec回调给出的空闲输入Buffer配对。
+ * <p>
+ * 没有数据时空闲的输入Buffer先保留下来，等数据到达后再提交，不会提交空Buffer。数据先写入{@link PcmRingBuffer}，
+ * 采集线程可以马上复用自己的Buffer，提交时从环形缓冲区直接复制到MediaCodec的输入Buffer。
+ * 缓冲区写满说明编码跟不上，新的数据直接丢弃并计数，采集线程不会被阻塞。
+ * 结束标记不占用缓冲区，不会被丢弃，在所有已经送入的数据之后提交。
+ * <p>
+ * 指定了每次提交的字节数时（例如一个AAC帧），数据凑够才提交；时间不连续的数据段结束或者请求结束时，
+ * 不满的部分也会提交。
+ * <p>
+ * {@link #offer(ByteBuffer, int, long)}与{@link #offerEndOfStream(long)}只能在采集线程调用，
+ * 其余方法需要在MediaCodec回调的线程调用。
+ */
+
+public class AsyncInputQueue {
+
+    private final PcmRingBuffer mRingBuffer;
+    //每次提交的字节数
+    private final int mInputBytes;
+
+    //MediaCodec空闲的输入Buffer，只在回调线程使用
+    private final int[] mInputIndices;
+    private int mInputIndexStart = 0;
+    private int mInputIndexCount = 0;
+
+    private volatile boolean isEndOfStreamRequested = false;
+    private volatile long mEndOfStreamPtsUs = 0;
+    private boolean isEndOfStreamQueued = false;
+
+    private long mQueuedCount = 0;
+
+    /**
+     * @param ringBuffer    缓存PCM数据的环形缓冲区
+     * @param maxInputCount 最多保留的空闲输入Buffer数量，不小于MediaCodec的输入Buffer数量
+     */
+    public AsyncInputQueue(PcmRingBuffer ringBuffer, int maxInputCount) {
+        this(ringBuffer, maxInputCount, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param ringBuffer    缓存PCM数据的环形缓冲区
+     * @param maxInputCount 最多保留的空闲输入Buffer数量，不小于MediaCodec的输入Buffer数量
+     * @param inputBytes    每次提交的字节数，不超过环形缓冲区的容量
+     */
+    public AsyncInputQueue(PcmRingBuffer ringBuffer, int maxInputCount, int inputBytes) {
+        this.mRingBuffer = ringBuffer;
+        this.mInputIndices = new int[maxInputCount];
+        this.mInputBytes = inputBytes;
+    }
+
+    /**
+     * 送入一帧数据，数据被复制，返回后调用者可以复用data
+     *
+     * @param data               数据，从position开始
+     * @param length             长度
+     * @param presentationTimeUs 时间戳
+     * @return 缓冲区已满时丢弃并返回false
+     */
+    public boolean offer(ByteBuffer data, int length, long presentationTimeUs) {
+        if (isEndOfStreamRequested) {
+            return false;
+        }
+        return mRingBuffer.write(data, length, presentationTimeUs);
+    }
+
+    /**
+     * 请求结束，之后送入的数据都会丢弃
+     *
+     * @param presentationTimeUs 结束标记的时间戳
+     */
+    public void offerEndOfStream(long presentationTimeUs) {
+        mEndOfStreamPtsUs = presentationTimeUs;
+        isEndOfStreamRequested = true;
+    }
+
+    /**
+     * MediaCodec给出一个空闲的输入Buffer
+     */
+    public void onInputBufferAvailable(int index) {
+        if (mInputIndexCount == mInputIndices.length) {
+            //不会发生，MediaCodec的输入Buffer数量有限
+            throw new IllegalStateException("too many input buffers:" + mInputIndexCount);
+        }
+        mInputIndices[(mInputIndexStart + mInputIndexCount) % mInputIndices.length] = index;
+        mInputIndexCount++;
+    }
+
+    /**
+     * 把等待的数据提交到保留的输入Buffer中，直到数据或者输入Buffer用完
+     *
+     * @return 提交的数量，包括结束标记
+     */
+    public int drain(Sink sink) {
+        int queued = 0;
+        while (mInputIndexCount > 0) {
+            //先读结束标记再读数据量，结束标记之前写入的数据一定能看到
+            boolean isEndOfStream = isEndOfStreamRequested;
+            if (isInputReady(isEndOfStream)) {
+                int index = takeInputIndex();
+                ByteBuffer inputBuffer = sink.getInputBuffer(index);
+                if (inputBuffer == null) {
+                    continue;
+                }
+                inputBuffer.clear();
+                long presentationTimeUs = mRingBuffer.peekPresentationTimeUs();
+                int length = mRingBuffer.read(inputBuffer, Math.min(mInputBytes, inputBuffer.remaining()));
+                sink.queueInput(index, length, presentationTimeUs, false);
+            } else if (isEndOfStream && !isEndOfStreamQueued) {
+                isEndOfStreamQueued = true;
+                sink.queueInput(takeInputIndex(), 0, mEndOfStreamPtsUs, true);
+            } else {
+                break;
+            }
+            queued++;
+        }
+        mQueuedCount += queued;
+        return queued;
+    }
+
+    /**
+     * 数据凑够一次提交的长度，或者当前的数据段已经结束
+     */
+    private boolean isInputReady(boolean isEndOfStream) {
+        int available = mRingBuffer.available();
+        if (available == 0) {
+            return false;
+        }
+        if (mInputBytes == Integer.MAX_VALUE || isEndOfStream) {
+            return true;
+        }
+        int untilMark = mRingBuffer.availableUntilMark();
+        return untilMark >= mInputBytes || untilMark < available;
+    }
+
+    private int takeInputIndex() {
+        int index = mInputIndices[mInputIndexStart];
+        mInputIndexStart = (mInputIndexStart + 1) % mInputIndices.length;
+        mInputIndexCount--;
+        return index;
+    }
+
+    /**
+     * 保留的空闲输入Buffer数量
+     */
+    public int getHeldInputCount() {
+        return mInputIndexCount;
+    }
+
+    /**
+     * 等待提交的字节数
+     */
+    public int getPendingBytes() {
+        return mRingBuffer.available();
+    }
+
+    /**
+     * 因为编码跟不上而丢弃的写入次数
+     */
+    public long getDroppedCount() {
+        return mRingBuffer.getOverflowCount();
+    }
+
+    public long getQueuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * 清空等待的数据与保留的输入Buffer，重新开始编码前在回调线程调用，此时采集线程需要已经停止
+     */
+    public void reset() {
+        mRingBuffer.clear();
+        mInputIndexStart = 0;
+        mInputIndexCount = 0;
+        isEndOfStreamRequested = false;
+        isEndOfStreamQueued = false;
+        mQueuedCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "queued:" + mQueuedCount + " heldInput:" + mInputIndexCount + " pcm " + mRingBuffer;
+    }
+
+    /**
+     * 把数据提交给MediaCodec
+     */
+    public interface Sink {
+        /**
+         * @return 输入Buffer，无效时返回null
+         */
+        ByteBuffer getInputBuffer(int index);
+
+        /**
+         * @param index              输入Buffer
+         * @param length             写入输入Buffer的数据长度，结束标记时为0
+         * @param presentationTimeUs 时间戳
+         * @param isEndOfStream      是否是结束标记
+         */
+        void queueInput(int index, int length, long presentationTimeUs, boolean isEndOfStream);
+    }
+}
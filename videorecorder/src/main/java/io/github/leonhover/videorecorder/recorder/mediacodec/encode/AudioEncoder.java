@@ -14,10 +14,10 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
 
 import io.github.leonhover.videorecorder.recorder.mediacodec.Utils;
-import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.SyncMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.IMediaMuxer;
 
 /**
  * Created by wangzongliang on 2017/4/17.
@@ -27,14 +27,32 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
 
     private static final String TAG = "AudioEncoder";
 
+    /**
+     * {@link CallBack#onInfo(AudioEncoder, int)}：异步模式下编码器出错，之后不再输出数据，需要停止录制
+     */
+    public static final int INFO_CODEC_ERROR = 100;
+
     private static final String AUDIO_MIME_TYPE = "audio/mp4a-latm";
     private static final String AUDIO_ENCODING_THREAD_NAME = "audio_encoding_thread";
+    private static final String AUDIO_CODEC_CALLBACK_THREAD_NAME = "audio_codec_callback_thread";
 
     private static final int ENCODING_MSG_PREPARE = 1;
     private static final int ENCODING_MSG_START = 2;
     private static final int ENCODING_MSG_STOP = 3;
     private static final int ENCODING_MSG_AUDIO_ENCODED = 4;
     private static final int ENCODING_MSG_AUDIO_RECORDING_STOPPED = 5;
+    private static final int ENCODING_MSG_CODEC_EOS = 6;
+    private static final int ENCODING_MSG_CODEC_ERROR = 7;
+
+    //异步模式下PCM环形缓冲区可以缓存的时长，以及最多保留的空闲输入Buffer数量
+    private static final int ASYNC_PCM_BUFFER_MS = 500;
+    private static final int ASYNC_MAX_INPUT_BUFFERS = 64;
+    //16bit PCM
+    private static final int BYTES_PER_SAMPLE = 2;
+    //停止时等待编码器输出EOS的最长时间
+    private static final long EOS_TIMEOUT_MS = 2000;
+    //同步模式下等待空闲输入Buffer的时间
+    private static final long INPUT_TIMEOUT_US = 10 * 1000;
 
     private int mSampleRate;
     private int mBitRate;
@@ -46,18 +64,35 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
     private CallBack mCallBack;
 
     private MediaCodec.BufferInfo mBufferInfo;
+    //同步模式下按AAC帧填充输入Buffer，只在采集线程使用
+    private AacFrameChunker mFrameChunker;
+    private ByteBuffer[] mInputBuffers;
     private int mTrackIndex;
 
     private volatile boolean isEncoding = false;
 
     private AudioRecorder mAudioRecorder;
-    private SyncMediaMuxer mMediaMuxer;
+    private IMediaMuxer mMediaMuxer;
     private MediaCodec mMediaCodec;
+    private String mCodecName;
+    //停止后保留MediaCodec，下次prepare时重新configure
+    private boolean isReusable = false;
+    //暂停与恢复
+    private PauseController mPauseController;
+    //送入编码器之前的PCM处理
+    private PcmProcessingChain mProcessingChain;
 
     private boolean isRequestAsynchronousMode = false;
-    private ArrayBlockingQueue<AudioFrameData> mAudioFrameDataQueue;
-
-    public AudioEncoder(SyncMediaMuxer mediaMuxer) {
+    //异步模式下MediaCodec回调所在的线程，Android M以下使用编码线程
+    private HandlerThread mCodecCallbackThread;
+    private Handler mCodecCallbackHandler;
+    private PcmRingBuffer mPcmRingBuffer;
+    private AsyncInputQueue mAsyncInputQueue;
+    //异步模式下已经请求停止，等待编码器输出EOS，只在编码线程使用
+    private boolean isStopPending = false;
+    private volatile boolean isCodecError = false;
+
+    public AudioEncoder(IMediaMuxer mediaMuxer) {
         this.mMediaMuxer = mediaMuxer;
         this.mEncodingThread = new HandlerThread(AUDIO_ENCODING_THREAD_NAME);
         this.mEncodingThread.start();
@@ -73,6 +108,43 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         this.mCallBack = callBack;
     }
 
+    /**
+     * 设置编码数据写入的Muxer，复用编码器时需要在{@code start}之前重新设置
+     *
+     * @param mediaMuxer Muxer
+     */
+    public void setMediaMuxer(IMediaMuxer mediaMuxer) {
+        this.mMediaMuxer = mediaMuxer;
+    }
+
+    /**
+     * 编码器是否可以复用。可复用时停止后不释放MediaCodec与编码线程，再次{@code prepare}时重新configure，
+     * 不再使用时需要调用{@link #release()}。
+     *
+     * @param reusable true 可复用
+     */
+    public void setReusable(boolean reusable) {
+        this.isReusable = reusable;
+    }
+
+    /**
+     * 设置暂停控制，暂停期间的PCM数据不再编码，写入Muxer时去掉暂停的时长，需要在{@code start}之前调用
+     *
+     * @param pauseController 暂停控制，为null时不处理
+     */
+    public void setPauseController(PauseController pauseController) {
+        this.mPauseController = pauseController;
+    }
+
+    /**
+     * 设置PCM处理链，采集的数据先经过处理再编码，需要在{@code start}之前调用
+     *
+     * @param processingChain 处理链，为null时不处理
+     */
+    public void setProcessingChain(PcmProcessingChain processingChain) {
+        this.mProcessingChain = processingChain;
+    }
+
     /**
      * 音频采样率
      *
@@ -137,16 +209,20 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
     public void release() {
 
         mEncodingHandler.removeCallbacksAndMessages(null);
+        mEncodingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseCodec();
+            }
+        });
         mEncodingThread.quitSafely();
 
-        mCallBack = null;
-        this.isEncoding = false;
-
-        if (isAsynchronousMode()) {
-            mAudioFrameDataQueue.clear();
-            mAudioFrameDataQueue = null;
+        if (mCodecCallbackThread != null) {
+            mCodecCallbackThread.quitSafely();
         }
 
+        mCallBack = null;
+        this.isEncoding = false;
     }
 
     @Override
@@ -167,22 +243,30 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
             case ENCODING_MSG_AUDIO_RECORDING_STOPPED:
                 writeMuxerDataFromEncoding(true);
                 break;
+            case ENCODING_MSG_CODEC_EOS:
+                finishAsyncStop();
+                break;
+            case ENCODING_MSG_CODEC_ERROR:
+                handleCodecError();
+                break;
             default:
         }
         return true;
     }
 
     private void handlePrepare() {
-
+        long start = System.nanoTime();
+        boolean isReused = mMediaCodec != null;
 
         if (isAsynchronousMode()) {
-            mAudioFrameDataQueue = new ArrayBlockingQueue<AudioFrameData>(10);
+            prepareAsynchronousMode();
         } else {
             mBufferInfo = new MediaCodec.BufferInfo();
+            mFrameChunker = new AacFrameChunker(mSampleRate, mChannelCount, BYTES_PER_SAMPLE);
         }
 
-        MediaCodecInfo audioCodecInfo = Utils.chooseSuitableMediaCodec(AUDIO_MIME_TYPE);
-        if (audioCodecInfo == null) {
+        String codecName = Utils.chooseAudioEncoder(AUDIO_MIME_TYPE, mSampleRate, mChannelCount, mBitRate);
+        if (codecName == null) {
             Log.e(TAG, "unsupported mimetype :" + AUDIO_MIME_TYPE);
             return;
         }
@@ -194,8 +278,24 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         audioFormat.setInteger(MediaFormat.KEY_CHANNEL_COUNT, mChannelCount);
 
         try {
-            mMediaCodec = MediaCodec.createEncoderByType(AUDIO_MIME_TYPE);
-            mMediaCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            Log.d(TAG, "mediacodec name:" + codecName);
+            if (mMediaCodec != null && codecName.equals(mCodecName)) {
+                try {
+                    configureCodec(audioFormat);
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "reconfigure mediacodec failed, create a new one", e);
+                    releaseCodec();
+                }
+            } else {
+                releaseCodec();
+            }
+
+            if (mMediaCodec == null) {
+                isReused = false;
+                mMediaCodec = MediaCodec.createByCodecName(codecName);
+                mCodecName = codecName;
+                configureCodec(audioFormat);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -204,29 +304,87 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         mAudioRecorder.setSampleRate(mSampleRate);
         mAudioRecorder.setChannelConfig(mChannelMask);
 
+        Log.d(TAG, "prepare reused:" + isReused + " cost:" + (System.nanoTime() - start) / 1000 + "us");
         notifyEncoderCallBack(ENCODING_MSG_PREPARE);
     }
 
+    /**
+     * 异步模式需要在configure之前设置回调
+     */
+    private void configureCodec(MediaFormat format) {
+        if (isAsynchronousMode()) {
+            setMediaCodecCallBack();
+        }
+        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+
+    /**
+     * 停止MediaCodec，可复用时保留，否则直接释放
+     */
+    private void stopCodec() {
+        try {
+            mMediaCodec.stop();
+        } catch (IllegalStateException e) {
+            //出错后的MediaCodec可能无法stop，直接释放
+            Log.w(TAG, "stop mediacodec failed", e);
+            releaseCodec();
+            return;
+        }
+        if (!isReusable) {
+            releaseCodec();
+        }
+    }
+
+    private void releaseCodec() {
+        if (mMediaCodec != null) {
+            mMediaCodec.release();
+            mMediaCodec = null;
+            mCodecName = null;
+        }
+    }
+
     private void handleStart() {
         isEncoding = true;
-        mAudioRecorder.start();
+        isStopPending = false;
+        isCodecError = false;
         if (isAsynchronousMode()) {
-            setMediaCodecCallBack();
+            //在回调线程清空上一次录制的数据，完成后才开始采集
+            final AsyncInputQueue asyncInputQueue = mAsyncInputQueue;
+            runOnCodecCallbackThread(new Runnable() {
+                @Override
+                public void run() {
+                    asyncInputQueue.reset();
+                }
+            });
         }
         mMediaCodec.start();
+        if (mProcessingChain != null) {
+            //复用的编码器可能更换过处理链，每次开始时重新配置
+            mProcessingChain.configure(mSampleRate, mChannelCount);
+        }
+        if (!isAsynchronousMode()) {
+            mFrameChunker.reset();
+            mInputBuffers = mMediaCodec.getInputBuffers();
+        }
+        mAudioRecorder.start();
         notifyEncoderCallBack(ENCODING_MSG_START);
     }
 
 
     private void handleStop() {
+        //异步模式下AudioRecorder停止时送入结束标记
         mAudioRecorder.stop();
         if (isAsynchronousMode()) {
-            // just wait encoding eos.
+            isStopPending = true;
+            if (isCodecError) {
+                finishAsyncStop();
+            } else {
+                mEncodingHandler.sendEmptyMessageDelayed(ENCODING_MSG_CODEC_EOS, EOS_TIMEOUT_MS);
+            }
         } else {
             writeMuxerDataFromEncoding(true);
             mMediaCodec.flush();
-            mMediaCodec.stop();
-            mMediaCodec.release();
+            stopCodec();
             notifyEncoderCallBack(ENCODING_MSG_STOP);
         }
     }
@@ -254,12 +412,43 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         }
     }
 
+    /**
+     * 异步模式下收到EOS或者等待超时后停止MediaCodec，只处理一次
+     */
+    private void finishAsyncStop() {
+        if (!isStopPending) {
+            return;
+        }
+        isStopPending = false;
+        mEncodingHandler.removeMessages(ENCODING_MSG_CODEC_EOS);
+        isEncoding = false;
+        Log.d(TAG, "finishAsyncStop input " + mAsyncInputQueue);
+        stopCodec();
+        notifyEncoderCallBack(ENCODING_MSG_STOP);
+    }
+
+    private void handleCodecError() {
+        notifyEncoderCallBack(INFO_CODEC_ERROR);
+        finishAsyncStop();
+    }
+
     @Override
     public void onAudioDataReceived(ByteBuffer byteBuffer, int length, long presentationTime) {
-        Log.d(TAG, "onAudioDataReceived");
+        final PauseController pauseController = mPauseController;
+        if (pauseController != null && pauseController.adjust(presentationTime) == PauseController.DROP) {
+            //暂停中，丢弃
+            return;
+        }
+        final PcmProcessingChain processingChain = mProcessingChain;
+        if (processingChain != null) {
+            processingChain.process(byteBuffer, length);
+        }
         if (isAsynchronousMode()) {
-            enterFrameQueue(byteBuffer, length, presentationTime);
+            if (!isCodecError && mAsyncInputQueue.offer(byteBuffer, length, presentationTime)) {
+                mCodecCallbackHandler.post(mDrainInputRunnable);
+            }
         } else {
+            Log.d(TAG, "onAudioDataReceived");
             encode(byteBuffer, length, presentationTime);
             mEncodingHandler.sendEmptyMessage(ENCODING_MSG_AUDIO_ENCODED);
         }
@@ -269,45 +458,57 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
     public void onAudioRecorderStopped(long presentation) {
         Log.d(TAG, "onAudioRecorderStopped");
         if (isAsynchronousMode()) {
-            enterFrameQueue(null, 0, presentation);
+            mAsyncInputQueue.offerEndOfStream(presentation);
+            mCodecCallbackHandler.post(mDrainInputRunnable);
         } else {
             encode(null, 0, presentation);
             mEncodingHandler.sendEmptyMessage(ENCODING_MSG_AUDIO_RECORDING_STOPPED);
         }
     }
 
+    /**
+     * 同步模式下把PCM数据按AAC帧写入输入Buffer，凑满一帧才提交，byteBuffer为null时提交剩下的数据与结束标记
+     */
     private void encode(ByteBuffer byteBuffer, int length, long presentationTime) {
-        Log.d(TAG, "encode length:" + length + ",presentationTime:" + presentationTime);
         if (!isEncoding) {
             return;
         }
-        final ByteBuffer[] inputBuffers = mMediaCodec.getInputBuffers();
-        while (isEncoding) {
-            final int inputBufferIndex = mMediaCodec.dequeueInputBuffer(10);
-            if (inputBufferIndex >= 0) {
-                final ByteBuffer inputBuffer = inputBuffers[inputBufferIndex];
-                inputBuffer.clear();
-                if (byteBuffer != null) {
-                    inputBuffer.put(byteBuffer);
-                }
-                if (length <= 0) {
-                    Log.e(TAG, "audio end of stream");
-                    mMediaCodec.queueInputBuffer(inputBufferIndex, 0, 0,
-                            presentationTime, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                } else {
-                    Log.d(TAG, "queueInputBuffer");
-                    mMediaCodec.queueInputBuffer(inputBufferIndex, 0, length,
-                            presentationTime, 0);
-                }
-                break;
-            } else if (inputBufferIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // wait for MediaCodec encoder is ready to encode
-                // nothing to do here because MediaCodec#dequeueInputBuffer(TIMEOUT_USEC)
-                // will wait for maximum TIMEOUT_USEC(10msec) on each call
+        if (byteBuffer == null) {
+            Log.d(TAG, "audio end of stream " + mFrameChunker);
+            while (isEncoding && !mFrameChunker.endOfStream(presentationTime, mSyncInputSink)) {
+                //dequeueInputBuffer每次最多等待INPUT_TIMEOUT_US
             }
+            return;
+        }
+        int offset = 0;
+        while (isEncoding && offset < length) {
+            //剩下的数据从offset开始，时间戳按字节数推算
+            long offsetUs = offset * 1000000L / (mSampleRate * mChannelCount * BYTES_PER_SAMPLE);
+            offset += mFrameChunker.feed(byteBuffer, length - offset, presentationTime + offsetUs, mSyncInputSink);
         }
     }
 
+    /**
+     * 同步模式下的输入Buffer，在采集线程使用
+     */
+    private final AacFrameChunker.Sink mSyncInputSink = new AacFrameChunker.Sink() {
+        @Override
+        public int dequeueInputBuffer() {
+            return mMediaCodec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return mInputBuffers[index];
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int length, long presentationTimeUs, boolean isEndOfStream) {
+            mMediaCodec.queueInputBuffer(index, 0, length, presentationTimeUs,
+                    isEndOfStream ? MediaCodec.BUFFER_FLAG_END_OF_STREAM : 0);
+        }
+    };
+
     /**
      * 编码后的数据写入Muxer中
      */
@@ -332,7 +533,7 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
                 ByteBuffer encodedData = outputBuffers[outputBufferIndex];
 
                 if (mBufferInfo.size != 0) {
-                    mMediaMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
+                    writeEncodedData(encodedData, mBufferInfo);
                 }
 
                 mMediaCodec.releaseOutputBuffer(outputBufferIndex, false);
@@ -359,85 +560,148 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         }
     }
 
+    /**
+     * 写入Muxer，暂停期间的数据丢弃，之后的数据去掉暂停的时长
+     */
+    private void writeEncodedData(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        final PauseController pauseController = mPauseController;
+        if (pauseController != null) {
+            long presentationTimeUs = pauseController.adjust(bufferInfo.presentationTimeUs);
+            if (presentationTimeUs == PauseController.DROP) {
+                return;
+            }
+            bufferInfo.presentationTimeUs = presentationTimeUs;
+        }
+        mMediaMuxer.writeSampleData(mTrackIndex, encodedData, bufferInfo);
+    }
+
     @Override
     public void onAudioRecorderError() {
 
     }
 
-    private void enterFrameQueue(ByteBuffer byteBuffer, int length, long presentationTime) {
-        Log.d(TAG, "enterFrameQueue");
-        AudioFrameData frameData = new AudioFrameData();
-        frameData.byteBuffer = byteBuffer;
-        frameData.length = length;
-        frameData.presentationTime = presentationTime;
-
-        mAudioFrameDataQueue.offer(frameData);
-
+    /**
+     * 创建异步模式使用的输入队列与回调线程。Android M以上MediaCodec的回调在单独的线程中执行，
+     * 不会被编码线程上的prepare、参数修改等阻塞；M以下回调只能在创建MediaCodec的编码线程执行。
+     */
+    private void prepareAsynchronousMode() {
+        int bytesPerSecond = mSampleRate * mChannelCount * BYTES_PER_SAMPLE;
+        if (mPcmRingBuffer == null || mPcmRingBuffer.getBytesPerSecond() != bytesPerSecond) {
+            //每个输入Buffer正好一个AAC帧
+            int frameBytes = AacFrameChunker.getFrameBytes(mChannelCount, BYTES_PER_SAMPLE);
+            int capacity = bytesPerSecond * ASYNC_PCM_BUFFER_MS / 1000;
+            mPcmRingBuffer = new PcmRingBuffer(Math.max(capacity, frameBytes * 2), bytesPerSecond);
+            mAsyncInputQueue = new AsyncInputQueue(mPcmRingBuffer, ASYNC_MAX_INPUT_BUFFERS, frameBytes);
+        }
+        if (mCodecCallbackHandler == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                mCodecCallbackThread = new HandlerThread(AUDIO_CODEC_CALLBACK_THREAD_NAME);
+                mCodecCallbackThread.start();
+                mCodecCallbackHandler = new Handler(mCodecCallbackThread.getLooper());
+            } else {
+                mCodecCallbackHandler = mEncodingHandler;
+            }
+        }
     }
 
-    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private void setMediaCodecCallBack() {
+    private final Runnable mDrainInputRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mAsyncInputQueue.drain(mInputSink);
+        }
+    };
 
-        mMediaCodec.setCallback(new MediaCodec.Callback() {
+    /**
+     * 在回调线程执行并等待完成，回调线程就是当前线程时直接执行
+     */
+    private void runOnCodecCallbackThread(final Runnable runnable) {
+        if (mCodecCallbackHandler == mEncodingHandler) {
+            runnable.run();
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        mCodecCallbackHandler.post(new Runnable() {
             @Override
-            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-                Log.d(TAG, "onInputBufferAvailable index:" + index);
-                ByteBuffer byteBuffer = codec.getInputBuffer(index);
-                if (byteBuffer == null) {
-                    return;
-                }
-
-                Log.d(TAG, "frameDataQueue size:" + mAudioFrameDataQueue.size());
+            public void run() {
+                runnable.run();
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "runOnCodecCallbackThread interrupted", e);
+        }
+    }
 
-                AudioFrameData frameData = mAudioFrameDataQueue.poll();
+    /**
+     * 在回调线程把PCM数据提交给MediaCodec
+     */
+    private final AsyncInputQueue.Sink mInputSink = new AsyncInputQueue.Sink() {
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            final MediaCodec codec = mMediaCodec;
+            try {
+                return codec != null ? codec.getInputBuffer(index) : null;
+            } catch (IllegalStateException e) {
+                //出错或者已经停止
+                Log.w(TAG, "getInputBuffer failed", e);
+                return null;
+            }
+        }
 
-                if (frameData != null) {
-                    if (frameData.length > 0) {
-                        byteBuffer.put(frameData.byteBuffer);
-                        mMediaCodec.queueInputBuffer(index, 0, frameData.length,
-                                frameData.presentationTime, 0);
-                    } else {
-                        mMediaCodec.queueInputBuffer(index, 0, 0,
-                                frameData.presentationTime, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    }
+        @Override
+        public void queueInput(int index, int length, long presentationTimeUs, boolean isEndOfStream) {
+            final MediaCodec codec = mMediaCodec;
+            if (codec == null) {
+                return;
+            }
+            try {
+                if (isEndOfStream) {
+                    Log.d(TAG, "audio end of stream");
+                    codec.queueInputBuffer(index, 0, 0, presentationTimeUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
                 } else {
-                    mMediaCodec.queueInputBuffer(index, 0, 0,
-                            0, 0);
+                    codec.queueInputBuffer(index, 0, length, presentationTimeUs, 0);
                 }
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "queueInputBuffer failed", e);
+            }
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void setMediaCodecCallBack() {
+        MediaCodec.Callback callback = new MediaCodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+                //没有数据时保留输入Buffer，等数据到达后再提交
+                mAsyncInputQueue.onInputBufferAvailable(index);
+                mAsyncInputQueue.drain(mInputSink);
             }
 
             @Override
             public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
-                Log.d(TAG, "onOutputBufferAvailable index:" + index);
-                if (index >= 0) {
-
-                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        mBufferInfo.size = 0;
-                    }
-
-                    ByteBuffer outputBuffer = codec.getOutputBuffer(index);
-
-                    if (info.size != 0) {
-                        mMediaMuxer.writeSampleData(mTrackIndex, outputBuffer, info);
-                    }
-
-                    mMediaCodec.releaseOutputBuffer(index, false);
-
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        Log.e(TAG, "Encoding  end of stream");
-                        isEncoding = false;
-                        mMediaCodec.flush();
-                        mMediaCodec.stop();
-                        mMediaCodec.release();
-                        notifyEncoderCallBack(ENCODING_MSG_STOP);
-                    }
+                ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+                if (outputBuffer != null && info.size != 0
+                        && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                    writeEncodedData(outputBuffer, info);
                 }
+                codec.releaseOutputBuffer(index, false);
 
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "Encoding end of stream");
+                    //停止MediaCodec需要在编码线程执行
+                    mEncodingHandler.sendEmptyMessage(ENCODING_MSG_CODEC_EOS);
+                }
             }
 
             @Override
             public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
-                Log.d(TAG, "onError");
+                Log.e(TAG, "onError recoverable:" + e.isRecoverable() + " transient:" + e.isTransient()
+                        + " " + e.getDiagnosticInfo(), e);
+                isCodecError = true;
+                mEncodingHandler.sendEmptyMessage(ENCODING_MSG_CODEC_ERROR);
             }
 
             @Override
@@ -446,8 +710,18 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
                 mTrackIndex = mMediaMuxer.addAudioTrack(format);
                 mMediaMuxer.start();
             }
-        });
+        };
 
+        if (mCodecCallbackHandler != mEncodingHandler) {
+            setCallbackWithHandler(callback);
+        } else {
+            mMediaCodec.setCallback(callback);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setCallbackWithHandler(MediaCodec.Callback callback) {
+        mMediaCodec.setCallback(callback, mCodecCallbackHandler);
     }
 
     private boolean isLollipop() {
@@ -458,12 +732,6 @@ public class AudioEncoder implements Handler.Callback, AudioRecorder.IAudioDataR
         return isLollipop() && isRequestAsynchronousMode;
     }
 
-    private static class AudioFrameData {
-        ByteBuffer byteBuffer;
-        int length;
-        long presentationTime;
-    }
-
     public interface CallBack {
         void onPrepared(AudioEncoder audioEncoder);
 
@@ -33,6 +33,9 @@ public class AudioRecorder implements Runnable {
 
     private final Object mLocker = new Object();
 
+    //按采样数生成时间戳，读出时刻的抖动不会进入时间戳
+    private AudioTimestampGenerator mTimestampGenerator;
+
     private IAudioDataReceiver mAudioDataReceiver;
 
     public interface IAudioDataReceiver {
@@ -136,6 +139,9 @@ public class AudioRecorder implements Runnable {
         }
 
         final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(SAMPLES_PER_FRAME);
+        //16位PCM，每个采样2字节
+        int bytesPerFrame = Integer.bitCount(mChannelConfig) * 2;
+        mTimestampGenerator = new AudioTimestampGenerator(mSampleRate);
 
         try {
             while (isRecording && !isErrorOccur) {
@@ -144,11 +150,15 @@ public class AudioRecorder implements Runnable {
                 if (length > 0 && mAudioDataReceiver != null) {
                     byteBuffer.position(length);
                     byteBuffer.flip();
-                    mAudioDataReceiver.onAudioDataReceived(byteBuffer, length, getSystemMicroTime());
+                    long presentationTime = mTimestampGenerator.onSamples(length / bytesPerFrame, getSystemMicroTime());
+                    mAudioDataReceiver.onAudioDataReceived(byteBuffer, length, presentationTime);
                 }
             }
+            Log.d(TAG, " audio timestamp " + mTimestampGenerator);
             if (mAudioDataReceiver != null) {
-                mAudioDataReceiver.onAudioRecorderStopped(getSystemMicroTime());
+                long presentationTime = mTimestampGenerator.getSampleCount() > 0
+                        ? mTimestampGenerator.getNextPresentationTimeUs() : getSystemMicroTime();
+                mAudioDataReceiver.onAudioRecorderStopped(presentationTime);
             }
 
             synchronized (mLocker) {
@@ -0,0 +1,166 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 按采样数生成音频时间戳。第一次读出时用单调时钟确定起点，之后的时间戳等于起点加上累计采样数对应的时长，
+ * 读出时刻的调度抖动不会进入时间戳。
+ * <p>
+ * 录音设备的采样时钟与单调时钟存在偏差，长时间录制后音视频会逐渐错开。每次读出时比较推算的时间与单调时钟，
+ * 平滑后得到偏差，以不超过{@link #setMaxSlewPpm(int) 最大修正速率}的速度修正，时间戳保持递增且每帧的间隔变化很小。
+ * 偏差超过{@link #setResyncThreshold(long) 重新同步阈值}时（例如采集中断丢了数据）直接重新确定起点，
+ * 新的起点不早于上一次读出的数据结束的时间。
+ * <p>
+ * 纯Java实现，时间由调用者传入，可以在JVM上用模拟的时钟测试。非线程安全，需要在采集线程调用。
+ */
+
+public class AudioTimestampGenerator {
+
+    //默认最多按0.1%的速率修正，1秒的音频最多修正1ms
+    public static final int DEFAULT_MAX_SLEW_PPM = 1000;
+    public static final long DEFAULT_RESYNC_THRESHOLD_US = 200 * 1000;
+    //偏差的平滑系数，约等于平均最近这么多次读出
+    private static final int ERROR_SMOOTHING = 32;
+
+    private final int mSampleRate;
+    private int mMaxSlewPpm = DEFAULT_MAX_SLEW_PPM;
+    private long mResyncThresholdUs = DEFAULT_RESYNC_THRESHOLD_US;
+
+    private boolean isAnchored = false;
+    private long mAnchorUs;
+    private long mSampleCount;
+    private long mCorrectionUs;
+    private long mSmoothedErrorUs;
+    private long mLastErrorUs;
+    //上一次读出的时间戳与时长
+    private long mLastPtsUs;
+    private long mLastDurationUs;
+    private int mResyncCount;
+
+    /**
+     * @param sampleRate 采样率
+     */
+    public AudioTimestampGenerator(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("bad sample rate:" + sampleRate);
+        }
+        this.mSampleRate = sampleRate;
+    }
+
+    /**
+     * 最大修正速率，单位百万分之一，为0时不修正
+     */
+    public void setMaxSlewPpm(int ppm) {
+        this.mMaxSlewPpm = ppm;
+    }
+
+    /**
+     * 偏差超过阈值时重新确定起点
+     */
+    public void setResyncThreshold(long thresholdUs) {
+        this.mResyncThresholdUs = thresholdUs;
+    }
+
+    /**
+     * 记录一次读出的采样
+     *
+     * @param sampleCount 每个声道的采样数
+     * @param clockUs     读出完成时的单调时钟，System.nanoTime()/1000
+     * @return 这次读出的第一个采样的时间戳
+     */
+    public long onSamples(int sampleCount, long clockUs) {
+        long durationUs = toDurationUs(sampleCount);
+        //按时钟估计的第一个采样的时间
+        long clockStartUs = clockUs - durationUs;
+
+        if (!isAnchored) {
+            isAnchored = true;
+            mAnchorUs = clockStartUs;
+            mSampleCount = 0;
+            mCorrectionUs = 0;
+            mSmoothedErrorUs = 0;
+            mLastErrorUs = 0;
+        }
+
+        long ptsUs = getNextPresentationTimeUs();
+        long errorUs = clockStartUs - ptsUs;
+        mLastErrorUs = errorUs;
+
+        if (Math.abs(errorUs) > mResyncThresholdUs) {
+            //采集中断或者时钟跳变，重新确定起点
+            mResyncCount++;
+            ptsUs = clockStartUs;
+            if (mSampleCount > 0) {
+                //时钟向回跳变时不早于上一次读出的数据结束的时间，时间戳保持递增
+                ptsUs = Math.max(ptsUs, mLastPtsUs + mLastDurationUs);
+            }
+            mAnchorUs = ptsUs - toDurationUs(mSampleCount);
+            mCorrectionUs = 0;
+            mSmoothedErrorUs = 0;
+        } else {
+            mSmoothedErrorUs += (errorUs - mSmoothedErrorUs) / ERROR_SMOOTHING;
+            long maxStepUs = durationUs * mMaxSlewPpm / 1000000L;
+            long stepUs = Math.max(-maxStepUs, Math.min(maxStepUs, mSmoothedErrorUs));
+            mCorrectionUs += stepUs;
+            //已经修正的部分从平滑后的偏差中扣除，避免重复修正
+            mSmoothedErrorUs -= stepUs;
+        }
+
+        mSampleCount += sampleCount;
+        mLastPtsUs = ptsUs;
+        mLastDurationUs = durationUs;
+        return ptsUs;
+    }
+
+    /**
+     * 下一个采样的时间戳，还没有读出过时返回0
+     */
+    public long getNextPresentationTimeUs() {
+        if (!isAnchored) {
+            return 0;
+        }
+        return mAnchorUs + toDurationUs(mSampleCount) + mCorrectionUs;
+    }
+
+    /**
+     * 累计的修正量，正数表示时间戳被推后
+     */
+    public long getCorrectionUs() {
+        return mCorrectionUs;
+    }
+
+    /**
+     * 最近一次读出时单调时钟与推算时间的差
+     */
+    public long getLastErrorUs() {
+        return mLastErrorUs;
+    }
+
+    public int getResyncCount() {
+        return mResyncCount;
+    }
+
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * 开始新的录制时调用，下一次读出重新确定起点
+     */
+    public void reset() {
+        isAnchored = false;
+        mSampleCount = 0;
+        mCorrectionUs = 0;
+        mSmoothedErrorUs = 0;
+        mLastErrorUs = 0;
+        mResyncCount = 0;
+    }
+
+    private long toDurationUs(long sampleCount) {
+        return sampleCount * 1000000L / mSampleRate;
+    }
+
+    @Override
+    public String toString() {
+        return "samples:" + mSampleCount + " correction:" + mCorrectionUs + "us lastError:" + mLastErrorUs
+                + "us resync:" + mResyncCount;
+    }
+}
@@ -0,0 +1,196 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 视频码率自适应控制，AIMD策略：Muxer队列堆积或写入变慢时按比例降低码率，恢复通畅并保持一段时间后按固定步长升高码率。
+ * 编码器实际输出的码率明显低于目标码率时（画面简单）不再升高，避免画面变复杂时突然超出写入能力。
+ * <p>
+ * 纯Java实现，时间由调用者传入，相同的输入总是得到相同的输出，可以在JVM上模拟测试。非线程安全，需要在同一个线程调用。
+ */
+
+public class BitrateController {
+
+    public static final long DEFAULT_UPDATE_INTERVAL_MS = 500;
+    public static final int DEFAULT_QUEUE_LOW_WATERMARK = 4;
+    public static final int DEFAULT_QUEUE_HIGH_WATERMARK = 16;
+    public static final long DEFAULT_WRITE_LATENCY_THRESHOLD_US = 50 * 1000;
+
+    //拥塞时码率乘以这个系数
+    private static final float DECREASE_FACTOR = 0.75f;
+    //每次升高最大码率的5%
+    private static final int INCREASE_STEP_DIVISOR = 20;
+    //降低码率后至少等待这么久才能升高
+    private static final long INCREASE_HOLD_MS = 2000;
+    //实际码率低于目标码率的这个比例时不再升高
+    private static final float UNDERSHOOT_RATIO = 0.7f;
+
+    private final int mMinBitRate;
+    private final int mMaxBitRate;
+
+    private long mUpdateIntervalMs = DEFAULT_UPDATE_INTERVAL_MS;
+    private int mQueueLowWatermark = DEFAULT_QUEUE_LOW_WATERMARK;
+    private int mQueueHighWatermark = DEFAULT_QUEUE_HIGH_WATERMARK;
+    private long mWriteLatencyThresholdUs = DEFAULT_WRITE_LATENCY_THRESHOLD_US;
+
+    private int mBitRate;
+    private long mLastUpdateMs = -1;
+    private long mLastDecreaseMs = Long.MIN_VALUE / 2;
+
+    //当前统计窗口内的数据
+    private long mWindowBytes = 0;
+    private long mWindowFirstPtsUs = -1;
+    private long mWindowLastPtsUs = -1;
+    private int mWindowFrames = 0;
+    private long mWindowMaxWriteLatencyUs = 0;
+
+    private int mMeasuredBitRate = 0;
+    private int mDecreaseCount = 0;
+    private int mIncreaseCount = 0;
+
+    /**
+     * @param minBitRate     最低码率
+     * @param maxBitRate     最高码率
+     * @param initialBitRate 初始码率，超出范围时取边界值
+     */
+    public BitrateController(int minBitRate, int maxBitRate, int initialBitRate) {
+        if (minBitRate <= 0 || maxBitRate < minBitRate) {
+            throw new IllegalArgumentException("bad bitrate range:" + minBitRate + "-" + maxBitRate);
+        }
+        this.mMinBitRate = minBitRate;
+        this.mMaxBitRate = maxBitRate;
+        this.mBitRate = clamp(initialBitRate);
+    }
+
+    /**
+     * 两次调整之间的最短间隔
+     */
+    public void setUpdateInterval(long intervalMs) {
+        this.mUpdateIntervalMs = intervalMs;
+    }
+
+    /**
+     * Muxer队列深度的阈值，不低于high视为拥塞，不高于low才允许升高码率
+     */
+    public void setQueueWatermarks(int low, int high) {
+        this.mQueueLowWatermark = low;
+        this.mQueueHighWatermark = high;
+    }
+
+    /**
+     * 单帧写入Muxer耗时的阈值，窗口内超过阈值视为拥塞，低于一半才允许升高码率
+     */
+    public void setWriteLatencyThreshold(long latencyUs) {
+        this.mWriteLatencyThresholdUs = latencyUs;
+    }
+
+    /**
+     * 记录一帧编码数据
+     *
+     * @param sizeBytes          编码后的大小
+     * @param presentationTimeUs 显示时间
+     * @param writeLatencyUs     写入Muxer的耗时
+     */
+    public void onFrameEncoded(int sizeBytes, long presentationTimeUs, long writeLatencyUs) {
+        if (mWindowFirstPtsUs < 0) {
+            mWindowFirstPtsUs = presentationTimeUs;
+        }
+        mWindowLastPtsUs = presentationTimeUs;
+        mWindowBytes += sizeBytes;
+        mWindowFrames++;
+        mWindowMaxWriteLatencyUs = Math.max(mWindowMaxWriteLatencyUs, writeLatencyUs);
+    }
+
+    /**
+     * 根据当前窗口的统计调整码率，距离上次调整不足间隔时保持不变
+     *
+     * @param nowMs      当前时间
+     * @param queueDepth Muxer中等待写入的Sample数量
+     * @return 调整后的码率
+     */
+    public int update(long nowMs, int queueDepth) {
+        if (mLastUpdateMs < 0) {
+            mLastUpdateMs = nowMs;
+            return mBitRate;
+        }
+        if (nowMs - mLastUpdateMs < mUpdateIntervalMs) {
+            return mBitRate;
+        }
+        mLastUpdateMs = nowMs;
+
+        //窗口内的帧数不足时按帧率估计最后一帧的时长
+        long spanUs = mWindowFrames > 1
+                ? (mWindowLastPtsUs - mWindowFirstPtsUs) * mWindowFrames / (mWindowFrames - 1) : 0;
+        if (spanUs > 0) {
+            mMeasuredBitRate = (int) Math.min(Integer.MAX_VALUE, mWindowBytes * 8 * 1000000L / spanUs);
+        }
+
+        boolean isCongested = queueDepth >= mQueueHighWatermark
+                || mWindowMaxWriteLatencyUs >= mWriteLatencyThresholdUs;
+        boolean isClear = queueDepth <= mQueueLowWatermark
+                && mWindowMaxWriteLatencyUs < mWriteLatencyThresholdUs / 2;
+
+        if (isCongested) {
+            //以实际码率和目标码率中较低的为基准，编码器超出目标码率时也能有效降低
+            int base = mMeasuredBitRate > 0 ? Math.min(mBitRate, mMeasuredBitRate) : mBitRate;
+            int bitRate = clamp((int) (base * DECREASE_FACTOR));
+            if (bitRate < mBitRate) {
+                mBitRate = bitRate;
+                mDecreaseCount++;
+            }
+            mLastDecreaseMs = nowMs;
+        } else if (isClear && nowMs - mLastDecreaseMs >= INCREASE_HOLD_MS
+                && (mMeasuredBitRate == 0 || mMeasuredBitRate >= mBitRate * UNDERSHOOT_RATIO)) {
+            int bitRate = clamp(mBitRate + mMaxBitRate / INCREASE_STEP_DIVISOR);
+            if (bitRate > mBitRate) {
+                mBitRate = bitRate;
+                mIncreaseCount++;
+            }
+        }
+
+        resetWindow();
+        return mBitRate;
+    }
+
+    public int getBitRate() {
+        return mBitRate;
+    }
+
+    /**
+     * 上一个窗口内编码器实际输出的码率，未知时为0
+     */
+    public int getMeasuredBitRate() {
+        return mMeasuredBitRate;
+    }
+
+    public int getDecreaseCount() {
+        return mDecreaseCount;
+    }
+
+    public int getIncreaseCount() {
+        return mIncreaseCount;
+    }
+
+    private void resetWindow() {
+        mWindowBytes = 0;
+        mWindowFirstPtsUs = -1;
+        mWindowLastPtsUs = -1;
+        mWindowFrames = 0;
+        mWindowMaxWriteLatencyUs = 0;
+    }
+
+    private int clamp(int bitRate) {
+        return Math.max(mMinBitRate, Math.min(mMaxBitRate, bitRate));
+    }
+
+    @Override
+    public String toString() {
+        return "bitRate:" + mBitRate + " measured:" + mMeasuredBitRate + " decrease:" + mDecreaseCount
+                + " increase:" + mIncreaseCount;
+    }
+
+    /**
+     * 提供Muxer中等待写入的Sample数量
+     */
+    public interface QueueMonitor {
+        int getQueueDepth();
+    }
+}
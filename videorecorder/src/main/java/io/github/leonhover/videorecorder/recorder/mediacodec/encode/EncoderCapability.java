@@ -0,0 +1,239 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 一个编码器对某个MimeType的能力摘要，从MediaCodecInfo中提取，可以序列化为一行文本保存在缓存文件中。
+ * 纯Java类，不依赖Android的MediaCodec，方便评分逻辑在JVM上测试。
+ * <p>
+ * 文本格式为分号分隔的key=value，例如：
+ * <pre>
+ * name=OMX.qcom.video.encoder.avc;mime=video/avc;hardware=1;profiles=1:2048,8:2048;colors=2130708361;
+ * bitrateModes=6;width=96-4096;height=96-2160;pixelRate=497664000;bitrate=1-100000000
+ * </pre>
+ */
+
+public class EncoderCapability {
+
+    public static final int BITRATE_MODE_CQ = 1;
+    public static final int BITRATE_MODE_VBR = 1 << 1;
+    public static final int BITRATE_MODE_CBR = 1 << 2;
+
+    private static final int[] EMPTY = new int[0];
+
+    public String name;
+    public String mimeType;
+    public boolean isHardware;
+
+    /**
+     * 支持的profile以及对应的最高level，两个数组一一对应
+     */
+    public int[] profiles = EMPTY;
+    public int[] levels = EMPTY;
+    public int[] colorFormats = EMPTY;
+    /**
+     * {@link #BITRATE_MODE_CQ}、{@link #BITRATE_MODE_VBR}、{@link #BITRATE_MODE_CBR}的组合
+     */
+    public int bitrateModes;
+
+    public int minWidth;
+    public int maxWidth;
+    public int minHeight;
+    public int maxHeight;
+    /**
+     * 每秒最多可以编码的像素数，用来估计某个尺寸下支持的帧率，0表示未知
+     */
+    public long maxPixelRate;
+
+    public int minBitrate;
+    public int maxBitrate;
+
+    /**
+     * 音频支持的采样率，为空表示支持一个连续的范围，不做限制
+     */
+    public int[] sampleRates = EMPTY;
+    public int maxChannelCount;
+
+    public boolean hasProfile(int profile) {
+        for (int p : profiles) {
+            if (p == profile) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasColorFormat(int colorFormat) {
+        for (int c : colorFormats) {
+            if (c == colorFormat) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isSizeSupported(int width, int height) {
+        if (maxWidth == 0 || maxHeight == 0) {
+            //没有尺寸信息
+            return true;
+        }
+        return width >= minWidth && width <= maxWidth && height >= minHeight && height <= maxHeight;
+    }
+
+    public boolean isSizeAndRateSupported(int width, int height, int frameRate) {
+        if (!isSizeSupported(width, height)) {
+            return false;
+        }
+        return maxPixelRate == 0 || (long) width * height * frameRate <= maxPixelRate;
+    }
+
+    public boolean isSampleRateSupported(int sampleRate) {
+        if (sampleRates.length == 0) {
+            return true;
+        }
+        for (int rate : sampleRates) {
+            if (rate == sampleRate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isBitrateSupported(int bitrate) {
+        return maxBitrate == 0 || (bitrate >= minBitrate && bitrate <= maxBitrate);
+    }
+
+    public boolean isVideo() {
+        return mimeType != null && mimeType.startsWith("video/");
+    }
+
+    /**
+     * 序列化为一行文本
+     */
+    public String toLine() {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append("name=").append(name)
+                .append(";mime=").append(mimeType)
+                .append(";hardware=").append(isHardware ? 1 : 0);
+        if (profiles.length > 0) {
+            builder.append(";profiles=");
+            for (int i = 0; i < profiles.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(profiles[i]).append(':').append(levels[i]);
+            }
+        }
+        appendInts(builder, "colors", colorFormats);
+        builder.append(";bitrateModes=").append(bitrateModes);
+        if (maxWidth > 0) {
+            builder.append(";width=").append(minWidth).append('-').append(maxWidth)
+                    .append(";height=").append(minHeight).append('-').append(maxHeight)
+                    .append(";pixelRate=").append(maxPixelRate);
+        }
+        if (maxBitrate > 0) {
+            builder.append(";bitrate=").append(minBitrate).append('-').append(maxBitrate);
+        }
+        appendInts(builder, "sampleRates", sampleRates);
+        if (maxChannelCount > 0) {
+            builder.append(";channels=").append(maxChannelCount);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 从{@link #toLine()}的结果解析
+     *
+     * @throws IllegalArgumentException 格式不对
+     */
+    public static EncoderCapability fromLine(String line) {
+        EncoderCapability capability = new EncoderCapability();
+        try {
+            for (String field : line.trim().split(";")) {
+                int separator = field.indexOf('=');
+                if (separator <= 0) {
+                    throw new IllegalArgumentException("bad field:" + field);
+                }
+                String key = field.substring(0, separator);
+                String value = field.substring(separator + 1);
+                if ("name".equals(key)) {
+                    capability.name = value;
+                } else if ("mime".equals(key)) {
+                    capability.mimeType = value;
+                } else if ("hardware".equals(key)) {
+                    capability.isHardware = "1".equals(value);
+                } else if ("profiles".equals(key)) {
+                    String[] pairs = value.split(",");
+                    capability.profiles = new int[pairs.length];
+                    capability.levels = new int[pairs.length];
+                    for (int i = 0; i < pairs.length; i++) {
+                        int colon = pairs[i].indexOf(':');
+                        capability.profiles[i] = Integer.parseInt(pairs[i].substring(0, colon));
+                        capability.levels[i] = Integer.parseInt(pairs[i].substring(colon + 1));
+                    }
+                } else if ("colors".equals(key)) {
+                    capability.colorFormats = parseInts(value);
+                } else if ("bitrateModes".equals(key)) {
+                    capability.bitrateModes = Integer.parseInt(value);
+                } else if ("width".equals(key)) {
+                    int[] range = parseRange(value);
+                    capability.minWidth = range[0];
+                    capability.maxWidth = range[1];
+                } else if ("height".equals(key)) {
+                    int[] range = parseRange(value);
+                    capability.minHeight = range[0];
+                    capability.maxHeight = range[1];
+                } else if ("pixelRate".equals(key)) {
+                    capability.maxPixelRate = Long.parseLong(value);
+                } else if ("bitrate".equals(key)) {
+                    int[] range = parseRange(value);
+                    capability.minBitrate = range[0];
+                    capability.maxBitrate = range[1];
+                } else if ("sampleRates".equals(key)) {
+                    capability.sampleRates = parseInts(value);
+                } else if ("channels".equals(key)) {
+                    capability.maxChannelCount = Integer.parseInt(value);
+                }
+                //未知的key忽略，方便以后增加字段
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad line:" + line, e);
+        } catch (StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("bad line:" + line, e);
+        }
+        if (capability.name == null || capability.mimeType == null) {
+            throw new IllegalArgumentException("missing name or mime:" + line);
+        }
+        return capability;
+    }
+
+    private static void appendInts(StringBuilder builder, String key, int[] values) {
+        if (values.length == 0) {
+            return;
+        }
+        builder.append(';').append(key).append('=');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(values[i]);
+        }
+    }
+
+    private static int[] parseInts(String value) {
+        String[] items = value.split(",");
+        int[] ret = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            ret[i] = Integer.parseInt(items[i]);
+        }
+        return ret;
+    }
+
+    private static int[] parseRange(String value) {
+        int dash = value.indexOf('-');
+        return new int[]{Integer.parseInt(value.substring(0, dash)), Integer.parseInt(value.substring(dash + 1))};
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
@@ -0,0 +1,290 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编码器能力缓存。第一次使用时遍历MediaCodecList提取所有编码器的能力，之后保存在内存中，
+ * 设置了缓存目录时还会写入文件，以Build.FINGERPRINT为key，系统升级后自动失效。
+ * 之后每次prepare只需要给缓存中的编码器打分，不需要重新遍历MediaCodecList。
+ */
+
+public final class EncoderCapabilityCache {
+    private static final String TAG = "EncoderCapabilityCache";
+
+    private static final String CACHE_FILE_NAME = "encoder_capabilities.txt";
+    private static final String KEY_VERSION = "version=";
+    private static final String KEY_FINGERPRINT = "fingerprint=";
+    private static final int VERSION = 1;
+
+    //用来估计像素吞吐量的参考尺寸
+    private static final int REFERENCE_WIDTH = 1280;
+    private static final int REFERENCE_HEIGHT = 720;
+
+    private static final Object sLocker = new Object();
+    private static File sCacheDirectory;
+    private static List<EncoderCapability> sCapabilities;
+
+    private EncoderCapabilityCache() {
+    }
+
+    /**
+     * 设置缓存文件所在的目录，例如Context.getCacheDir()。不设置时只缓存在内存中。
+     */
+    public static void setCacheDirectory(File directory) {
+        synchronized (sLocker) {
+            sCacheDirectory = directory;
+        }
+    }
+
+    /**
+     * 所有编码器的能力，依次从内存、缓存文件、MediaCodecList中获取
+     */
+    public static List<EncoderCapability> getCapabilities() {
+        synchronized (sLocker) {
+            if (sCapabilities != null) {
+                return sCapabilities;
+            }
+
+            long start = System.nanoTime();
+            File cacheFile = sCacheDirectory != null ? new File(sCacheDirectory, CACHE_FILE_NAME) : null;
+            List<EncoderCapability> capabilities = null;
+            if (cacheFile != null) {
+                try {
+                    capabilities = read(cacheFile, Build.FINGERPRINT);
+                } catch (IOException e) {
+                    Log.w(TAG, "read cache failed", e);
+                }
+            }
+
+            if (capabilities == null) {
+                capabilities = scan();
+                if (cacheFile != null) {
+                    try {
+                        write(cacheFile, Build.FINGERPRINT, capabilities);
+                    } catch (IOException e) {
+                        Log.w(TAG, "write cache failed", e);
+                    }
+                }
+                Log.d(TAG, "scan encoders:" + capabilities.size() + " cost:" + (System.nanoTime() - start) / 1000 + "us");
+            } else {
+                Log.d(TAG, "load encoders:" + capabilities.size() + " cost:" + (System.nanoTime() - start) / 1000 + "us");
+            }
+
+            sCapabilities = Collections.unmodifiableList(capabilities);
+            return sCapabilities;
+        }
+    }
+
+    /**
+     * 清除内存中的缓存，下次使用时重新读取
+     */
+    public static void invalidate() {
+        synchronized (sLocker) {
+            sCapabilities = null;
+        }
+    }
+
+    /**
+     * 读取缓存文件
+     *
+     * @return 文件不存在、版本或fingerprint不一致、内容损坏时返回null
+     */
+    static List<EncoderCapability> read(File file, String fingerprint) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            if (!(KEY_VERSION + VERSION).equals(reader.readLine())
+                    || !(KEY_FINGERPRINT + fingerprint).equals(reader.readLine())) {
+                return null;
+            }
+            List<EncoderCapability> capabilities = new ArrayList<EncoderCapability>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                capabilities.add(EncoderCapability.fromLine(line));
+            }
+            return capabilities;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "bad cache file", e);
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 写入缓存文件，先写临时文件再重命名
+     */
+    static void write(File file, String fingerprint, List<EncoderCapability> capabilities) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(KEY_VERSION + VERSION + "\n");
+            writer.write(KEY_FINGERPRINT + fingerprint + "\n");
+            for (EncoderCapability capability : capabilities) {
+                writer.write(capability.toLine());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can not rename cache to " + file);
+        }
+    }
+
+    private static List<EncoderCapability> scan() {
+        List<EncoderCapability> capabilities = new ArrayList<EncoderCapability>();
+        MediaCodecInfo[] codecInfos;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            int numCodecs = MediaCodecList.getCodecCount();
+            codecInfos = new MediaCodecInfo[numCodecs];
+            for (int i = 0; i < numCodecs; i++) {
+                codecInfos[i] = MediaCodecList.getCodecInfoAt(i);
+            }
+        } else {
+            codecInfos = new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos();
+        }
+
+        for (MediaCodecInfo info : codecInfos) {
+            if (!info.isEncoder()) {
+                continue;
+            }
+            for (String type : info.getSupportedTypes()) {
+                try {
+                    capabilities.add(extract(info, type));
+                } catch (RuntimeException e) {
+                    //个别厂商的编码器查询能力时会抛异常，跳过
+                    Log.w(TAG, "extract " + info.getName() + " " + type + " failed", e);
+                }
+            }
+        }
+        return capabilities;
+    }
+
+    private static EncoderCapability extract(MediaCodecInfo info, String type) {
+        EncoderCapability capability = new EncoderCapability();
+        capability.name = info.getName();
+        capability.mimeType = type;
+        capability.isHardware = isHardware(info.getName());
+
+        MediaCodecInfo.CodecCapabilities codecCapabilities = info.getCapabilitiesForType(type);
+        MediaCodecInfo.CodecProfileLevel[] profileLevels = codecCapabilities.profileLevels;
+        if (profileLevels != null) {
+            //同一个profile只保留最高的level
+            int[] profiles = new int[profileLevels.length];
+            int[] levels = new int[profileLevels.length];
+            int count = 0;
+            for (MediaCodecInfo.CodecProfileLevel profileLevel : profileLevels) {
+                int index = 0;
+                while (index < count && profiles[index] != profileLevel.profile) {
+                    index++;
+                }
+                if (index == count) {
+                    profiles[count] = profileLevel.profile;
+                    levels[count] = profileLevel.level;
+                    count++;
+                } else {
+                    levels[index] = Math.max(levels[index], profileLevel.level);
+                }
+            }
+            capability.profiles = copyOf(profiles, count);
+            capability.levels = copyOf(levels, count);
+        }
+        if (codecCapabilities.colorFormats != null) {
+            capability.colorFormats = codecCapabilities.colorFormats.clone();
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            extractLollipop(codecCapabilities, capability);
+        }
+        return capability;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void extractLollipop(MediaCodecInfo.CodecCapabilities codecCapabilities, EncoderCapability capability) {
+        MediaCodecInfo.EncoderCapabilities encoderCapabilities = codecCapabilities.getEncoderCapabilities();
+        if (encoderCapabilities != null) {
+            if (encoderCapabilities.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ)) {
+                capability.bitrateModes |= EncoderCapability.BITRATE_MODE_CQ;
+            }
+            if (encoderCapabilities.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR)) {
+                capability.bitrateModes |= EncoderCapability.BITRATE_MODE_VBR;
+            }
+            if (encoderCapabilities.isBitrateModeSupported(MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR)) {
+                capability.bitrateModes |= EncoderCapability.BITRATE_MODE_CBR;
+            }
+        }
+
+        MediaCodecInfo.VideoCapabilities videoCapabilities = codecCapabilities.getVideoCapabilities();
+        if (videoCapabilities != null) {
+            Range<Integer> widths = videoCapabilities.getSupportedWidths();
+            Range<Integer> heights = videoCapabilities.getSupportedHeights();
+            capability.minWidth = widths.getLower();
+            capability.maxWidth = widths.getUpper();
+            capability.minHeight = heights.getLower();
+            capability.maxHeight = heights.getUpper();
+
+            int width = REFERENCE_WIDTH;
+            int height = REFERENCE_HEIGHT;
+            if (!videoCapabilities.isSizeSupported(width, height)) {
+                width = capability.maxWidth;
+                height = videoCapabilities.getSupportedHeightsFor(width).getUpper();
+            }
+            double frameRate = videoCapabilities.getSupportedFrameRatesFor(width, height).getUpper();
+            capability.maxPixelRate = (long) (frameRate * width * height);
+
+            Range<Integer> bitrates = videoCapabilities.getBitrateRange();
+            capability.minBitrate = bitrates.getLower();
+            capability.maxBitrate = bitrates.getUpper();
+        }
+
+        MediaCodecInfo.AudioCapabilities audioCapabilities = codecCapabilities.getAudioCapabilities();
+        if (audioCapabilities != null) {
+            int[] sampleRates = audioCapabilities.getSupportedSampleRates();
+            if (sampleRates != null) {
+                capability.sampleRates = sampleRates.clone();
+            }
+            capability.maxChannelCount = audioCapabilities.getMaxInputChannelCount();
+            Range<Integer> bitrates = audioCapabilities.getBitrateRange();
+            capability.minBitrate = bitrates.getLower();
+            capability.maxBitrate = bitrates.getUpper();
+        }
+    }
+
+    /**
+     * 根据名字判断是否是硬件编码器，Android提供的软件编码器都以OMX.google.或c2.android.开头
+     */
+    static boolean isHardware(String name) {
+        name = name.toLowerCase();
+        return !(name.startsWith("omx.google.") || name.startsWith("c2.android.") || name.startsWith("omx.ffmpeg.")
+                || name.contains(".sw.") || name.endsWith(".sw"));
+    }
+
+    private static int[] copyOf(int[] src, int length) {
+        int[] ret = new int[length];
+        System.arraycopy(src, 0, ret, 0, length);
+        return ret;
+    }
+}
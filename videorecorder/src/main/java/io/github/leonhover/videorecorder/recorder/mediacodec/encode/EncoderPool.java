@@ -0,0 +1,232 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import io.github.leonhover.videorecorder.pub.Profile;
+
+/**
+ * 编码器池。按照Profile中的编码参数提前创建并prepare好{@link VideoEncoder}与{@link AudioEncoder}，
+ * 开始录制时直接取出使用，省去创建编码线程、MediaCodec以及等待prepare完成的时间。
+ * 录制结束后编码器重新configure放回池中，供下一次录制使用。每组编码参数只保留一个空闲的编码器，
+ * 空闲超过{@link #setIdleTimeout(long) 空闲时长}的编码器被释放。
+ * <p>
+ * 编码器池由使用者持有，不再使用时调用{@link #release()}。
+ */
+
+public class EncoderPool implements VideoEncoder.CallBack, AudioEncoder.CallBack {
+
+    /**
+     * 默认空闲超过1分钟的编码器被释放，不长期占用硬件编码器
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+
+    private final PooledEncoders<VideoEncoder> mVideoEncoders =
+            new PooledEncoders<VideoEncoder>(new VideoEncoderFactory(), DEFAULT_IDLE_TIMEOUT_MS);
+    private final PooledEncoders<AudioEncoder> mAudioEncoders =
+            new PooledEncoders<AudioEncoder>(new AudioEncoderFactory(), DEFAULT_IDLE_TIMEOUT_MS);
+
+    /**
+     * 按照Profile预先创建并prepare编码器，不阻塞调用线程。池中已经有相同参数的编码器时不再创建。
+     *
+     * @param profile 录制参数
+     */
+    public void prewarm(Profile profile) {
+        mVideoEncoders.prewarm(profile);
+        mAudioEncoders.prewarm(profile);
+    }
+
+    /**
+     * 取出一个已经prepare好的视频编码器，不等待prepare。
+     * 没有相同参数的编码器时，用其他参数的空闲编码器重新prepare，留给下一次录制。取出后需要重新设置回调与Muxer。
+     *
+     * @return 没有可用的编码器或者编码器还在prepare时返回null
+     */
+    public VideoEncoder acquireVideoEncoder(Profile profile) {
+        return mVideoEncoders.acquire(profile);
+    }
+
+    /**
+     * 取出一个已经prepare好的音频编码器，不等待prepare。
+     * 没有相同参数的编码器时，用其他参数的空闲编码器重新prepare，留给下一次录制。取出后需要重新设置回调与Muxer。
+     *
+     * @return 没有可用的编码器或者编码器还在prepare时返回null
+     */
+    public AudioEncoder acquireAudioEncoder(Profile profile) {
+        return mAudioEncoders.acquire(profile);
+    }
+
+    /**
+     * 归还停止后的视频编码器，编码器需要是{@link VideoEncoder#setReusable(boolean) 可复用}的，
+     * 池中已经有相同参数的编码器或者池已经释放时直接释放。
+     *
+     * @param videoEncoder 停止后的编码器
+     * @param profile      编码器使用的录制参数
+     */
+    public void recycle(VideoEncoder videoEncoder, Profile profile) {
+        mVideoEncoders.recycle(videoEncoder, profile);
+    }
+
+    /**
+     * 归还停止后的音频编码器，编码器需要是{@link AudioEncoder#setReusable(boolean) 可复用}的，
+     * 池中已经有相同参数的编码器或者池已经释放时直接释放。
+     *
+     * @param audioEncoder 停止后的编码器
+     * @param profile      编码器使用的录制参数
+     */
+    public void recycle(AudioEncoder audioEncoder, Profile profile) {
+        mAudioEncoders.recycle(audioEncoder, profile);
+    }
+
+    /**
+     * 设置空闲编码器的最长保留时间，超时的编码器在下一次访问编码器池时释放，0表示一直保留
+     */
+    public void setIdleTimeout(long idleTimeoutMs) {
+        mVideoEncoders.setIdleTimeout(idleTimeoutMs);
+        mAudioEncoders.setIdleTimeout(idleTimeoutMs);
+    }
+
+    /**
+     * 立即释放空闲超时的编码器，例如在onTrimMemory时调用
+     */
+    public void trimIdle() {
+        mVideoEncoders.trimIdle();
+        mAudioEncoders.trimIdle();
+    }
+
+    /**
+     * 命中次数，即取到了预先准备好的编码器的次数
+     */
+    public int getHitCount() {
+        return mVideoEncoders.getHitCount() + mAudioEncoders.getHitCount();
+    }
+
+    public int getMissCount() {
+        return mVideoEncoders.getMissCount() + mAudioEncoders.getMissCount();
+    }
+
+    /**
+     * 释放池中所有的编码器，之后归还的编码器也会直接释放
+     */
+    public void release() {
+        mVideoEncoders.release();
+        mAudioEncoders.release();
+    }
+
+    /**
+     * 按照Profile设置视频编码器的参数，与{@link #videoKey(Profile)}中的参数保持一致
+     */
+    public static void applyProfile(VideoEncoder videoEncoder, Profile profile) {
+        videoEncoder.setBitRate(profile.videoBitRate);
+        videoEncoder.setFrameRate(profile.videoFrameRate);
+        videoEncoder.setIFrameInterval(profile.videoIFrameInterval);
+        videoEncoder.setVideoSize(profile.videoWidth, profile.videoHeight);
+        videoEncoder.setDrainThreadMode(profile.isRequestVideoDrainThread);
+        videoEncoder.setAsynchronousMode(profile.isRequestAsynchronousMode);
+    }
+
+    /**
+     * 按照Profile设置音频编码器的参数，与{@link #audioKey(Profile)}中的参数保持一致
+     */
+    public static void applyProfile(AudioEncoder audioEncoder, Profile profile) {
+        audioEncoder.setBitRate(profile.audioBitRate);
+        audioEncoder.setSampleRate(profile.audioSamplingRate);
+        audioEncoder.setChannelCount(profile.audioChannelCount);
+        audioEncoder.setChannelMask(profile.audioChannelConfig);
+        audioEncoder.setAsynchronousMode(profile.isRequestAsynchronousMode);
+    }
+
+    static String videoKey(Profile profile) {
+        return profile.videoWidth + "x" + profile.videoHeight + "@" + profile.videoFrameRate
+                + "/" + profile.videoBitRate + "/" + profile.videoIFrameInterval
+                + "/" + profile.isRequestVideoDrainThread + "/" + profile.isRequestAsynchronousMode;
+    }
+
+    static String audioKey(Profile profile) {
+        return profile.audioSamplingRate + "/" + profile.audioChannelCount + "/" + profile.audioChannelConfig
+                + "/" + profile.audioBitRate + "/" + profile.isRequestAsynchronousMode;
+    }
+
+    @Override
+    public void onPrepared(VideoEncoder videoEncoder) {
+        mVideoEncoders.onPrepared(videoEncoder);
+    }
+
+    @Override
+    public void onStarted(VideoEncoder videoEncoder) {
+    }
+
+    @Override
+    public void onStopped(VideoEncoder videoEncoder) {
+    }
+
+    @Override
+    public void onInfo(VideoEncoder videoEncoder, int info) {
+    }
+
+    @Override
+    public void onPrepared(AudioEncoder audioEncoder) {
+        mAudioEncoders.onPrepared(audioEncoder);
+    }
+
+    @Override
+    public void onStarted(AudioEncoder audioEncoder) {
+    }
+
+    @Override
+    public void onStopped(AudioEncoder audioEncoder) {
+    }
+
+    @Override
+    public void onInfo(AudioEncoder audioEncoder, int info) {
+    }
+
+    private class VideoEncoderFactory implements PooledEncoders.Factory<VideoEncoder> {
+        @Override
+        public String key(Profile profile) {
+            return videoKey(profile);
+        }
+
+        @Override
+        public VideoEncoder create() {
+            return new VideoEncoder(null);
+        }
+
+        @Override
+        public void prepare(VideoEncoder videoEncoder, Profile profile) {
+            applyProfile(videoEncoder, profile);
+            videoEncoder.setMediaMuxer(null);
+            videoEncoder.setReusable(true);
+            videoEncoder.setCallBack(EncoderPool.this);
+            videoEncoder.prepare();
+        }
+
+        @Override
+        public void release(VideoEncoder videoEncoder) {
+            videoEncoder.release();
+        }
+    }
+
+    private class AudioEncoderFactory implements PooledEncoders.Factory<AudioEncoder> {
+        @Override
+        public String key(Profile profile) {
+            return audioKey(profile);
+        }
+
+        @Override
+        public AudioEncoder create() {
+            return new AudioEncoder(null);
+        }
+
+        @Override
+        public void prepare(AudioEncoder audioEncoder, Profile profile) {
+            applyProfile(audioEncoder, profile);
+            audioEncoder.setMediaMuxer(null);
+            audioEncoder.setReusable(true);
+            audioEncoder.setCallBack(EncoderPool.this);
+            audioEncoder.prepare();
+        }
+
+        @Override
+        public void release(AudioEncoder audioEncoder) {
+            audioEncoder.release();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.util.List;
+
+/**
+ * 根据{@link EncoderCapability}给编码器打分，选出最适合当前录制参数的编码器。分数相同时保持列表中的顺序，
+ * 也就是MediaCodecList的顺序。纯Java实现，可以在JVM上用记录下来的设备能力测试。
+ */
+
+public final class EncoderScorer {
+
+    public static final int UNSUPPORTED = -1;
+
+    //与MediaCodecInfo中的常量相同
+    static final int COLOR_FORMAT_SURFACE = 0x7F000789;
+    static final int AAC_OBJECT_LC = 2;
+
+    private static final int SCORE_HARDWARE = 1000;
+    private static final int SCORE_SIZE_AND_RATE = 200;
+    private static final int SCORE_BITRATE = 50;
+    private static final int SCORE_PROFILE_AAC_LC = 20;
+    private static final int SCORE_BITRATE_MODE_VBR = 8;
+    private static final int SCORE_BITRATE_MODE_CBR = 4;
+
+    private EncoderScorer() {
+    }
+
+    /**
+     * 视频编码器的分数。输入固定为Surface，不支持Surface输入或者尺寸超出范围的编码器不可用。
+     * VideoEncoder不设置KEY_PROFILE，使用编码器默认的profile，因此支持的profile不参与打分。
+     *
+     * @return 分数，不可用时返回{@link #UNSUPPORTED}
+     */
+    public static int scoreVideo(EncoderCapability capability, String mimeType, int width, int height,
+                                 int frameRate, int bitRate) {
+        if (!mimeType.equalsIgnoreCase(capability.mimeType)) {
+            return UNSUPPORTED;
+        }
+        if (capability.colorFormats.length > 0 && !capability.hasColorFormat(COLOR_FORMAT_SURFACE)) {
+            return UNSUPPORTED;
+        }
+        if (!capability.isSizeSupported(width, height)) {
+            return UNSUPPORTED;
+        }
+
+        int score = 0;
+        if (capability.isHardware) {
+            score += SCORE_HARDWARE;
+        }
+        if (capability.isSizeAndRateSupported(width, height, frameRate)) {
+            score += SCORE_SIZE_AND_RATE;
+        }
+        if (capability.isBitrateSupported(bitRate)) {
+            score += SCORE_BITRATE;
+        }
+        if ((capability.bitrateModes & EncoderCapability.BITRATE_MODE_VBR) != 0) {
+            score += SCORE_BITRATE_MODE_VBR;
+        } else if ((capability.bitrateModes & EncoderCapability.BITRATE_MODE_CBR) != 0) {
+            score += SCORE_BITRATE_MODE_CBR;
+        }
+        return score;
+    }
+
+    /**
+     * 音频编码器的分数。采样率或声道数不支持的编码器不可用。
+     * AAC软编码器在各个平台上的表现都比较稳定，硬件编码器不额外加分。
+     *
+     * @return 分数，不可用时返回{@link #UNSUPPORTED}
+     */
+    public static int scoreAudio(EncoderCapability capability, String mimeType, int sampleRate,
+                                 int channelCount, int bitRate) {
+        if (!mimeType.equalsIgnoreCase(capability.mimeType)) {
+            return UNSUPPORTED;
+        }
+        if (!capability.isSampleRateSupported(sampleRate)) {
+            return UNSUPPORTED;
+        }
+        if (capability.maxChannelCount > 0 && channelCount > capability.maxChannelCount) {
+            return UNSUPPORTED;
+        }
+
+        int score = 0;
+        if (capability.isBitrateSupported(bitRate)) {
+            score += SCORE_BITRATE;
+        }
+        if (capability.profiles.length == 0 || capability.hasProfile(AAC_OBJECT_LC)) {
+            score += SCORE_PROFILE_AAC_LC;
+        }
+        return score;
+    }
+
+    /**
+     * @return 分数最高的视频编码器，没有可用的返回null
+     */
+    public static EncoderCapability chooseVideo(List<EncoderCapability> capabilities, String mimeType, int width,
+                                                int height, int frameRate, int bitRate) {
+        EncoderCapability best = null;
+        int bestScore = UNSUPPORTED;
+        for (EncoderCapability capability : capabilities) {
+            int score = scoreVideo(capability, mimeType, width, height, frameRate, bitRate);
+            if (score > bestScore) {
+                best = capability;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return 分数最高的音频编码器，没有可用的返回null
+     */
+    public static EncoderCapability chooseAudio(List<EncoderCapability> capabilities, String mimeType,
+                                                int sampleRate, int channelCount, int bitRate) {
+        EncoderCapability best = null;
+        int bestScore = UNSUPPORTED;
+        for (EncoderCapability capability : capabilities) {
+            int score = scoreAudio(capability, mimeType, sampleRate, channelCount, bitRate);
+            if (score > bestScore) {
+                best = capability;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+}
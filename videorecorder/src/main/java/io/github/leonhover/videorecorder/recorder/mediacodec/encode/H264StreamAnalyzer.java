@@ -0,0 +1,418 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.nio.ByteBuffer;
+
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.AvcUtils;
+
+/**
+ * H.264码流分析，逐个分析编码器输出的Buffer，统计SPS/PPS、IDR/非IDR以及I/P/B帧的数量，GOP长度、关键帧间隔、
+ * 帧大小，以及滑动窗口内的码率与帧率。
+ * <p>
+ * 每一帧只解析到第一个Slice的slice_type为止，后面的Slice数据不再扫描，开销与帧的大小无关，分析过程中不分配内存，
+ * 可以在正式版本中一直开启。支持Annex-B和4字节长度前缀两种格式，纯Java实现，可以在JVM上用录下来的码流测试。
+ * 分析与读取统计可以在不同线程。
+ */
+
+public class H264StreamAnalyzer {
+
+    public static final int SLICE_TYPE_UNKNOWN = -1;
+    public static final int SLICE_TYPE_P = 0;
+    public static final int SLICE_TYPE_B = 1;
+    public static final int SLICE_TYPE_I = 2;
+    public static final int SLICE_TYPE_SP = 3;
+    public static final int SLICE_TYPE_SI = 4;
+
+    public static final long DEFAULT_WINDOW_US = 1000 * 1000;
+    //滑动窗口最多保存的帧数
+    private static final int WINDOW_CAPACITY = 256;
+    //查找Slice结束位置时最多扫描的字节数，Slice头部的前两个字段不会超过这个长度
+    private static final int SLICE_HEADER_SCAN_BYTES = 64;
+    private static final int LENGTH_PREFIX_SIZE = 4;
+
+    private final long mWindowUs;
+    private final long[] mWindowPts = new long[WINDOW_CAPACITY];
+    private final int[] mWindowSizes = new int[WINDOW_CAPACITY];
+    private int mWindowNext = 0;
+    private int mWindowCount = 0;
+
+    private long mFrameCount;
+    private long mTotalBytes;
+    private long mSpsCount;
+    private long mPpsCount;
+    private long mSeiCount;
+    private long mIdrCount;
+    private long mIFrameCount;
+    private long mPFrameCount;
+    private long mBFrameCount;
+
+    private long mLastIdrFrameIndex = -1;
+    private long mLastIdrPtsUs = -1;
+    private int mLastGopLength;
+    private int mMaxGopLength;
+    private long mGopCount;
+    private long mGopFrameTotal;
+    private long mLastKeyFrameIntervalUs;
+    private long mMaxKeyFrameIntervalUs;
+
+    private int mLastFrameSize;
+    private int mMaxFrameSize;
+    private long mKeyFrameBytes;
+    private long mDeltaFrameBytes;
+
+    //读取Slice头部的状态，复用避免分配
+    private ByteBuffer mReadBuffer;
+    private int mReadPosition;
+    private int mReadLimit;
+    private int mReadZeroCount;
+    private int mReadByte;
+    private int mReadBitsLeft;
+    private boolean isReadError;
+
+    public H264StreamAnalyzer() {
+        this(DEFAULT_WINDOW_US);
+    }
+
+    /**
+     * @param windowUs 统计码率与帧率的滑动窗口长度
+     */
+    public H264StreamAnalyzer(long windowUs) {
+        this.mWindowUs = windowUs;
+    }
+
+    /**
+     * 分析一个编码器输出的Buffer，不修改Buffer的position与limit
+     *
+     * @param buffer             数据
+     * @param offset             起始位置
+     * @param size               大小
+     * @param presentationTimeUs 显示时间
+     * @return 包含Slice时返回第一个Slice的类型，只有参数集等时返回{@link #SLICE_TYPE_UNKNOWN}
+     */
+    public synchronized int analyze(ByteBuffer buffer, int offset, int size, long presentationTimeUs) {
+        int limit = offset + size;
+        boolean isAnnexB = !isLengthPrefixed(buffer, offset, limit) && AvcUtils.isAnnexB(buffer, offset, size);
+        int position = isAnnexB ? AvcUtils.findStartCode(buffer, offset, limit) : offset;
+        int sliceType = SLICE_TYPE_UNKNOWN;
+        boolean isIdr = false;
+
+        while (position < limit) {
+            int nalPosition;
+            int nalEnd;
+            if (isAnnexB) {
+                nalPosition = position + AvcUtils.startCodeLength(buffer, position, limit);
+                nalEnd = limit;
+            } else {
+                if (position + LENGTH_PREFIX_SIZE > limit) {
+                    break;
+                }
+                int length = buffer.getInt(position);
+                nalPosition = position + LENGTH_PREFIX_SIZE;
+                nalEnd = length > 0 && length <= limit - nalPosition ? nalPosition + length : limit;
+            }
+            if (nalPosition >= limit) {
+                break;
+            }
+
+            int nalType = buffer.get(nalPosition) & 0x1F;
+            if (nalType == AvcUtils.NAL_TYPE_SLICE || nalType == AvcUtils.NAL_TYPE_IDR) {
+                if (isAnnexB) {
+                    nalEnd = AvcUtils.findStartCode(buffer, nalPosition + 1,
+                            Math.min(limit, nalPosition + 1 + SLICE_HEADER_SCAN_BYTES));
+                }
+                isIdr = nalType == AvcUtils.NAL_TYPE_IDR;
+                sliceType = readSliceType(buffer, nalPosition + 1, nalEnd);
+                //同一帧中其余的Slice类型相同，不再扫描
+                break;
+            }
+
+            if (nalType == AvcUtils.NAL_TYPE_SPS) {
+                mSpsCount++;
+            } else if (nalType == AvcUtils.NAL_TYPE_PPS) {
+                mPpsCount++;
+            } else if (nalType == AvcUtils.NAL_TYPE_SEI) {
+                mSeiCount++;
+            }
+
+            position = isAnnexB ? AvcUtils.findStartCode(buffer, nalPosition + 1, limit) : nalEnd;
+        }
+
+        if (sliceType != SLICE_TYPE_UNKNOWN || isIdr) {
+            onFrame(size, presentationTimeUs, sliceType, isIdr);
+        }
+        return sliceType;
+    }
+
+    /**
+     * 长度前缀刚好覆盖整个Buffer时认为是长度前缀格式，长度为256~511的NAL前缀与3字节起始码相同，不能只看开头
+     */
+    private static boolean isLengthPrefixed(ByteBuffer buffer, int position, int limit) {
+        while (position + LENGTH_PREFIX_SIZE < limit) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > limit - position - LENGTH_PREFIX_SIZE) {
+                return false;
+            }
+            position += LENGTH_PREFIX_SIZE + length;
+        }
+        return position == limit;
+    }
+
+    private void onFrame(int size, long presentationTimeUs, int sliceType, boolean isIdr) {
+        long frameIndex = mFrameCount;
+        mFrameCount++;
+        mTotalBytes += size;
+        mLastFrameSize = size;
+        mMaxFrameSize = Math.max(mMaxFrameSize, size);
+
+        if (isIdr) {
+            mIdrCount++;
+            mKeyFrameBytes += size;
+            if (mLastIdrFrameIndex >= 0) {
+                mLastGopLength = (int) (frameIndex - mLastIdrFrameIndex);
+                mMaxGopLength = Math.max(mMaxGopLength, mLastGopLength);
+                mGopCount++;
+                mGopFrameTotal += mLastGopLength;
+                mLastKeyFrameIntervalUs = presentationTimeUs - mLastIdrPtsUs;
+                mMaxKeyFrameIntervalUs = Math.max(mMaxKeyFrameIntervalUs, mLastKeyFrameIntervalUs);
+            }
+            mLastIdrFrameIndex = frameIndex;
+            mLastIdrPtsUs = presentationTimeUs;
+        } else {
+            mDeltaFrameBytes += size;
+        }
+
+        switch (sliceType) {
+            case SLICE_TYPE_I:
+            case SLICE_TYPE_SI:
+                mIFrameCount++;
+                break;
+            case SLICE_TYPE_P:
+            case SLICE_TYPE_SP:
+                mPFrameCount++;
+                break;
+            case SLICE_TYPE_B:
+                mBFrameCount++;
+                break;
+            default:
+        }
+
+        mWindowPts[mWindowNext] = presentationTimeUs;
+        mWindowSizes[mWindowNext] = size;
+        mWindowNext = (mWindowNext + 1) % WINDOW_CAPACITY;
+        mWindowCount = Math.min(mWindowCount + 1, WINDOW_CAPACITY);
+    }
+
+    /**
+     * 读取slice_header中的first_mb_in_slice与slice_type
+     */
+    private int readSliceType(ByteBuffer buffer, int position, int limit) {
+        mReadBuffer = buffer;
+        mReadPosition = position;
+        mReadLimit = limit;
+        mReadZeroCount = 0;
+        mReadBitsLeft = 0;
+        isReadError = false;
+
+        readUe();
+        int sliceType = readUe();
+        mReadBuffer = null;
+        if (isReadError || sliceType < 0) {
+            return SLICE_TYPE_UNKNOWN;
+        }
+        return sliceType % 5;
+    }
+
+    /**
+     * 读取一个字节，跳过防竞争字节（00 00 03中的03）
+     */
+    private int readByte() {
+        if (mReadPosition >= mReadLimit) {
+            isReadError = true;
+            return 0;
+        }
+        int value = mReadBuffer.get(mReadPosition++) & 0xFF;
+        if (mReadZeroCount >= 2 && value == 3) {
+            mReadZeroCount = 0;
+            if (mReadPosition >= mReadLimit) {
+                isReadError = true;
+                return 0;
+            }
+            value = mReadBuffer.get(mReadPosition++) & 0xFF;
+        }
+        mReadZeroCount = value == 0 ? mReadZeroCount + 1 : 0;
+        return value;
+    }
+
+    private int readBit() {
+        if (mReadBitsLeft == 0) {
+            mReadByte = readByte();
+            mReadBitsLeft = 8;
+        }
+        mReadBitsLeft--;
+        return (mReadByte >> mReadBitsLeft) & 1;
+    }
+
+    /**
+     * 读取无符号指数哥伦布编码，出错时返回-1
+     */
+    private int readUe() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            if (isReadError || ++leadingZeros > 31) {
+                isReadError = true;
+                return -1;
+            }
+        }
+        long value = 0;
+        for (int i = 0; i < leadingZeros; i++) {
+            value = (value << 1) | readBit();
+        }
+        if (isReadError) {
+            return -1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, (1L << leadingZeros) - 1 + value);
+    }
+
+    /**
+     * 把当前的统计写入stats，不分配内存
+     *
+     * @return stats
+     */
+    public synchronized Stats getStats(Stats stats) {
+        stats.frameCount = mFrameCount;
+        stats.totalBytes = mTotalBytes;
+        stats.spsCount = mSpsCount;
+        stats.ppsCount = mPpsCount;
+        stats.seiCount = mSeiCount;
+        stats.idrCount = mIdrCount;
+        stats.iFrameCount = mIFrameCount;
+        stats.pFrameCount = mPFrameCount;
+        stats.bFrameCount = mBFrameCount;
+
+        stats.lastGopLength = mLastGopLength;
+        stats.maxGopLength = mMaxGopLength;
+        stats.averageGopLength = mGopCount > 0 ? (float) mGopFrameTotal / mGopCount : 0;
+        stats.framesSinceKeyFrame = mLastIdrFrameIndex >= 0 ? (int) (mFrameCount - mLastIdrFrameIndex) : 0;
+        stats.lastKeyFrameIntervalUs = mLastKeyFrameIntervalUs;
+        stats.maxKeyFrameIntervalUs = mMaxKeyFrameIntervalUs;
+
+        stats.lastFrameSize = mLastFrameSize;
+        stats.maxFrameSize = mMaxFrameSize;
+        stats.averageKeyFrameSize = mIdrCount > 0 ? (int) (mKeyFrameBytes / mIdrCount) : 0;
+        long deltaFrameCount = mFrameCount - mIdrCount;
+        stats.averageDeltaFrameSize = deltaFrameCount > 0 ? (int) (mDeltaFrameBytes / deltaFrameCount) : 0;
+
+        //从最新的一帧往前统计窗口内的帧
+        stats.windowFrameCount = 0;
+        stats.windowBitRate = 0;
+        stats.windowFrameRate = 0;
+        if (mWindowCount > 0) {
+            int newest = (mWindowNext - 1 + WINDOW_CAPACITY) % WINDOW_CAPACITY;
+            long newestPts = mWindowPts[newest];
+            long oldestPts = newestPts;
+            long bytes = 0;
+            int count = 0;
+            for (int i = 0; i < mWindowCount; i++) {
+                int index = (newest - i + WINDOW_CAPACITY) % WINDOW_CAPACITY;
+                if (newestPts - mWindowPts[index] >= mWindowUs) {
+                    break;
+                }
+                oldestPts = mWindowPts[index];
+                bytes += mWindowSizes[index];
+                count++;
+            }
+            stats.windowFrameCount = count;
+            if (count > 1 && newestPts > oldestPts) {
+                //count帧占用的时长，包括最后一帧
+                double durationUs = (double) (newestPts - oldestPts) * count / (count - 1);
+                stats.windowBitRate = (int) (bytes * 8 * 1000000L / durationUs);
+                stats.windowFrameRate = (float) (count * 1000000L / durationUs);
+            }
+        }
+        return stats;
+    }
+
+    public synchronized void reset() {
+        mWindowNext = 0;
+        mWindowCount = 0;
+        mFrameCount = 0;
+        mTotalBytes = 0;
+        mSpsCount = 0;
+        mPpsCount = 0;
+        mSeiCount = 0;
+        mIdrCount = 0;
+        mIFrameCount = 0;
+        mPFrameCount = 0;
+        mBFrameCount = 0;
+        mLastIdrFrameIndex = -1;
+        mLastIdrPtsUs = -1;
+        mLastGopLength = 0;
+        mMaxGopLength = 0;
+        mGopCount = 0;
+        mGopFrameTotal = 0;
+        mLastKeyFrameIntervalUs = 0;
+        mMaxKeyFrameIntervalUs = 0;
+        mLastFrameSize = 0;
+        mMaxFrameSize = 0;
+        mKeyFrameBytes = 0;
+        mDeltaFrameBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return getStats(new Stats()).toString();
+    }
+
+    /**
+     * 码流统计的快照
+     */
+    public static class Stats {
+        public long frameCount;
+        public long totalBytes;
+        public long spsCount;
+        public long ppsCount;
+        public long seiCount;
+        public long idrCount;
+        public long iFrameCount;
+        public long pFrameCount;
+        public long bFrameCount;
+
+        /**
+         * 最近一个完整GOP的帧数，即相邻两个IDR之间的帧数
+         */
+        public int lastGopLength;
+        public int maxGopLength;
+        public float averageGopLength;
+        /**
+         * 距离上一个IDR的帧数，包括IDR本身
+         */
+        public int framesSinceKeyFrame;
+        /**
+         * 最近两个IDR的时间间隔
+         */
+        public long lastKeyFrameIntervalUs;
+        public long maxKeyFrameIntervalUs;
+
+        public int lastFrameSize;
+        public int maxFrameSize;
+        public int averageKeyFrameSize;
+        public int averageDeltaFrameSize;
+
+        /**
+         * 滑动窗口内的帧数、码率（bit/sec）与帧率
+         */
+        public int windowFrameCount;
+        public int windowBitRate;
+        public float windowFrameRate;
+
+        @Override
+        public String toString() {
+            return "frames:" + frameCount + " idr:" + idrCount + " I/P/B:" + iFrameCount + "/" + pFrameCount
+                    + "/" + bFrameCount + " sps/pps:" + spsCount + "/" + ppsCount
+                    + " gop:" + lastGopLength + " maxGop:" + maxGopLength
+                    + " keyInterval:" + lastKeyFrameIntervalUs + "us"
+                    + " size avgKey:" + averageKeyFrameSize + " avgDelta:" + averageDeltaFrameSize
+                    + " max:" + maxFrameSize
+                    + " window bitrate:" + windowBitRate + " fps:" + windowFrameRate;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 延迟统计，按1毫秒一个桶的直方图记录，可以取平均值、最大值与百分位数。超过{@link #MAX_TRACKED_MS}的都记在最后一个桶。
+ * 记录与读取可以在不同线程。
+ */
+
+public class LatencyStats {
+
+    public static final int MAX_TRACKED_MS = 1000;
+
+    private static final long BUCKET_US = 1000;
+
+    private final long[] mBuckets = new long[MAX_TRACKED_MS + 1];
+    private long mCount = 0;
+    private long mTotalUs = 0;
+    private long mMaxUs = 0;
+
+    /**
+     * @param latencyUs 延迟，单位为微秒，小于0的按0记录
+     */
+    public synchronized void record(long latencyUs) {
+        if (latencyUs < 0) {
+            latencyUs = 0;
+        }
+        int bucket = (int) Math.min(latencyUs / BUCKET_US, MAX_TRACKED_MS);
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalUs += latencyUs;
+        mMaxUs = Math.max(mMaxUs, latencyUs);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getAverageUs() {
+        return mCount > 0 ? mTotalUs / mCount : 0;
+    }
+
+    public synchronized long getMaxUs() {
+        return mMaxUs;
+    }
+
+    /**
+     * 百分位数，精度为1毫秒，返回所在桶的上界，不超过最大值
+     *
+     * @param percentile 0到100
+     */
+    public synchronized long getPercentileUs(int percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (mCount * percentile + 99) / 100;
+        long count = 0;
+        for (int i = 0; i < mBuckets.length; i++) {
+            count += mBuckets[i];
+            if (count >= target && count > 0) {
+                return i < MAX_TRACKED_MS ? Math.min((i + 1) * BUCKET_US, mMaxUs) : mMaxUs;
+            }
+        }
+        return mMaxUs;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = 0;
+        }
+        mCount = 0;
+        mTotalUs = 0;
+        mMaxUs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count:" + mCount + " avg:" + getAverageUs() + "us p50:" + getPercentileUs(50)
+                + "us p95:" + getPercentileUs(95) + "us max:" + mMaxUs + "us";
+    }
+}
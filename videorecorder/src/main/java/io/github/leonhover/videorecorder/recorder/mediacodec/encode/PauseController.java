@@ -0,0 +1,101 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 暂停与恢复录制时的时间戳处理。记录每一段暂停的起止时间，暂停期间的数据丢弃，
+ * 之后的数据减去之前所有暂停的时长，输出文件中没有空白。音视频共用一个实例，时间基准都是System.nanoTime()/1000。
+ * <p>
+ * 按时间戳判断，而不是按调用时的状态判断，暂停前采集、暂停后才编码完成的数据仍然保留。可以在不同线程调用。
+ */
+
+public class PauseController {
+
+    /**
+     * {@link #adjust(long)}的返回值，表示数据落在暂停区间内，需要丢弃
+     */
+    public static final long DROP = Long.MIN_VALUE;
+
+    private static final long NOT_PAUSED = -1;
+
+    //已经结束的暂停区间，[开始, 结束)
+    private final List<long[]> mPauses = new ArrayList<long[]>();
+    private long mPauseStartUs = NOT_PAUSED;
+    private long mTotalPausedUs = 0;
+
+    /**
+     * @param nowUs 暂停的时间
+     * @return 已经处于暂停状态时返回false
+     */
+    public synchronized boolean pause(long nowUs) {
+        if (mPauseStartUs != NOT_PAUSED) {
+            return false;
+        }
+        mPauseStartUs = nowUs;
+        return true;
+    }
+
+    /**
+     * @param nowUs 恢复的时间
+     * @return 没有处于暂停状态时返回false
+     */
+    public synchronized boolean resume(long nowUs) {
+        if (mPauseStartUs == NOT_PAUSED) {
+            return false;
+        }
+        if (nowUs > mPauseStartUs) {
+            mPauses.add(new long[]{mPauseStartUs, nowUs});
+            mTotalPausedUs += nowUs - mPauseStartUs;
+        }
+        mPauseStartUs = NOT_PAUSED;
+        return true;
+    }
+
+    public synchronized boolean isPaused() {
+        return mPauseStartUs != NOT_PAUSED;
+    }
+
+    /**
+     * 已经结束的暂停的总时长
+     */
+    public synchronized long getTotalPausedUs() {
+        return mTotalPausedUs;
+    }
+
+    /**
+     * 计算去掉暂停时长后的时间戳
+     *
+     * @param presentationTimeUs 采集时的时间戳
+     * @return 调整后的时间戳，落在暂停区间内时返回{@link #DROP}
+     */
+    public synchronized long adjust(long presentationTimeUs) {
+        if (mPauseStartUs != NOT_PAUSED && presentationTimeUs >= mPauseStartUs) {
+            return DROP;
+        }
+        if (mTotalPausedUs == 0) {
+            return presentationTimeUs;
+        }
+
+        long offsetUs = 0;
+        for (long[] pause : mPauses) {
+            if (presentationTimeUs < pause[0]) {
+                break;
+            }
+            if (presentationTimeUs < pause[1]) {
+                return DROP;
+            }
+            offsetUs += pause[1] - pause[0];
+        }
+        return presentationTimeUs - offsetUs;
+    }
+
+    /**
+     * 清空所有暂停记录，开始新的录制时调用
+     */
+    public synchronized void reset() {
+        mPauses.clear();
+        mPauseStartUs = NOT_PAUSED;
+        mTotalPausedUs = 0;
+    }
+}
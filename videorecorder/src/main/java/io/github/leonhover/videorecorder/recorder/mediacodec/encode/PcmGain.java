@@ -0,0 +1,76 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 增益。修改增益后在下一块数据内线性过渡到新值，避免突变产生杂音。超出16位范围的采样直接截断，
+ * 需要平滑时在后面接{@link PcmSoftLimiter}。
+ */
+
+public class PcmGain implements PcmProcessor {
+
+    private int mChannelCount = 1;
+    private volatile float mTargetGain;
+    private float mGain;
+
+    /**
+     * @param gain 线性倍数
+     */
+    public PcmGain(float gain) {
+        this.mTargetGain = gain;
+        this.mGain = gain;
+    }
+
+    /**
+     * 设置增益，可以在任意线程调用
+     *
+     * @param gain 线性倍数
+     */
+    public void setGain(float gain) {
+        this.mTargetGain = gain;
+    }
+
+    public void setGainDb(float db) {
+        setGain(PcmProcessingChain.dbToLinear(db));
+    }
+
+    public float getGain() {
+        return mTargetGain;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        this.mChannelCount = channelCount;
+    }
+
+    @Override
+    public void process(short[] samples, int sampleCount) {
+        final float target = mTargetGain;
+        final int channelCount = mChannelCount;
+        float gain = mGain;
+        if (gain == target) {
+            if (gain == 1f) {
+                return;
+            }
+            for (int i = 0; i < sampleCount; i++) {
+                samples[i] = PcmProcessingChain.clamp((int) (samples[i] * gain));
+            }
+            return;
+        }
+
+        //按帧过渡，同一帧的各个声道使用相同的增益，最后一帧正好到达目标
+        final float start = gain;
+        final float delta = target - start;
+        final int frameCount = sampleCount / channelCount;
+        for (int i = 0, frame = 1; i < sampleCount; i += channelCount, frame++) {
+            gain = frame == frameCount ? target : start + delta * frame / frameCount;
+            for (int c = 0; c < channelCount; c++) {
+                samples[i + c] = PcmProcessingChain.clamp((int) (samples[i + c] * gain));
+            }
+        }
+        mGain = target;
+    }
+
+    @Override
+    public void reset() {
+        mGain = mTargetGain;
+    }
+}
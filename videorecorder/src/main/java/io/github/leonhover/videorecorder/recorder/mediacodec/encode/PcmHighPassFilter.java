@@ -0,0 +1,73 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 一阶高通滤波，去掉直流偏置与低频的风噪、震动声：y[n] = x[n] - x[n-1] + R * y[n-1]，R = exp(-2πfc/fs)。
+ * 每个声道单独保存状态。
+ */
+
+public class PcmHighPassFilter implements PcmProcessor {
+
+    public static final float DEFAULT_CUTOFF_HZ = 80f;
+
+    private final float mCutoffHz;
+    private float mCoefficient;
+    private int mChannelCount;
+    private float[] mLastInput = new float[0];
+    private float[] mLastOutput = new float[0];
+
+    public PcmHighPassFilter() {
+        this(DEFAULT_CUTOFF_HZ);
+    }
+
+    /**
+     * @param cutoffHz 截止频率
+     */
+    public PcmHighPassFilter(float cutoffHz) {
+        if (cutoffHz <= 0) {
+            throw new IllegalArgumentException("bad cutoff:" + cutoffHz);
+        }
+        this.mCutoffHz = cutoffHz;
+    }
+
+    public float getCutoffHz() {
+        return mCutoffHz;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        this.mCoefficient = (float) Math.exp(-2 * Math.PI * mCutoffHz / sampleRate);
+        this.mChannelCount = channelCount;
+        if (mLastInput.length != channelCount) {
+            mLastInput = new float[channelCount];
+            mLastOutput = new float[channelCount];
+        }
+        reset();
+    }
+
+    @Override
+    public void process(short[] samples, int sampleCount) {
+        final float coefficient = mCoefficient;
+        final int channelCount = mChannelCount;
+        for (int c = 0; c < channelCount; c++) {
+            float lastInput = mLastInput[c];
+            float lastOutput = mLastOutput[c];
+            for (int i = c; i < sampleCount; i += channelCount) {
+                float input = samples[i];
+                float output = input - lastInput + coefficient * lastOutput;
+                lastInput = input;
+                lastOutput = output;
+                samples[i] = PcmProcessingChain.clamp(Math.round(output));
+            }
+            mLastInput[c] = lastInput;
+            mLastOutput[c] = lastOutput;
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int c = 0; c < mLastInput.length; c++) {
+            mLastInput[c] = 0;
+            mLastOutput[c] = 0;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.util.Arrays;
+
+/**
+ * 混音，把应用提供的PCM音源（例如背景音乐）混入麦克风的声音。作为{@link PcmProcessor}加入{@link PcmProcessingChain}，
+ * 在采集线程每读出一块麦克风数据时，从各个音源拉取同样时长的数据，按各自的增益叠加。
+ * <p>
+ * 采样率或声道数与录制不同的音源由{@link PcmResampler}实时转换。叠加后超过阈值的部分按tanh曲线压缩，
+ * 不会超过满幅产生硬截断。混音缓冲区只在块变大时重新分配，稳定运行时不分配内存。
+ * <p>
+ * 音源可以在任意线程添加和移除；{@link Source#read(short[], int, int)}在采集线程调用，不能阻塞。
+ * 音源结束后采集线程只把轨道标记为结束，之后跳过；结束的轨道在下一次添加、移除音源或者{@link #configure(int, int)}时
+ * 从轨道数组中清除，采集线程不加锁也不分配内存。
+ */
+
+public class PcmMixer implements PcmProcessor {
+
+    public static final float DEFAULT_LIMIT_THRESHOLD_DB = -3f;
+    private static final Track[] EMPTY = new Track[0];
+
+    private volatile Track[] mTracks = EMPTY;
+    private volatile float mMicGain = 1f;
+    private final float mLimitThreshold;
+    private final float mLimitKnee;
+
+    private int mSampleRate = 0;
+    private int mChannelCount = 1;
+
+    //只在采集线程使用
+    private float[] mMix = new float[0];
+    private short[] mSourceSamples = new short[0];
+    private long mLimitedCount = 0;
+
+    public PcmMixer() {
+        this(DEFAULT_LIMIT_THRESHOLD_DB);
+    }
+
+    /**
+     * @param limitThresholdDb 开始压缩的阈值，相对满幅的分贝数，不大于0
+     */
+    public PcmMixer(float limitThresholdDb) {
+        if (limitThresholdDb > 0) {
+            throw new IllegalArgumentException("threshold must not be positive:" + limitThresholdDb);
+        }
+        this.mLimitThreshold = Short.MAX_VALUE * PcmProcessingChain.dbToLinear(limitThresholdDb);
+        this.mLimitKnee = Short.MAX_VALUE - mLimitThreshold;
+    }
+
+    /**
+     * 添加一个音源
+     *
+     * @param source       音源
+     * @param sampleRate   音源的采样率
+     * @param channelCount 音源的声道数
+     * @param gain         增益，线性倍数
+     * @return 音源对应的轨道，用于修改增益和移除
+     */
+    public synchronized Track addSource(Source source, int sampleRate, int channelCount, float gain) {
+        Track track = new Track(new PcmResampler(source, sampleRate, channelCount), gain);
+        if (mSampleRate > 0) {
+            track.mResampler.configure(mSampleRate, mChannelCount);
+        }
+        mTracks = compact(mTracks, null, track);
+        return track;
+    }
+
+    /**
+     * 移除音源，已经结束的音源也一并清除
+     *
+     * @return 音源已经结束或者不在混音中时返回false
+     */
+    public synchronized boolean removeSource(Track track) {
+        boolean isActive = false;
+        for (Track t : mTracks) {
+            if (t == track && !t.isFinished) {
+                isActive = true;
+                break;
+            }
+        }
+        mTracks = compact(mTracks, track, null);
+        return isActive;
+    }
+
+    /**
+     * 去掉结束的轨道与removed，在末尾加上added，不在采集线程调用
+     *
+     * @param removed 需要移除的轨道，可以为null
+     * @param added   需要添加的轨道，可以为null
+     */
+    private static Track[] compact(Track[] old, Track removed, Track added) {
+        //采集线程随时可能标记结束，只读一次isFinished
+        Track[] tracks = new Track[old.length + 1];
+        int count = 0;
+        for (Track track : old) {
+            if (track != removed && !track.isFinished) {
+                tracks[count++] = track;
+            }
+        }
+        if (added != null) {
+            tracks[count++] = added;
+        } else if (count == old.length) {
+            return old;
+        }
+        return count == 0 ? EMPTY : Arrays.copyOf(tracks, count);
+    }
+
+    /**
+     * 没有结束的音源数量
+     */
+    public int getSourceCount() {
+        int count = 0;
+        for (Track track : mTracks) {
+            if (!track.isFinished) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 麦克风的增益，为0时只保留音源的声音
+     */
+    public void setMicGain(float gain) {
+        this.mMicGain = gain;
+    }
+
+    public float getMicGain() {
+        return mMicGain;
+    }
+
+    /**
+     * 超过阈值被压缩的采样数
+     */
+    public long getLimitedCount() {
+        return mLimitedCount;
+    }
+
+    @Override
+    public synchronized void configure(int sampleRate, int channelCount) {
+        this.mSampleRate = sampleRate;
+        this.mChannelCount = channelCount;
+        mTracks = compact(mTracks, null, null);
+        for (Track track : mTracks) {
+            track.mResampler.configure(sampleRate, channelCount);
+        }
+    }
+
+    @Override
+    public void process(short[] samples, int sampleCount) {
+        final Track[] tracks = mTracks;
+        final float micGain = mMicGain;
+        if (tracks.length == 0 && micGain == 1f) {
+            return;
+        }
+        if (mMix.length < sampleCount) {
+            mMix = new float[sampleCount];
+            mSourceSamples = new short[sampleCount];
+        }
+        final float[] mix = mMix;
+        final short[] sourceSamples = mSourceSamples;
+        final int frameCount = sampleCount / mChannelCount;
+
+        for (int i = 0; i < sampleCount; i++) {
+            mix[i] = samples[i] * micGain;
+        }
+
+        for (Track track : tracks) {
+            if (track.isFinished) {
+                continue;
+            }
+            if (track.mResampler.read(sourceSamples, frameCount) < 0) {
+                //只做标记，由添加、移除音源的线程清除
+                track.isFinished = true;
+                continue;
+            }
+            final float gain = track.mGain;
+            for (int i = 0; i < sampleCount; i++) {
+                mix[i] += sourceSamples[i] * gain;
+            }
+        }
+
+        final float threshold = mLimitThreshold;
+        final float knee = mLimitKnee;
+        for (int i = 0; i < sampleCount; i++) {
+            float value = mix[i];
+            if (value > threshold) {
+                value = threshold + knee * (float) Math.tanh((value - threshold) / knee);
+                mLimitedCount++;
+            } else if (value < -threshold) {
+                value = -threshold - knee * (float) Math.tanh((-value - threshold) / knee);
+                mLimitedCount++;
+            }
+            samples[i] = (short) value;
+        }
+    }
+
+    @Override
+    public void reset() {
+        mLimitedCount = 0;
+        for (Track track : mTracks) {
+            track.mResampler.reset();
+        }
+    }
+
+    /**
+     * 一个音源在混音中的轨道
+     */
+    public static class Track {
+        private final PcmResampler mResampler;
+        private volatile float mGain;
+        //音源结束并且数据已经全部混入
+        private volatile boolean isFinished = false;
+
+        private Track(PcmResampler resampler, float gain) {
+            this.mResampler = resampler;
+            this.mGain = gain;
+        }
+
+        /**
+         * 设置增益，可以在任意线程调用
+         */
+        public void setGain(float gain) {
+            this.mGain = gain;
+        }
+
+        public float getGain() {
+            return mGain;
+        }
+
+        /**
+         * 音源数据不够、混入了静音的次数
+         */
+        public long getUnderrunCount() {
+            return mResampler.getUnderrunCount();
+        }
+
+        /**
+         * 音源已经结束，数据全部混入
+         */
+        public boolean isFinished() {
+            return isFinished;
+        }
+    }
+
+    /**
+     * 应用提供的PCM音源，16位，交错排列
+     */
+    public interface Source {
+        /**
+         * 在采集线程调用，不能阻塞
+         *
+         * @param buffer     目标
+         * @param offset     写入的起始位置，采样数
+         * @param frameCount 最多写入的帧数
+         * @return 写入的帧数，暂时没有数据时返回0，结束时返回-1
+         */
+        int read(short[] buffer, int offset, int frameCount);
+    }
+}
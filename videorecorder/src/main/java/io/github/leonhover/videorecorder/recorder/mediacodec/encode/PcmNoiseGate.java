@@ -0,0 +1,121 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 噪声门。各声道的峰值低于阈值并且超过保持时间后，增益按释放时间衰减到下限；峰值超过阈值时按启动时间恢复。
+ * 同一帧的各个声道使用相同的增益，声像不变。
+ */
+
+public class PcmNoiseGate implements PcmProcessor {
+
+    public static final float DEFAULT_THRESHOLD_DB = -50f;
+    public static final float DEFAULT_ATTACK_MS = 1f;
+    public static final float DEFAULT_HOLD_MS = 50f;
+    public static final float DEFAULT_RELEASE_MS = 100f;
+
+    private final float mThreshold;
+    private final float mFloorGain;
+    private final float mAttackMs;
+    private final float mHoldMs;
+    private final float mReleaseMs;
+
+    private int mChannelCount = 1;
+    private float mAttackCoefficient;
+    private float mReleaseCoefficient;
+    private int mHoldFrames;
+
+    private float mGain = 1f;
+    private int mHoldRemaining = 0;
+
+    public PcmNoiseGate() {
+        this(DEFAULT_THRESHOLD_DB, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @param thresholdDb 阈值，相对满幅的分贝数
+     * @param floorDb     关闭时的增益，负无穷表示静音
+     */
+    public PcmNoiseGate(float thresholdDb, float floorDb) {
+        this(thresholdDb, floorDb, DEFAULT_ATTACK_MS, DEFAULT_HOLD_MS, DEFAULT_RELEASE_MS);
+    }
+
+    public PcmNoiseGate(float thresholdDb, float floorDb, float attackMs, float holdMs, float releaseMs) {
+        this.mThreshold = Short.MAX_VALUE * PcmProcessingChain.dbToLinear(thresholdDb);
+        this.mFloorGain = PcmProcessingChain.dbToLinear(floorDb);
+        this.mAttackMs = attackMs;
+        this.mHoldMs = holdMs;
+        this.mReleaseMs = releaseMs;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+        this.mChannelCount = channelCount;
+        this.mAttackCoefficient = coefficient(mAttackMs, sampleRate);
+        this.mReleaseCoefficient = coefficient(mReleaseMs, sampleRate);
+        this.mHoldFrames = (int) (mHoldMs * sampleRate / 1000);
+        reset();
+    }
+
+    /**
+     * 一阶平滑的系数，经过指定时长达到目标的63%
+     */
+    private static float coefficient(float ms, int sampleRate) {
+        if (ms <= 0) {
+            return 1f;
+        }
+        return (float) (1 - Math.exp(-1000.0 / (ms * sampleRate)));
+    }
+
+    @Override
+    public void process(short[] samples, int sampleCount) {
+        final int channelCount = mChannelCount;
+        final float threshold = mThreshold;
+        final float floorGain = mFloorGain;
+        final float attack = mAttackCoefficient;
+        final float release = mReleaseCoefficient;
+        float gain = mGain;
+        int holdRemaining = mHoldRemaining;
+
+        for (int i = 0; i < sampleCount; i += channelCount) {
+            int peak = 0;
+            for (int c = 0; c < channelCount; c++) {
+                int sample = samples[i + c];
+                int magnitude = sample < 0 ? -sample : sample;
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+            }
+
+            if (peak >= threshold) {
+                holdRemaining = mHoldFrames;
+                gain += (1f - gain) * attack;
+            } else if (holdRemaining > 0) {
+                holdRemaining--;
+                gain += (1f - gain) * attack;
+            } else {
+                gain += (floorGain - gain) * release;
+            }
+
+            if (gain < 0.9999f) {
+                for (int c = 0; c < channelCount; c++) {
+                    samples[i + c] = (short) (samples[i + c] * gain);
+                }
+            }
+        }
+        mGain = gain;
+        mHoldRemaining = holdRemaining;
+    }
+
+    /**
+     * 当前的增益，线性倍数
+     */
+    public float getGain() {
+        return mGain;
+    }
+
+    @Override
+    public void reset() {
+        //开始时门是打开的，不会吞掉第一个字
+        mGain = 1f;
+        mHoldRemaining = mHoldFrames;
+    }
+}
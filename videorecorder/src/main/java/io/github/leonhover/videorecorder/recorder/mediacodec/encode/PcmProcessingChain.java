@@ -0,0 +1,155 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * PCM处理链，在AudioRecorder读出之后、送入编码器之前依次执行{@link PcmProcessor}，原地修改数据。
+ * <p>
+ * AudioRecord按本机字节序写入16位PCM。数据先整块读到预先分配的short数组，各个环节在数组上处理，
+ * 处理完再整块写回原来的Buffer。采集线程复用同一个Buffer，稳定运行时不分配内存。
+ * <p>
+ * 每块有读入和写回两次拷贝，都是整块的批量拷贝；而每个环节都要逐个读写所有采样，
+ * 在direct Buffer的short视图上逐个get/put比访问数组慢，环节越多差距越大，所以各个环节只处理数组。
+ * 两次拷贝的耗时以及占整条处理链的比例见PcmDspBenchmark。
+ * <p>
+ * 处理环节需要在开始录制前添加；{@link #process(ByteBuffer, int)}只能在采集线程调用。
+ */
+
+public class PcmProcessingChain {
+
+    private static final int BYTES_PER_SAMPLE = 2;
+    private static final PcmProcessor[] EMPTY = new PcmProcessor[0];
+
+    private volatile PcmProcessor[] mProcessors = EMPTY;
+    private int mSampleRate = 0;
+    private int mChannelCount = 0;
+
+    //只在采集线程使用
+    private short[] mSamples = new short[0];
+    private ByteBuffer mViewSource;
+    private ShortBuffer mView;
+
+    /**
+     * 添加一个处理环节，按添加的顺序执行
+     */
+    public synchronized void add(PcmProcessor processor) {
+        if (mSampleRate > 0) {
+            processor.configure(mSampleRate, mChannelCount);
+        }
+        PcmProcessor[] processors = new PcmProcessor[mProcessors.length + 1];
+        System.arraycopy(mProcessors, 0, processors, 0, mProcessors.length);
+        processors[mProcessors.length] = processor;
+        mProcessors = processors;
+    }
+
+    public synchronized boolean remove(PcmProcessor processor) {
+        PcmProcessor[] old = mProcessors;
+        for (int i = 0; i < old.length; i++) {
+            if (old[i] == processor) {
+                PcmProcessor[] processors = new PcmProcessor[old.length - 1];
+                System.arraycopy(old, 0, processors, 0, i);
+                System.arraycopy(old, i + 1, processors, i, old.length - i - 1);
+                mProcessors = processors;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return mProcessors.length == 0;
+    }
+
+    /**
+     * 设置采样率与声道数，配置所有的处理环节并清除状态，在编码器开始时调用
+     */
+    public synchronized void configure(int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate + " channelCount:" + channelCount);
+        }
+        this.mSampleRate = sampleRate;
+        this.mChannelCount = channelCount;
+        for (PcmProcessor processor : mProcessors) {
+            processor.configure(sampleRate, channelCount);
+            processor.reset();
+        }
+    }
+
+    /**
+     * 清除所有处理环节的状态，开始录制前调用
+     */
+    public void reset() {
+        for (PcmProcessor processor : mProcessors) {
+            processor.reset();
+        }
+    }
+
+    /**
+     * 原地处理PCM数据
+     *
+     * @param pcm    16位PCM，本机字节序，从position开始，position不变
+     * @param length 字节数
+     */
+    public void process(ByteBuffer pcm, int length) {
+        final PcmProcessor[] processors = mProcessors;
+        if (processors.length == 0 || length <= 0 || mChannelCount == 0) {
+            return;
+        }
+        int sampleCount = length / BYTES_PER_SAMPLE;
+        //不满一组声道的采样不处理
+        sampleCount -= sampleCount % mChannelCount;
+        if (sampleCount == 0) {
+            return;
+        }
+        if (mSamples.length < sampleCount) {
+            mSamples = new short[sampleCount];
+        }
+
+        ShortBuffer view = viewOf(pcm);
+        int start = pcm.position() / BYTES_PER_SAMPLE;
+        view.limit(start + sampleCount).position(start);
+        view.get(mSamples, 0, sampleCount);
+
+        for (PcmProcessor processor : processors) {
+            processor.process(mSamples, sampleCount);
+        }
+
+        view.position(start);
+        view.put(mSamples, 0, sampleCount);
+    }
+
+    /**
+     * 按本机字节序访问Buffer的short视图，Buffer不变时复用
+     */
+    private ShortBuffer viewOf(ByteBuffer pcm) {
+        if (mViewSource != pcm) {
+            ByteBuffer duplicate = pcm.duplicate();
+            duplicate.clear();
+            mView = duplicate.order(ByteOrder.nativeOrder()).asShortBuffer();
+            mViewSource = pcm;
+        }
+        return mView;
+    }
+
+    /**
+     * 把采样限制在16位的范围内
+     */
+    static short clamp(int sample) {
+        if (sample > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (sample < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) sample;
+    }
+
+    /**
+     * 分贝转换为线性倍数
+     */
+    public static float dbToLinear(float db) {
+        return (float) Math.pow(10, db / 20);
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 16位PCM的处理环节，由{@link PcmProcessingChain}在采集线程调用，原地修改采样。
+ * <p>
+ * 处理过程中不能分配内存，需要的状态在{@link #configure(int, int)}中准备好。
+ */
+
+public interface PcmProcessor {
+
+    /**
+     * 开始录制前调用，按采样率与声道数计算系数、准备状态
+     *
+     * @param sampleRate   采样率
+     * @param channelCount 声道数
+     */
+    void configure(int sampleRate, int channelCount);
+
+    /**
+     * 处理一段交错排列的采样
+     *
+     * @param samples     采样
+     * @param sampleCount 采样数，所有声道合计，是声道数的整数倍
+     */
+    void process(short[] samples, int sampleCount);
+
+    /**
+     * 清除滤波器等内部状态，每次开始录制前调用
+     */
+    void reset();
+}
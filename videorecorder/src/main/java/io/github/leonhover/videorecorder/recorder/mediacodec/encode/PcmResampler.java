@@ -0,0 +1,157 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 从{@link PcmMixer.Source}拉取PCM，按线性插值转换成目标采样率，并转换声道数（单声道复制到各声道，双声道转单声道取平均）。
+ * <p>
+ * 上一块剩下的采样与插值位置保留到下一块，块与块之间连续。音源暂时没有数据时输出静音并计数，不会阻塞采集线程。
+ * 输入缓冲区只在需要更大时才重新分配，稳定运行时不分配内存。非线程安全。
+ */
+
+public class PcmResampler {
+
+    private final PcmMixer.Source mSource;
+    private final int mSourceRate;
+    private final int mSourceChannelCount;
+
+    private int mTargetChannelCount;
+    //每个输出帧前进的输入帧数
+    private double mRatio = 1;
+
+    //从音源读出还没有用完的帧，交错排列
+    private short[] mInput = new short[0];
+    private int mInputFrames = 0;
+    //下一个输出帧在mInput中的位置
+    private double mPhase = 0;
+    private boolean isSourceEnded = false;
+
+    private long mUnderrunCount = 0;
+
+    /**
+     * @param source       音源
+     * @param sampleRate   音源的采样率
+     * @param channelCount 音源的声道数
+     */
+    public PcmResampler(PcmMixer.Source source, int sampleRate, int channelCount) {
+        if (sampleRate <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("sampleRate:" + sampleRate + " channelCount:" + channelCount);
+        }
+        this.mSource = source;
+        this.mSourceRate = sampleRate;
+        this.mSourceChannelCount = channelCount;
+        this.mTargetChannelCount = channelCount;
+    }
+
+    /**
+     * 设置输出的采样率与声道数，清除之前的状态
+     */
+    public void configure(int sampleRate, int channelCount) {
+        this.mRatio = (double) mSourceRate / sampleRate;
+        this.mTargetChannelCount = channelCount;
+        reset();
+    }
+
+    /**
+     * 输出一块数据
+     *
+     * @param out        输出，交错排列，目标声道数
+     * @param frameCount 输出的帧数，音源数据不够时剩下的部分填充静音
+     * @return 实际来自音源的帧数，音源已经结束并且数据用完时返回-1
+     */
+    public int read(short[] out, int frameCount) {
+        final int sourceChannels = mSourceChannelCount;
+        final int targetChannels = mTargetChannelCount;
+        final double ratio = mRatio;
+        double phase = mPhase;
+
+        //插值需要两个相邻的输入帧
+        int needed = (int) (phase + ratio * (frameCount - 1)) + 2;
+        fill(needed);
+        final short[] input = mInput;
+        final int inputFrames = mInputFrames;
+
+        int produced = 0;
+        for (; produced < frameCount; produced++) {
+            double position = phase + produced * ratio;
+            int index = (int) position;
+            if (index + 1 >= inputFrames) {
+                break;
+            }
+            float fraction = (float) (position - index);
+            int base = index * sourceChannels;
+            int next = base + sourceChannels;
+            int outBase = produced * targetChannels;
+            if (sourceChannels == 2 && targetChannels == 1) {
+                float a = (input[base] + input[base + 1]) * 0.5f;
+                float b = (input[next] + input[next + 1]) * 0.5f;
+                out[outBase] = (short) (a + (b - a) * fraction);
+            } else {
+                for (int c = 0; c < targetChannels; c++) {
+                    int channel = c % sourceChannels;
+                    float a = input[base + channel];
+                    float b = input[next + channel];
+                    out[outBase + c] = (short) (a + (b - a) * fraction);
+                }
+            }
+        }
+
+        if (produced < frameCount) {
+            for (int i = produced * targetChannels; i < frameCount * targetChannels; i++) {
+                out[i] = 0;
+            }
+            if (produced == 0 && isSourceEnded) {
+                return -1;
+            }
+            if (!isSourceEnded) {
+                mUnderrunCount++;
+            }
+        }
+
+        //丢掉已经用完的输入帧
+        double advance = phase + produced * ratio;
+        int consumed = Math.min((int) advance, inputFrames);
+        mPhase = advance - consumed;
+        if (consumed > 0) {
+            System.arraycopy(input, consumed * sourceChannels, input, 0, (inputFrames - consumed) * sourceChannels);
+            mInputFrames = inputFrames - consumed;
+        }
+        return produced;
+    }
+
+    /**
+     * 从音源读出数据，直到有needed帧或者音源暂时没有数据
+     */
+    private void fill(int needed) {
+        if (mInput.length < needed * mSourceChannelCount) {
+            short[] input = new short[needed * mSourceChannelCount];
+            System.arraycopy(mInput, 0, input, 0, mInputFrames * mSourceChannelCount);
+            mInput = input;
+        }
+        while (mInputFrames < needed && !isSourceEnded) {
+            int read = mSource.read(mInput, mInputFrames * mSourceChannelCount, needed - mInputFrames);
+            if (read < 0) {
+                isSourceEnded = true;
+            } else if (read == 0) {
+                break;
+            } else {
+                mInputFrames += read;
+            }
+        }
+    }
+
+    public boolean isSourceEnded() {
+        return isSourceEnded;
+    }
+
+    /**
+     * 音源数据不够、输出了静音的次数
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    public void reset() {
+        mInputFrames = 0;
+        mPhase = 0;
+        mUnderrunCount = 0;
+    }
+}
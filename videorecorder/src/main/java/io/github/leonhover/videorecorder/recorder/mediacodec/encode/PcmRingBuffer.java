@@ -0,0 +1,284 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 单生产者单消费者的PCM环形缓冲区，采集线程写入，编码器的输入线程读出。
+ * <p>
+ * 数据保存在预先分配的堆外内存中，写入时复制一次，读出时直接复制到MediaCodec的输入Buffer，稳定运行时不分配内存。
+ * 空间不足时整次写入丢弃，并计入溢出次数与丢弃的字节数，不会覆盖还没有读出的数据。
+ * <p>
+ * 时间戳按字节数推算：写入的时间戳与按字节数推算的时间相差超过容差，或者之前发生过溢出并且时间戳不连续时，记录一个时间标记，
+ * 之后的数据都相对最近的标记推算。一次读出不会跨过时间标记，保证读出的数据时间连续。
+ * <p>
+ * {@link #write(ByteBuffer, int, long)}只能在一个线程调用，读出相关的方法只能在另一个线程调用，不需要加锁。
+ */
+
+public class PcmRingBuffer {
+
+    //默认的时间戳容差，超过时记录新的时间标记
+    public static final long DEFAULT_DISCONTINUITY_US = 20 * 1000;
+    private static final int DEFAULT_MARK_CAPACITY = 64;
+    //按字节数推算时间戳的取整误差
+    private static final long ROUNDING_US = 1;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mBytesPerSecond;
+    //生产者与消费者各自使用的视图，避免每次操作都duplicate
+    private final ByteBuffer mWriteView;
+    private final ByteBuffer mReadView;
+
+    //累计写入与读出的字节数，取模得到在缓冲区中的位置
+    private volatile long mWritePosition = 0;
+    private volatile long mReadPosition = 0;
+
+    //时间标记：标记处的字节位置与时间戳
+    private final long[] mMarkPositions;
+    private final long[] mMarkPtsUs;
+    private volatile long mMarkWriteIndex = 0;
+    private volatile long mMarkReadIndex = 0;
+
+    private long mDiscontinuityUs = DEFAULT_DISCONTINUITY_US;
+
+    //只在生产者线程使用
+    private boolean hasOverflowSinceWrite = false;
+    private volatile long mOverflowCount = 0;
+    private volatile long mDroppedBytes = 0;
+
+    /**
+     * @param capacity       容量，字节
+     * @param bytesPerSecond 每秒的PCM字节数，采样率 * 声道数 * 每个采样的字节数
+     */
+    public PcmRingBuffer(int capacity, int bytesPerSecond) {
+        this(capacity, bytesPerSecond, DEFAULT_MARK_CAPACITY);
+    }
+
+    /**
+     * @param capacity       容量，字节
+     * @param bytesPerSecond 每秒的PCM字节数，采样率 * 声道数 * 每个采样的字节数
+     * @param markCapacity   最多保存的时间标记数量，用完时写入按溢出处理
+     */
+    public PcmRingBuffer(int capacity, int bytesPerSecond, int markCapacity) {
+        if (capacity <= 0 || bytesPerSecond <= 0 || markCapacity <= 0) {
+            throw new IllegalArgumentException("capacity:" + capacity + " bytesPerSecond:" + bytesPerSecond
+                    + " markCapacity:" + markCapacity);
+        }
+        this.mCapacity = capacity;
+        this.mBytesPerSecond = bytesPerSecond;
+        this.mBuffer = ByteBuffer.allocateDirect(capacity);
+        this.mWriteView = mBuffer.duplicate();
+        this.mReadView = mBuffer.duplicate();
+        this.mMarkPositions = new long[markCapacity];
+        this.mMarkPtsUs = new long[markCapacity];
+    }
+
+    /**
+     * 设置时间戳容差，写入的时间戳与推算的时间相差超过容差时记录新的时间标记
+     */
+    public void setDiscontinuityThreshold(long thresholdUs) {
+        this.mDiscontinuityUs = thresholdUs;
+    }
+
+    /**
+     * 写入PCM数据，生产者线程调用
+     *
+     * @param src                数据，从position开始，写入成功后position前进length
+     * @param length             长度
+     * @param presentationTimeUs 第一个采样的时间戳
+     * @return 空间不足时丢弃并返回false
+     */
+    public boolean write(ByteBuffer src, int length, long presentationTimeUs) {
+        long writePosition = mWritePosition;
+        long markWriteIndex = mMarkWriteIndex;
+        if (length > mCapacity - (int) (writePosition - mReadPosition)) {
+            onOverflow(length);
+            return false;
+        }
+
+        boolean needMark = markWriteIndex == 0;
+        if (!needMark) {
+            int last = (int) ((markWriteIndex - 1) % mMarkPositions.length);
+            long expectedUs = mMarkPtsUs[last] + toDurationUs(writePosition - mMarkPositions[last]);
+            //溢出后只有重新写入被丢弃的数据时才沿用之前的标记，时间戳仍然从原来的标记精确推算；
+            //否则丢弃的数据造成了间隔，需要新的标记
+            long thresholdUs = hasOverflowSinceWrite ? ROUNDING_US : mDiscontinuityUs;
+            needMark = Math.abs(presentationTimeUs - expectedUs) > thresholdUs;
+        }
+        if (needMark) {
+            if (markWriteIndex - mMarkReadIndex >= mMarkPositions.length) {
+                onOverflow(length);
+                return false;
+            }
+            int index = (int) (markWriteIndex % mMarkPositions.length);
+            mMarkPositions[index] = writePosition;
+            mMarkPtsUs[index] = presentationTimeUs;
+        }
+
+        int offset = (int) (writePosition % mCapacity);
+        int first = Math.min(length, mCapacity - offset);
+        int srcLimit = src.limit();
+        src.limit(src.position() + first);
+        mWriteView.limit(offset + first).position(offset);
+        mWriteView.put(src);
+        if (first < length) {
+            src.limit(src.position() + length - first);
+            mWriteView.limit(length - first).position(0);
+            mWriteView.put(src);
+        }
+        src.limit(srcLimit);
+
+        hasOverflowSinceWrite = false;
+        if (needMark) {
+            mMarkWriteIndex = markWriteIndex + 1;
+        }
+        //最后更新写入位置，消费者看到新位置时数据与标记都已经写好
+        mWritePosition = writePosition + length;
+        return true;
+    }
+
+    private void onOverflow(int length) {
+        hasOverflowSinceWrite = true;
+        mOverflowCount++;
+        mDroppedBytes += length;
+    }
+
+    /**
+     * 可以读出的字节数，消费者线程调用
+     */
+    public int available() {
+        return (int) (mWritePosition - mReadPosition);
+    }
+
+    /**
+     * 到下一个时间标记为止可以读出的字节数，小于{@link #available()}时说明之后的数据时间不连续，消费者线程调用
+     */
+    public int availableUntilMark() {
+        long readPosition = mReadPosition;
+        int available = (int) (mWritePosition - readPosition);
+        if (available == 0) {
+            return 0;
+        }
+        advanceMark(readPosition);
+        long markReadIndex = mMarkReadIndex;
+        if (markReadIndex + 1 < mMarkWriteIndex) {
+            long nextMarkPosition = mMarkPositions[(int) ((markReadIndex + 1) % mMarkPositions.length)];
+            return (int) Math.min(available, nextMarkPosition - readPosition);
+        }
+        return available;
+    }
+
+    /**
+     * 下一个要读出的字节的时间戳，消费者线程调用
+     *
+     * @return 没有数据时返回-1
+     */
+    public long peekPresentationTimeUs() {
+        long readPosition = mReadPosition;
+        if (mWritePosition == readPosition) {
+            return -1;
+        }
+        int mark = advanceMark(readPosition);
+        return mMarkPtsUs[mark] + toDurationUs(readPosition - mMarkPositions[mark]);
+    }
+
+    /**
+     * 读出数据，不会跨过下一个时间标记，消费者线程调用
+     *
+     * @param dst      目标，从position开始写入，position前进读出的长度
+     * @param maxBytes 最多读出的字节数
+     * @return 读出的字节数
+     */
+    public int read(ByteBuffer dst, int maxBytes) {
+        long readPosition = mReadPosition;
+        int length = Math.min(Math.min(maxBytes, dst.remaining()), (int) (mWritePosition - readPosition));
+        if (length <= 0) {
+            return 0;
+        }
+
+        advanceMark(readPosition);
+        long markReadIndex = mMarkReadIndex;
+        if (markReadIndex + 1 < mMarkWriteIndex) {
+            long nextMarkPosition = mMarkPositions[(int) ((markReadIndex + 1) % mMarkPositions.length)];
+            length = (int) Math.min(length, nextMarkPosition - readPosition);
+        }
+
+        int offset = (int) (readPosition % mCapacity);
+        int first = Math.min(length, mCapacity - offset);
+        mReadView.limit(offset + first).position(offset);
+        dst.put(mReadView);
+        if (first < length) {
+            mReadView.limit(length - first).position(0);
+            dst.put(mReadView);
+        }
+
+        mReadPosition = readPosition + length;
+        return length;
+    }
+
+    /**
+     * 丢掉readPosition之前已经用完的时间标记
+     *
+     * @return 当前使用的标记
+     */
+    private int advanceMark(long readPosition) {
+        long markReadIndex = mMarkReadIndex;
+        long markWriteIndex = mMarkWriteIndex;
+        while (markReadIndex + 1 < markWriteIndex
+                && mMarkPositions[(int) ((markReadIndex + 1) % mMarkPositions.length)] <= readPosition) {
+            markReadIndex++;
+        }
+        mMarkReadIndex = markReadIndex;
+        return (int) (markReadIndex % mMarkPositions.length);
+    }
+
+    private long toDurationUs(long bytes) {
+        return bytes * 1000000L / mBytesPerSecond;
+    }
+
+    /**
+     * 清空数据与计数，需要在生产者与消费者都停止时调用
+     */
+    public void clear() {
+        mWritePosition = 0;
+        mReadPosition = 0;
+        mMarkWriteIndex = 0;
+        mMarkReadIndex = 0;
+        hasOverflowSinceWrite = false;
+        mOverflowCount = 0;
+        mDroppedBytes = 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * 因为空间不足而丢弃的写入次数
+     */
+    public long getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    public long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    public long getWrittenBytes() {
+        return mWritePosition;
+    }
+
+    public long getReadBytes() {
+        return mReadPosition;
+    }
+
+    @Override
+    public String toString() {
+        return "written:" + mWritePosition + " read:" + mReadPosition + " overflow:" + mOverflowCount
+                + " dropped:" + mDroppedBytes + "B";
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+/**
+ * 软限幅。低于阈值的采样不变，高于阈值的部分按tanh曲线压缩，输出不会超过满幅，不产生硬截断的失真。
+ * <p>
+ * 曲线预先计算成查找表，处理时每个采样只查一次表。
+ */
+
+public class PcmSoftLimiter implements PcmProcessor {
+
+    public static final float DEFAULT_THRESHOLD_DB = -6f;
+
+    //按幅度0~32768查表
+    private final short[] mCurve = new short[Short.MAX_VALUE + 2];
+    private float mThresholdDb;
+
+    public PcmSoftLimiter() {
+        this(DEFAULT_THRESHOLD_DB);
+    }
+
+    /**
+     * @param thresholdDb 开始压缩的阈值，相对满幅的分贝数，不大于0
+     */
+    public PcmSoftLimiter(float thresholdDb) {
+        setThresholdDb(thresholdDb);
+    }
+
+    /**
+     * 修改阈值，需要在开始录制前调用
+     */
+    public synchronized void setThresholdDb(float thresholdDb) {
+        if (thresholdDb > 0) {
+            throw new IllegalArgumentException("threshold must not be positive:" + thresholdDb);
+        }
+        this.mThresholdDb = thresholdDb;
+        final float max = Short.MAX_VALUE;
+        final float threshold = max * PcmProcessingChain.dbToLinear(thresholdDb);
+        final float knee = max - threshold;
+        for (int i = 0; i < mCurve.length; i++) {
+            if (i <= threshold || knee <= 0) {
+                mCurve[i] = (short) Math.min(i, Short.MAX_VALUE);
+            } else {
+                mCurve[i] = (short) Math.round(threshold + knee * Math.tanh((i - threshold) / knee));
+            }
+        }
+    }
+
+    public float getThresholdDb() {
+        return mThresholdDb;
+    }
+
+    @Override
+    public void configure(int sampleRate, int channelCount) {
+    }
+
+    @Override
+    public void process(short[] samples, int sampleCount) {
+        final short[] curve = mCurve;
+        for (int i = 0; i < sampleCount; i++) {
+            int sample = samples[i];
+            samples[i] = sample >= 0 ? curve[sample] : (short) -curve[-sample];
+        }
+    }
+
+    @Override
+    public void reset() {
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.leonhover.videorecorder.pub.Profile;
+
+/**
+ * {@link EncoderPool}中一种编码器的空闲列表，每组编码参数最多保留一个空闲的编码器。
+ * 编码器的创建、prepare与释放交给{@link Factory}，与具体的编码器类型无关。
+ * <p>
+ * 没有相同参数的空闲编码器时，取一个其他参数的空闲编码器按新的参数重新prepare，留给之后的录制，省去创建编码线程的时间。
+ * 取编码器从不等待prepare，调用者直接创建新的编码器，录制的启动不会因为池而变慢。
+ * 空闲超过{@link #setIdleTimeout(long) 空闲时长}的编码器在下一次访问时释放。线程安全。
+ */
+
+class PooledEncoders<T> {
+
+    private static final String TAG = "PooledEncoders";
+
+    private final Factory<T> mFactory;
+    private final Object mLocker = new Object();
+    private final List<Entry<T>> mEntries = new ArrayList<Entry<T>>();
+
+    private long mIdleTimeoutMs;
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+    private int mReprepareCount = 0;
+    private boolean isReleased = false;
+
+    /**
+     * @param factory       编码器的创建、prepare与释放
+     * @param idleTimeoutMs 空闲超过这个时长的编码器被释放，0表示不释放
+     */
+    PooledEncoders(Factory<T> factory, long idleTimeoutMs) {
+        this.mFactory = factory;
+        this.mIdleTimeoutMs = idleTimeoutMs;
+    }
+
+    void setIdleTimeout(long idleTimeoutMs) {
+        synchronized (mLocker) {
+            this.mIdleTimeoutMs = idleTimeoutMs;
+        }
+    }
+
+    /**
+     * 池中没有相同参数的编码器时创建一个并prepare
+     */
+    void prewarm(Profile profile) {
+        synchronized (mLocker) {
+            trimIdleLocked();
+            if (isReleased) {
+                Log.w(TAG, "prewarm after release");
+                return;
+            }
+            String key = mFactory.key(profile);
+            if (find(key) == null) {
+                T encoder = mFactory.create();
+                add(key, encoder);
+                mFactory.prepare(encoder, profile);
+            }
+        }
+    }
+
+    /**
+     * 取出一个已经prepare好的编码器，不会等待
+     *
+     * @return 没有相同参数的编码器或者它还在prepare时返回null
+     */
+    T acquire(Profile profile) {
+        synchronized (mLocker) {
+            trimIdleLocked();
+            String key = mFactory.key(profile);
+            Entry<T> entry = find(key);
+            if (entry == null) {
+                entry = findPreparedIdle();
+                if (entry == null || isReleased) {
+                    mMissCount++;
+                    Log.d(TAG, "acquire miss key:" + key);
+                    return null;
+                }
+                //其他参数的空闲编码器按新的参数重新prepare
+                Log.d(TAG, "acquire reprepare key:" + entry.key + " -> " + key);
+                mReprepareCount++;
+                entry.key = key;
+                entry.isPrepared = false;
+                entry.idleSinceMs = System.currentTimeMillis();
+                mFactory.prepare(entry.encoder, profile);
+            }
+
+            if (!entry.isPrepared || !mEntries.remove(entry)) {
+                //还没有prepare完成，留在池中，这一次使用新的编码器
+                mMissCount++;
+                Log.d(TAG, "acquire preparing key:" + key);
+                return null;
+            }
+            mHitCount++;
+            Log.d(TAG, "acquire hit key:" + key);
+            return entry.encoder;
+        }
+    }
+
+    /**
+     * 归还停止后的编码器并重新prepare，池中已经有相同参数的编码器或者池已经释放时直接释放
+     */
+    void recycle(T encoder, Profile profile) {
+        synchronized (mLocker) {
+            trimIdleLocked();
+            String key = mFactory.key(profile);
+            if (isReleased || find(key) != null) {
+                mFactory.release(encoder);
+                return;
+            }
+            add(key, encoder);
+            mFactory.prepare(encoder, profile);
+        }
+    }
+
+    /**
+     * prepare完成，由{@link Factory#prepare(Object, Profile)}设置的回调调用
+     */
+    void onPrepared(T encoder) {
+        synchronized (mLocker) {
+            for (Entry<T> entry : mEntries) {
+                if (entry.encoder == encoder) {
+                    entry.isPrepared = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 释放空闲超时的编码器
+     */
+    void trimIdle() {
+        synchronized (mLocker) {
+            trimIdleLocked();
+        }
+    }
+
+    /**
+     * 释放所有的编码器，之后归还的编码器也会直接释放
+     */
+    void release() {
+        synchronized (mLocker) {
+            isReleased = true;
+            for (Entry<T> entry : mEntries) {
+                mFactory.release(entry.encoder);
+            }
+            mEntries.clear();
+        }
+    }
+
+    int size() {
+        synchronized (mLocker) {
+            return mEntries.size();
+        }
+    }
+
+    int getHitCount() {
+        synchronized (mLocker) {
+            return mHitCount;
+        }
+    }
+
+    int getMissCount() {
+        synchronized (mLocker) {
+            return mMissCount;
+        }
+    }
+
+    /**
+     * 用其他参数的空闲编码器重新prepare的次数
+     */
+    int getReprepareCount() {
+        synchronized (mLocker) {
+            return mReprepareCount;
+        }
+    }
+
+    private void trimIdleLocked() {
+        if (mIdleTimeoutMs <= 0 || mEntries.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            Entry<T> entry = mEntries.get(i);
+            if (now - entry.idleSinceMs >= mIdleTimeoutMs) {
+                Log.d(TAG, "release idle key:" + entry.key);
+                mEntries.remove(i);
+                mFactory.release(entry.encoder);
+            }
+        }
+    }
+
+    private void add(String key, T encoder) {
+        Entry<T> entry = new Entry<T>();
+        entry.key = key;
+        entry.encoder = encoder;
+        entry.idleSinceMs = System.currentTimeMillis();
+        mEntries.add(entry);
+    }
+
+    private Entry<T> find(String key) {
+        for (Entry<T> entry : mEntries) {
+            if (entry.key.equals(key)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Entry<T> findPreparedIdle() {
+        for (Entry<T> entry : mEntries) {
+            if (entry.isPrepared) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static class Entry<T> {
+        String key;
+        T encoder;
+        boolean isPrepared;
+        long idleSinceMs;
+    }
+
+    /**
+     * 编码器的创建、prepare与释放
+     */
+    interface Factory<T> {
+        /**
+         * 编码参数相同的Profile返回相同的key
+         */
+        String key(Profile profile);
+
+        T create();
+
+        /**
+         * 按照Profile设置参数并异步prepare，完成后调用{@link PooledEncoders#onPrepared(Object)}
+         */
+        void prepare(T encoder, Profile profile);
+
+        void release(T encoder);
+    }
+}
@@ -5,6 +5,7 @@ import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
@@ -16,7 +17,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import io.github.leonhover.videorecorder.recorder.mediacodec.Utils;
-import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.SyncMediaMuxer;
+import io.github.leonhover.videorecorder.recorder.mediacodec.muxer.IMediaMuxer;
 import io.github.leonhover.videorecorder.recorder.mediacodec.surface.OffScreenWindow;
 
 /**
@@ -27,13 +28,46 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
 
     private static final String TAG = "VideoEncoder";
 
+    /**
+     * {@link CallBack#onInfo(VideoEncoder, int)}：码率已修改，当前码率见{@link #getCurrentBitRate()}
+     */
+    public static final int INFO_BIT_RATE_CHANGED = 100;
+    /**
+     * {@link CallBack#onInfo(VideoEncoder, int)}：已经请求编码器输出关键帧
+     */
+    public static final int INFO_SYNC_FRAME_REQUESTED = 101;
+    /**
+     * {@link CallBack#onInfo(VideoEncoder, int)}：编码器暂停接收输入
+     */
+    public static final int INFO_INPUT_SUSPENDED = 102;
+    /**
+     * {@link CallBack#onInfo(VideoEncoder, int)}：编码器恢复接收输入
+     */
+    public static final int INFO_INPUT_RESUMED = 103;
+    /**
+     * {@link CallBack#onInfo(VideoEncoder, int)}：异步模式下编码器出错，之后不再输出数据，需要停止录制
+     */
+    public static final int INFO_CODEC_ERROR = 104;
+
     private static final String VIDEO_MIME_TYPE = "video/avc";
     private static final String VIDEO_ENCODING_THREAD = "video_encoder_thread";
+    private static final String VIDEO_DRAIN_THREAD = "video_drain_thread";
+    private static final String VIDEO_CODEC_CALLBACK_THREAD = "video_codec_callback_thread";
 
     private static final int ENCODING_MSG_PREPARE = 1;
     private static final int ENCODING_MSG_START = 2;
     private static final int ENCODING_MSG_STOP = 3;
     private static final int ENCODING_MSG_CONSUME_INPUT_SURFACE = 4;
+    private static final int ENCODING_MSG_REQUEST_SYNC_FRAME = 5;
+    private static final int ENCODING_MSG_SET_BIT_RATE = 6;
+    private static final int ENCODING_MSG_SUSPEND_INPUT = 7;
+    private static final int ENCODING_MSG_CODEC_EOS = 8;
+    private static final int ENCODING_MSG_CODEC_ERROR = 9;
+
+    //输出线程等待编码数据的超时时间，超时后检查是否需要退出
+    private static final long DRAIN_TIMEOUT_US = 10 * 1000;
+    //停止时等待编码器输出EOS的最长时间
+    private static final long DRAIN_EOS_TIMEOUT_MS = 2000;
 
     private volatile boolean isEncoding = false;
 
@@ -50,18 +84,46 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
     private Handler mEncodingHandler;
     private CallBack mCallBack;
 
-    private SyncMediaMuxer mMediaMuxer;
+    private IMediaMuxer mMediaMuxer;
     private MediaCodec mMediaCodec;
+    private String mCodecName;
     private MediaCodec.BufferInfo mBufferInfo;
     private int mTrackIndex;
 
     private boolean isRequestAsynchronousMode = false;
+    private boolean isRequestDrainThread = false;
+    private Thread mDrainThread;
+    private volatile boolean isDraining = false;
+    //异步模式下MediaCodec回调所在的线程，Android M以下使用编码线程
+    private HandlerThread mCodecCallbackThread;
+    private Handler mCodecCallbackHandler;
+    //异步模式下已经请求停止，等待编码器输出EOS，只在编码线程使用
+    private boolean isStopPending = false;
+    private volatile boolean isCodecError = false;
+    //从画面更新到写入Muxer的延迟
+    private final LatencyStats mCaptureLatency = new LatencyStats();
+    //输出码流分析，开销很小，一直开启
+    private final H264StreamAnalyzer mStreamAnalyzer = new H264StreamAnalyzer();
     //是否请求了结束数据流的信号
     private boolean isRequestEOS = false;
     //是否有往Muxer中写入过Frame数据
-    private boolean hasFrameData = false;
-
-    public VideoEncoder(SyncMediaMuxer mediaMuxer) {
+    private volatile boolean hasFrameData = false;
+    //停止后保留MediaCodec，下次prepare时重新configure
+    private boolean isReusable = false;
+    //第一帧数据写入Muxer的时间，System.nanoTime()
+    private volatile long mFirstFrameTimeNs = 0;
+    //码率自适应
+    private BitrateController mBitrateController;
+    private BitrateController.QueueMonitor mQueueMonitor;
+    //编码器当前使用的码率，只在编码线程修改
+    private volatile int mAppliedBitRate;
+    //码率控制最后一次给出的码率，在输出数据的线程使用
+    private int mControllerBitRate;
+    private volatile boolean isInputSuspended = false;
+    //暂停与恢复
+    private PauseController mPauseController;
+
+    public VideoEncoder(IMediaMuxer mediaMuxer) {
         this.mMediaMuxer = mediaMuxer;
         mEncodingThread = new HandlerThread(VIDEO_ENCODING_THREAD);
         mEncodingThread.start();
@@ -89,12 +151,66 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
         mEncodingHandler.sendEmptyMessage(ENCODING_MSG_STOP);
     }
 
+    /**
+     * 请求编码器尽快输出一个关键帧，需要{@link android.os.Build.VERSION_CODES#KITKAT}以上版本
+     */
+    public void requestSyncFrame() {
+        sendParameterMessage(ENCODING_MSG_REQUEST_SYNC_FRAME, 0);
+    }
+
+    /**
+     * 录制中修改码率，需要{@link android.os.Build.VERSION_CODES#KITKAT}以上版本。
+     * 与{@link #setBitRate(int)}不同，这里修改的是正在编码的MediaCodec，可以在任意线程调用。
+     *
+     * @param bitRate 码率，单位为bit/sec
+     */
+    public void changeBitRate(int bitRate) {
+        sendParameterMessage(ENCODING_MSG_SET_BIT_RATE, bitRate);
+    }
+
+    /**
+     * 暂停或恢复编码器接收输入，暂停期间送入InputSurface的画面被编码器丢弃，
+     * 需要{@link android.os.Build.VERSION_CODES#KITKAT}以上版本，可以在任意线程调用。
+     *
+     * @param suspended true 暂停，false 恢复
+     */
+    public void setInputSuspended(boolean suspended) {
+        sendParameterMessage(ENCODING_MSG_SUSPEND_INPUT, suspended ? 1 : 0);
+    }
+
+    /**
+     * 编码器当前使用的码率
+     */
+    public int getCurrentBitRate() {
+        return mAppliedBitRate;
+    }
+
+    public boolean isInputSuspended() {
+        return isInputSuspended;
+    }
+
+    /**
+     * 参数修改插到消息队列的最前面，不用等待排在前面的编码消息，一帧的时间内生效
+     */
+    private void sendParameterMessage(int what, int arg) {
+        mEncodingHandler.sendMessageAtFrontOfQueue(mEncodingHandler.obtainMessage(what, arg, 0));
+    }
+
     /**
      * 释放视频编码器
      */
     public void release() {
         mEncodingHandler.removeCallbacksAndMessages(null);
+        mEncodingHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseCodec();
+            }
+        });
         mEncodingThread.quitSafely();
+        if (mCodecCallbackThread != null) {
+            mCodecCallbackThread.quitSafely();
+        }
         this.mCallBack = null;
         this.isEncoding = false;
     }
@@ -108,6 +224,32 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
         this.mCallBack = callBack;
     }
 
+    /**
+     * 设置编码数据写入的Muxer，复用编码器时需要在{@code start}之前重新设置
+     *
+     * @param mediaMuxer Muxer
+     */
+    public void setMediaMuxer(IMediaMuxer mediaMuxer) {
+        this.mMediaMuxer = mediaMuxer;
+    }
+
+    /**
+     * 编码器是否可以复用。可复用时停止后不释放MediaCodec与编码线程，再次{@code prepare}时重新configure，
+     * 省去创建MediaCodec的时间，不再使用时需要调用{@link #release()}。
+     *
+     * @param reusable true 可复用
+     */
+    public void setReusable(boolean reusable) {
+        this.isReusable = reusable;
+    }
+
+    /**
+     * 本次录制第一帧编码数据写入Muxer的时间，基于System.nanoTime()，还没有写入时为0
+     */
+    public long getFirstFrameTimeNs() {
+        return mFirstFrameTimeNs;
+    }
+
     /**
      * 录制的视频大小
      *
@@ -156,6 +298,54 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
         this.isRequestAsynchronousMode = on;
     }
 
+    /**
+     * 使用独立的线程阻塞等待编码器的输出，编码完成后立刻写入Muxer，不需要等到下一帧画面更新。
+     * 只在同步模式下有效。
+     *
+     * @param on true 开，false关
+     */
+    public void setDrainThreadMode(boolean on) {
+        this.isRequestDrainThread = on;
+    }
+
+    public boolean isDrainThreadMode() {
+        return isRequestDrainThread && !isAsynchronousMode();
+    }
+
+    /**
+     * 设置码率自适应控制，需要在{@code start}之前调用，需要{@link android.os.Build.VERSION_CODES#KITKAT}以上版本
+     *
+     * @param controller   码率控制，为null时不调整码率
+     * @param queueMonitor Muxer队列深度，为null时按0处理
+     */
+    public void setBitrateController(BitrateController controller, BitrateController.QueueMonitor queueMonitor) {
+        this.mBitrateController = controller;
+        this.mQueueMonitor = queueMonitor;
+    }
+
+    /**
+     * 设置暂停控制，写入Muxer前丢弃暂停期间的画面并去掉暂停的时长，需要在{@code start}之前调用
+     *
+     * @param pauseController 暂停控制，为null时不处理
+     */
+    public void setPauseController(PauseController pauseController) {
+        this.mPauseController = pauseController;
+    }
+
+    /**
+     * 从画面更新（OffScreenWindow设置的presentation time）到写入Muxer的延迟统计
+     */
+    public LatencyStats getCaptureLatencyStats() {
+        return mCaptureLatency;
+    }
+
+    /**
+     * 输出码流的分析，每次开始编码时清空
+     */
+    public H264StreamAnalyzer getStreamAnalyzer() {
+        return mStreamAnalyzer;
+    }
+
     @Override
     public boolean handleMessage(Message msg) {
         switch (msg.what) {
@@ -171,23 +361,42 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
             case ENCODING_MSG_CONSUME_INPUT_SURFACE:
                 writeMuxerDataFromEncoding(false);
                 break;
+            case ENCODING_MSG_REQUEST_SYNC_FRAME:
+                handleRequestSyncFrame();
+                break;
+            case ENCODING_MSG_SET_BIT_RATE:
+                handleSetBitRate(msg.arg1);
+                break;
+            case ENCODING_MSG_SUSPEND_INPUT:
+                handleSuspendInput(msg.arg1 != 0);
+                break;
+            case ENCODING_MSG_CODEC_EOS:
+                finishAsyncStop();
+                break;
+            case ENCODING_MSG_CODEC_ERROR:
+                handleCodecError();
+                break;
         }
         return true;
     }
 
     private void handlePrepare() {
+        long start = System.nanoTime();
+        boolean isReused = mMediaCodec != null;
 
-        if (!isAsynchronousMode()) {
+        if (isAsynchronousMode()) {
+            prepareCodecCallbackHandler();
+        } else {
             this.mBufferInfo = new MediaCodec.BufferInfo();
         }
 
-        MediaCodecInfo videoCodecInfo = Utils.chooseSuitableMediaCodec(VIDEO_MIME_TYPE);
-        if (videoCodecInfo == null) {
+        String codecName = Utils.chooseVideoEncoder(VIDEO_MIME_TYPE, mWidth, mHeight, mFrameRate, mBitRate);
+        if (codecName == null) {
             Log.e(TAG, "none supported mediacodec for mimetype:" + VIDEO_MIME_TYPE);
             return;
         }
 
-        Log.d(TAG, "mediacodec name:" + videoCodecInfo.getName());
+        Log.d(TAG, "mediacodec name:" + codecName);
 
         //组建VideoFormat
         MediaFormat mVideoFormat = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, mWidth, mHeight);
@@ -197,46 +406,344 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
         mVideoFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
 
         try {
-            mMediaCodec = MediaCodec.createByCodecName(videoCodecInfo.getName());
-            mMediaCodec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING);
-            mMediaCodec.configure(mVideoFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mInputSurface = mMediaCodec.createInputSurface();
+            if (mMediaCodec != null && codecName.equals(mCodecName)) {
+                try {
+                    configureCodec(mVideoFormat);
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "reconfigure mediacodec failed, create a new one", e);
+                    releaseCodec();
+                }
+            } else {
+                releaseCodec();
+            }
+
+            if (mMediaCodec == null) {
+                isReused = false;
+                mMediaCodec = MediaCodec.createByCodecName(codecName);
+                mCodecName = codecName;
+                configureCodec(mVideoFormat);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
+        Log.d(TAG, "prepare reused:" + isReused + " cost:" + (System.nanoTime() - start) / 1000 + "us");
         notifyEncoderCallBack(ENCODING_MSG_PREPARE);
     }
 
-    private void handleStart() {
-        Log.d(TAG, "handleStart");
-
+    private void configureCodec(MediaFormat format) {
         if (isAsynchronousMode()) {
+            //异步模式需要在configure之前设置回调
             setMediaCodecCallBack();
         }
+        mMediaCodec.setVideoScalingMode(MediaCodec.VIDEO_SCALING_MODE_SCALE_TO_FIT_WITH_CROPPING);
+        mMediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        mInputSurface = mMediaCodec.createInputSurface();
+    }
+
+    /**
+     * 停止MediaCodec，可复用时保留MediaCodec，只释放已经失效的InputSurface，否则直接释放
+     */
+    private void stopCodec() {
+        try {
+            mMediaCodec.stop();
+        } catch (IllegalStateException e) {
+            //出错后的MediaCodec可能无法stop，直接释放
+            Log.w(TAG, "stop mediacodec failed", e);
+            releaseCodec();
+            return;
+        }
+        if (isReusable) {
+            if (mInputSurface != null) {
+                mInputSurface.release();
+                mInputSurface = null;
+            }
+        } else {
+            releaseCodec();
+        }
+    }
+
+    private void releaseCodec() {
+        if (mMediaCodec != null) {
+            mMediaCodec.release();
+            mMediaCodec = null;
+            mCodecName = null;
+        }
+        if (mInputSurface != null) {
+            mInputSurface.release();
+            mInputSurface = null;
+        }
+    }
+
+    private void handleStart() {
+        Log.d(TAG, "handleStart");
+
+        //复用时上一次录制的状态需要清掉
+        isRequestEOS = false;
+        hasFrameData = false;
+        mFirstFrameTimeNs = 0;
+        mAppliedBitRate = mBitRate;
+        mControllerBitRate = mBitRate;
+        isInputSuspended = false;
+        isStopPending = false;
+        isCodecError = false;
 
         mMediaCodec.start();
 
         isEncoding = true;
+        mCaptureLatency.reset();
+        mStreamAnalyzer.reset();
+        if (isDrainThreadMode()) {
+            startDrainThread();
+        }
         notifyEncoderCallBack(ENCODING_MSG_START);
 
     }
 
     private void handleStop() {
         Log.d(TAG, "handleStop");
+        Log.d(TAG, "capture latency " + mCaptureLatency);
+        Log.d(TAG, "stream " + mStreamAnalyzer);
         if (isAsynchronousMode()) {
-            mMediaCodec.signalEndOfInputStream();
-            //just wait codec encoding eos
+            isRequestEOS = true;
+            isStopPending = true;
+            if (isCodecError) {
+                finishAsyncStop();
+            } else if (!hasFrameData) {
+                //没有写入过一帧数据，编码器不一定会输出EOS，直接结束
+                Log.d(TAG, "handleStop without frame!");
+                mMediaMuxer.cancel();
+                finishAsyncStop();
+            } else {
+                mMediaCodec.signalEndOfInputStream();
+                mEncodingHandler.sendEmptyMessageDelayed(ENCODING_MSG_CODEC_EOS, DRAIN_EOS_TIMEOUT_MS);
+            }
+        } else if (isDrainThreadMode()) {
+            isRequestEOS = true;
+            stopDrainThread();
+            isEncoding = false;
+            stopCodec();
+            notifyEncoderCallBack(ENCODING_MSG_STOP);
         } else {
             isRequestEOS = true;
             writeMuxerDataFromEncoding(true);
             mMediaCodec.flush();
-            mMediaCodec.stop();
-            mMediaCodec.release();
+            stopCodec();
             notifyEncoderCallBack(ENCODING_MSG_STOP);
         }
     }
 
+    /**
+     * 异步模式下收到EOS或者等待超时后停止MediaCodec，只处理一次
+     */
+    private void finishAsyncStop() {
+        if (!isStopPending) {
+            return;
+        }
+        isStopPending = false;
+        mEncodingHandler.removeMessages(ENCODING_MSG_CODEC_EOS);
+        isEncoding = false;
+        stopCodec();
+        notifyEncoderCallBack(ENCODING_MSG_STOP);
+    }
+
+    private void handleCodecError() {
+        notifyEncoderCallBack(INFO_CODEC_ERROR);
+        finishAsyncStop();
+    }
+
+    private void handleRequestSyncFrame() {
+        if (!isEncoding || isRequestEOS) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            requestSyncFrameKitkat();
+        } else {
+            Log.w(TAG, "request sync frame not supported, wait for next I frame");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private void requestSyncFrameKitkat() {
+        Log.d(TAG, "requestSyncFrame");
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+        if (setParameters(params)) {
+            notifyEncoderCallBack(INFO_SYNC_FRAME_REQUESTED);
+        }
+    }
+
+    private void handleSetBitRate(int bitRate) {
+        if (!isEncoding || isRequestEOS || bitRate == mAppliedBitRate) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            Log.w(TAG, "change bitrate not supported");
+            return;
+        }
+
+        Log.d(TAG, "change bitrate " + mAppliedBitRate + " -> " + bitRate);
+        if (setBitRateKitkat(bitRate)) {
+            mAppliedBitRate = bitRate;
+            notifyEncoderCallBack(INFO_BIT_RATE_CHANGED);
+        }
+    }
+
+    private void handleSuspendInput(boolean suspended) {
+        if (!isEncoding || isRequestEOS || suspended == isInputSuspended) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            Log.w(TAG, "suspend input not supported");
+            return;
+        }
+
+        Log.d(TAG, "suspend input:" + suspended);
+        if (suspendInputKitkat(suspended)) {
+            isInputSuspended = suspended;
+            notifyEncoderCallBack(suspended ? INFO_INPUT_SUSPENDED : INFO_INPUT_RESUMED);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean setBitRateKitkat(int bitRate) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        return setParameters(params);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean suspendInputKitkat(boolean suspended) {
+        Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_SUSPEND, suspended ? 1 : 0);
+        return setParameters(params);
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private boolean setParameters(Bundle params) {
+        try {
+            mMediaCodec.setParameters(params);
+            return true;
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "set parameters failed:" + params, e);
+            return false;
+        }
+    }
+
+    private void startDrainThread() {
+        isDraining = true;
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainEncoder();
+            }
+        }, VIDEO_DRAIN_THREAD);
+        mDrainThread.start();
+    }
+
+    /**
+     * 有数据写入过时先发出EOS，等输出线程收到EOS后再结束，否则直接结束输出线程。在编码线程调用。
+     */
+    private void stopDrainThread() {
+        try {
+            if (hasFrameData) {
+                mMediaCodec.signalEndOfInputStream();
+                mDrainThread.join(DRAIN_EOS_TIMEOUT_MS);
+            }
+            isDraining = false;
+            mDrainThread.join();
+        } catch (InterruptedException e) {
+            Log.e(TAG, "stopDrainThread interrupted", e);
+            isDraining = false;
+        }
+        mDrainThread = null;
+
+        if (!hasFrameData) {
+            //没有写入过一帧数据
+            Log.d(TAG, "stopDrainThread without frame!");
+            mMediaMuxer.cancel();
+        }
+    }
+
+    /**
+     * 输出线程，阻塞等待编码器的输出，直到收到EOS或者isDraining为false
+     */
+    private void drainEncoder() {
+        Log.d(TAG, "drainEncoder start");
+        MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+        ByteBuffer[] outputBuffers = mMediaCodec.getOutputBuffers();
+        while (isDraining) {
+            int outputBufferIndex = mMediaCodec.dequeueOutputBuffer(bufferInfo, DRAIN_TIMEOUT_US);
+            if (outputBufferIndex >= 0) {
+                writeEncodedData(outputBuffers[outputBufferIndex], bufferInfo);
+                mMediaCodec.releaseOutputBuffer(outputBufferIndex, false);
+
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "drainEncoder end of stream");
+                    break;
+                }
+            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                outputBuffers = mMediaCodec.getOutputBuffers();
+            } else if (outputBufferIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat mediaFormat = mMediaCodec.getOutputFormat();
+                mTrackIndex = mMediaMuxer.addVideoTrack(mediaFormat);
+                mMediaMuxer.start();
+            }
+        }
+        Log.d(TAG, "drainEncoder end");
+    }
+
+    /**
+     * 把一个输出Buffer写入Muxer并统计延迟
+     */
+    private void writeEncodedData(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+        //SPS/PPS（BUFFER_FLAG_CODEC_CONFIG）也交给Muxer，需要的Muxer（例如裸流）自己使用
+        if (bufferInfo.size != 0) {
+            boolean isCodecConfig = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+            //presentation time来自OffScreenWindow中的System.nanoTime()
+            long capturedTimeUs = bufferInfo.presentationTimeUs;
+            final PauseController pauseController = mPauseController;
+            if (!isCodecConfig && pauseController != null) {
+                long presentationTimeUs = pauseController.adjust(capturedTimeUs);
+                if (presentationTimeUs == PauseController.DROP) {
+                    return;
+                }
+                bufferInfo.presentationTimeUs = presentationTimeUs;
+            }
+            mStreamAnalyzer.analyze(encodedData, bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs);
+
+            long writeStartNs = System.nanoTime();
+            mMediaMuxer.writeSampleData(mTrackIndex, encodedData, bufferInfo);
+            if (!isCodecConfig) {
+                long nowNs = System.nanoTime();
+                if (!hasFrameData) {
+                    mFirstFrameTimeNs = nowNs;
+                }
+                hasFrameData = true;
+                mCaptureLatency.record(nowNs / 1000 - capturedTimeUs);
+                if (mBitrateController != null) {
+                    adjustBitRate(bufferInfo, (nowNs - writeStartNs) / 1000, nowNs / 1000000);
+                }
+            }
+        }
+    }
+
+    private void adjustBitRate(MediaCodec.BufferInfo bufferInfo, long writeLatencyUs, long nowMs) {
+        final BitrateController controller = mBitrateController;
+        final BitrateController.QueueMonitor queueMonitor = mQueueMonitor;
+        controller.onFrameEncoded(bufferInfo.size, bufferInfo.presentationTimeUs, writeLatencyUs);
+        int bitRate = controller.update(nowMs, queueMonitor != null ? queueMonitor.getQueueDepth() : 0);
+        if (bitRate != mControllerBitRate) {
+            Log.d(TAG, "adjust bitrate " + mControllerBitRate + " -> " + bitRate + " " + controller);
+            mControllerBitRate = bitRate;
+            //与手动修改一样在编码线程中设置
+            changeBitRate(bitRate);
+        }
+    }
+
     /**
      * 编码后的数据写入Muxer中
      */
@@ -274,16 +781,7 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
             Log.d(TAG, "outputBufferIndex=" + outputBufferIndex + " flags:" + mBufferInfo.flags);
             if (outputBufferIndex >= 0) {
 
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    mBufferInfo.size = 0;
-                }
-
-                ByteBuffer encodedData = outputBuffers[outputBufferIndex];
-
-                if (mBufferInfo.size != 0) {
-                    mMediaMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-                    hasFrameData = true;
-                }
+                writeEncodedData(outputBuffers[outputBufferIndex], mBufferInfo);
 
                 mMediaCodec.releaseOutputBuffer(outputBufferIndex, false);
 
@@ -310,48 +808,52 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
         Log.d(TAG, "writeMuxerDataFromEncoding end isEOS:" + isEOS);
     }
 
+    /**
+     * Android M以上MediaCodec的回调在单独的线程中执行，写入Muxer不会被编码线程上的prepare、参数修改等阻塞；
+     * M以下回调只能在创建MediaCodec的编码线程执行。
+     */
+    private void prepareCodecCallbackHandler() {
+        if (mCodecCallbackHandler != null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mCodecCallbackThread = new HandlerThread(VIDEO_CODEC_CALLBACK_THREAD);
+            mCodecCallbackThread.start();
+            mCodecCallbackHandler = new Handler(mCodecCallbackThread.getLooper());
+        } else {
+            mCodecCallbackHandler = mEncodingHandler;
+        }
+    }
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     private void setMediaCodecCallBack() {
-
-        mMediaCodec.setCallback(new MediaCodec.Callback() {
+        MediaCodec.Callback callback = new MediaCodec.Callback() {
             @Override
             public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
-                Log.d(TAG, "onInputBufferAvailable");
+                //输入来自Surface，不会回调
             }
 
             @Override
             public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
-                Log.d(TAG, "onOutputBufferAvailable index:" + index);
-                if (index >= 0) {
-
-                    if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        mBufferInfo.size = 0;
-                    }
-
-                    ByteBuffer outputBuffer = codec.getOutputBuffer(index);
-
-                    if (info.size != 0) {
-                        mMediaMuxer.writeSampleData(mTrackIndex, outputBuffer, info);
-                    }
-
-                    mMediaCodec.releaseOutputBuffer(index, false);
-
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        Log.e(TAG, "Encoding  end of stream");
-                        isEncoding = false;
-                        mMediaCodec.flush();
-                        mMediaCodec.stop();
-                        mMediaCodec.release();
-                        notifyEncoderCallBack(ENCODING_MSG_STOP);
-                    }
-
+                ByteBuffer outputBuffer = codec.getOutputBuffer(index);
+                if (outputBuffer != null) {
+                    writeEncodedData(outputBuffer, info);
                 }
+                codec.releaseOutputBuffer(index, false);
 
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    Log.d(TAG, "Encoding end of stream");
+                    //停止MediaCodec需要在编码线程执行
+                    mEncodingHandler.sendEmptyMessage(ENCODING_MSG_CODEC_EOS);
+                }
             }
 
             @Override
             public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
-                Log.d(TAG, "onError");
+                Log.e(TAG, "onError recoverable:" + e.isRecoverable() + " transient:" + e.isTransient()
+                        + " " + e.getDiagnosticInfo(), e);
+                isCodecError = true;
+                mEncodingHandler.sendEmptyMessage(ENCODING_MSG_CODEC_ERROR);
             }
 
             @Override
@@ -360,8 +862,18 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
                 mTrackIndex = mMediaMuxer.addVideoTrack(format);
                 mMediaMuxer.start();
             }
-        });
+        };
+
+        if (mCodecCallbackHandler != mEncodingHandler) {
+            setCallbackWithHandler(callback);
+        } else {
+            mMediaCodec.setCallback(callback);
+        }
+    }
 
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setCallbackWithHandler(MediaCodec.Callback callback) {
+        mMediaCodec.setCallback(callback, mCodecCallbackHandler);
     }
 
     private boolean isLollipop() {
@@ -375,7 +887,7 @@ public class VideoEncoder implements Handler.Callback, OffScreenWindow.CallBack
     @Override
     public void onOffScreenWindowUpdate() {
         Log.d(TAG, "onOffScreenWindowUpdate");
-        if (!isAsynchronousMode()) {
+        if (!isAsynchronousMode() && !isDrainThreadMode()) {
             mEncodingHandler.sendEmptyMessage(ENCODING_MSG_CONSUME_INPUT_SURFACE);
         }
     }
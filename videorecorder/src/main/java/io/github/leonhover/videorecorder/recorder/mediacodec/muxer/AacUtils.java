@@ -0,0 +1,74 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+/**
+ * AAC相关的工具方法，不依赖Android，可以在JVM上测试。
+ */
+
+public final class AacUtils {
+
+    public static final int ADTS_HEADER_SIZE = 7;
+    public static final int AUDIO_OBJECT_TYPE_AAC_LC = 2;
+
+    private static final int[] SAMPLING_FREQUENCIES = {
+            96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350
+    };
+
+    private AacUtils() {
+    }
+
+    /**
+     * 采样率对应的sampling_frequency_index，不支持时返回-1
+     */
+    public static int samplingFrequencyIndex(int sampleRate) {
+        for (int i = 0; i < SAMPLING_FREQUENCIES.length; i++) {
+            if (SAMPLING_FREQUENCIES[i] == sampleRate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 从AudioSpecificConfig（csd-0）中读取audioObjectType
+     */
+    public static int audioObjectType(byte[] audioSpecificConfig) {
+        return (audioSpecificConfig[0] & 0xFF) >> 3;
+    }
+
+    /**
+     * 从AudioSpecificConfig（csd-0）中读取samplingFrequencyIndex
+     */
+    public static int samplingFrequencyIndex(byte[] audioSpecificConfig) {
+        return ((audioSpecificConfig[0] & 0x07) << 1) | ((audioSpecificConfig[1] & 0xFF) >> 7);
+    }
+
+    /**
+     * 从AudioSpecificConfig（csd-0）中读取channelConfiguration
+     */
+    public static int channelConfiguration(byte[] audioSpecificConfig) {
+        return ((audioSpecificConfig[1] & 0xFF) >> 3) & 0x0F;
+    }
+
+    /**
+     * 写入不带CRC的ADTS头
+     *
+     * @param header                 至少{@link #ADTS_HEADER_SIZE}字节
+     * @param audioObjectType        例如{@link #AUDIO_OBJECT_TYPE_AAC_LC}
+     * @param samplingFrequencyIndex 采样率序号
+     * @param channelConfiguration   声道配置
+     * @param payloadSize            一帧AAC数据的长度，不包括ADTS头
+     */
+    public static void writeAdtsHeader(byte[] header, int audioObjectType, int samplingFrequencyIndex,
+                                       int channelConfiguration, int payloadSize) {
+        int frameLength = payloadSize + ADTS_HEADER_SIZE;
+        header[0] = (byte) 0xFF;
+        //MPEG-4，layer 0，没有CRC
+        header[1] = (byte) 0xF1;
+        header[2] = (byte) (((audioObjectType - 1) << 6) | (samplingFrequencyIndex << 2) | (channelConfiguration >> 2));
+        header[3] = (byte) (((channelConfiguration & 0x03) << 6) | (frameLength >> 11));
+        header[4] = (byte) ((frameLength >> 3) & 0xFF);
+        //buffer fullness为0x7FF，表示可变码率
+        header[5] = (byte) (((frameLength & 0x07) << 5) | 0x1F);
+        header[6] = (byte) 0xFC;
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 为其他Muxer加上独立写入线程的包装。编码器线程只把Sample拷贝进{@link SampleRingBuffer}，
+ * 由唯一的写入线程批量写入被包装的Muxer，磁盘IO变慢时不会阻塞另一路编码器的输出循环。
+ * {@link #stop()}会等待正在写入的编码器返回，写入线程把已经入队的Sample全部写完后才停止被包装的Muxer。
+ * <p>
+ * 队列满时编码器一直等待，直到有空间或者stop，不会丢弃Sample。可以容忍丢帧的输出可以{@link #setDropWhenFull(boolean) 允许丢弃}，
+ * 这时只丢弃视频的非关键帧，之后的视频丢弃到下一个关键帧，参数集、关键帧与音频仍然等待。
+ */
+
+public class AsyncMediaMuxer implements IMediaMuxer, SampleRingBuffer.Consumer, Runnable {
+    private static final String TAG = "AsyncMediaMuxer";
+
+    private static final String MUXER_WRITER_THREAD = "muxer_writer_thread";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final int INITIAL_SLOT_SIZE = 64 * 1024;
+    private static final int DRAIN_BATCH = 16;
+    private static final long WRITER_PARK_NANOS = 10 * 1000 * 1000L;
+    //队列满时编码器每等待这么久检查一次是否stop，并打印警告；允许丢弃时超过这个时间丢弃
+    private static final long OFFER_TIMEOUT_NANOS = 200 * 1000 * 1000L;
+    private static final long STOP_WAIT_PARK_NANOS = 100 * 1000L;
+
+    private final IMediaMuxer mMediaMuxer;
+    private final SampleRingBuffer mRingBuffer;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    private Thread mWriterThread;
+    //是否接收新的Sample
+    private volatile boolean isWriting = false;
+    //写入线程是否继续等待新的Sample
+    private volatile boolean isWriterRunning = false;
+    //正在writeSampleData中的编码器数量
+    private final AtomicInteger mActiveProducers = new AtomicInteger(0);
+    //没有在写入状态时丢弃的Sample数量
+    private final AtomicLong mRejectedCount = new AtomicLong(0);
+    //允许丢弃时因队列满丢弃的视频Sample数量
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+    private volatile boolean isDropWhenFull = false;
+    private volatile int mVideoTrackIndex = -1;
+    //只在视频编码器的线程访问
+    private boolean isWaitingKeyFrame = false;
+
+    public AsyncMediaMuxer(IMediaMuxer mediaMuxer) {
+        this(mediaMuxer, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncMediaMuxer(IMediaMuxer mediaMuxer, int queueCapacity) {
+        this.mMediaMuxer = mediaMuxer;
+        this.mRingBuffer = new SampleRingBuffer(queueCapacity, INITIAL_SLOT_SIZE);
+    }
+
+    /**
+     * 待写入的Sample数量
+     */
+    public int getQueueDepth() {
+        return mRingBuffer.size();
+    }
+
+    /**
+     * 队列满时是否允许丢弃视频的非关键帧，默认不允许，需要在{@link #start()}之前调用
+     */
+    public void setDropWhenFull(boolean dropWhenFull) {
+        this.isDropWhenFull = dropWhenFull;
+    }
+
+    /**
+     * 丢弃的Sample数量，包括允许丢弃时因队列满丢弃的视频和没有在写入状态时收到的
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get() + mRejectedCount.get();
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+        synchronized (this) {
+            if (mWriterThread == null) {
+                isWriterRunning = true;
+                isWriting = true;
+                mWriterThread = new Thread(this, MUXER_WRITER_THREAD);
+                mWriterThread.start();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        Thread writerThread;
+        synchronized (this) {
+            writerThread = mWriterThread;
+            mWriterThread = null;
+            isWriting = false;
+        }
+        //isWriting和mActiveProducers都是volatile读写，之后进入的编码器一定能看到isWriting为false
+        while (mActiveProducers.get() > 0) {
+            LockSupport.parkNanos(STOP_WAIT_PARK_NANOS);
+        }
+        if (writerThread != null) {
+            isWriterRunning = false;
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Log.d(TAG, "stop dropped:" + mDroppedCount.get() + " rejected:" + mRejectedCount.get());
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void cancel() {
+        mMediaMuxer.cancel();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        return mMediaMuxer.addAudioTrack(mediaFormat);
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        int trackIndex = mMediaMuxer.addVideoTrack(mediaFormat);
+        mVideoTrackIndex = trackIndex;
+        return trackIndex;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        mActiveProducers.incrementAndGet();
+        try {
+            if (!isWriting) {
+                if (mRejectedCount.incrementAndGet() == 1) {
+                    Log.w(TAG, "not writing, drop sample of track:" + trackIndex);
+                }
+                return;
+            }
+            boolean isVideo = trackIndex == mVideoTrackIndex;
+            boolean isDroppable = isDropWhenFull && isVideo
+                    && (bufferInfo.flags & (MediaCodec.BUFFER_FLAG_KEY_FRAME | MediaCodec.BUFFER_FLAG_CODEC_CONFIG)) == 0;
+            if (isVideo && isWaitingKeyFrame) {
+                if (isDroppable) {
+                    mDroppedCount.incrementAndGet();
+                    return;
+                }
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+                    isWaitingKeyFrame = false;
+                }
+            }
+            while (!mRingBuffer.offer(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                    bufferInfo.presentationTimeUs, bufferInfo.flags, OFFER_TIMEOUT_NANOS)) {
+                if (isDroppable) {
+                    Log.w(TAG, "queue is full, drop video until next key frame");
+                    mDroppedCount.incrementAndGet();
+                    isWaitingKeyFrame = true;
+                    return;
+                }
+                if (!isWriting) {
+                    mRejectedCount.incrementAndGet();
+                    Log.w(TAG, "stopped while waiting, drop sample of track:" + trackIndex);
+                    return;
+                }
+                Log.w(TAG, "queue is full, encoder waiting track:" + trackIndex);
+            }
+        } finally {
+            mActiveProducers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        Log.d(TAG, "writer thread start");
+        while (isWriterRunning) {
+            if (mRingBuffer.drain(this, DRAIN_BATCH) == 0) {
+                mRingBuffer.awaitSamples(WRITER_PARK_NANOS);
+            }
+        }
+        //写完停止前已经入队的数据
+        while (mRingBuffer.drain(this, DRAIN_BATCH) > 0) {
+        }
+        Log.d(TAG, "writer thread stop");
+    }
+
+    @Override
+    public void onSample(MediaSample sample) {
+        mBufferInfo.set(0, sample.size(), sample.presentationTimeUs, sample.flags);
+        mMediaMuxer.writeSampleData(sample.trackIndex, sample.data(), mBufferInfo);
+    }
+}
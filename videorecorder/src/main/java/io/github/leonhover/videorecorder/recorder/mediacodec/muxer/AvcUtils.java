@@ -0,0 +1,140 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 Annex-B码流的辅助方法，不依赖Android，全部使用绝对位置读取，不会修改ByteBuffer的position。
+ */
+
+public final class AvcUtils {
+
+    public static final int NAL_TYPE_SLICE = 1;
+    public static final int NAL_TYPE_IDR = 5;
+    public static final int NAL_TYPE_SEI = 6;
+    public static final int NAL_TYPE_SPS = 7;
+    public static final int NAL_TYPE_PPS = 8;
+    public static final int NAL_TYPE_AUD = 9;
+
+    public static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private AvcUtils() {
+    }
+
+    /**
+     * 从from开始查找下一个起始码（00 00 01或00 00 00 01）。
+     *
+     * @return 起始码第一个字节的位置，找不到时返回limit
+     */
+    public static int findStartCode(ByteBuffer buffer, int from, int limit) {
+        for (int i = from; i + 2 < limit; i++) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0) {
+                byte third = buffer.get(i + 2);
+                if (third == 1) {
+                    return i;
+                } else if (third == 0 && i + 3 < limit && buffer.get(i + 3) == 1) {
+                    return i;
+                }
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 位于position处的起始码长度，不是起始码时返回0。
+     */
+    public static int startCodeLength(ByteBuffer buffer, int position, int limit) {
+        if (position + 3 <= limit && buffer.get(position) == 0 && buffer.get(position + 1) == 0) {
+            if (buffer.get(position + 2) == 1) {
+                return 3;
+            }
+            if (position + 4 <= limit && buffer.get(position + 2) == 0 && buffer.get(position + 3) == 1) {
+                return 4;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 数据是否以Annex-B起始码开头
+     */
+    public static boolean isAnnexB(ByteBuffer buffer, int offset, int size) {
+        return startCodeLength(buffer, offset, offset + size) > 0;
+    }
+
+    /**
+     * 在第一个Slice之前是否有SPS，用于判断关键帧是否自带参数集。
+     */
+    public static boolean hasSpsBeforeSlice(ByteBuffer buffer, int offset, int size) {
+        int limit = offset + size;
+        int position = findStartCode(buffer, offset, limit);
+        while (position < limit) {
+            int nalPosition = position + startCodeLength(buffer, position, limit);
+            if (nalPosition >= limit) {
+                break;
+            }
+            int nalType = buffer.get(nalPosition) & 0x1F;
+            if (nalType == NAL_TYPE_SPS) {
+                return true;
+            }
+            if (nalType == NAL_TYPE_SLICE || nalType == NAL_TYPE_IDR) {
+                return false;
+            }
+            position = findStartCode(buffer, nalPosition, limit);
+        }
+        return false;
+    }
+
+    /**
+     * 去掉参数集前面的起始码，MediaFormat中的csd-0/csd-1通常带有起始码。
+     */
+    public static byte[] stripStartCode(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        int offset = buffer.position();
+        int limit = buffer.limit();
+        int startCodeLength = startCodeLength(buffer, offset, limit);
+        byte[] ret = new byte[limit - offset - startCodeLength];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = buffer.get(offset + startCodeLength + i);
+        }
+        return ret;
+    }
+
+    /**
+     * 拷贝offset开始的size个字节，不是Annex-B格式时在前面加上起始码。
+     */
+    public static byte[] toAnnexB(ByteBuffer buffer, int offset, int size) {
+        int startCodeLength = isAnnexB(buffer, offset, size) ? 0 : START_CODE.length;
+        byte[] ret = new byte[startCodeLength + size];
+        System.arraycopy(START_CODE, 0, ret, 0, startCodeLength);
+        for (int i = 0; i < size; i++) {
+            ret[startCodeLength + i] = buffer.get(offset + i);
+        }
+        return ret;
+    }
+
+    /**
+     * 把MediaFormat中的csd-0（SPS）和csd-1（PPS）拼接为Annex-B格式，sps为null时返回null。
+     */
+    public static byte[] toAnnexBParameterSets(ByteBuffer sps, ByteBuffer pps) {
+        if (sps == null) {
+            return null;
+        }
+        byte[] spsBytes = stripStartCode(sps);
+        byte[] ppsBytes = pps != null ? stripStartCode(pps) : new byte[0];
+        int length = START_CODE.length + spsBytes.length;
+        if (ppsBytes.length > 0) {
+            length += START_CODE.length + ppsBytes.length;
+        }
+        byte[] parameterSets = new byte[length];
+        System.arraycopy(START_CODE, 0, parameterSets, 0, START_CODE.length);
+        System.arraycopy(spsBytes, 0, parameterSets, START_CODE.length, spsBytes.length);
+        if (ppsBytes.length > 0) {
+            int position = START_CODE.length + spsBytes.length;
+            System.arraycopy(START_CODE, 0, parameterSets, position, START_CODE.length);
+            System.arraycopy(ppsBytes, 0, parameterSets, position + START_CODE.length, ppsBytes.length);
+        }
+        return parameterSets;
+    }
+}
@@ -0,0 +1,208 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 线程安全的Muxer基类，默认需要添加两个Track：视频和音频。
+ * 两个Track都添加后才真正启动，在此之前写入的Sample先拷贝到{@link PendingSampleQueue}，启动时按顺序写出，
+ * 调用{@link #start()}的编码器不需要等待另一个Track。
+ * <p>
+ * 所有的onXxx方法都在持有mLocker时调用，子类不需要再加锁。输出没有打开时添加Track返回-1，写入的Sample直接丢弃。
+ */
+
+public abstract class BaseMediaMuxer implements IMediaMuxer, SampleRingBuffer.Consumer {
+
+    //音频和视频两个轨道
+    private static final int TRACK_COUNT = 2;
+
+    private final String mTag;
+    protected final Object mLocker = new Object();
+    private boolean isStarted = false;
+    private boolean isRequestStart = false;
+    private boolean isRequestCancel = false;
+    private int mTrackCount = 0;
+    //启动前到达的Sample
+    private final PendingSampleQueue mPendingSamples = new PendingSampleQueue();
+
+    /**
+     * @param tag 日志的TAG
+     */
+    protected BaseMediaMuxer(String tag) {
+        this.mTag = tag;
+    }
+
+    @Override
+    public final void start() {
+        synchronized (mLocker) {
+            isRequestStart = true;
+            startIfReady();
+        }
+    }
+
+    /**
+     * 已请求启动并且所有Track都添加完成时启动，并写出缓存的Sample。需要持有mLocker。
+     */
+    private void startIfReady() {
+        if (!isStarted && !isRequestCancel && isRequestStart && mTrackCount == TRACK_COUNT && isOpened()) {
+            Log.d(mTag, "start pending:" + mPendingSamples.size() + " dropped:" + mPendingSamples.getDroppedCount());
+            isStarted = onStart();
+            if (isStarted) {
+                mPendingSamples.drain(this);
+            } else {
+                Log.e(mTag, "start failed, drop pending samples");
+                mPendingSamples.clear();
+            }
+        }
+    }
+
+    @Override
+    public final void stop() {
+        synchronized (mLocker) {
+            if (isStarted) {
+                isStarted = false;
+                onStop();
+            }
+        }
+    }
+
+    @Override
+    public final void cancel() {
+        Log.d(mTag, "cancel");
+        synchronized (mLocker) {
+            isRequestCancel = true;
+            mPendingSamples.clear();
+            onCancel();
+        }
+    }
+
+    @Override
+    public final void release() {
+        synchronized (mLocker) {
+            Log.d(mTag, "release");
+            onRelease();
+        }
+    }
+
+    @Override
+    public final int addAudioTrack(MediaFormat mediaFormat) {
+        return addTrack(mediaFormat, false);
+    }
+
+    @Override
+    public final int addVideoTrack(MediaFormat mediaFormat) {
+        return addTrack(mediaFormat, true);
+    }
+
+    private int addTrack(MediaFormat mediaFormat, boolean isVideo) {
+        String name = isVideo ? "addVideoTrack" : "addAudioTrack";
+        synchronized (mLocker) {
+            if (!isOpened()) {
+                Log.e(mTag, name + " output is not opened");
+                return -1;
+            }
+            int trackIndex = isVideo ? onAddVideoTrack(mediaFormat) : onAddAudioTrack(mediaFormat);
+            if (trackIndex < 0) {
+                Log.e(mTag, name + " failed");
+                return -1;
+            }
+            if (isVideo) {
+                mPendingSamples.setVideoTrackIndex(trackIndex);
+            }
+            Log.d(mTag, name);
+            mTrackCount++;
+            startIfReady();
+            return trackIndex;
+        }
+    }
+
+    @Override
+    public final void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        if (trackIndex < 0) {
+            //添加Track失败
+            Log.w(mTag, "writeSampleData drop sample of invalid track");
+            return;
+        }
+        synchronized (mLocker) {
+            if (!isOpened()) {
+                //输出打开失败，丢弃
+                return;
+            }
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                onCodecConfig(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size);
+                return;
+            }
+            if (isStarted) {
+                onWriteSample(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                        bufferInfo.presentationTimeUs, bufferInfo.flags);
+            } else if (!isRequestCancel) {
+                mPendingSamples.add(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                        bufferInfo.presentationTimeUs, bufferInfo.flags);
+            }
+        }
+    }
+
+    /**
+     * 写出启动前缓存的Sample，只在启动时调用
+     */
+    @Override
+    public final void onSample(MediaSample sample) {
+        if (isStarted) {
+            onWriteSample(sample.trackIndex, sample.data(), 0, sample.size(), sample.presentationTimeUs, sample.flags);
+        }
+    }
+
+    /**
+     * 是否已经启动，需要持有mLocker
+     */
+    protected final boolean isStarted() {
+        return isStarted;
+    }
+
+    /**
+     * 输出是否已经打开
+     */
+    protected abstract boolean isOpened();
+
+    /**
+     * 所有Track都添加完成，写入文件头等
+     *
+     * @return 启动失败时返回false，之后的Sample都被丢弃
+     */
+    protected abstract boolean onStart();
+
+    /**
+     * 只在启动成功后调用
+     */
+    protected abstract void onStop();
+
+    protected void onCancel() {
+    }
+
+    protected abstract void onRelease();
+
+    /**
+     * @return track index，失败时返回-1
+     */
+    protected abstract int onAddAudioTrack(MediaFormat mediaFormat);
+
+    /**
+     * @return track index，失败时返回-1
+     */
+    protected abstract int onAddVideoTrack(MediaFormat mediaFormat);
+
+    /**
+     * 编码器输出的参数集，默认忽略，参数集已经在MediaFormat中
+     */
+    protected void onCodecConfig(int trackIndex, ByteBuffer data, int offset, int size) {
+    }
+
+    /**
+     * 写入一个Sample，不能改变data的position与limit
+     */
+    protected abstract void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size,
+                                          long presentationTimeUs, int flags);
+}
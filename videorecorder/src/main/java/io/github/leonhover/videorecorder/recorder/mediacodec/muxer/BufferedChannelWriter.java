@@ -0,0 +1,77 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 只追加写入的缓冲Channel，攒够一大块后再写入，减少系统调用次数。超过缓冲区大小的数据直接写入。非线程安全。
+ */
+
+public class BufferedChannelWriter {
+
+    private final WritableByteChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private long mWrittenBytes = 0;
+
+    public BufferedChannelWriter(WritableByteChannel channel, int bufferSize) {
+        this.mChannel = channel;
+        this.mBuffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void write(byte[] src, int offset, int size) throws IOException {
+        if (size > mBuffer.remaining()) {
+            flush();
+        }
+        if (size > mBuffer.capacity()) {
+            writeFully(ByteBuffer.wrap(src, offset, size));
+        } else {
+            mBuffer.put(src, offset, size);
+        }
+        mWrittenBytes += size;
+    }
+
+    /**
+     * 写入src中offset开始的size个字节，不会改变src的position与limit。
+     */
+    public void write(ByteBuffer src, int offset, int size) throws IOException {
+        if (size > mBuffer.remaining()) {
+            flush();
+        }
+        int position = src.position();
+        int limit = src.limit();
+        src.limit(offset + size).position(offset);
+        try {
+            if (size > mBuffer.capacity()) {
+                writeFully(src);
+            } else {
+                mBuffer.put(src);
+            }
+        } finally {
+            src.limit(limit).position(position);
+        }
+        mWrittenBytes += size;
+    }
+
+    /**
+     * 把缓冲区中的数据写入Channel
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    /**
+     * 已写入的字节数，包括还在缓冲区中的
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            mChannel.write(src);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 输出裸流的Muxer：视频为Annex-B格式的H.264（.h264），音频为带ADTS头的AAC（.aac）。
+ * <p>
+ * 没有容器，不需要维护索引，stop时也没有收尾的开销，数据只追加写入，文件被截断时前面的部分仍然可以播放。
+ * SPS/PPS来自编码器输出的{@link MediaCodec#BUFFER_FLAG_CODEC_CONFIG}数据，并在每个不带参数集的关键帧前重复写入，
+ * 从任意关键帧开始都可以解码。音频的AudioSpecificConfig同样可以来自CODEC_CONFIG数据。
+ * <p>
+ * Track index按添加的顺序分配，输出文件打开失败时添加Track返回-1。
+ */
+
+public class ElementaryStreamMuxer implements IMediaMuxer {
+    private static final String TAG = "ElementaryStreamMuxer";
+
+    public static final String VIDEO_EXTENSION = ".h264";
+    public static final String AUDIO_EXTENSION = ".aac";
+
+    private static final String KEY_CSD_0 = "csd-0";
+    private static final String KEY_CSD_1 = "csd-1";
+
+    private static final int WRITE_BUFFER_SIZE = 512 * 1024;
+
+    private FileOutputStream mVideoStream;
+    private FileOutputStream mAudioStream;
+    private BufferedChannelWriter mVideoWriter;
+    private BufferedChannelWriter mAudioWriter;
+
+    private final Object mTrackLocker = new Object();
+    private int mTrackCount = 0;
+    private volatile int mVideoTrackIndex = -1;
+    private volatile int mAudioTrackIndex = -1;
+    private volatile boolean isRequestCancel = false;
+    private final Object mVideoLocker = new Object();
+    private final Object mAudioLocker = new Object();
+
+    //Annex-B格式的SPS和PPS
+    private byte[] mParameterSets;
+
+    private int mAudioObjectType = AacUtils.AUDIO_OBJECT_TYPE_AAC_LC;
+    private int mSamplingFrequencyIndex;
+    private int mChannelConfiguration;
+    private final byte[] mAdtsHeader = new byte[AacUtils.ADTS_HEADER_SIZE];
+
+    /**
+     * @param output 输出路径，去掉扩展名后分别加上{@link #VIDEO_EXTENSION}和{@link #AUDIO_EXTENSION}
+     */
+    public ElementaryStreamMuxer(String output) {
+        File file = new File(output);
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        File parent = file.getParentFile();
+        try {
+            Log.d(TAG, "ElementaryStreamMuxer");
+            mVideoStream = new FileOutputStream(new File(parent, baseName + VIDEO_EXTENSION));
+            mAudioStream = new FileOutputStream(new File(parent, baseName + AUDIO_EXTENSION));
+            mVideoWriter = new BufferedChannelWriter(mVideoStream.getChannel(), WRITE_BUFFER_SIZE);
+            mAudioWriter = new BufferedChannelWriter(mAudioStream.getChannel(), WRITE_BUFFER_SIZE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void start() {
+        //裸流没有文件头，收到数据就可以直接写入
+        Log.d(TAG, "start");
+    }
+
+    @Override
+    public void stop() {
+        Log.d(TAG, "stop");
+        synchronized (mVideoLocker) {
+            flush(mVideoWriter);
+        }
+        synchronized (mAudioLocker) {
+            flush(mAudioWriter);
+        }
+    }
+
+    @Override
+    public void cancel() {
+        Log.d(TAG, "cancel");
+        isRequestCancel = true;
+    }
+
+    @Override
+    public void release() {
+        Log.d(TAG, "release");
+        synchronized (mVideoLocker) {
+            flush(mVideoWriter);
+            close(mVideoStream);
+            mVideoStream = null;
+            mVideoWriter = null;
+        }
+        synchronized (mAudioLocker) {
+            flush(mAudioWriter);
+            close(mAudioStream);
+            mAudioStream = null;
+            mAudioWriter = null;
+        }
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        synchronized (mAudioLocker) {
+            if (mAudioWriter == null) {
+                Log.e(TAG, "addAudioTrack output is not opened");
+                return -1;
+            }
+            ByteBuffer csd = mediaFormat.getByteBuffer(KEY_CSD_0);
+            if (csd != null && csd.remaining() >= 2) {
+                setAudioSpecificConfig(csd, csd.position(), csd.remaining());
+            } else if (mediaFormat.containsKey(MediaFormat.KEY_SAMPLE_RATE)
+                    && mediaFormat.containsKey(MediaFormat.KEY_CHANNEL_COUNT)) {
+                mSamplingFrequencyIndex = AacUtils.samplingFrequencyIndex(mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+                mChannelConfiguration = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            }
+            Log.d(TAG, "addAudioTrack objectType:" + mAudioObjectType + " frequencyIndex:" + mSamplingFrequencyIndex
+                    + " channel:" + mChannelConfiguration);
+        }
+        mAudioTrackIndex = nextTrackIndex();
+        return mAudioTrackIndex;
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        synchronized (mVideoLocker) {
+            if (mVideoWriter == null) {
+                Log.e(TAG, "addVideoTrack output is not opened");
+                return -1;
+            }
+            if (mParameterSets == null) {
+                //编码器输出CODEC_CONFIG之前先使用MediaFormat中的参数集
+                mParameterSets = AvcUtils.toAnnexBParameterSets(mediaFormat.getByteBuffer(KEY_CSD_0),
+                        mediaFormat.getByteBuffer(KEY_CSD_1));
+            }
+        }
+        Log.d(TAG, "addVideoTrack");
+        mVideoTrackIndex = nextTrackIndex();
+        return mVideoTrackIndex;
+    }
+
+    private int nextTrackIndex() {
+        synchronized (mTrackLocker) {
+            return mTrackCount++;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        if (isRequestCancel || bufferInfo.size <= 0 || trackIndex < 0) {
+            return;
+        }
+        try {
+            if (trackIndex == mVideoTrackIndex) {
+                writeVideoSample(byteBuffer, bufferInfo);
+            } else if (trackIndex == mAudioTrackIndex) {
+                writeAudioSample(byteBuffer, bufferInfo);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeSampleData failed track:" + trackIndex, e);
+        }
+    }
+
+    private void writeVideoSample(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) throws IOException {
+        int offset = bufferInfo.offset;
+        int size = bufferInfo.size;
+        boolean isAnnexB = AvcUtils.isAnnexB(byteBuffer, offset, size);
+        synchronized (mVideoLocker) {
+            if (mVideoWriter == null) {
+                return;
+            }
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                mParameterSets = AvcUtils.toAnnexB(byteBuffer, offset, size);
+                return;
+            }
+
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0 && mParameterSets != null
+                    && !(isAnnexB && AvcUtils.hasSpsBeforeSlice(byteBuffer, offset, size))) {
+                mVideoWriter.write(mParameterSets, 0, mParameterSets.length);
+            }
+            if (!isAnnexB) {
+                mVideoWriter.write(AvcUtils.START_CODE, 0, AvcUtils.START_CODE.length);
+            }
+            mVideoWriter.write(byteBuffer, offset, size);
+        }
+    }
+
+    private void writeAudioSample(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) throws IOException {
+        synchronized (mAudioLocker) {
+            if (mAudioWriter == null) {
+                return;
+            }
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                //AudioSpecificConfig，只用于生成ADTS头
+                if (bufferInfo.size >= 2) {
+                    setAudioSpecificConfig(byteBuffer, bufferInfo.offset, bufferInfo.size);
+                }
+                return;
+            }
+            AacUtils.writeAdtsHeader(mAdtsHeader, mAudioObjectType, mSamplingFrequencyIndex,
+                    mChannelConfiguration, bufferInfo.size);
+            mAudioWriter.write(mAdtsHeader, 0, mAdtsHeader.length);
+            mAudioWriter.write(byteBuffer, bufferInfo.offset, bufferInfo.size);
+        }
+    }
+
+    /**
+     * 从AudioSpecificConfig中取得ADTS头的参数，需要持有mAudioLocker
+     */
+    private void setAudioSpecificConfig(ByteBuffer buffer, int offset, int size) {
+        byte[] audioSpecificConfig = new byte[size];
+        for (int i = 0; i < size; i++) {
+            audioSpecificConfig[i] = buffer.get(offset + i);
+        }
+        mAudioObjectType = AacUtils.audioObjectType(audioSpecificConfig);
+        mSamplingFrequencyIndex = AacUtils.samplingFrequencyIndex(audioSpecificConfig);
+        mChannelConfiguration = AacUtils.channelConfiguration(audioSpecificConfig);
+    }
+
+    /**
+     * 需要持有对应的锁
+     */
+    private static void flush(BufferedChannelWriter writer) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "flush failed", e);
+        }
+    }
+
+    private static void close(FileOutputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把一路编码输出分发给多个{@link ISampleSink}，例如本地文件、回放缓冲区和网络推流。
+ * <p>
+ * 每个编码输出只拷贝一次到{@link SharedSample}中，由所有Sink共享。每个Sink有自己的队列和线程，
+ * {@link #POLICY_DROP}的Sink在队列满时直接丢弃，只影响自己，丢弃视频后会一直丢弃到下一个关键帧，保证收到的视频可以解码。
+ * {@link #POLICY_BLOCK}的Sink从不丢弃，队列满时编码器一直等待，用于本地文件。
+ * <p>
+ * 写入时不持有共享的锁，两个编码器可以同时分发。每个Sample先交给{@link #POLICY_DROP}的Sink再交给{@link #POLICY_BLOCK}的Sink，
+ * 编码器等待慢的Sink时，其他Sink已经收到这个Sample，另一个编码器也不受影响。
+ */
+
+public class FanOutMediaMuxer implements IMediaMuxer {
+    private static final String TAG = "FanOutMediaMuxer";
+
+    private static final String SINK_THREAD_PREFIX = "sample_sink_thread_";
+
+    /**
+     * 队列满时立即丢弃，不影响编码器
+     */
+    public static final int POLICY_DROP = 0;
+    /**
+     * 队列满时编码器一直等待，不丢弃
+     */
+    public static final int POLICY_BLOCK = 1;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    //编码器等待超过这个时间时打印警告
+    private static final long BLOCK_WARNING_MS = 200;
+    private static final long SINK_POLL_TIMEOUT_MS = 10;
+    private static final int INITIAL_SAMPLE_SIZE = 64 * 1024;
+    private static final long STOP_WAIT_PARK_NANOS = 100 * 1000L;
+
+    //音频和视频两个轨道
+    private static final int TRACK_COUNT = 2;
+
+    private final List<SinkWorker> mSinkWorkers = new ArrayList<SinkWorker>();
+    private SharedSample.Pool mSamplePool;
+
+    private final Object mLocker = new Object();
+    //正在writeSampleData中的编码器数量，stop()等待它归零后不会再有Sample进入队列
+    private final AtomicInteger mActiveWriters = new AtomicInteger(0);
+    private int mTrackCount = 0;
+    private volatile int mVideoTrackIndex = -1;
+    private boolean isRequestStart = false;
+    private boolean isStarted = false;
+    private boolean isRequestStop = false;
+    private volatile boolean isStopped = false;
+
+    /**
+     * 添加一个Sink，需要在添加Track之前调用
+     *
+     * @param sink   Sink
+     * @param policy {@link #POLICY_DROP}或{@link #POLICY_BLOCK}
+     */
+    public void addSink(ISampleSink sink, int policy) {
+        addSink(sink, policy, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * 添加一个Sink，需要在添加Track之前调用
+     *
+     * @param sink          Sink
+     * @param policy        {@link #POLICY_DROP}或{@link #POLICY_BLOCK}
+     * @param queueCapacity 该Sink队列的长度
+     */
+    public void addSink(ISampleSink sink, int policy, int queueCapacity) {
+        synchronized (mLocker) {
+            if (mTrackCount > 0) {
+                throw new IllegalStateException("addSink must be called before adding tracks");
+            }
+            mSinkWorkers.add(new SinkWorker(sink, policy, queueCapacity, mSinkWorkers.size()));
+        }
+    }
+
+    /**
+     * 指定Sink丢弃的Sample数量
+     */
+    public long getDroppedCount(ISampleSink sink) {
+        synchronized (mLocker) {
+            for (SinkWorker worker : mSinkWorkers) {
+                if (worker.sink == sink) {
+                    return worker.droppedCount.get();
+                }
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void start() {
+        synchronized (mLocker) {
+            isRequestStart = true;
+            startIfReady();
+        }
+    }
+
+    /**
+     * 已请求启动并且所有Track都添加完成时启动各个Sink的线程。需要持有mLocker。
+     */
+    private void startIfReady() {
+        if (!isStarted && !isRequestStop && isRequestStart && mTrackCount == TRACK_COUNT) {
+            Log.d(TAG, "start sinks:" + mSinkWorkers.size());
+            isStarted = true;
+            for (SinkWorker worker : mSinkWorkers) {
+                worker.start();
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        boolean isSinkStarted;
+        synchronized (mLocker) {
+            if (isRequestStop) {
+                return;
+            }
+            isRequestStop = true;
+            isSinkStarted = isStarted;
+        }
+        if (!isSinkStarted) {
+            //Sink不会再启动，让等待队列的编码器放弃
+            for (SinkWorker worker : mSinkWorkers) {
+                worker.isAbandoned = true;
+            }
+        }
+        //等待正在写入的编码器完成，isStopped和mActiveWriters都是volatile读写，之后进入的编码器一定能看到isStopped
+        isStopped = true;
+        while (mActiveWriters.get() > 0) {
+            LockSupport.parkNanos(STOP_WAIT_PARK_NANOS);
+        }
+        for (SinkWorker worker : mSinkWorkers) {
+            if (isSinkStarted) {
+                worker.stopAndJoin();
+            } else {
+                //没有启动过的Sink不需要stop
+                worker.clear();
+            }
+            Log.d(TAG, "stop sink:" + worker.index + " dropped:" + worker.droppedCount.get());
+        }
+    }
+
+    @Override
+    public void cancel() {
+        for (SinkWorker worker : mSinkWorkers) {
+            worker.sink.cancel();
+        }
+    }
+
+    @Override
+    public void release() {
+        for (SinkWorker worker : mSinkWorkers) {
+            worker.sink.release();
+        }
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        return addTrack(mediaFormat, false);
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        return addTrack(mediaFormat, true);
+    }
+
+    private int addTrack(MediaFormat mediaFormat, boolean isVideo) {
+        synchronized (mLocker) {
+            int trackIndex = mTrackCount++;
+            if (isVideo) {
+                mVideoTrackIndex = trackIndex;
+            }
+            if (mSamplePool == null) {
+                //所有队列都满时在途的Sample，加上每个Sink正在处理的一个和每个编码器正在分发的一个
+                int maxInFlight = TRACK_COUNT;
+                for (SinkWorker worker : mSinkWorkers) {
+                    maxInFlight += worker.queue.remainingCapacity() + 1;
+                }
+                mSamplePool = new SharedSample.Pool(maxInFlight, INITIAL_SAMPLE_SIZE);
+            }
+            for (SinkWorker worker : mSinkWorkers) {
+                worker.sink.addTrack(trackIndex, mediaFormat, isVideo);
+            }
+            startIfReady();
+            return trackIndex;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        mActiveWriters.incrementAndGet();
+        try {
+            if (isStopped) {
+                return;
+            }
+            SharedSample sample = mSamplePool.acquire();
+            sample.set(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                    bufferInfo.presentationTimeUs, bufferInfo.flags);
+            sample.isVideo = trackIndex == mVideoTrackIndex;
+            //先交给不会等待的Sink
+            for (SinkWorker worker : mSinkWorkers) {
+                if (worker.policy == POLICY_DROP) {
+                    worker.offer(sample);
+                }
+            }
+            for (SinkWorker worker : mSinkWorkers) {
+                if (worker.policy == POLICY_BLOCK) {
+                    worker.offer(sample);
+                }
+            }
+            sample.release();
+        } finally {
+            mActiveWriters.decrementAndGet();
+        }
+    }
+
+    private static class SinkWorker implements Runnable {
+        final ISampleSink sink;
+        final int policy;
+        final int index;
+        final BlockingQueue<SharedSample> queue;
+        final AtomicLong droppedCount = new AtomicLong(0);
+        //丢弃状态的锁，只保护isWaitingKeyFrame与不等待的入队，不会在持有它时等待
+        private final Object mDropLocker = new Object();
+        //只在持有mDropLocker时访问
+        private boolean isWaitingKeyFrame = false;
+        private volatile boolean isRunning = false;
+        //Sink不会再启动，不再等待队列
+        volatile boolean isAbandoned = false;
+        private Thread mThread;
+
+        SinkWorker(ISampleSink sink, int policy, int queueCapacity, int index) {
+            this.sink = sink;
+            this.policy = policy;
+            this.index = index;
+            this.queue = new ArrayBlockingQueue<SharedSample>(queueCapacity);
+        }
+
+        void offer(SharedSample sample) {
+            sample.retain();
+            if (policy == POLICY_BLOCK) {
+                //不持有任何锁等待，ArrayBlockingQueue本身是线程安全的
+                if (!offerBlocking(sample)) {
+                    sample.release();
+                    droppedCount.incrementAndGet();
+                }
+                return;
+            }
+
+            synchronized (mDropLocker) {
+                if (sample.isVideo && isWaitingKeyFrame) {
+                    if (!sample.isKeyFrame()) {
+                        sample.release();
+                        droppedCount.incrementAndGet();
+                        return;
+                    }
+                    isWaitingKeyFrame = false;
+                }
+
+                if (!queue.offer(sample)) {
+                    sample.release();
+                    droppedCount.incrementAndGet();
+                    if (sample.isVideo) {
+                        isWaitingKeyFrame = true;
+                    }
+                }
+            }
+        }
+
+        private boolean offerBlocking(SharedSample sample) {
+            try {
+                while (!queue.offer(sample, BLOCK_WARNING_MS, TimeUnit.MILLISECONDS)) {
+                    if (isAbandoned) {
+                        return false;
+                    }
+                    Log.w(TAG, "sink:" + index + " is slow, encoder waiting");
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void start() {
+            isRunning = true;
+            mThread = new Thread(this, SINK_THREAD_PREFIX + index);
+            mThread.start();
+        }
+
+        void stopAndJoin() {
+            isRunning = false;
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void clear() {
+            SharedSample sample;
+            while ((sample = queue.poll()) != null) {
+                sample.release();
+            }
+        }
+
+        @Override
+        public void run() {
+            sink.start();
+            try {
+                while (isRunning || !queue.isEmpty()) {
+                    SharedSample sample = queue.poll(SINK_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (sample != null) {
+                        try {
+                            sink.writeSample(sample);
+                        } finally {
+                            sample.release();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                clear();
+            }
+            sink.stop();
+        }
+    }
+}
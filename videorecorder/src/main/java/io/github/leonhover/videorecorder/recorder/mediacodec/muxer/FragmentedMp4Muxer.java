@@ -0,0 +1,116 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于{@link FragmentedMp4Writer}的线程安全Muxer，可以替代{@link SyncMediaMuxer}，输出Fragmented MP4。
+ * 与MediaMuxer不同，stop时不需要写入完整的索引，录制过程中进程退出也只会丢失最后一个片段。
+ */
+
+public class FragmentedMp4Muxer extends BaseMediaMuxer {
+    private static final String TAG = "FragmentedMp4Muxer";
+
+    private static final String KEY_CSD_0 = "csd-0";
+    private static final String KEY_CSD_1 = "csd-1";
+
+    private RandomAccessFile mFile;
+    private FragmentedMp4Writer mWriter;
+
+    public FragmentedMp4Muxer(String output, int fragmentDurationMs) {
+        super(TAG);
+        try {
+            Log.d(TAG, "FragmentedMp4Muxer");
+            mFile = new RandomAccessFile(output, "rw");
+            mFile.setLength(0);
+            mWriter = new FragmentedMp4Writer(mFile.getChannel(), fragmentDurationMs);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected boolean isOpened() {
+        return mWriter != null;
+    }
+
+    @Override
+    protected boolean onStart() {
+        try {
+            mWriter.start();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start failed", e);
+            return false;
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        Log.d(TAG, "stop fragments:" + mWriter.getFragmentCount());
+        try {
+            mWriter.finish();
+        } catch (IOException e) {
+            Log.e(TAG, "stop failed", e);
+        }
+    }
+
+    @Override
+    protected void onRelease() {
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mFile = null;
+        }
+    }
+
+    @Override
+    protected int onAddAudioTrack(MediaFormat mediaFormat) {
+        ByteBuffer csd = mediaFormat.getByteBuffer(KEY_CSD_0);
+        if (csd == null) {
+            Log.e(TAG, "addAudioTrack no csd-0");
+            return -1;
+        }
+        byte[] audioSpecificConfig = new byte[csd.remaining()];
+        csd.duplicate().get(audioSpecificConfig);
+        return mWriter.addTrack(Mp4TrackFormat.createAudio(
+                mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                audioSpecificConfig));
+    }
+
+    @Override
+    protected int onAddVideoTrack(MediaFormat mediaFormat) {
+        if (mediaFormat.getByteBuffer(KEY_CSD_0) == null) {
+            Log.e(TAG, "addVideoTrack no csd-0");
+            return -1;
+        }
+        return mWriter.addTrack(Mp4TrackFormat.createVideo(
+                mediaFormat.getInteger(MediaFormat.KEY_WIDTH),
+                mediaFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                AvcUtils.stripStartCode(mediaFormat.getByteBuffer(KEY_CSD_0)),
+                AvcUtils.stripStartCode(mediaFormat.getByteBuffer(KEY_CSD_1))));
+    }
+
+    @Override
+    protected void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+        int position = data.position();
+        int limit = data.limit();
+        data.limit(offset + size).position(offset);
+        try {
+            mWriter.writeSample(trackIndex, data, presentationTimeUs, (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            Log.e(TAG, "writeSampleData failed", e);
+        } finally {
+            data.limit(limit).position(position);
+        }
+    }
+}
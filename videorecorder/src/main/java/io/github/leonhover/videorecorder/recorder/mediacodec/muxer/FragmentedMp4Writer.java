@@ -0,0 +1,373 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 纯Java实现的Fragmented MP4写入器，ftyp+moov之后每隔一段时间以moof+mdat的形式追加一个片段。
+ * 只缓存当前片段的数据，内存占用与录制时长无关；进程意外退出时最多丢失正在缓存的一个片段。
+ * 视频Track只在关键帧处切分片段，音频按原样写入。非线程安全，由调用者保证同步。
+ */
+
+public class FragmentedMp4Writer {
+
+    public static final int DEFAULT_FRAGMENT_DURATION_MS = 1000;
+
+    //片段缓存的上限，关键帧间隔很长时也能保证内存可控
+    private static final int MAX_FRAGMENT_BYTES = 8 * 1024 * 1024;
+    private static final int INITIAL_TRACK_BUFFER_SIZE = 256 * 1024;
+    private static final int INITIAL_SAMPLE_COUNT = 128;
+
+    //ISO/IEC 14496-12 8.8.3.1 sample_flags
+    private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+    private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+    //tfhd: default-base-is-moof
+    private static final int TFHD_FLAGS = 0x020000;
+    //trun: data-offset | sample-duration | sample-size | sample-flags
+    private static final int TRUN_FLAGS = 0x000701;
+
+    private static final int DEFAULT_VIDEO_SAMPLE_DURATION = Mp4TrackFormat.VIDEO_TIME_SCALE / 30;
+    private static final int DEFAULT_AUDIO_SAMPLE_DURATION = 1024;
+
+    private final FileChannel mChannel;
+    private final long mFragmentDurationUs;
+    private final List<TrackFragment> mTracks = new ArrayList<TrackFragment>(2);
+    private final Mp4BoxBuilder mBoxBuilder = new Mp4BoxBuilder(4 * 1024);
+    private ByteBuffer[] mGatheringBuffers;
+    //每个Track的trun中data_offset的位置，start时按Track数量分配
+    private int[] mDataOffsetPositions;
+
+    private boolean hasVideoTrack = false;
+    private boolean isStarted = false;
+    private int mSequenceNumber = 0;
+    private long mBaseTimeUs = -1;
+    private long mFragmentStartUs = -1;
+    private int mFragmentBytes = 0;
+
+    public FragmentedMp4Writer(FileChannel channel, int fragmentDurationMs) {
+        this.mChannel = channel;
+        this.mFragmentDurationUs = (fragmentDurationMs > 0 ? fragmentDurationMs : DEFAULT_FRAGMENT_DURATION_MS) * 1000L;
+    }
+
+    /**
+     * 添加Track，需要在{@link #start()}之前调用。
+     *
+     * @return track index
+     */
+    public int addTrack(Mp4TrackFormat format) {
+        if (isStarted) {
+            throw new IllegalStateException("can not add track after start");
+        }
+        mTracks.add(new TrackFragment(mTracks.size() + 1, format));
+        if (format.isVideo) {
+            hasVideoTrack = true;
+        }
+        return mTracks.size() - 1;
+    }
+
+    /**
+     * 写入ftyp与moov
+     */
+    public void start() throws IOException {
+        if (isStarted) {
+            return;
+        }
+        if (mTracks.isEmpty()) {
+            throw new IllegalStateException("no track added");
+        }
+
+        Mp4BoxBuilder builder = mBoxBuilder;
+        builder.reset();
+        Mp4Boxes.writeFtyp(builder, "iso6", 0, "iso6", "isom", "iso2", "avc1", "mp41");
+
+        builder.startBox("moov");
+        Mp4Boxes.writeMvhd(builder, 0, mTracks.size() + 1);
+        for (TrackFragment track : mTracks) {
+            writeTrak(builder, track);
+        }
+        builder.startBox("mvex");
+        for (TrackFragment track : mTracks) {
+            builder.startFullBox("trex", 0, 0)
+                    .putInt(track.trackId)
+                    .putInt(1)//default_sample_description_index
+                    .putInt(0)
+                    .putInt(0)
+                    .putInt(0)
+                    .endBox();
+        }
+        builder.endBox();
+        builder.endBox();
+
+        writeFully(builder.buffer());
+
+        mGatheringBuffers = new ByteBuffer[1 + mTracks.size()];
+        mDataOffsetPositions = new int[mTracks.size()];
+        isStarted = true;
+    }
+
+    /**
+     * 写入一个Sample。视频数据为Annex-B格式时会转换为4字节长度前缀的格式。
+     * 只读取data的position到limit之间的数据，不会改变data的position与limit。
+     */
+    public void writeSample(int trackIndex, ByteBuffer data, long presentationTimeUs, boolean isKeyFrame) throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException("writer is not started");
+        }
+
+        TrackFragment track = mTracks.get(trackIndex);
+
+        if (mBaseTimeUs < 0) {
+            mBaseTimeUs = presentationTimeUs;
+            mFragmentStartUs = presentationTimeUs;
+        }
+
+        if (mFragmentBytes > 0 && shouldStartNewFragment(track, presentationTimeUs, isKeyFrame)) {
+            flushFragment();
+            mFragmentStartUs = presentationTimeUs;
+        }
+
+        int size = track.append(data, presentationTimeUs, isKeyFrame);
+        mFragmentBytes += size;
+    }
+
+    /**
+     * 写入剩余的片段，不会关闭FileChannel。
+     */
+    public void finish() throws IOException {
+        if (!isStarted) {
+            return;
+        }
+        if (mFragmentBytes > 0) {
+            flushFragment();
+        }
+        mChannel.force(false);
+    }
+
+    /**
+     * 已写出的片段数量
+     */
+    public int getFragmentCount() {
+        return mSequenceNumber;
+    }
+
+    private boolean shouldStartNewFragment(TrackFragment track, long presentationTimeUs, boolean isKeyFrame) {
+        if (mFragmentBytes >= MAX_FRAGMENT_BYTES) {
+            return true;
+        }
+
+        if (presentationTimeUs - mFragmentStartUs < mFragmentDurationUs) {
+            return false;
+        }
+
+        if (hasVideoTrack) {
+            //片段以视频关键帧开始，保证每个片段都可以独立解码
+            return track.format.isVideo && isKeyFrame;
+        }
+        return true;
+    }
+
+    private void flushFragment() throws IOException {
+        Mp4BoxBuilder builder = mBoxBuilder;
+        builder.reset();
+
+        int trackCount = mTracks.size();
+        final int[] dataOffsetPositions = mDataOffsetPositions;
+
+        builder.startBox("moof");
+        builder.startFullBox("mfhd", 0, 0)
+                .putInt(++mSequenceNumber)
+                .endBox();
+
+        for (int i = 0; i < trackCount; i++) {
+            TrackFragment track = mTracks.get(i);
+            if (track.sampleCount == 0) {
+                dataOffsetPositions[i] = -1;
+                continue;
+            }
+
+            Mp4TrackFormat format = track.format;
+            long baseDecodeTime = format.toTimeScale(Math.max(0, track.presentationTimes[0] - mBaseTimeUs));
+
+            builder.startBox("traf");
+            builder.startFullBox("tfhd", 0, TFHD_FLAGS)
+                    .putInt(track.trackId)
+                    .endBox();
+            builder.startFullBox("tfdt", 1, 0)
+                    .putLong(baseDecodeTime)
+                    .endBox();
+            builder.startFullBox("trun", 0, TRUN_FLAGS)
+                    .putInt(track.sampleCount);
+            dataOffsetPositions[i] = builder.size();
+            builder.putInt(0);
+
+            long decodeTime = baseDecodeTime;
+            for (int j = 0; j < track.sampleCount; j++) {
+                int duration;
+                if (j + 1 < track.sampleCount) {
+                    long nextDecodeTime = format.toTimeScale(Math.max(0, track.presentationTimes[j + 1] - mBaseTimeUs));
+                    duration = (int) Math.max(0, nextDecodeTime - decodeTime);
+                    decodeTime = nextDecodeTime;
+                    track.lastDuration = duration;
+                } else {
+                    //最后一个Sample的时长未知，沿用上一个间隔，下一个片段的tfdt会重新对齐
+                    duration = track.lastDuration;
+                }
+                builder.putInt(duration)
+                        .putInt(track.sampleSizes[j])
+                        .putInt(track.sampleFlags[j]);
+            }
+            builder.endBox();
+            builder.endBox();
+        }
+        builder.endBox();
+
+        int moofSize = builder.size();
+        int dataOffset = moofSize + 8;
+        for (int i = 0; i < trackCount; i++) {
+            if (dataOffsetPositions[i] < 0) {
+                continue;
+            }
+            builder.setInt(dataOffsetPositions[i], dataOffset);
+            dataOffset += mTracks.get(i).data.position();
+        }
+
+        builder.putInt(dataOffset - moofSize)
+                .putFourCC("mdat");
+
+        mGatheringBuffers[0] = builder.buffer();
+        for (int i = 0; i < trackCount; i++) {
+            ByteBuffer data = mTracks.get(i).data;
+            data.flip();
+            mGatheringBuffers[i + 1] = data;
+        }
+
+        long remaining = dataOffset;
+        while (remaining > 0) {
+            remaining -= mChannel.write(mGatheringBuffers);
+        }
+
+        for (TrackFragment track : mTracks) {
+            track.reset();
+        }
+        mFragmentBytes = 0;
+    }
+
+    private void writeTrak(Mp4BoxBuilder builder, TrackFragment track) {
+        Mp4TrackFormat format = track.format;
+        builder.startBox("trak");
+        Mp4Boxes.writeTkhd(builder, track.trackId, 0, format);
+        builder.startBox("mdia");
+        Mp4Boxes.writeMdhd(builder, 0, format);
+        Mp4Boxes.writeHdlr(builder, format);
+        builder.startBox("minf");
+        Mp4Boxes.writeMediaHeaderAndDinf(builder, format);
+        builder.startBox("stbl");
+        Mp4Boxes.writeStsd(builder, format);
+        //Sample信息都在moof中，这里都是空表
+        builder.startFullBox("stts", 0, 0).putInt(0).endBox();
+        builder.startFullBox("stsc", 0, 0).putInt(0).endBox();
+        builder.startFullBox("stsz", 0, 0).putInt(0).putInt(0).endBox();
+        builder.startFullBox("stco", 0, 0).putInt(0).endBox();
+        builder.endBox();
+        builder.endBox();
+        builder.endBox();
+        builder.endBox();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    /**
+     * 单个Track在当前片段中的数据，所有数组与缓冲区只增长不释放，片段之间复用。
+     */
+    private static class TrackFragment {
+        final int trackId;
+        final Mp4TrackFormat format;
+
+        ByteBuffer data = ByteBuffer.allocateDirect(INITIAL_TRACK_BUFFER_SIZE);
+        int[] sampleSizes = new int[INITIAL_SAMPLE_COUNT];
+        int[] sampleFlags = new int[INITIAL_SAMPLE_COUNT];
+        long[] presentationTimes = new long[INITIAL_SAMPLE_COUNT];
+        int sampleCount = 0;
+        int lastDuration;
+
+        TrackFragment(int trackId, Mp4TrackFormat format) {
+            this.trackId = trackId;
+            this.format = format;
+            this.lastDuration = format.isVideo ? DEFAULT_VIDEO_SAMPLE_DURATION : DEFAULT_AUDIO_SAMPLE_DURATION;
+        }
+
+        int append(ByteBuffer src, long presentationTimeUs, boolean isKeyFrame) {
+            int offset = src.position();
+            int limit = src.limit();
+            int start = data.position();
+
+            if (format.isVideo && AvcUtils.isAnnexB(src, offset, limit - offset)) {
+                int nalStart = AvcUtils.findStartCode(src, offset, limit);
+                while (nalStart < limit) {
+                    int payloadStart = nalStart + AvcUtils.startCodeLength(src, nalStart, limit);
+                    int nalEnd = AvcUtils.findStartCode(src, payloadStart, limit);
+                    ensureCapacity(4 + nalEnd - payloadStart);
+                    data.putInt(nalEnd - payloadStart);
+                    copy(src, payloadStart, nalEnd);
+                    nalStart = nalEnd;
+                }
+            } else {
+                ensureCapacity(limit - offset);
+                copy(src, offset, limit);
+            }
+            src.limit(limit).position(offset);
+
+            if (sampleCount == sampleSizes.length) {
+                int newLength = sampleCount * 2;
+                int[] sizes = new int[newLength];
+                int[] flags = new int[newLength];
+                long[] times = new long[newLength];
+                System.arraycopy(sampleSizes, 0, sizes, 0, sampleCount);
+                System.arraycopy(sampleFlags, 0, flags, 0, sampleCount);
+                System.arraycopy(presentationTimes, 0, times, 0, sampleCount);
+                sampleSizes = sizes;
+                sampleFlags = flags;
+                presentationTimes = times;
+            }
+
+            int size = data.position() - start;
+            sampleSizes[sampleCount] = size;
+            sampleFlags[sampleCount] = (!format.isVideo || isKeyFrame) ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC;
+            presentationTimes[sampleCount] = presentationTimeUs;
+            sampleCount++;
+            return size;
+        }
+
+        void reset() {
+            data.clear();
+            sampleCount = 0;
+        }
+
+        private void copy(ByteBuffer src, int from, int to) {
+            src.limit(to).position(from);
+            data.put(src);
+        }
+
+        private void ensureCapacity(int more) {
+            if (data.remaining() >= more) {
+                return;
+            }
+            int capacity = data.capacity();
+            while (capacity - data.position() < more) {
+                capacity *= 2;
+            }
+            ByteBuffer newData = ByteBuffer.allocateDirect(capacity);
+            data.flip();
+            newData.put(data);
+            data = newData;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码器输出数据的写入接口，默认需要添加两个Track：视频和音频。视频和音频编码器分别在各自的线程中调用，
+ * 实现类需要保证线程安全。
+ */
+
+public interface IMediaMuxer {
+
+    /**
+     * 请求开始写入，所有Track都添加完成后才真正启动，不会阻塞调用线程
+     */
+    void start();
+
+    void stop();
+
+    void cancel();
+
+    void release();
+
+    int addAudioTrack(MediaFormat mediaFormat);
+
+    int addVideoTrack(MediaFormat mediaFormat);
+
+    void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo);
+}
@@ -0,0 +1,35 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaFormat;
+
+/**
+ * 编码数据的接收端。{@link #start()}、{@link #writeSample(SharedSample)}和{@link #stop()}
+ * 由{@link FanOutMediaMuxer}在该Sink独立的线程中依次调用，其余方法在编码器或者录制器的线程中调用。
+ */
+
+public interface ISampleSink {
+
+    /**
+     * 添加Track，在{@link #start()}之前调用
+     *
+     * @param trackIndex  Sample中使用的Track序号
+     * @param mediaFormat 编码器输出的格式
+     * @param isVideo     是否为视频
+     */
+    void addTrack(int trackIndex, MediaFormat mediaFormat, boolean isVideo);
+
+    void start();
+
+    /**
+     * 写入一个Sample，sample只在调用期间有效。需要保留时先调用{@link SharedSample#retain()}，
+     * 用完后调用{@link SharedSample#release()}。数据被多个Sink同时读取，不能修改其中的数据以及position和limit，
+     * 需要时使用{@link java.nio.ByteBuffer#duplicate()}。
+     */
+    void writeSample(SharedSample sample);
+
+    void stop();
+
+    void cancel();
+
+    void release();
+}
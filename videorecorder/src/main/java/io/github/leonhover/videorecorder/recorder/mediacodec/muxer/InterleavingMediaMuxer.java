@@ -0,0 +1,177 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在写入被包装的Muxer之前，用{@link SampleInterleaver}把视频与音频按时间戳交织，
+ * 避免两个编码器线程的调度顺序直接决定mdat中的数据排列。
+ * <p>
+ * 交织缓冲只在持有锁时访问，可以输出的Sample拷贝出来后在锁外写入被包装的Muxer。同一时刻只有一个编码器线程负责写入，
+ * 另一个编码器放入Sample后直接返回，它的Sample由正在写入的线程接着写出，不会等待对方的磁盘IO。
+ */
+
+public class InterleavingMediaMuxer implements IMediaMuxer, SampleInterleaver.Output {
+    private static final String TAG = "InterleavingMediaMuxer";
+
+    //音频和视频两个轨道
+    private static final int TRACK_COUNT = 2;
+    private static final int CAPACITY = 64;
+    private static final int INITIAL_SAMPLE_SIZE = 64 * 1024;
+
+    private final IMediaMuxer mMediaMuxer;
+    private final SampleInterleaver mInterleaver;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final Object mLocker = new Object();
+
+    //已经可以输出、等待写入的Sample，持有mLocker时访问
+    private final List<MediaSample> mReadySamples = new ArrayList<MediaSample>();
+    //可以复用的Sample，持有mLocker时访问
+    private final List<MediaSample> mFreeSamples = new ArrayList<MediaSample>();
+    //正在写入的Sample，只由负责写入的线程访问
+    private final List<MediaSample> mWritingSamples = new ArrayList<MediaSample>();
+    //是否有线程正在写入被包装的Muxer
+    private boolean isWriting = false;
+
+    /**
+     * @param mediaMuxer 被包装的Muxer
+     * @param windowMs   最大交织窗口，单位为毫秒
+     */
+    public InterleavingMediaMuxer(IMediaMuxer mediaMuxer, int windowMs) {
+        this.mMediaMuxer = mediaMuxer;
+        this.mInterleaver = new SampleInterleaver(TRACK_COUNT, CAPACITY, windowMs, INITIAL_SAMPLE_SIZE);
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void stop() {
+        boolean isInterrupted = false;
+        synchronized (mLocker) {
+            mInterleaver.flush(this);
+            Log.d(TAG, "stop emitted:" + mInterleaver.getEmittedCount()
+                    + " reordered:" + mInterleaver.getReorderedCount()
+                    + " maxReorderDepth:" + mInterleaver.getMaxReorderDepth()
+                    + " maxBuffered:" + mInterleaver.getMaxBufferedSamples()
+                    + " avgLatencyUs:" + mInterleaver.getAverageLatencyUs()
+                    + " maxLatencyUs:" + mInterleaver.getMaxLatencyUs());
+            //等待正在写入的编码器返回，之后由stop写出剩下的Sample
+            while (isWriting) {
+                try {
+                    mLocker.wait();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                }
+            }
+            isWriting = true;
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        writeReadySamples();
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void cancel() {
+        mMediaMuxer.cancel();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        return mMediaMuxer.addAudioTrack(mediaFormat);
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        return mMediaMuxer.addVideoTrack(mediaFormat);
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        if (trackIndex < 0 || trackIndex >= TRACK_COUNT) {
+            //添加Track失败
+            Log.w(TAG, "writeSampleData drop sample of invalid track:" + trackIndex);
+            return;
+        }
+        synchronized (mLocker) {
+            mInterleaver.push(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                    bufferInfo.presentationTimeUs, bufferInfo.flags, this);
+            if (isWriting || mReadySamples.isEmpty()) {
+                return;
+            }
+            isWriting = true;
+        }
+        writeReadySamples();
+    }
+
+    /**
+     * 在锁外写出所有可以输出的Sample，直到没有新的Sample，调用前需要把isWriting设为true
+     */
+    private void writeReadySamples() {
+        while (true) {
+            synchronized (mLocker) {
+                mFreeSamples.addAll(mWritingSamples);
+                mWritingSamples.clear();
+                if (mReadySamples.isEmpty()) {
+                    isWriting = false;
+                    mLocker.notifyAll();
+                    return;
+                }
+                mWritingSamples.addAll(mReadySamples);
+                mReadySamples.clear();
+            }
+            for (int i = 0; i < mWritingSamples.size(); i++) {
+                MediaSample sample = mWritingSamples.get(i);
+                mBufferInfo.set(0, sample.size(), sample.presentationTimeUs, sample.flags);
+                mMediaMuxer.writeSampleData(sample.trackIndex, sample.data(), mBufferInfo);
+            }
+        }
+    }
+
+    /**
+     * 重排深度，见{@link SampleInterleaver#getMaxReorderDepth()}
+     */
+    public long getMaxReorderDepth() {
+        synchronized (mLocker) {
+            return mInterleaver.getMaxReorderDepth();
+        }
+    }
+
+    /**
+     * 交织带来的平均延迟，单位为微秒
+     */
+    public long getAverageLatencyUs() {
+        synchronized (mLocker) {
+            return mInterleaver.getAverageLatencyUs();
+        }
+    }
+
+    /**
+     * 交织缓冲输出的Sample，持有mLocker时调用，拷贝后等待在锁外写入
+     */
+    @Override
+    public void onSample(MediaSample sample) {
+        MediaSample ready;
+        if (mFreeSamples.isEmpty()) {
+            ready = new MediaSample(sample.capacity());
+        } else {
+            ready = mFreeSamples.remove(mFreeSamples.size() - 1);
+        }
+        ready.set(sample);
+        mReadySamples.add(ready);
+    }
+}
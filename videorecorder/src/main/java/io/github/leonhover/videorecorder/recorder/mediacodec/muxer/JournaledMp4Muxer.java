@@ -0,0 +1,155 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于{@link JournaledMp4Writer}的线程安全Muxer，可以替代{@link SyncMediaMuxer}，输出普通MP4。
+ * 录制时在MP4旁边写一个".journal"日志，正常stop后删除；进程意外退出时日志保留，
+ * 之后可以用{@link Mp4JournalRepair}补上moov得到可以播放的文件。启动前cancel时日志中还没有任何记录，直接删除。
+ */
+
+public class JournaledMp4Muxer extends BaseMediaMuxer {
+    private static final String TAG = "JournaledMp4Muxer";
+
+    private static final String KEY_CSD_0 = "csd-0";
+    private static final String KEY_CSD_1 = "csd-1";
+
+    private RandomAccessFile mFile;
+    private RandomAccessFile mJournalFile;
+    private File mJournal;
+    private JournaledMp4Writer mWriter;
+
+    /**
+     * @param syncInterval 每写入多少个Sample把数据和日志同步到存储，0表示不主动同步
+     */
+    public JournaledMp4Muxer(String output, int syncInterval) {
+        super(TAG);
+        try {
+            Log.d(TAG, "JournaledMp4Muxer");
+            mFile = new RandomAccessFile(output, "rw");
+            mFile.setLength(0);
+            mJournal = Mp4JournalRepair.getJournalFile(output);
+            mJournalFile = new RandomAccessFile(mJournal, "rw");
+            mJournalFile.setLength(0);
+            mWriter = new JournaledMp4Writer(mFile.getChannel(), new SampleJournal(mJournalFile.getChannel()), syncInterval);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected boolean isOpened() {
+        return mWriter != null;
+    }
+
+    @Override
+    protected boolean onStart() {
+        try {
+            mWriter.start();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "start failed", e);
+            return false;
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        Log.d(TAG, "stop samples:" + mWriter.getSampleCount());
+        try {
+            mWriter.finish();
+            closeJournal();
+            //moov已经写入，日志没有用了
+            if (!mJournal.delete()) {
+                Log.w(TAG, "delete journal failed");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "stop failed", e);
+        }
+    }
+
+    @Override
+    protected void onRelease() {
+        closeJournal();
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mFile = null;
+        }
+    }
+
+    @Override
+    protected void onCancel() {
+        if (isStarted() || mJournal == null) {
+            return;
+        }
+        //还没有写入任何Sample，日志没有用了
+        closeJournal();
+        if (mJournal.exists() && !mJournal.delete()) {
+            Log.w(TAG, "delete journal failed");
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournalFile != null) {
+            try {
+                mJournalFile.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mJournalFile = null;
+        }
+    }
+
+    @Override
+    protected int onAddAudioTrack(MediaFormat mediaFormat) {
+        ByteBuffer csd = mediaFormat.getByteBuffer(KEY_CSD_0);
+        if (csd == null) {
+            Log.e(TAG, "addAudioTrack missing csd-0");
+            return -1;
+        }
+        byte[] audioSpecificConfig = new byte[csd.remaining()];
+        csd.duplicate().get(audioSpecificConfig);
+        return mWriter.addTrack(Mp4TrackFormat.createAudio(
+                mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE),
+                mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT),
+                audioSpecificConfig));
+    }
+
+    @Override
+    protected int onAddVideoTrack(MediaFormat mediaFormat) {
+        if (mediaFormat.getByteBuffer(KEY_CSD_0) == null) {
+            Log.e(TAG, "addVideoTrack missing csd-0");
+            return -1;
+        }
+        return mWriter.addTrack(Mp4TrackFormat.createVideo(
+                mediaFormat.getInteger(MediaFormat.KEY_WIDTH),
+                mediaFormat.getInteger(MediaFormat.KEY_HEIGHT),
+                AvcUtils.stripStartCode(mediaFormat.getByteBuffer(KEY_CSD_0)),
+                AvcUtils.stripStartCode(mediaFormat.getByteBuffer(KEY_CSD_1))));
+    }
+
+    @Override
+    protected void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+        int position = data.position();
+        int limit = data.limit();
+        data.limit(offset + size).position(offset);
+        try {
+            mWriter.writeSample(trackIndex, data, presentationTimeUs, (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0);
+        } catch (IOException e) {
+            Log.e(TAG, "writeSampleData failed", e);
+        } finally {
+            data.limit(limit).position(position);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 纯Java实现的普通MP4写入器，ftyp之后直接追加mdat数据，finish时在文件末尾写入moov。
+ * 可以同时写入{@link SampleJournal}，进程意外退出后用{@link Mp4JournalRepair}根据日志补上moov。
+ * <p>
+ * mdat前预留8字节的free box，mdat的大小先写为0（到文件末尾），数据超过4GB时把free和mdat头合并为64位大小的mdat头，
+ * 数据的偏移不受影响。非线程安全，由调用者保证同步。
+ */
+
+public class JournaledMp4Writer {
+
+    //free(8) + mdat(8)
+    static final int MDAT_PLACEHOLDER_SIZE = 16;
+
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel mChannel;
+    private final SampleJournal mJournal;
+    private final int mSyncInterval;
+    private final List<Mp4SampleTable> mTables = new ArrayList<Mp4SampleTable>(2);
+    private final BufferedChannelWriter mWriter;
+    private final byte[] mLengthPrefix = new byte[4];
+
+    private boolean isStarted = false;
+    private long mMdatOffset;
+    //文件头在FileChannel中的起始位置，文件头和Sample都通过mWriter写入
+    private long mBaseOffset;
+    private int mSampleCount = 0;
+    private int mUnsyncedCount = 0;
+
+    /**
+     * @param channel      MP4文件，从当前位置开始写入
+     * @param journal      Sample日志，为null时不写日志
+     * @param syncInterval 每写入多少个Sample把数据和日志同步到存储，0表示只在日志缓冲区满时写出，不主动同步
+     */
+    public JournaledMp4Writer(FileChannel channel, SampleJournal journal, int syncInterval) {
+        this.mChannel = channel;
+        this.mJournal = journal;
+        this.mSyncInterval = syncInterval;
+        this.mWriter = new BufferedChannelWriter(channel, WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * 添加Track，需要在{@link #start()}之前调用。
+     *
+     * @return track index
+     */
+    public int addTrack(Mp4TrackFormat format) {
+        if (isStarted) {
+            throw new IllegalStateException("can not add track after start");
+        }
+        mTables.add(new Mp4SampleTable(format));
+        return mTables.size() - 1;
+    }
+
+    /**
+     * 写入ftyp与mdat的占位，以及日志的头部
+     */
+    public void start() throws IOException {
+        if (isStarted) {
+            return;
+        }
+        if (mTables.isEmpty()) {
+            throw new IllegalStateException("no track added");
+        }
+
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(64);
+        Mp4Boxes.writeFtyp(builder, "isom", 0x200, "isom", "iso2", "avc1", "mp41");
+        mBaseOffset = mChannel.position();
+        mMdatOffset = mBaseOffset + builder.size();
+        builder.putInt(8)
+                .putFourCC("free")
+                .putInt(0)//到文件末尾
+                .putFourCC("mdat");
+        ByteBuffer header = builder.buffer();
+        mWriter.write(header, 0, header.remaining());
+        mWriter.flush();
+
+        if (mJournal != null) {
+            List<Mp4TrackFormat> formats = new ArrayList<Mp4TrackFormat>(mTables.size());
+            for (Mp4SampleTable table : mTables) {
+                formats.add(table.format);
+            }
+            mJournal.writeHeader(mMdatOffset, formats);
+        }
+        isStarted = true;
+    }
+
+    /**
+     * 写入一个Sample。视频数据为Annex-B格式时会转换为4字节长度前缀的格式。
+     * 只读取data的position到limit之间的数据，不会改变data的position与limit。
+     */
+    public void writeSample(int trackIndex, ByteBuffer data, long presentationTimeUs, boolean isKeyFrame) throws IOException {
+        if (!isStarted) {
+            throw new IllegalStateException("writer is not started");
+        }
+
+        Mp4SampleTable table = mTables.get(trackIndex);
+        long offset = mBaseOffset + mWriter.getWrittenBytes();
+        int position = data.position();
+        int limit = data.limit();
+        if (table.format.isVideo && AvcUtils.isAnnexB(data, position, limit - position)) {
+            int nalStart = AvcUtils.findStartCode(data, position, limit);
+            while (nalStart < limit) {
+                int payloadStart = nalStart + AvcUtils.startCodeLength(data, nalStart, limit);
+                int nalEnd = AvcUtils.findStartCode(data, payloadStart, limit);
+                int nalSize = nalEnd - payloadStart;
+                mLengthPrefix[0] = (byte) (nalSize >>> 24);
+                mLengthPrefix[1] = (byte) (nalSize >>> 16);
+                mLengthPrefix[2] = (byte) (nalSize >>> 8);
+                mLengthPrefix[3] = (byte) nalSize;
+                mWriter.write(mLengthPrefix, 0, 4);
+                mWriter.write(data, payloadStart, nalSize);
+                nalStart = nalEnd;
+            }
+        } else {
+            mWriter.write(data, position, limit - position);
+        }
+        int size = (int) (mBaseOffset + mWriter.getWrittenBytes() - offset);
+
+        table.addSample(offset, size, presentationTimeUs, isKeyFrame);
+        mSampleCount++;
+        if (mJournal != null) {
+            mJournal.append(trackIndex, offset, size, presentationTimeUs, isKeyFrame);
+        }
+        if (mSyncInterval > 0 && ++mUnsyncedCount >= mSyncInterval) {
+            sync();
+        } else if (mJournal != null && mJournal.isFull()) {
+            //日志只在MP4数据写出之后写出
+            if (mSyncInterval > 0) {
+                sync();
+            } else {
+                mWriter.flush();
+                mJournal.flush();
+            }
+        }
+    }
+
+    /**
+     * 把缓冲的数据同步到存储，先同步MP4再同步日志，保证日志中的Sample数据都已经落盘
+     */
+    public void sync() throws IOException {
+        mWriter.flush();
+        mChannel.force(false);
+        if (mJournal != null) {
+            mJournal.sync();
+        }
+        mUnsyncedCount = 0;
+    }
+
+    /**
+     * 回填mdat大小并在文件末尾写入moov，不会关闭FileChannel。
+     */
+    public void finish() throws IOException {
+        if (!isStarted) {
+            return;
+        }
+        mWriter.flush();
+        long dataEnd = mBaseOffset + mWriter.getWrittenBytes();
+        writeMoov(mChannel, mMdatOffset, dataEnd, mTables);
+        mChannel.force(false);
+        isStarted = false;
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * 回填mdat的大小，并在dataEnd处写入moov
+     */
+    static void writeMoov(FileChannel channel, long mdatOffset, long dataEnd, List<Mp4SampleTable> tables) throws IOException {
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(MDAT_PLACEHOLDER_SIZE);
+        long mdatSize = dataEnd - mdatOffset - 8;
+        if (mdatSize <= 0xFFFFFFFFL) {
+            builder.putInt((int) mdatSize)
+                    .putFourCC("mdat");
+            writeFully(channel, builder.buffer(), mdatOffset + 8);
+        } else {
+            builder.putInt(1)
+                    .putFourCC("mdat")
+                    .putLong(dataEnd - mdatOffset);
+            writeFully(channel, builder.buffer(), mdatOffset);
+        }
+
+        builder = new Mp4BoxBuilder(64 * 1024);
+        Mp4SampleTable.writeMoov(builder, tables);
+        writeFully(channel, builder.buffer(), dataEnd);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
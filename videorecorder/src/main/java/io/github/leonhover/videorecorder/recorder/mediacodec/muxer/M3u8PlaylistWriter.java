@@ -0,0 +1,80 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 分段录制的m3u8播放列表。每完成一个分段就重写一次列表文件（先写临时文件再重命名），
+ * 录制过程中列表里始终是已经完成的分段。列表版本为3，分段必须是MPEG-TS。非线程安全。
+ */
+
+public class M3u8PlaylistWriter {
+
+    private final File mFile;
+    private final List<String> mNames = new ArrayList<String>();
+    private final List<Double> mDurations = new ArrayList<Double>();
+    private double mMaxDuration = 0;
+
+    public M3u8PlaylistWriter(File file) {
+        this.mFile = file;
+    }
+
+    /**
+     * 添加一个已完成的分段并更新列表文件
+     *
+     * @param name            分段文件名，相对于列表文件所在目录
+     * @param durationSeconds 分段时长，单位为秒
+     */
+    public void addSegment(String name, double durationSeconds) throws IOException {
+        mNames.add(name);
+        mDurations.add(durationSeconds);
+        mMaxDuration = Math.max(mMaxDuration, durationSeconds);
+        write(false);
+    }
+
+    /**
+     * 写入结束标记
+     */
+    public void finish() throws IOException {
+        write(true);
+    }
+
+    /**
+     * 当前列表的文本内容
+     */
+    public String build(boolean isEnded) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("#EXTM3U\n")
+                .append("#EXT-X-VERSION:3\n")
+                .append("#EXT-X-PLAYLIST-TYPE:EVENT\n")
+                .append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(mMaxDuration)).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n");
+        for (int i = 0; i < mNames.size(); i++) {
+            builder.append(String.format(Locale.US, "#EXTINF:%.3f,\n", mDurations.get(i)))
+                    .append(mNames.get(i)).append('\n');
+        }
+        if (isEnded) {
+            builder.append("#EXT-X-ENDLIST\n");
+        }
+        return builder.toString();
+    }
+
+    private void write(boolean isEnded) throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            writer.write(build(isEnded));
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("can not rename playlist to " + mFile);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import java.util.Arrays;
+
+/**
+ * 把{@link IMediaMuxer}作为{@link ISampleSink}使用，例如本地MP4文件。
+ */
+
+public class MediaMuxerSink implements ISampleSink {
+
+    private static final int MAX_TRACK_COUNT = 4;
+
+    private final IMediaMuxer mMediaMuxer;
+    private final int[] mTrackIndices = new int[MAX_TRACK_COUNT];
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+    public MediaMuxerSink(IMediaMuxer mediaMuxer) {
+        this.mMediaMuxer = mediaMuxer;
+        Arrays.fill(mTrackIndices, -1);
+    }
+
+    @Override
+    public void addTrack(int trackIndex, MediaFormat mediaFormat, boolean isVideo) {
+        mTrackIndices[trackIndex] = isVideo ? mMediaMuxer.addVideoTrack(mediaFormat) : mMediaMuxer.addAudioTrack(mediaFormat);
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void writeSample(SharedSample sample) {
+        mBufferInfo.set(0, sample.size(), sample.presentationTimeUs, sample.flags);
+        mMediaMuxer.writeSampleData(mTrackIndices[sample.trackIndex], sample.data(), mBufferInfo);
+    }
+
+    @Override
+    public void stop() {
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void cancel() {
+        mMediaMuxer.cancel();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编码后Sample的拷贝，数据保存在可复用的Direct ByteBuffer中，容量不足时才会重新分配。
+ * flags与{@link android.media.MediaCodec.BufferInfo#flags}一致。
+ */
+
+public class MediaSample {
+
+    //与MediaCodec.BUFFER_FLAG_KEY_FRAME、BUFFER_FLAG_CODEC_CONFIG、BUFFER_FLAG_END_OF_STREAM相同
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    public int trackIndex;
+    public long presentationTimeUs;
+    public int flags;
+
+    private ByteBuffer mData;
+
+    public MediaSample(int initialCapacity) {
+        mData = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * 拷贝src中offset开始的size个字节，不会改变src的position与limit。
+     */
+    public void set(int trackIndex, ByteBuffer src, int offset, int size, long presentationTimeUs, int flags) {
+        if (mData.capacity() < size) {
+            mData = ByteBuffer.allocateDirect(Math.max(size, mData.capacity() * 2));
+        }
+
+        mData.clear();
+        int position = src.position();
+        int limit = src.limit();
+        src.limit(offset + size).position(offset);
+        mData.put(src);
+        src.limit(limit).position(position);
+        mData.flip();
+
+        this.trackIndex = trackIndex;
+        this.presentationTimeUs = presentationTimeUs;
+        this.flags = flags;
+    }
+
+    /**
+     * 从另一个MediaSample拷贝
+     */
+    public void set(MediaSample other) {
+        ByteBuffer data = other.mData;
+        set(other.trackIndex, data, data.position(), data.remaining(), other.presentationTimeUs, other.flags);
+    }
+
+    /**
+     * Sample数据，position为0，limit为数据长度。
+     */
+    public ByteBuffer data() {
+        return mData;
+    }
+
+    public int size() {
+        return mData.limit();
+    }
+
+    public int capacity() {
+        return mData.capacity();
+    }
+
+    public boolean isKeyFrame() {
+        return (flags & FLAG_KEY_FRAME) != 0;
+    }
+}
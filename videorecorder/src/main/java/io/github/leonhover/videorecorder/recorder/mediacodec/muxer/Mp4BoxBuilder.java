@@ -0,0 +1,152 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MP4 Box的拼装工具，内部是一个可增长、可复用的大端ByteBuffer，box的大小在{@link #endBox()}时回填。
+ */
+
+public class Mp4BoxBuilder {
+
+    private static final int MAX_DEPTH = 16;
+
+    private static final int[] UNITY_MATRIX = {
+            0x00010000, 0, 0,
+            0, 0x00010000, 0,
+            0, 0, 0x40000000};
+
+    private ByteBuffer mBuffer;
+    private final int[] mBoxStarts = new int[MAX_DEPTH];
+    private int mDepth = 0;
+
+    public Mp4BoxBuilder(int initialCapacity) {
+        mBuffer = ByteBuffer.allocate(initialCapacity).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * 清空内容以便复用
+     */
+    public void reset() {
+        mBuffer.clear();
+        mDepth = 0;
+    }
+
+    public int size() {
+        return mBuffer.position();
+    }
+
+    /**
+     * 返回已写入内容的只读视图，position为0，limit为已写入的长度。
+     */
+    public ByteBuffer buffer() {
+        ByteBuffer ret = mBuffer.duplicate();
+        ret.flip();
+        return ret;
+    }
+
+    public Mp4BoxBuilder startBox(String type) {
+        ensureCapacity(8);
+        mBoxStarts[mDepth++] = mBuffer.position();
+        mBuffer.putInt(0);
+        putFourCC(type);
+        return this;
+    }
+
+    public Mp4BoxBuilder startFullBox(String type, int version, int flags) {
+        startBox(type);
+        putInt((version << 24) | (flags & 0xFFFFFF));
+        return this;
+    }
+
+    public Mp4BoxBuilder endBox() {
+        int start = mBoxStarts[--mDepth];
+        mBuffer.putInt(start, mBuffer.position() - start);
+        return this;
+    }
+
+    public Mp4BoxBuilder putFourCC(String type) {
+        ensureCapacity(4);
+        for (int i = 0; i < 4; i++) {
+            mBuffer.put((byte) type.charAt(i));
+        }
+        return this;
+    }
+
+    public Mp4BoxBuilder putByte(int value) {
+        ensureCapacity(1);
+        mBuffer.put((byte) value);
+        return this;
+    }
+
+    public Mp4BoxBuilder putShort(int value) {
+        ensureCapacity(2);
+        mBuffer.putShort((short) value);
+        return this;
+    }
+
+    public Mp4BoxBuilder putInt(int value) {
+        ensureCapacity(4);
+        mBuffer.putInt(value);
+        return this;
+    }
+
+    public Mp4BoxBuilder putLong(long value) {
+        ensureCapacity(8);
+        mBuffer.putLong(value);
+        return this;
+    }
+
+    public Mp4BoxBuilder putBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        mBuffer.put(bytes);
+        return this;
+    }
+
+    /**
+     * 拷贝src中offset开始的length个字节，不会改变src的position。
+     */
+    public Mp4BoxBuilder putBytes(ByteBuffer src, int offset, int length) {
+        ensureCapacity(length);
+        ByteBuffer slice = src.duplicate();
+        slice.limit(offset + length).position(offset);
+        mBuffer.put(slice);
+        return this;
+    }
+
+    public Mp4BoxBuilder putZeros(int count) {
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            mBuffer.put((byte) 0);
+        }
+        return this;
+    }
+
+    public Mp4BoxBuilder putMatrix() {
+        for (int value : UNITY_MATRIX) {
+            putInt(value);
+        }
+        return this;
+    }
+
+    /**
+     * 回填之前写入位置的int值，用于data_offset之类需要之后才能确定的字段。
+     */
+    public void setInt(int position, int value) {
+        mBuffer.putInt(position, value);
+    }
+
+    private void ensureCapacity(int more) {
+        if (mBuffer.remaining() >= more) {
+            return;
+        }
+        int capacity = mBuffer.capacity();
+        while (capacity - mBuffer.position() < more) {
+            capacity *= 2;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity).order(ByteOrder.BIG_ENDIAN);
+        mBuffer.flip();
+        newBuffer.put(mBuffer);
+        mBuffer = newBuffer;
+    }
+}
@@ -0,0 +1,205 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+/**
+ * 普通MP4与Fragmented MP4共用的Box写入方法，参考ISO/IEC 14496-12、14496-14与14496-15。
+ */
+
+public final class Mp4Boxes {
+
+    public static final int MOVIE_TIME_SCALE = 1000;
+
+    //ISO-639-2/T "und"
+    private static final int LANGUAGE_UNDETERMINED = 0x55C4;
+
+    private Mp4Boxes() {
+    }
+
+    public static void writeFtyp(Mp4BoxBuilder builder, String majorBrand, int minorVersion, String... compatibleBrands) {
+        builder.startBox("ftyp")
+                .putFourCC(majorBrand)
+                .putInt(minorVersion);
+        for (String brand : compatibleBrands) {
+            builder.putFourCC(brand);
+        }
+        builder.endBox();
+    }
+
+    /**
+     * @param duration    以{@link #MOVIE_TIME_SCALE}为单位的时长，未知时为0
+     * @param nextTrackId 下一个可用的track_ID
+     */
+    public static void writeMvhd(Mp4BoxBuilder builder, long duration, int nextTrackId) {
+        builder.startFullBox("mvhd", 0, 0)
+                .putInt(0)//creation_time
+                .putInt(0)//modification_time
+                .putInt(MOVIE_TIME_SCALE)
+                .putInt((int) duration)
+                .putInt(0x00010000)//rate 1.0
+                .putShort(0x0100)//volume 1.0
+                .putZeros(10)
+                .putMatrix()
+                .putZeros(24)//pre_defined
+                .putInt(nextTrackId)
+                .endBox();
+    }
+
+    /**
+     * @param duration 以{@link #MOVIE_TIME_SCALE}为单位的时长，未知时为0
+     */
+    public static void writeTkhd(Mp4BoxBuilder builder, int trackId, long duration, Mp4TrackFormat format) {
+        //flags: track_enabled | track_in_movie
+        builder.startFullBox("tkhd", 0, 0x000003)
+                .putInt(0)//creation_time
+                .putInt(0)//modification_time
+                .putInt(trackId)
+                .putInt(0)
+                .putInt((int) duration)
+                .putZeros(8)
+                .putShort(0)//layer
+                .putShort(0)//alternate_group
+                .putShort(format.isVideo ? 0 : 0x0100)
+                .putShort(0)
+                .putMatrix()
+                .putInt(format.width << 16)
+                .putInt(format.height << 16)
+                .endBox();
+    }
+
+    /**
+     * @param duration 以Track的timescale为单位的时长，未知时为0
+     */
+    public static void writeMdhd(Mp4BoxBuilder builder, long duration, Mp4TrackFormat format) {
+        builder.startFullBox("mdhd", 0, 0)
+                .putInt(0)//creation_time
+                .putInt(0)//modification_time
+                .putInt(format.timeScale)
+                .putInt((int) duration)
+                .putShort(LANGUAGE_UNDETERMINED)
+                .putShort(0)
+                .endBox();
+    }
+
+    public static void writeHdlr(Mp4BoxBuilder builder, Mp4TrackFormat format) {
+        builder.startFullBox("hdlr", 0, 0)
+                .putInt(0)
+                .putFourCC(format.isVideo ? "vide" : "soun")
+                .putZeros(12);
+        String name = format.isVideo ? "VideoHandler" : "SoundHandler";
+        for (int i = 0; i < name.length(); i++) {
+            builder.putByte(name.charAt(i));
+        }
+        builder.putByte(0)
+                .endBox();
+    }
+
+    /**
+     * 写入vmhd/smhd以及dinf
+     */
+    public static void writeMediaHeaderAndDinf(Mp4BoxBuilder builder, Mp4TrackFormat format) {
+        if (format.isVideo) {
+            builder.startFullBox("vmhd", 0, 1)
+                    .putShort(0)//graphicsmode
+                    .putZeros(6)//opcolor
+                    .endBox();
+        } else {
+            builder.startFullBox("smhd", 0, 0)
+                    .putShort(0)//balance
+                    .putShort(0)
+                    .endBox();
+        }
+
+        builder.startBox("dinf")
+                .startFullBox("dref", 0, 0)
+                .putInt(1)
+                .startFullBox("url ", 0, 1)//数据在同一文件中
+                .endBox()
+                .endBox()
+                .endBox();
+    }
+
+    public static void writeStsd(Mp4BoxBuilder builder, Mp4TrackFormat format) {
+        builder.startFullBox("stsd", 0, 0)
+                .putInt(1);
+        if (format.isVideo) {
+            writeAvc1(builder, format);
+        } else {
+            writeMp4a(builder, format);
+        }
+        builder.endBox();
+    }
+
+    private static void writeAvc1(Mp4BoxBuilder builder, Mp4TrackFormat format) {
+        builder.startBox("avc1")
+                .putZeros(6)
+                .putShort(1)//data_reference_index
+                .putZeros(16)
+                .putShort(format.width)
+                .putShort(format.height)
+                .putInt(0x00480000)//72 dpi
+                .putInt(0x00480000)
+                .putInt(0)
+                .putShort(1)//frame_count
+                .putZeros(32)//compressorname
+                .putShort(0x0018)//depth
+                .putShort(0xFFFF);//pre_defined = -1
+
+        byte[] sps = format.sps;
+        byte[] pps = format.pps;
+        builder.startBox("avcC")
+                .putByte(1)//configurationVersion
+                .putByte(sps[1])//AVCProfileIndication
+                .putByte(sps[2])//profile_compatibility
+                .putByte(sps[3])//AVCLevelIndication
+                .putByte(0xFF)//lengthSizeMinusOne = 3
+                .putByte(0xE1)//numOfSequenceParameterSets = 1
+                .putShort(sps.length)
+                .putBytes(sps)
+                .putByte(1)
+                .putShort(pps.length)
+                .putBytes(pps)
+                .endBox();
+
+        builder.endBox();
+    }
+
+    private static void writeMp4a(Mp4BoxBuilder builder, Mp4TrackFormat format) {
+        byte[] asc = format.audioSpecificConfig;
+        builder.startBox("mp4a")
+                .putZeros(6)
+                .putShort(1)//data_reference_index
+                .putZeros(8)
+                .putShort(format.channelCount)
+                .putShort(16)//samplesize
+                .putShort(0)
+                .putShort(0)
+                .putInt(format.sampleRate << 16);
+
+        //ES_Descriptor，各描述符长度都小于128，长度只占一个字节
+        int decoderSpecificInfoLength = 2 + asc.length;
+        int decoderConfigLength = 2 + 13 + decoderSpecificInfoLength;
+        int slConfigLength = 2 + 1;
+        int esLength = 3 + decoderConfigLength + slConfigLength;
+
+        builder.startFullBox("esds", 0, 0)
+                .putByte(0x03)
+                .putByte(esLength)
+                .putShort(0)//ES_ID
+                .putByte(0)//flags
+                .putByte(0x04)
+                .putByte(decoderConfigLength - 2)
+                .putByte(0x40)//objectTypeIndication: Audio ISO/IEC 14496-3
+                .putByte(0x15)//streamType audio, upStream 0, reserved 1
+                .putByte(0).putShort(0)//bufferSizeDB
+                .putInt(0)//maxBitrate
+                .putInt(0)//avgBitrate
+                .putByte(0x05)
+                .putByte(asc.length)
+                .putBytes(asc)
+                .putByte(0x06)
+                .putByte(1)
+                .putByte(0x02)
+                .endBox();
+
+        builder.endBox();
+    }
+}
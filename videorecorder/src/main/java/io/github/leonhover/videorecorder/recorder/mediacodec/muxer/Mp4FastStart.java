@@ -0,0 +1,324 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 把MediaMuxer生成的MP4中位于文件末尾的moov移动到mdat之前（faststart），播放器不需要下载整个文件就可以开始播放。
+ * <p>
+ * moov读入内存后直接修改stco/co64中的chunk偏移再写出，mdat用一个复用的缓冲区顺序拷贝。
+ * 只有偏移超过32位时才会重建moov，把stco升级为co64。
+ */
+
+public class Mp4FastStart {
+    private static final String TAG = "Mp4FastStart";
+
+    private static final String FAST_START_THREAD = "mp4_faststart_thread";
+    private static final String TEMP_SUFFIX = ".faststart";
+
+    private static final int BOX_HEADER_SIZE = 8;
+    private static final long MAX_UINT32 = 0xFFFFFFFFL;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private static final String[] CONTAINER_BOXES = {"moov", "trak", "mdia", "minf", "stbl"};
+
+    private Mp4FastStart() {
+    }
+
+    /**
+     * 在后台线程中处理file并替换原文件，完成后在该线程中回调
+     *
+     * @param file     MP4文件
+     * @param callBack 回调，可以为null
+     */
+    public static void processAsync(final File file, final CallBack callBack) {
+        final HandlerThread thread = new HandlerThread(FAST_START_THREAD);
+        thread.start();
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.currentTimeMillis();
+                    boolean isRelocated = process(file);
+                    Log.d(TAG, "faststart " + file + " relocated:" + isRelocated
+                            + " cost:" + (System.currentTimeMillis() - start) + "ms");
+                    if (callBack != null) {
+                        callBack.onFastStartCompleted(file, isRelocated);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "faststart failed", e);
+                    if (callBack != null) {
+                        callBack.onFastStartFailed(file, e);
+                    }
+                } finally {
+                    thread.quitSafely();
+                }
+            }
+        });
+    }
+
+    /**
+     * 处理file并替换原文件
+     *
+     * @return 是否移动了moov，已经是faststart时返回false
+     */
+    public static boolean process(File file) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try {
+            if (!process(file, temp)) {
+                temp.delete();
+                return false;
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("can not rename " + temp + " to " + file);
+            }
+            return true;
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * 把input处理后写入output
+     *
+     * @return 是否移动了moov，已经是faststart时返回false并且不会写入output
+     */
+    public static boolean process(File input, File output) throws IOException {
+        RandomAccessFile inputFile = new RandomAccessFile(input, "r");
+        try {
+            FileChannel inputChannel = inputFile.getChannel();
+            long fileSize = inputChannel.size();
+
+            //查找顶层的moov和第一个mdat
+            ByteBuffer header = ByteBuffer.allocate(BOX_HEADER_SIZE * 2);
+            long moovStart = -1;
+            long moovSize = 0;
+            long mdatStart = -1;
+            long position = 0;
+            while (position + BOX_HEADER_SIZE <= fileSize) {
+                header.clear();
+                while (header.hasRemaining() && inputChannel.read(header, position + header.position()) > 0) {
+                }
+                long boxSize = header.getInt(0) & MAX_UINT32;
+                String type = fourCC(header, 4);
+                if (boxSize == 1) {
+                    boxSize = header.getLong(8);
+                } else if (boxSize == 0) {
+                    boxSize = fileSize - position;
+                }
+                if (boxSize < BOX_HEADER_SIZE) {
+                    throw new IOException("invalid box " + type + " at " + position);
+                }
+                if ("moov".equals(type)) {
+                    moovStart = position;
+                    moovSize = boxSize;
+                } else if ("mdat".equals(type) && mdatStart < 0) {
+                    mdatStart = position;
+                }
+                position += boxSize;
+            }
+
+            if (moovStart < 0 || mdatStart < 0) {
+                throw new IOException("moov or mdat not found in " + input);
+            }
+            if (moovStart < mdatStart) {
+                return false;
+            }
+            if (moovSize > Integer.MAX_VALUE) {
+                throw new IOException("moov is too large:" + moovSize);
+            }
+
+            ByteBuffer moov = ByteBuffer.allocate((int) moovSize);
+            readFully(inputChannel, moov, moovStart);
+            long[] chunkOffsets = new long[2];
+            scanChunkOffsets(moov, 0, (int) moovSize, chunkOffsets);
+            //moov移动到mdat之前，chunk的偏移都增加moov的大小
+            boolean isUpgradeNeeded = chunkOffsets[0] + moovSize > MAX_UINT32;
+            long newMoovSize = isUpgradeNeeded ? moovSize + 4 * chunkOffsets[1] : moovSize;
+
+            RandomAccessFile outputFile = new RandomAccessFile(output, "rw");
+            try {
+                outputFile.setLength(0);
+                FileChannel outputChannel = outputFile.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+                copy(inputChannel, 0, mdatStart, outputChannel, buffer);
+                ByteBuffer newMoov;
+                if (isUpgradeNeeded) {
+                    Log.d(TAG, "upgrade stco to co64 entries:" + chunkOffsets[1]);
+                    newMoov = rebuildWithCo64(moov, newMoovSize);
+                } else {
+                    patchChunkOffsets(moov, 0, (int) moovSize, newMoovSize);
+                    newMoov = moov;
+                    newMoov.clear();
+                }
+                while (newMoov.hasRemaining()) {
+                    outputChannel.write(newMoov);
+                }
+                copy(inputChannel, mdatStart, moovStart - mdatStart, outputChannel, buffer);
+                copy(inputChannel, moovStart + moovSize, fileSize - moovStart - moovSize, outputChannel, buffer);
+            } finally {
+                outputFile.close();
+            }
+            return true;
+        } finally {
+            inputFile.close();
+        }
+    }
+
+    /**
+     * 从src的position处读取count个字节，写入dst的当前位置
+     */
+    private static void copy(FileChannel src, long position, long count, FileChannel dst, ByteBuffer buffer)
+            throws IOException {
+        while (count > 0) {
+            buffer.clear();
+            if (buffer.remaining() > count) {
+                buffer.limit((int) count);
+            }
+            int read = src.read(buffer, position);
+            if (read <= 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                dst.write(buffer);
+            }
+            position += read;
+            count -= read;
+        }
+    }
+
+    private static void readFully(FileChannel src, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (src.read(dst, position + dst.position()) <= 0) {
+                throw new IOException("unexpected end of file at " + (position + dst.position()));
+            }
+        }
+    }
+
+    /**
+     * 统计stco中最大的偏移和stco的条目数，分别放在result[0]和result[1]中
+     */
+    static void scanChunkOffsets(ByteBuffer moov, int start, int end, long[] result) {
+        int position = start;
+        while (position + BOX_HEADER_SIZE <= end) {
+            int boxSize = moov.getInt(position);
+            if (boxSize < BOX_HEADER_SIZE || position + boxSize > end) {
+                break;
+            }
+            String type = fourCC(moov, position + 4);
+            if (isContainer(type)) {
+                scanChunkOffsets(moov, position + BOX_HEADER_SIZE, position + boxSize, result);
+            } else if ("stco".equals(type)) {
+                int count = moov.getInt(position + 12);
+                for (int i = 0; i < count; i++) {
+                    result[0] = Math.max(result[0], moov.getInt(position + 16 + 4 * i) & MAX_UINT32);
+                }
+                result[1] += count;
+            }
+            position += boxSize;
+        }
+    }
+
+    /**
+     * 在原位置给stco/co64中的偏移加上shift，调用前需要确认stco不会溢出
+     */
+    static void patchChunkOffsets(ByteBuffer moov, int start, int end, long shift) {
+        int position = start;
+        while (position + BOX_HEADER_SIZE <= end) {
+            int boxSize = moov.getInt(position);
+            if (boxSize < BOX_HEADER_SIZE || position + boxSize > end) {
+                break;
+            }
+            String type = fourCC(moov, position + 4);
+            if (isContainer(type)) {
+                patchChunkOffsets(moov, position + BOX_HEADER_SIZE, position + boxSize, shift);
+            } else if ("stco".equals(type)) {
+                int count = moov.getInt(position + 12);
+                for (int i = 0; i < count; i++) {
+                    int offsetPosition = position + 16 + 4 * i;
+                    moov.putInt(offsetPosition, (int) ((moov.getInt(offsetPosition) & MAX_UINT32) + shift));
+                }
+            } else if ("co64".equals(type)) {
+                int count = moov.getInt(position + 12);
+                for (int i = 0; i < count; i++) {
+                    int offsetPosition = position + 16 + 8 * i;
+                    moov.putLong(offsetPosition, moov.getLong(offsetPosition) + shift);
+                }
+            }
+            position += boxSize;
+        }
+    }
+
+    /**
+     * 重建moov，所有stco升级为co64，并给偏移加上shift
+     */
+    static ByteBuffer rebuildWithCo64(ByteBuffer moov, long shift) {
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(moov.limit() + 1024);
+        copyWithCo64(moov, 0, moov.limit(), builder, shift);
+        return builder.buffer();
+    }
+
+    private static void copyWithCo64(ByteBuffer moov, int start, int end, Mp4BoxBuilder builder, long shift) {
+        int position = start;
+        while (position + BOX_HEADER_SIZE <= end) {
+            int boxSize = moov.getInt(position);
+            if (boxSize < BOX_HEADER_SIZE || position + boxSize > end) {
+                break;
+            }
+            String type = fourCC(moov, position + 4);
+            if (isContainer(type)) {
+                builder.startBox(type);
+                copyWithCo64(moov, position + BOX_HEADER_SIZE, position + boxSize, builder, shift);
+                builder.endBox();
+            } else if ("stco".equals(type) || "co64".equals(type)) {
+                boolean isCo64 = "co64".equals(type);
+                int count = moov.getInt(position + 12);
+                builder.startFullBox("co64", 0, 0).putInt(count);
+                for (int i = 0; i < count; i++) {
+                    long offset = isCo64 ? moov.getLong(position + 16 + 8 * i)
+                            : moov.getInt(position + 16 + 4 * i) & MAX_UINT32;
+                    builder.putLong(offset + shift);
+                }
+                builder.endBox();
+            } else {
+                builder.putBytes(moov, position, boxSize);
+            }
+            position += boxSize;
+        }
+    }
+
+    private static boolean isContainer(String type) {
+        for (String container : CONTAINER_BOXES) {
+            if (container.equals(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String fourCC(ByteBuffer buffer, int position) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char) (buffer.get(position + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+
+    public interface CallBack {
+        /**
+         * @param isRelocated 是否移动了moov，文件已经是faststart时为false
+         */
+        void onFastStartCompleted(File file, boolean isRelocated);
+
+        void onFastStartFailed(File file, IOException e);
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 修复录制过程中被中断的MP4。根据{@link SampleJournal}中的记录截掉最后不完整的Sample，回填mdat大小并补上moov，
+ * 不需要重新编码。可以在应用启动时对录制目录调用{@link #findInterrupted(File)}检查。
+ */
+
+public final class Mp4JournalRepair {
+    private static final String TAG = "Mp4JournalRepair";
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    private Mp4JournalRepair() {
+    }
+
+    public static File getJournalFile(String path) {
+        return new File(path + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * 查找目录下留有日志的MP4文件，即录制中被中断、需要修复的文件
+     */
+    public static List<File> findInterrupted(File directory) {
+        List<File> files = new ArrayList<File>();
+        File[] journals = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(JOURNAL_SUFFIX);
+            }
+        });
+        if (journals == null) {
+            return files;
+        }
+        for (File journal : journals) {
+            String path = journal.getPath();
+            File file = new File(path.substring(0, path.length() - JOURNAL_SUFFIX.length()));
+            if (file.isFile()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * 使用默认位置的日志修复
+     *
+     * @see #repair(File, File)
+     */
+    public static boolean repair(File file) throws IOException {
+        return repair(file, getJournalFile(file.getPath()));
+    }
+
+    /**
+     * 修复MP4，成功后删除日志
+     *
+     * @return 日志中没有可以恢复的Sample时返回false，文件保持不变；日志连头部都没有写完时录制还没有开始，日志被删除
+     * @throws IOException 读写失败或者日志格式不对
+     */
+    public static boolean repair(File file, File journal) throws IOException {
+        if (journal.length() < SampleJournal.MIN_HEADER_SIZE) {
+            Log.d(TAG, "repair " + file + " journal has no header");
+            if (journal.exists() && !journal.delete()) {
+                Log.w(TAG, "delete journal failed:" + journal);
+            }
+            return false;
+        }
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            SampleJournal.Recovery recovery = SampleJournal.read(journal, channel.size());
+            if (recovery == null) {
+                throw new IOException("invalid journal " + journal);
+            }
+            Log.d(TAG, "repair " + file + " samples:" + recovery.sampleCount + " dataEnd:" + recovery.dataEnd
+                    + " length:" + channel.size());
+            if (recovery.sampleCount == 0) {
+                return false;
+            }
+
+            channel.truncate(recovery.dataEnd);
+            JournaledMp4Writer.writeMoov(channel, recovery.mdatOffset, recovery.dataEnd, recovery.tables);
+            channel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (!journal.delete()) {
+            Log.w(TAG, "delete journal failed:" + journal);
+        }
+        return true;
+    }
+}
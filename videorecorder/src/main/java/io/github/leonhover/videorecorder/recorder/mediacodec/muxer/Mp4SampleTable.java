@@ -0,0 +1,254 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.util.List;
+
+/**
+ * 普通MP4中单个Track的Sample表，记录每个Sample在文件中的偏移、大小、时间戳与是否关键帧，
+ * 最后生成trak中的stts/stss/stsc/stsz/stco(co64)。每个Sample作为一个chunk，不需要关心音视频的交织方式。
+ * 非线程安全。
+ */
+
+public class Mp4SampleTable {
+
+    private static final int INITIAL_SAMPLE_COUNT = 1024;
+
+    private static final int DEFAULT_VIDEO_SAMPLE_DURATION = Mp4TrackFormat.VIDEO_TIME_SCALE / 30;
+    private static final int DEFAULT_AUDIO_SAMPLE_DURATION = 1024;
+
+    public final Mp4TrackFormat format;
+
+    private long[] mOffsets = new long[INITIAL_SAMPLE_COUNT];
+    private int[] mSizes = new int[INITIAL_SAMPLE_COUNT];
+    private long[] mPresentationTimes = new long[INITIAL_SAMPLE_COUNT];
+    private boolean[] mKeyFrames = new boolean[INITIAL_SAMPLE_COUNT];
+    private int mSampleCount = 0;
+    private int mKeyFrameCount = 0;
+    private long mMaxOffset = 0;
+
+    public Mp4SampleTable(Mp4TrackFormat format) {
+        this.format = format;
+    }
+
+    public void addSample(long offset, int size, long presentationTimeUs, boolean isKeyFrame) {
+        if (mSampleCount == mSizes.length) {
+            grow();
+        }
+        mOffsets[mSampleCount] = offset;
+        mSizes[mSampleCount] = size;
+        mPresentationTimes[mSampleCount] = presentationTimeUs;
+        mKeyFrames[mSampleCount] = isKeyFrame;
+        mSampleCount++;
+        if (isKeyFrame) {
+            mKeyFrameCount++;
+        }
+        mMaxOffset = Math.max(mMaxOffset, offset);
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /**
+     * 第一个Sample的时间戳，没有Sample时为-1
+     */
+    public long getFirstPresentationTimeUs() {
+        return mSampleCount > 0 ? mPresentationTimes[0] : -1;
+    }
+
+    /**
+     * 以Track的timescale为单位的时长，最后一个Sample的时长沿用上一个间隔
+     */
+    public long getDuration() {
+        if (mSampleCount == 0) {
+            return 0;
+        }
+        long duration = 0;
+        int lastDuration = defaultSampleDuration();
+        for (int i = 0; i + 1 < mSampleCount; i++) {
+            lastDuration = sampleDuration(i);
+            duration += lastDuration;
+        }
+        return duration + lastDuration;
+    }
+
+    /**
+     * 写入moov，Track按照List中的顺序编号，没有Sample的Track会被忽略。
+     * 开始时间晚于最早Track的Track会加上一个空的edit，保证音视频同步。
+     */
+    public static void writeMoov(Mp4BoxBuilder builder, List<Mp4SampleTable> tables) {
+        long baseTimeUs = -1;
+        long movieDuration = 0;
+        int trackCount = 0;
+        for (Mp4SampleTable table : tables) {
+            if (table.mSampleCount == 0) {
+                continue;
+            }
+            trackCount++;
+            long firstTimeUs = table.getFirstPresentationTimeUs();
+            if (baseTimeUs < 0 || firstTimeUs < baseTimeUs) {
+                baseTimeUs = firstTimeUs;
+            }
+        }
+        for (Mp4SampleTable table : tables) {
+            if (table.mSampleCount > 0) {
+                movieDuration = Math.max(movieDuration, table.getMovieEndTime(baseTimeUs));
+            }
+        }
+
+        builder.startBox("moov");
+        Mp4Boxes.writeMvhd(builder, movieDuration, trackCount + 1);
+        int trackId = 1;
+        for (Mp4SampleTable table : tables) {
+            if (table.mSampleCount > 0) {
+                table.writeTrak(builder, trackId++, baseTimeUs);
+            }
+        }
+        builder.endBox();
+    }
+
+    private void writeTrak(Mp4BoxBuilder builder, int trackId, long baseTimeUs) {
+        long duration = getDuration();
+        long movieDuration = duration * Mp4Boxes.MOVIE_TIME_SCALE / format.timeScale;
+        long emptyDuration = (mPresentationTimes[0] - baseTimeUs) * Mp4Boxes.MOVIE_TIME_SCALE / 1000000L;
+
+        builder.startBox("trak");
+        Mp4Boxes.writeTkhd(builder, trackId, emptyDuration + movieDuration, format);
+        if (emptyDuration > 0) {
+            builder.startBox("edts")
+                    .startFullBox("elst", 0, 0)
+                    .putInt(2)
+                    .putInt((int) emptyDuration)
+                    .putInt(-1)//empty edit
+                    .putInt(0x00010000)
+                    .putInt((int) movieDuration)
+                    .putInt(0)
+                    .putInt(0x00010000)
+                    .endBox()
+                    .endBox();
+        }
+        builder.startBox("mdia");
+        Mp4Boxes.writeMdhd(builder, duration, format);
+        Mp4Boxes.writeHdlr(builder, format);
+        builder.startBox("minf");
+        Mp4Boxes.writeMediaHeaderAndDinf(builder, format);
+        builder.startBox("stbl");
+        Mp4Boxes.writeStsd(builder, format);
+        writeStts(builder);
+        if (format.isVideo && mKeyFrameCount < mSampleCount) {
+            writeStss(builder);
+        }
+        //每个chunk一个Sample
+        builder.startFullBox("stsc", 0, 0)
+                .putInt(1)
+                .putInt(1)//first_chunk
+                .putInt(1)//samples_per_chunk
+                .putInt(1)//sample_description_index
+                .endBox();
+        builder.startFullBox("stsz", 0, 0)
+                .putInt(0)
+                .putInt(mSampleCount);
+        for (int i = 0; i < mSampleCount; i++) {
+            builder.putInt(mSizes[i]);
+        }
+        builder.endBox();
+        writeChunkOffsets(builder);
+        builder.endBox();
+        builder.endBox();
+        builder.endBox();
+        builder.endBox();
+    }
+
+    private void writeStts(Mp4BoxBuilder builder) {
+        builder.startFullBox("stts", 0, 0);
+        int countPosition = builder.size();
+        builder.putInt(0);
+
+        int entryCount = 0;
+        int runDuration = -1;
+        int runLength = 0;
+        int lastDuration = defaultSampleDuration();
+        for (int i = 0; i < mSampleCount; i++) {
+            int duration = i + 1 < mSampleCount ? sampleDuration(i) : lastDuration;
+            lastDuration = duration;
+            if (duration == runDuration) {
+                runLength++;
+                continue;
+            }
+            if (runLength > 0) {
+                builder.putInt(runLength).putInt(runDuration);
+                entryCount++;
+            }
+            runDuration = duration;
+            runLength = 1;
+        }
+        builder.putInt(runLength).putInt(runDuration);
+        entryCount++;
+        builder.setInt(countPosition, entryCount);
+        builder.endBox();
+    }
+
+    private void writeStss(Mp4BoxBuilder builder) {
+        builder.startFullBox("stss", 0, 0)
+                .putInt(mKeyFrameCount);
+        for (int i = 0; i < mSampleCount; i++) {
+            if (mKeyFrames[i]) {
+                builder.putInt(i + 1);
+            }
+        }
+        builder.endBox();
+    }
+
+    private void writeChunkOffsets(Mp4BoxBuilder builder) {
+        if (mMaxOffset > 0xFFFFFFFFL) {
+            builder.startFullBox("co64", 0, 0)
+                    .putInt(mSampleCount);
+            for (int i = 0; i < mSampleCount; i++) {
+                builder.putLong(mOffsets[i]);
+            }
+        } else {
+            builder.startFullBox("stco", 0, 0)
+                    .putInt(mSampleCount);
+            for (int i = 0; i < mSampleCount; i++) {
+                builder.putInt((int) mOffsets[i]);
+            }
+        }
+        builder.endBox();
+    }
+
+    /**
+     * Track结束时间，以{@link Mp4Boxes#MOVIE_TIME_SCALE}为单位
+     */
+    private long getMovieEndTime(long baseTimeUs) {
+        return (mPresentationTimes[0] - baseTimeUs) * Mp4Boxes.MOVIE_TIME_SCALE / 1000000L
+                + getDuration() * Mp4Boxes.MOVIE_TIME_SCALE / format.timeScale;
+    }
+
+    /**
+     * 第index个Sample的时长，以timescale为单位，先各自换算再相减避免累积误差
+     */
+    private int sampleDuration(int index) {
+        long start = format.toTimeScale(mPresentationTimes[index] - mPresentationTimes[0]);
+        long end = format.toTimeScale(mPresentationTimes[index + 1] - mPresentationTimes[0]);
+        return (int) Math.max(0, end - start);
+    }
+
+    private int defaultSampleDuration() {
+        return format.isVideo ? DEFAULT_VIDEO_SAMPLE_DURATION : DEFAULT_AUDIO_SAMPLE_DURATION;
+    }
+
+    private void grow() {
+        int newLength = mSampleCount * 2;
+        long[] offsets = new long[newLength];
+        int[] sizes = new int[newLength];
+        long[] times = new long[newLength];
+        boolean[] keyFrames = new boolean[newLength];
+        System.arraycopy(mOffsets, 0, offsets, 0, mSampleCount);
+        System.arraycopy(mSizes, 0, sizes, 0, mSampleCount);
+        System.arraycopy(mPresentationTimes, 0, times, 0, mSampleCount);
+        System.arraycopy(mKeyFrames, 0, keyFrames, 0, mSampleCount);
+        mOffsets = offsets;
+        mSizes = sizes;
+        mPresentationTimes = times;
+        mKeyFrames = keyFrames;
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+/**
+ * 写MP4时需要的Track描述，与MediaFormat解耦，便于在JVM上测试。
+ */
+
+public class Mp4TrackFormat {
+
+    public static final int VIDEO_TIME_SCALE = 90000;
+
+    public final boolean isVideo;
+    public final int timeScale;
+
+    //视频
+    public final int width;
+    public final int height;
+    public final byte[] sps;
+    public final byte[] pps;
+
+    //音频
+    public final int sampleRate;
+    public final int channelCount;
+    public final byte[] audioSpecificConfig;
+
+    private Mp4TrackFormat(boolean isVideo, int timeScale, int width, int height, byte[] sps, byte[] pps,
+                           int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        this.isVideo = isVideo;
+        this.timeScale = timeScale;
+        this.width = width;
+        this.height = height;
+        this.sps = sps;
+        this.pps = pps;
+        this.sampleRate = sampleRate;
+        this.channelCount = channelCount;
+        this.audioSpecificConfig = audioSpecificConfig;
+    }
+
+    /**
+     * H.264视频Track
+     *
+     * @param sps 不带起始码的SPS
+     * @param pps 不带起始码的PPS
+     */
+    public static Mp4TrackFormat createVideo(int width, int height, byte[] sps, byte[] pps) {
+        return new Mp4TrackFormat(true, VIDEO_TIME_SCALE, width, height, sps, pps, 0, 0, null);
+    }
+
+    /**
+     * AAC音频Track
+     *
+     * @param audioSpecificConfig AudioSpecificConfig，即MediaFormat中的csd-0
+     */
+    public static Mp4TrackFormat createAudio(int sampleRate, int channelCount, byte[] audioSpecificConfig) {
+        return new Mp4TrackFormat(false, sampleRate, 0, 0, null, null, sampleRate, channelCount, audioSpecificConfig);
+    }
+
+    /**
+     * 微秒时间转为Track的timescale单位
+     */
+    public long toTimeScale(long timeUs) {
+        return timeUs * timeScale / 1000000L;
+    }
+}
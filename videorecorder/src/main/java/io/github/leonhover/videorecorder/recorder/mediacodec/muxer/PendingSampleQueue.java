@@ -0,0 +1,146 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Muxer启动前到达的Sample的有界缓存，按到达顺序保存拷贝，启动后一次性按顺序写出。
+ * 缓冲区按需分配，写出后全部释放。非线程安全。
+ * <p>
+ * 超出上限时整个丢弃最早的GOP（到下一个视频关键帧为止的所有Sample），保证剩下的视频从关键帧开始。
+ * 缓存中只有一个GOP时新的视频Sample被丢弃，直到下一个关键帧到达，不会留下没有参考帧的P帧。
+ */
+
+public class PendingSampleQueue {
+    private static final String TAG = "PendingSampleQueue";
+
+    public static final int DEFAULT_MAX_SAMPLES = 256;
+    public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private final int mMaxSamples;
+    private final int mMaxBytes;
+
+    private final List<MediaSample> mSamples = new ArrayList<MediaSample>();
+    private int mCount = 0;
+    private int mBytes = 0;
+    private long mDroppedCount = 0;
+    private int mVideoTrackIndex = -1;
+    private boolean isWaitingKeyFrame = false;
+
+    public PendingSampleQueue() {
+        this(DEFAULT_MAX_SAMPLES, DEFAULT_MAX_BYTES);
+    }
+
+    public PendingSampleQueue(int maxSamples, int maxBytes) {
+        this.mMaxSamples = maxSamples;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * 设置视频Track，丢弃时按它的关键帧划分GOP。没有设置时所有Sample都可以单独丢弃。
+     */
+    public void setVideoTrackIndex(int trackIndex) {
+        this.mVideoTrackIndex = trackIndex;
+    }
+
+    /**
+     * 拷贝并缓存一个Sample，超出数量或字节上限时先丢弃最早的GOP，仍然放不下时丢弃这个Sample。
+     *
+     * @return 是否缓存成功
+     */
+    public boolean add(int trackIndex, ByteBuffer src, int offset, int size, long presentationTimeUs, int flags) {
+        boolean isVideo = trackIndex == mVideoTrackIndex;
+        boolean isKeyFrame = (flags & MediaSample.FLAG_KEY_FRAME) != 0;
+        if (isVideo && isWaitingKeyFrame) {
+            if (!isKeyFrame) {
+                mDroppedCount++;
+                return false;
+            }
+            isWaitingKeyFrame = false;
+        }
+
+        while (mCount >= mMaxSamples || mBytes + size > mMaxBytes) {
+            int gopEnd = findNextGop();
+            if (gopEnd < 0 && isVideo && isKeyFrame) {
+                //新的GOP开始，缓存中的整个GOP都可以丢弃
+                gopEnd = mCount;
+            }
+            if (gopEnd <= 0) {
+                mDroppedCount++;
+                if (isVideo && !isWaitingKeyFrame) {
+                    Log.w(TAG, "pending queue is full, drop video until next key frame");
+                    isWaitingKeyFrame = true;
+                }
+                return false;
+            }
+            Log.w(TAG, "pending queue is full, drop oldest " + gopEnd + " samples");
+            removeFirst(gopEnd);
+        }
+
+        MediaSample sample;
+        if (mCount < mSamples.size()) {
+            sample = mSamples.get(mCount);
+        } else {
+            sample = new MediaSample(size);
+            mSamples.add(sample);
+        }
+        sample.set(trackIndex, src, offset, size, presentationTimeUs, flags);
+        mCount++;
+        mBytes += size;
+        return true;
+    }
+
+    /**
+     * @return 第一个Sample之后的第一个视频关键帧的位置，没有时返回-1
+     */
+    private int findNextGop() {
+        for (int i = 1; i < mCount; i++) {
+            MediaSample sample = mSamples.get(i);
+            if (sample.trackIndex == mVideoTrackIndex && (sample.flags & MediaSample.FLAG_KEY_FRAME) != 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 丢弃最早的count个Sample，它们的缓冲区移到末尾复用
+     */
+    private void removeFirst(int count) {
+        for (int i = 0; i < count; i++) {
+            MediaSample sample = mSamples.remove(0);
+            mBytes -= sample.size();
+            mSamples.add(sample);
+        }
+        mCount -= count;
+        mDroppedCount += count;
+    }
+
+    /**
+     * 按到达顺序交给consumer，然后清空并释放缓冲区。
+     */
+    public void drain(SampleRingBuffer.Consumer consumer) {
+        for (int i = 0; i < mCount; i++) {
+            consumer.onSample(mSamples.get(i));
+        }
+        clear();
+    }
+
+    public void clear() {
+        mSamples.clear();
+        mCount = 0;
+        mBytes = 0;
+        isWaitingKeyFrame = false;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
@@ -0,0 +1,209 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 保存最近一段编码数据的环形缓冲区，用于“保存最近N秒”。
+ * <p>
+ * 数据保存在一块固定大小的Direct ByteBuffer中，Sample的信息保存在预先分配的数组里，写入时不会分配内存。
+ * 空间不足或超过时长时，以GOP为单位从最旧的数据开始淘汰，缓冲区中的第一个Sample始终是视频关键帧。
+ * 每个Sample有一个递增的序号，读取时如果该Sample已经被淘汰则返回false，读取方不需要长时间持有锁。
+ */
+
+public class ReplayBuffer {
+
+    private final ByteBuffer mData;
+    private final int mCapacity;
+    private final long mMaxDurationUs;
+
+    //Sample信息，按序号对数组长度取余存放
+    private final int[] mTrackIndices;
+    private final int[] mOffsets;
+    private final int[] mSizes;
+    private final long[] mPresentationTimesUs;
+    private final int[] mFlags;
+    private final boolean[] isVideoSamples;
+
+    //最旧的Sample的序号与下一个写入的序号
+    private long mHeadSequence = 0;
+    private long mTailSequence = 0;
+    private int mWritePosition = 0;
+    private int mKeyFrameCount = 0;
+    private long mLastVideoTimeUs = 0;
+    private long mDroppedCount = 0;
+    private long mEvictedGopCount = 0;
+
+    /**
+     * @param capacity      数据区大小，单位字节
+     * @param maxSamples    最多保存的Sample个数
+     * @param maxDurationUs 最多保存的视频时长，单位微秒，0表示只受大小限制
+     */
+    public ReplayBuffer(int capacity, int maxSamples, long maxDurationUs) {
+        mData = ByteBuffer.allocateDirect(capacity);
+        mCapacity = capacity;
+        mMaxDurationUs = maxDurationUs;
+        mTrackIndices = new int[maxSamples];
+        mOffsets = new int[maxSamples];
+        mSizes = new int[maxSamples];
+        mPresentationTimesUs = new long[maxSamples];
+        mFlags = new int[maxSamples];
+        isVideoSamples = new boolean[maxSamples];
+    }
+
+    /**
+     * 写入一个Sample，拷贝src中offset开始的size个字节，不会改变src的position与limit。
+     *
+     * @return 是否保存，缓冲区为空时只能从视频关键帧开始保存
+     */
+    public synchronized boolean write(int trackIndex, boolean isVideo, ByteBuffer src, int offset, int size,
+                                      long presentationTimeUs, int flags) {
+        boolean isKeyFrame = isVideo && (flags & MediaSample.FLAG_KEY_FRAME) != 0;
+        if ((flags & MediaSample.FLAG_CODEC_CONFIG) != 0) {
+            //参数集在保存时由MediaFormat提供
+            return false;
+        }
+        if (size <= 0 || size > mCapacity) {
+            mDroppedCount++;
+            return false;
+        }
+
+        int position = findWritePosition(size);
+        while (position < 0 || count() == mTrackIndices.length) {
+            evictGop();
+            position = findWritePosition(size);
+        }
+
+        if (isEmpty() && !isKeyFrame) {
+            //回放必须从关键帧开始
+            return false;
+        }
+
+        int slot = slot(mTailSequence);
+        mTrackIndices[slot] = trackIndex;
+        mOffsets[slot] = position;
+        mSizes[slot] = size;
+        mPresentationTimesUs[slot] = presentationTimeUs;
+        mFlags[slot] = flags;
+        isVideoSamples[slot] = isVideo;
+        mTailSequence++;
+
+        int limit = src.limit();
+        int srcPosition = src.position();
+        src.limit(offset + size).position(offset);
+        mData.limit(position + size).position(position);
+        mData.put(src);
+        src.limit(limit).position(srcPosition);
+        mWritePosition = position + size;
+
+        if (isVideo) {
+            mLastVideoTimeUs = presentationTimeUs;
+            if (isKeyFrame) {
+                mKeyFrameCount++;
+            }
+            while (mMaxDurationUs > 0 && mKeyFrameCount > 1
+                    && mLastVideoTimeUs - mPresentationTimesUs[slot(mHeadSequence)] > mMaxDurationUs) {
+                evictGop();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 读取指定序号的Sample
+     *
+     * @return false表示该Sample已经被淘汰或者还未写入
+     */
+    public synchronized boolean read(long sequence, MediaSample out) {
+        if (sequence < mHeadSequence || sequence >= mTailSequence) {
+            return false;
+        }
+        int slot = slot(sequence);
+        out.set(mTrackIndices[slot], mData, mOffsets[slot], mSizes[slot], mPresentationTimesUs[slot], mFlags[slot]);
+        return true;
+    }
+
+    public synchronized long getHeadSequence() {
+        return mHeadSequence;
+    }
+
+    public synchronized long getTailSequence() {
+        return mTailSequence;
+    }
+
+    /**
+     * 缓冲区中视频的时长，单位微秒
+     */
+    public synchronized long getDurationUs() {
+        return isEmpty() ? 0 : mLastVideoTimeUs - mPresentationTimesUs[slot(mHeadSequence)];
+    }
+
+    public synchronized int size() {
+        return count();
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    public synchronized long getEvictedGopCount() {
+        return mEvictedGopCount;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    public synchronized void clear() {
+        mHeadSequence = mTailSequence;
+        mWritePosition = 0;
+        mKeyFrameCount = 0;
+    }
+
+    private int count() {
+        return (int) (mTailSequence - mHeadSequence);
+    }
+
+    private boolean isEmpty() {
+        return mTailSequence == mHeadSequence;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % mTrackIndices.length);
+    }
+
+    /**
+     * 数据区中可以连续写入size个字节的位置，放不下时返回-1。数据不会跨越数据区末尾，末尾放不下时从头开始。
+     */
+    private int findWritePosition(int size) {
+        if (isEmpty()) {
+            return 0;
+        }
+        int headOffset = mOffsets[slot(mHeadSequence)];
+        if (mWritePosition > headOffset) {
+            if (mCapacity - mWritePosition >= size) {
+                return mWritePosition;
+            }
+            return headOffset >= size ? 0 : -1;
+        }
+        return headOffset - mWritePosition >= size ? mWritePosition : -1;
+    }
+
+    /**
+     * 淘汰最旧的GOP，包括其间的音频，直到下一个视频关键帧
+     */
+    private void evictGop() {
+        do {
+            int slot = slot(mHeadSequence);
+            if (isVideoSamples[slot] && (mFlags[slot] & MediaSample.FLAG_KEY_FRAME) != 0) {
+                mKeyFrameCount--;
+            }
+            mHeadSequence++;
+        } while (!isEmpty() && !(isVideoSamples[slot(mHeadSequence)]
+                && (mFlags[slot(mHeadSequence)] & MediaSample.FLAG_KEY_FRAME) != 0));
+
+        mEvictedGopCount++;
+        if (isEmpty()) {
+            mWritePosition = 0;
+        }
+    }
+}
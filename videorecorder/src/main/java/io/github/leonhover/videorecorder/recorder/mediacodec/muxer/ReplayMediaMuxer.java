@@ -0,0 +1,186 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 在写入其他Muxer的同时把编码数据保存到{@link ReplayBuffer}中，可以随时把最近一段录像保存为MP4文件。
+ * 保存在独立的线程中进行，不会暂停正在进行的录制，也不需要重新编码。
+ */
+
+public class ReplayMediaMuxer implements IMediaMuxer {
+    private static final String TAG = "ReplayMediaMuxer";
+
+    private static final String REPLAY_WRITER_THREAD = "replay_writer_thread";
+
+    public static final int DEFAULT_MAX_SAMPLES = 8192;
+    private static final int INITIAL_SAMPLE_SIZE = 64 * 1024;
+
+    private final IMediaMuxer mMediaMuxer;
+    private final ReplayBuffer mReplayBuffer;
+
+    private volatile MediaFormat mVideoFormat;
+    private volatile MediaFormat mAudioFormat;
+    private volatile int mVideoTrackIndex = -1;
+    private volatile int mAudioTrackIndex = -1;
+
+    private final HandlerThread mReplayThread;
+    private final Handler mReplayHandler;
+    //只在保存线程中使用
+    private final MediaSample mReplaySample = new MediaSample(INITIAL_SAMPLE_SIZE);
+    private final MediaCodec.BufferInfo mReplayBufferInfo = new MediaCodec.BufferInfo();
+
+    /**
+     * @param mediaMuxer    正常录制写入的Muxer
+     * @param bufferBytes   回放缓冲区大小，单位字节
+     * @param maxDurationMs 回放缓冲区最多保存的时长，单位毫秒
+     */
+    public ReplayMediaMuxer(IMediaMuxer mediaMuxer, int bufferBytes, int maxDurationMs) {
+        this.mMediaMuxer = mediaMuxer;
+        this.mReplayBuffer = new ReplayBuffer(bufferBytes, DEFAULT_MAX_SAMPLES, maxDurationMs * 1000L);
+
+        mReplayThread = new HandlerThread(REPLAY_WRITER_THREAD);
+        mReplayThread.start();
+        mReplayHandler = new Handler(mReplayThread.getLooper());
+    }
+
+    /**
+     * 把当前缓冲区中的录像保存到path，文件从关键帧开始。保存完成后在保存线程中回调。
+     *
+     * @param path     输出的MP4文件路径
+     * @param callBack 回调，可以为null
+     */
+    public void saveReplay(final String path, final CallBack callBack) {
+        final long endSequence = mReplayBuffer.getTailSequence();
+        mReplayHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long durationUs = writeReplay(path, endSequence);
+                if (callBack == null) {
+                    return;
+                }
+                if (durationUs >= 0) {
+                    callBack.onReplaySaved(ReplayMediaMuxer.this, path, durationUs);
+                } else {
+                    callBack.onReplayFailed(ReplayMediaMuxer.this, path);
+                }
+            }
+        });
+    }
+
+    public ReplayBuffer getReplayBuffer() {
+        return mReplayBuffer;
+    }
+
+    /**
+     * 把endSequence之前的Sample写入path
+     *
+     * @return 写入的时长，单位微秒，失败时为-1
+     */
+    private long writeReplay(String path, long endSequence) {
+        final MediaFormat videoFormat = mVideoFormat;
+        final MediaFormat audioFormat = mAudioFormat;
+        long sequence = mReplayBuffer.getHeadSequence();
+        if (videoFormat == null || audioFormat == null || sequence >= endSequence) {
+            Log.w(TAG, "writeReplay nothing to save");
+            return -1;
+        }
+
+        Log.d(TAG, "writeReplay path:" + path + " samples:" + (endSequence - sequence));
+        SyncMediaMuxer mediaMuxer = new SyncMediaMuxer(path);
+        int videoTrackIndex = mediaMuxer.addVideoTrack(videoFormat);
+        int audioTrackIndex = mediaMuxer.addAudioTrack(audioFormat);
+        mediaMuxer.start();
+
+        MediaSample sample = mReplaySample;
+        MediaCodec.BufferInfo bufferInfo = mReplayBufferInfo;
+        long baseTimeUs = -1;
+        long durationUs = 0;
+        while (sequence < endSequence) {
+            if (!mReplayBuffer.read(sequence, sample)) {
+                //保存得比录制慢，数据已经被淘汰，从现存的第一个关键帧继续
+                long headSequence = mReplayBuffer.getHeadSequence();
+                Log.w(TAG, "writeReplay lost samples:" + (headSequence - sequence));
+                if (headSequence <= sequence) {
+                    break;
+                }
+                sequence = headSequence;
+                continue;
+            }
+            sequence++;
+
+            if (baseTimeUs < 0) {
+                baseTimeUs = sample.presentationTimeUs;
+            }
+            if (sample.presentationTimeUs < baseTimeUs) {
+                //早于第一个关键帧的音频
+                continue;
+            }
+
+            long presentationTimeUs = sample.presentationTimeUs - baseTimeUs;
+            boolean isVideo = sample.trackIndex == mVideoTrackIndex;
+            bufferInfo.set(0, sample.size(), presentationTimeUs, sample.flags);
+            mediaMuxer.writeSampleData(isVideo ? videoTrackIndex : audioTrackIndex, sample.data(), bufferInfo);
+            durationUs = Math.max(durationUs, presentationTimeUs);
+        }
+
+        mediaMuxer.stop();
+        mediaMuxer.release();
+        Log.d(TAG, "writeReplay end durationUs:" + durationUs);
+        return durationUs;
+    }
+
+    @Override
+    public void start() {
+        mMediaMuxer.start();
+    }
+
+    @Override
+    public void stop() {
+        mMediaMuxer.stop();
+    }
+
+    @Override
+    public void cancel() {
+        mMediaMuxer.cancel();
+    }
+
+    @Override
+    public void release() {
+        mMediaMuxer.release();
+        //已经请求的保存会继续完成
+        mReplayThread.quitSafely();
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        mAudioFormat = mediaFormat;
+        mAudioTrackIndex = mMediaMuxer.addAudioTrack(mediaFormat);
+        return mAudioTrackIndex;
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        mVideoFormat = mediaFormat;
+        mVideoTrackIndex = mMediaMuxer.addVideoTrack(mediaFormat);
+        return mVideoTrackIndex;
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        mMediaMuxer.writeSampleData(trackIndex, byteBuffer, bufferInfo);
+        mReplayBuffer.write(trackIndex, trackIndex == mVideoTrackIndex, byteBuffer, bufferInfo.offset,
+                bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+    }
+
+    public interface CallBack {
+        void onReplaySaved(ReplayMediaMuxer muxer, String path, long durationUs);
+
+        void onReplayFailed(ReplayMediaMuxer muxer, String path);
+    }
+}
@@ -0,0 +1,241 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 跨Track按presentationTimeUs排序的交织缓冲。Sample拷贝进预先分配的{@link MediaSample}中，
+ * 以小顶堆按时间戳排序，满足以下任一条件时堆顶的Sample才会输出：
+ * <ul>
+ * <li>所有Track都已经收到不早于它的Sample，之后不可能再有更早的Sample到达；</li>
+ * <li>它与目前见过的最新时间戳相差达到交织窗口；</li>
+ * <li>缓冲已满，需要为新的Sample腾出位置。</li>
+ * </ul>
+ * 假定每个Track内部的时间戳是递增的。非线程安全。
+ */
+
+public class SampleInterleaver {
+
+    private final int mTrackCount;
+    private final long mWindowUs;
+
+    private final MediaSample[] mSamples;
+    private final long[] mArrivalSequences;
+    private final long[] mArrivalNanos;
+    private final int[] mHeap;
+    private int mHeapSize = 0;
+    private final int[] mFreeSlots;
+    private int mFreeCount;
+
+    private final long[] mLastTrackTimeUs;
+    private final boolean[] mTrackEnded;
+    private long mMaxTimeUs = Long.MIN_VALUE;
+    private long mArrivalSequence = 0;
+
+    //统计
+    private long mEmittedCount = 0;
+    private long mReorderedCount = 0;
+    private long mMaxEmittedSequence = -1;
+    private long mMaxReorderDepth = 0;
+    private int mMaxBufferedSamples = 0;
+    private long mTotalLatencyNanos = 0;
+    private long mMaxLatencyNanos = 0;
+
+    /**
+     * @param trackCount       Track数量
+     * @param capacity         最多缓存的Sample数量
+     * @param windowMs         最大交织窗口，单位为毫秒
+     * @param initialSampleSize 每个Sample缓冲区的初始大小
+     */
+    public SampleInterleaver(int trackCount, int capacity, int windowMs, int initialSampleSize) {
+        mTrackCount = trackCount;
+        mWindowUs = windowMs * 1000L;
+        mSamples = new MediaSample[capacity];
+        mArrivalSequences = new long[capacity];
+        mArrivalNanos = new long[capacity];
+        mHeap = new int[capacity];
+        mFreeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mSamples[i] = new MediaSample(initialSampleSize);
+            mFreeSlots[i] = capacity - 1 - i;
+        }
+        mFreeCount = capacity;
+
+        mLastTrackTimeUs = new long[trackCount];
+        mTrackEnded = new boolean[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mLastTrackTimeUs[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * 放入一个Sample，并输出所有已经可以确定顺序的Sample。
+     */
+    public void push(int trackIndex, ByteBuffer src, int offset, int size, long presentationTimeUs, int flags,
+                     Output output) {
+        if (mFreeCount == 0) {
+            emit(output);
+        }
+
+        int slot = mFreeSlots[--mFreeCount];
+        mSamples[slot].set(trackIndex, src, offset, size, presentationTimeUs, flags);
+        mArrivalSequences[slot] = mArrivalSequence++;
+        mArrivalNanos[slot] = System.nanoTime();
+        siftUp(mHeapSize++, slot);
+        mMaxBufferedSamples = Math.max(mMaxBufferedSamples, mHeapSize);
+
+        if (presentationTimeUs > mLastTrackTimeUs[trackIndex]) {
+            mLastTrackTimeUs[trackIndex] = presentationTimeUs;
+        }
+        if (presentationTimeUs > mMaxTimeUs) {
+            mMaxTimeUs = presentationTimeUs;
+        }
+        if ((flags & MediaSample.FLAG_END_OF_STREAM) != 0) {
+            mTrackEnded[trackIndex] = true;
+        }
+
+        while (mHeapSize > 0 && isHeadReady()) {
+            emit(output);
+        }
+    }
+
+    /**
+     * 标记某个Track不会再有数据，避免其他Track一直等待它。
+     */
+    public void endTrack(int trackIndex, Output output) {
+        mTrackEnded[trackIndex] = true;
+        while (mHeapSize > 0 && isHeadReady()) {
+            emit(output);
+        }
+    }
+
+    /**
+     * 按时间戳顺序输出缓存的所有Sample
+     */
+    public void flush(Output output) {
+        while (mHeapSize > 0) {
+            emit(output);
+        }
+    }
+
+    public int getBufferedCount() {
+        return mHeapSize;
+    }
+
+    public long getEmittedCount() {
+        return mEmittedCount;
+    }
+
+    /**
+     * 输出顺序与到达顺序不同的Sample数量
+     */
+    public long getReorderedCount() {
+        return mReorderedCount;
+    }
+
+    /**
+     * 最大的重排深度，即一个Sample被多少个比它晚到达的Sample抢先输出
+     */
+    public long getMaxReorderDepth() {
+        return mMaxReorderDepth;
+    }
+
+    public int getMaxBufferedSamples() {
+        return mMaxBufferedSamples;
+    }
+
+    /**
+     * Sample在交织缓冲中停留的平均时间，单位为微秒
+     */
+    public long getAverageLatencyUs() {
+        return mEmittedCount == 0 ? 0 : mTotalLatencyNanos / mEmittedCount / 1000;
+    }
+
+    /**
+     * Sample在交织缓冲中停留的最长时间，单位为微秒
+     */
+    public long getMaxLatencyUs() {
+        return mMaxLatencyNanos / 1000;
+    }
+
+    private boolean isHeadReady() {
+        long headTimeUs = mSamples[mHeap[0]].presentationTimeUs;
+        if (mMaxTimeUs - headTimeUs >= mWindowUs) {
+            return true;
+        }
+
+        for (int i = 0; i < mTrackCount; i++) {
+            if (!mTrackEnded[i] && mLastTrackTimeUs[i] < headTimeUs) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void emit(Output output) {
+        int slot = mHeap[0];
+        int last = mHeap[--mHeapSize];
+        if (mHeapSize > 0) {
+            siftDown(0, last);
+        }
+
+        long sequence = mArrivalSequences[slot];
+        if (sequence < mMaxEmittedSequence) {
+            mReorderedCount++;
+            mMaxReorderDepth = Math.max(mMaxReorderDepth, mMaxEmittedSequence - sequence);
+        } else {
+            mMaxEmittedSequence = sequence;
+        }
+        long latency = System.nanoTime() - mArrivalNanos[slot];
+        mTotalLatencyNanos += latency;
+        mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latency);
+        mEmittedCount++;
+
+        output.onSample(mSamples[slot]);
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    private boolean less(int a, int b) {
+        long timeA = mSamples[a].presentationTimeUs;
+        long timeB = mSamples[b].presentationTimeUs;
+        if (timeA != timeB) {
+            return timeA < timeB;
+        }
+        return mArrivalSequences[a] < mArrivalSequences[b];
+    }
+
+    private void siftUp(int index, int slot) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(slot, mHeap[parent])) {
+                break;
+            }
+            mHeap[index] = mHeap[parent];
+            index = parent;
+        }
+        mHeap[index] = slot;
+    }
+
+    private void siftDown(int index, int slot) {
+        int half = mHeapSize >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < mHeapSize && less(mHeap[right], mHeap[child])) {
+                child = right;
+            }
+            if (!less(mHeap[child], slot)) {
+                break;
+            }
+            mHeap[index] = mHeap[child];
+            index = child;
+        }
+        mHeap[index] = slot;
+    }
+
+    public interface Output {
+        /**
+         * 回调返回后MediaSample会被复用，不要持有。
+         */
+        void onSample(MediaSample sample);
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 录制MP4时的Sample日志，与MP4文件同时追加写入。进程意外退出时MP4没有moov，可以根据日志重建索引。
+ * <p>
+ * 文件格式（大端）：
+ * <pre>
+ * 头部：magic(4) version(1) mdat偏移(8) track数量(1)，之后每个Track：
+ *      视频 1(1) width(4) height(4) sps长度(2) sps pps长度(2) pps
+ *      音频 0(1) sampleRate(4) channelCount(4) asc长度(2) asc
+ * 记录：track(1) flags(1) size(4) offset(8) pts(8)，每个Sample固定22字节
+ * </pre>
+ * 记录先缓存在内存中，只在{@link #flush()}或{@link #sync()}时写出，缓冲区满时不会自动写出，
+ * 由{@link JournaledMp4Writer}在写出对应的MP4数据之后调用，保证日志中的Sample数据先于日志落盘。
+ * 读取时丢弃不完整的记录以及数据不在MP4文件中的Sample。非线程安全。
+ */
+
+public class SampleJournal {
+
+    public static final int RECORD_SIZE = 22;
+    public static final int FLAG_KEY_FRAME = 1;
+
+    private static final int MAGIC = 0x4D524A4C;//"MRJL"
+    private static final int VERSION = 1;
+    //magic、version、mdatOffset与Track数量
+    static final int MIN_HEADER_SIZE = 4 + 1 + 8 + 1;
+    private static final int BUFFER_SIZE = RECORD_SIZE * 256;
+
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public SampleJournal(FileChannel channel) {
+        this.mChannel = channel;
+    }
+
+    /**
+     * 写入头部并同步到存储，需要在第一条记录之前调用
+     *
+     * @param mdatOffset MP4中mdat占位的偏移
+     */
+    public void writeHeader(long mdatOffset, List<Mp4TrackFormat> formats) throws IOException {
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(256);
+        builder.putInt(MAGIC)
+                .putByte(VERSION)
+                .putLong(mdatOffset)
+                .putByte(formats.size());
+        for (Mp4TrackFormat format : formats) {
+            if (format.isVideo) {
+                builder.putByte(1)
+                        .putInt(format.width)
+                        .putInt(format.height)
+                        .putShort(format.sps.length)
+                        .putBytes(format.sps)
+                        .putShort(format.pps.length)
+                        .putBytes(format.pps);
+            } else {
+                builder.putByte(0)
+                        .putInt(format.sampleRate)
+                        .putInt(format.channelCount)
+                        .putShort(format.audioSpecificConfig.length)
+                        .putBytes(format.audioSpecificConfig);
+            }
+        }
+        ByteBuffer header = builder.buffer();
+        flush();
+        writeFully(header);
+        mChannel.force(false);
+    }
+
+    /**
+     * 在内存中追加一条记录，缓冲区满时需要先调用{@link #flush()}或{@link #sync()}
+     *
+     * @throws IllegalStateException 缓冲区已满
+     */
+    public void append(int trackIndex, long offset, int size, long presentationTimeUs, boolean isKeyFrame) {
+        if (isFull()) {
+            throw new IllegalStateException("journal buffer is full");
+        }
+        mBuffer.put((byte) trackIndex)
+                .put((byte) (isKeyFrame ? FLAG_KEY_FRAME : 0))
+                .putInt(size)
+                .putLong(offset)
+                .putLong(presentationTimeUs);
+    }
+
+    /**
+     * 缓冲区是否已满，满时需要写出MP4数据后再{@link #flush()}
+     */
+    public boolean isFull() {
+        return mBuffer.remaining() < RECORD_SIZE;
+    }
+
+    /**
+     * 把缓冲的记录写入文件，进程退出后依然保留，但掉电时可能丢失
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        writeFully(mBuffer);
+        mBuffer.clear();
+    }
+
+    /**
+     * 把缓冲的记录写入文件并同步到存储
+     */
+    public void sync() throws IOException {
+        flush();
+        mChannel.force(false);
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            mChannel.write(src);
+        }
+    }
+
+    /**
+     * 读取日志，恢复出每个Track的Sample表
+     *
+     * @param dataLimit MP4文件的实际长度，超出这个长度的Sample会被丢弃
+     * @return 头部不完整或者格式不对时返回null
+     */
+    public static Recovery read(File journal, long dataLimit) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(journal), 64 * 1024));
+        try {
+            long mdatOffset;
+            List<Mp4SampleTable> tables = new ArrayList<Mp4SampleTable>(2);
+            try {
+                if (input.readInt() != MAGIC || input.readUnsignedByte() != VERSION) {
+                    return null;
+                }
+                mdatOffset = input.readLong();
+                int trackCount = input.readUnsignedByte();
+                for (int i = 0; i < trackCount; i++) {
+                    tables.add(new Mp4SampleTable(readFormat(input)));
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+
+            Recovery recovery = new Recovery(mdatOffset, tables);
+            byte[] record = new byte[RECORD_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long dataEnd = mdatOffset + JournaledMp4Writer.MDAT_PLACEHOLDER_SIZE;
+            while (true) {
+                try {
+                    input.readFully(record);
+                } catch (EOFException e) {
+                    //最后一条记录可能只写了一半
+                    break;
+                }
+                buffer.clear();
+                int trackIndex = buffer.get() & 0xFF;
+                int flags = buffer.get();
+                int size = buffer.getInt();
+                long offset = buffer.getLong();
+                long presentationTimeUs = buffer.getLong();
+                if (trackIndex >= tables.size() || size <= 0 || offset < dataEnd || offset + size > dataLimit) {
+                    break;
+                }
+                tables.get(trackIndex).addSample(offset, size, presentationTimeUs, (flags & FLAG_KEY_FRAME) != 0);
+                dataEnd = offset + size;
+                recovery.sampleCount++;
+            }
+            recovery.dataEnd = dataEnd;
+            return recovery;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static Mp4TrackFormat readFormat(DataInputStream input) throws IOException {
+        boolean isVideo = input.readUnsignedByte() == 1;
+        if (isVideo) {
+            int width = input.readInt();
+            int height = input.readInt();
+            byte[] sps = readBytes(input);
+            byte[] pps = readBytes(input);
+            return Mp4TrackFormat.createVideo(width, height, sps, pps);
+        } else {
+            int sampleRate = input.readInt();
+            int channelCount = input.readInt();
+            byte[] audioSpecificConfig = readBytes(input);
+            return Mp4TrackFormat.createAudio(sampleRate, channelCount, audioSpecificConfig);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 从日志中恢复的内容
+     */
+    public static class Recovery {
+        public final long mdatOffset;
+        public final List<Mp4SampleTable> tables;
+        /**
+         * 最后一个有效Sample的结束位置
+         */
+        public long dataEnd;
+        public int sampleCount;
+
+        Recovery(long mdatOffset, List<Mp4SampleTable> tables) {
+            this.mdatOffset = mdatOffset;
+            this.tables = tables;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 有界的多生产者单消费者环形队列，每个槽位预先持有一个{@link MediaSample}。
+ * 生产者通过CAS抢占槽位并把数据拷贝进去，不需要加锁；唯一的消费者按顺序批量取出。
+ * 实现参考Dmitry Vyukov的bounded MPMC queue，每个槽位用序号区分空闲与已发布。
+ */
+
+public class SampleRingBuffer {
+
+    private static final long PRODUCER_PARK_NANOS = 50 * 1000L;
+
+    private final int mMask;
+    private final MediaSample[] mSlots;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong(0);
+    //只由消费者线程读写
+    private volatile long mHead = 0;
+
+    private volatile Thread mWaitingConsumer;
+    private final AtomicLong mDroppedCount = new AtomicLong(0);
+
+    /**
+     * @param capacity        槽位数量，向上取整为2的幂
+     * @param initialSlotSize 每个槽位初始的缓冲区大小
+     */
+    public SampleRingBuffer(int capacity, int initialSlotSize) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mSlots = new MediaSample[size];
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSlots[i] = new MediaSample(initialSlotSize);
+            mSequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * 当前队列中待消费的Sample数量，只是一个估计值。
+     */
+    public int size() {
+        long size = mTail.get() - mHead;
+        return (int) Math.max(0, Math.min(size, mSlots.length));
+    }
+
+    /**
+     * 因队列满而入队超时的次数，调用者可能会重试
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 拷贝一个Sample到队列中，可以被多个线程同时调用。队列满时最多等待timeoutNanos。
+     *
+     * @return 是否成功入队，超时返回false
+     */
+    public boolean offer(int trackIndex, ByteBuffer src, int offset, int size, long presentationTimeUs,
+                         int flags, long timeoutNanos) {
+        long waitStart = 0;
+        while (true) {
+            long tail = mTail.get();
+            int index = (int) (tail & mMask);
+            long sequence = mSequences.get(index);
+            long diff = sequence - tail;
+            if (diff == 0) {
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    mSlots[index].set(trackIndex, src, offset, size, presentationTimeUs, flags);
+                    //必须是volatile写，保证发布先于下面对mWaitingConsumer的读取（StoreLoad），
+                    //否则可能与awaitSamples交错，消费者错过唤醒
+                    mSequences.set(index, tail + 1);
+                    Thread consumer = mWaitingConsumer;
+                    if (consumer != null) {
+                        LockSupport.unpark(consumer);
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                //队列已满，等待消费者
+                long now = System.nanoTime();
+                if (waitStart == 0) {
+                    waitStart = now;
+                } else if (now - waitStart >= timeoutNanos) {
+                    mDroppedCount.incrementAndGet();
+                    return false;
+                }
+                LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+            }
+            //diff > 0：槽位被其他生产者抢先，重试
+        }
+    }
+
+    /**
+     * 批量取出已发布的Sample，只能由消费者线程调用。回调返回后槽位会被复用，不要持有MediaSample。
+     *
+     * @param maxBatch 最多取出的数量
+     * @return 实际取出的数量
+     */
+    public int drain(Consumer consumer, int maxBatch) {
+        int count = 0;
+        while (count < maxBatch) {
+            int index = (int) (mHead & mMask);
+            if (mSequences.get(index) != mHead + 1) {
+                break;
+            }
+            consumer.onSample(mSlots[index]);
+            mSequences.lazySet(index, mHead + mSlots.length);
+            mHead++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 队列为空时挂起消费者线程，直到有新的Sample发布或超时。
+     */
+    public void awaitSamples(long timeoutNanos) {
+        mWaitingConsumer = Thread.currentThread();
+        if (mSequences.get((int) (mHead & mMask)) != mHead + 1) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        mWaitingConsumer = null;
+    }
+
+    public interface Consumer {
+        void onSample(MediaSample sample);
+    }
+}
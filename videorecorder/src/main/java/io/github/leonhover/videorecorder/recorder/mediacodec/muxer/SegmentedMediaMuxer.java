@@ -0,0 +1,504 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * 分段录制的Muxer，按时长或大小把输出切分为多个文件，编码器不需要停止或重新prepare。
+ * <p>
+ * 当前分段达到上限后，会通过{@link CallBack#onSyncFrameRequested(SegmentedMediaMuxer)}请求一个关键帧，
+ * 在这个关键帧处切换到新的文件。等待关键帧期间到达的音频先缓存起来，切换时按时间戳分配：
+ * 早于切分点的写入旧分段，其余写入新分段；之后到达的早于切分点的音频仍写入旧分段，直到音频越过切分点，
+ * 旧分段才会结束，因此分段之间的音频既不重叠也没有空隙。
+ * <p>
+ * 结束分段（写入索引）与创建下一个分段（打开文件）都在单独的线程中进行，编码器线程切换分段时不做文件操作，也不会等待。
+ * 分段已满而下一个分段还没有准备好时继续写入当前分段，准备好后再请求关键帧切换。
+ * MPEG-TS分段可以{@link #setPlaylistEnabled(boolean) 同时维护}一个已完成分段的m3u8列表，
+ * 普通MP4分段不能直接作为HLS分段，不生成列表。
+ */
+
+public class SegmentedMediaMuxer implements IMediaMuxer {
+    private static final String TAG = "SegmentedMediaMuxer";
+
+    private static final String SEGMENT_FINISHER_THREAD = "segment_finisher";
+    private static final String PLAYLIST_EXTENSION = ".m3u8";
+
+    //等待关键帧期间最多缓存的音频
+    private static final int MAX_HELD_AUDIO_SAMPLES = 128;
+    private static final int MAX_HELD_AUDIO_BYTES = 1024 * 1024;
+
+    private final String mBasePath;
+    private final String mExtension;
+    private final long mSegmentDurationUs;
+    private final long mSegmentMaxBytes;
+    private final MuxerFactory mMuxerFactory;
+    private M3u8PlaylistWriter mPlaylistWriter;
+    private CallBack mCallBack;
+
+    private final Object mLocker = new Object();
+    private MediaFormat mVideoFormat;
+    private MediaFormat mAudioFormat;
+    private int mTrackCount = 0;
+    private int mVideoTrackIndex = -1;
+    private int mAudioTrackIndex = -1;
+    private boolean isRequestStart = false;
+
+    private int mSegmentCount = 0;
+    private Segment mCurrentSegment;
+    private Segment mClosingSegment;
+    //在finisher线程中提前创建的下一个分段
+    private Segment mNextSegment;
+    private boolean isPreparingNextSegment = false;
+    //分段已满时下一个分段还没有准备好，只打印一次警告
+    private boolean isWaitingNextSegment = false;
+    private long mCutTimeUs;
+    private boolean isWaitingKeyFrame = false;
+    private final PendingSampleQueue mHeldAudioSamples = new PendingSampleQueue(MAX_HELD_AUDIO_SAMPLES, MAX_HELD_AUDIO_BYTES);
+    private final HeldAudioRouter mHeldAudioRouter = new HeldAudioRouter();
+
+    //单元测试中为null
+    private final HandlerThread mFinisherThread;
+    private final Executor mFinisher;
+
+    /**
+     * @param output          输出路径，分段文件名为在扩展名前加上序号，列表文件的扩展名为m3u8
+     * @param segmentDurationMs 每个分段的时长上限，单位毫秒，0表示不限制
+     * @param segmentMaxBytes 每个分段的大小上限，单位字节，0表示不限制
+     * @param muxerFactory    创建每个分段的Muxer
+     */
+    public SegmentedMediaMuxer(String output, int segmentDurationMs, long segmentMaxBytes, MuxerFactory muxerFactory) {
+        this(output, segmentDurationMs, segmentMaxBytes, muxerFactory, new HandlerThread(SEGMENT_FINISHER_THREAD));
+    }
+
+    private SegmentedMediaMuxer(String output, int segmentDurationMs, long segmentMaxBytes, MuxerFactory muxerFactory,
+                                HandlerThread finisherThread) {
+        this(output, segmentDurationMs, segmentMaxBytes, muxerFactory, finisherThread, startFinisher(finisherThread));
+    }
+
+    /**
+     * @param finisherThread finisher所在的线程，stop时退出，可以为null
+     * @param finisher       结束与创建分段的执行者
+     */
+    SegmentedMediaMuxer(String output, int segmentDurationMs, long segmentMaxBytes, MuxerFactory muxerFactory,
+                        HandlerThread finisherThread, Executor finisher) {
+        int dot = output.lastIndexOf('.');
+        if (dot > output.lastIndexOf(File.separatorChar)) {
+            mBasePath = output.substring(0, dot);
+            mExtension = output.substring(dot);
+        } else {
+            mBasePath = output;
+            mExtension = "";
+        }
+        mSegmentDurationUs = segmentDurationMs * 1000L;
+        mSegmentMaxBytes = segmentMaxBytes;
+        mMuxerFactory = muxerFactory;
+
+        mFinisherThread = finisherThread;
+        mFinisher = finisher;
+
+        String path = nextSegmentPath();
+        mCurrentSegment = new Segment(path, mMuxerFactory.createMediaMuxer(path));
+    }
+
+    private static Executor startFinisher(HandlerThread finisherThread) {
+        finisherThread.start();
+        final Handler handler = new Handler(finisherThread.getLooper());
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+    }
+
+    /**
+     * 是否生成m3u8列表，只有分段是MPEG-TS时才能开启，需要在{@link #start()}之前调用
+     */
+    public void setPlaylistEnabled(boolean isEnabled) {
+        synchronized (mLocker) {
+            mPlaylistWriter = isEnabled ? new M3u8PlaylistWriter(new File(mBasePath + PLAYLIST_EXTENSION)) : null;
+        }
+    }
+
+    public void setCallBack(CallBack callBack) {
+        this.mCallBack = callBack;
+    }
+
+    /**
+     * 已经开始写入的分段数量，不包括提前创建但没有用到的分段
+     */
+    public int getSegmentCount() {
+        synchronized (mLocker) {
+            return mNextSegment != null || isPreparingNextSegment ? mSegmentCount - 1 : mSegmentCount;
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mLocker) {
+            isRequestStart = true;
+            mCurrentSegment.mediaMuxer.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mLocker) {
+            if (mCurrentSegment == null) {
+                Log.w(TAG, "stop already stopped or released");
+                return;
+            }
+            if (isWaitingKeyFrame) {
+                isWaitingKeyFrame = false;
+                mHeldAudioSamples.drain(mHeldAudioRouter);
+            }
+            if (mClosingSegment != null) {
+                finishSegment(mClosingSegment);
+                mClosingSegment = null;
+            }
+            finishSegment(mCurrentSegment);
+            mCurrentSegment = null;
+            discardNextSegment();
+            Log.d(TAG, "stop segments:" + mSegmentCount);
+        }
+
+        mFinisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mPlaylistWriter == null) {
+                    return;
+                }
+                try {
+                    mPlaylistWriter.finish();
+                } catch (IOException e) {
+                    Log.e(TAG, "write playlist failed", e);
+                }
+            }
+        });
+        if (mFinisherThread != null) {
+            mFinisherThread.quitSafely();
+            try {
+                mFinisherThread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void cancel() {
+        synchronized (mLocker) {
+            if (mCurrentSegment != null) {
+                mCurrentSegment.mediaMuxer.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mLocker) {
+            //正常结束时分段已经在finisher线程中释放
+            if (mClosingSegment != null) {
+                //旧分段的数据已经完整，正常结束
+                finishSegment(mClosingSegment);
+                mClosingSegment = null;
+            }
+            if (mCurrentSegment != null) {
+                mCurrentSegment.mediaMuxer.release();
+                mCurrentSegment = null;
+            }
+            discardNextSegment();
+        }
+        if (mFinisherThread != null) {
+            mFinisherThread.quitSafely();
+        }
+    }
+
+    @Override
+    public int addAudioTrack(MediaFormat mediaFormat) {
+        synchronized (mLocker) {
+            mAudioFormat = mediaFormat;
+            mAudioTrackIndex = mTrackCount++;
+            mCurrentSegment.audioTrackIndex = mCurrentSegment.mediaMuxer.addAudioTrack(mediaFormat);
+            prepareNextSegmentIfReady();
+            return mAudioTrackIndex;
+        }
+    }
+
+    @Override
+    public int addVideoTrack(MediaFormat mediaFormat) {
+        synchronized (mLocker) {
+            mVideoFormat = mediaFormat;
+            mVideoTrackIndex = mTrackCount++;
+            mCurrentSegment.videoTrackIndex = mCurrentSegment.mediaMuxer.addVideoTrack(mediaFormat);
+            prepareNextSegmentIfReady();
+            return mVideoTrackIndex;
+        }
+    }
+
+    @Override
+    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        synchronized (mLocker) {
+            if (mCurrentSegment == null) {
+                return;
+            }
+            if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                //参数集不计入分段，新的分段从MediaFormat中获取
+                Segment segment = mCurrentSegment;
+                segment.mediaMuxer.writeSampleData(trackIndex == mVideoTrackIndex
+                        ? segment.videoTrackIndex : segment.audioTrackIndex, byteBuffer, bufferInfo);
+                return;
+            }
+            if (trackIndex == mVideoTrackIndex) {
+                writeVideoSample(byteBuffer, bufferInfo);
+            } else if (isWaitingKeyFrame) {
+                if (!mHeldAudioSamples.add(trackIndex, byteBuffer, bufferInfo.offset, bufferInfo.size,
+                        bufferInfo.presentationTimeUs, bufferInfo.flags)) {
+                    //关键帧迟迟不来，不再等待
+                    mHeldAudioSamples.drain(mHeldAudioRouter);
+                    writeAudioSample(byteBuffer, bufferInfo);
+                }
+            } else {
+                writeAudioSample(byteBuffer, bufferInfo);
+            }
+        }
+    }
+
+    private void writeVideoSample(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        long presentationTimeUs = bufferInfo.presentationTimeUs;
+        Segment segment = mCurrentSegment;
+        if (segment.startTimeUs < 0) {
+            segment.startTimeUs = presentationTimeUs;
+        }
+
+        if (segment.sampleCount > 0 && isSegmentFull(segment, presentationTimeUs)) {
+            if (mNextSegment == null) {
+                //下一个分段还没有准备好，继续写入当前分段，不在编码器线程中等待或打开文件
+                if (!isWaitingNextSegment) {
+                    Log.w(TAG, "next segment is not prepared, keep writing segment:" + segment.path);
+                    isWaitingNextSegment = true;
+                }
+            } else if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+                rotate(presentationTimeUs);
+                segment = mCurrentSegment;
+                segment.startTimeUs = presentationTimeUs;
+            } else if (!isWaitingKeyFrame) {
+                Log.d(TAG, "request sync frame for segment:" + mSegmentCount);
+                isWaitingKeyFrame = true;
+                final CallBack callBack = mCallBack;
+                if (callBack != null) {
+                    callBack.onSyncFrameRequested(this);
+                }
+            }
+        }
+
+        segment.write(segment.videoTrackIndex, byteBuffer, bufferInfo);
+        segment.endTimeUs = presentationTimeUs;
+    }
+
+    private void writeAudioSample(ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+        if (mClosingSegment != null) {
+            if (bufferInfo.presentationTimeUs < mCutTimeUs) {
+                mClosingSegment.write(mClosingSegment.audioTrackIndex, byteBuffer, bufferInfo);
+                return;
+            }
+            //音频已经越过切分点，旧分段可以结束了
+            finishSegment(mClosingSegment);
+            mClosingSegment = null;
+        }
+        mCurrentSegment.write(mCurrentSegment.audioTrackIndex, byteBuffer, bufferInfo);
+    }
+
+    private boolean isSegmentFull(Segment segment, long presentationTimeUs) {
+        return (mSegmentDurationUs > 0 && presentationTimeUs - segment.startTimeUs >= mSegmentDurationUs)
+                || (mSegmentMaxBytes > 0 && segment.bytes >= mSegmentMaxBytes);
+    }
+
+    /**
+     * 在cutTimeUs处切换到已经准备好的下一个分段，需要持有mLocker
+     */
+    private void rotate(long cutTimeUs) {
+        if (mClosingSegment != null) {
+            //上一次切分后音频一直没有越过切分点
+            finishSegment(mClosingSegment);
+        }
+
+        Log.d(TAG, "rotate segment:" + mSegmentCount + " at:" + cutTimeUs);
+        mClosingSegment = mCurrentSegment;
+        mClosingSegment.endTimeUs = cutTimeUs;
+        mCutTimeUs = cutTimeUs;
+
+        //只在下一个分段准备好时切换
+        Segment segment = mNextSegment;
+        mNextSegment = null;
+        isWaitingNextSegment = false;
+        if (isRequestStart) {
+            segment.mediaMuxer.start();
+        }
+        mCurrentSegment = segment;
+
+        isWaitingKeyFrame = false;
+        mHeldAudioSamples.drain(mHeldAudioRouter);
+        prepareNextSegmentIfReady();
+    }
+
+    private String nextSegmentPath() {
+        return String.format(Locale.US, "%s_%03d%s", mBasePath, mSegmentCount++, mExtension);
+    }
+
+    /**
+     * 创建分段的Muxer并添加Track，会打开文件
+     */
+    private Segment createSegment(String path, MediaFormat videoFormat, MediaFormat audioFormat) {
+        Segment segment = new Segment(path, mMuxerFactory.createMediaMuxer(path));
+        segment.videoTrackIndex = segment.mediaMuxer.addVideoTrack(videoFormat);
+        segment.audioTrackIndex = segment.mediaMuxer.addAudioTrack(audioFormat);
+        return segment;
+    }
+
+    /**
+     * 两个Track都已添加时在finisher线程中创建下一个分段，需要持有mLocker
+     */
+    private void prepareNextSegmentIfReady() {
+        if (mVideoFormat == null || mAudioFormat == null || mNextSegment != null || isPreparingNextSegment) {
+            return;
+        }
+        isPreparingNextSegment = true;
+        final String path = nextSegmentPath();
+        final MediaFormat videoFormat = mVideoFormat;
+        final MediaFormat audioFormat = mAudioFormat;
+        mFinisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                Segment segment = createSegment(path, videoFormat, audioFormat);
+                synchronized (mLocker) {
+                    isPreparingNextSegment = false;
+                    if (mCurrentSegment != null) {
+                        mNextSegment = segment;
+                        return;
+                    }
+                    //序号留给之后的分段
+                    mSegmentCount--;
+                }
+                //已经停止，不再需要
+                releaseUnusedSegment(segment);
+            }
+        });
+    }
+
+    /**
+     * 丢弃准备好但没有用到的分段，需要持有mLocker
+     */
+    private void discardNextSegment() {
+        final Segment segment = mNextSegment;
+        mNextSegment = null;
+        if (segment != null) {
+            //序号留给之后的分段
+            mSegmentCount--;
+            mFinisher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    releaseUnusedSegment(segment);
+                }
+            });
+        }
+    }
+
+    private static void releaseUnusedSegment(Segment segment) {
+        segment.mediaMuxer.release();
+        if (!new File(segment.path).delete()) {
+            Log.w(TAG, "delete unused segment failed:" + segment.path);
+        }
+    }
+
+    /**
+     * 在finisher线程中结束分段并更新播放列表
+     */
+    private void finishSegment(final Segment segment) {
+        final long durationUs = Math.max(0, segment.endTimeUs - segment.startTimeUs);
+        mFinisher.execute(new Runnable() {
+            @Override
+            public void run() {
+                segment.mediaMuxer.stop();
+                segment.mediaMuxer.release();
+                if (segment.sampleCount == 0) {
+                    return;
+                }
+                if (mPlaylistWriter != null) {
+                    try {
+                        mPlaylistWriter.addSegment(new File(segment.path).getName(), durationUs / 1000000.0);
+                    } catch (IOException e) {
+                        Log.e(TAG, "write playlist failed", e);
+                    }
+                }
+                final CallBack callBack = mCallBack;
+                if (callBack != null) {
+                    callBack.onSegmentFinished(SegmentedMediaMuxer.this, segment.path, durationUs);
+                }
+            }
+        });
+    }
+
+    private static class Segment {
+        final String path;
+        final IMediaMuxer mediaMuxer;
+        int videoTrackIndex;
+        int audioTrackIndex;
+        long startTimeUs = -1;
+        long endTimeUs = -1;
+        long bytes = 0;
+        int sampleCount = 0;
+
+        Segment(String path, IMediaMuxer mediaMuxer) {
+            this.path = path;
+            this.mediaMuxer = mediaMuxer;
+        }
+
+        void write(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+            mediaMuxer.writeSampleData(trackIndex, byteBuffer, bufferInfo);
+            bytes += bufferInfo.size;
+            sampleCount++;
+        }
+    }
+
+    /**
+     * 把等待关键帧期间缓存的音频按时间戳写入对应的分段
+     */
+    private class HeldAudioRouter implements SampleRingBuffer.Consumer {
+        private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+
+        @Override
+        public void onSample(MediaSample sample) {
+            mBufferInfo.set(0, sample.size(), sample.presentationTimeUs, sample.flags);
+            writeAudioSample(sample.data(), mBufferInfo);
+        }
+    }
+
+    /**
+     * 创建每个分段使用的Muxer
+     */
+    public interface MuxerFactory {
+        IMediaMuxer createMediaMuxer(String path);
+    }
+
+    public interface CallBack {
+        /**
+         * 当前分段已满，需要编码器尽快输出一个关键帧
+         */
+        void onSyncFrameRequested(SegmentedMediaMuxer muxer);
+
+        /**
+         * 一个分段已经写完，在finisher线程中回调
+         */
+        void onSegmentFinished(SegmentedMediaMuxer muxer, String path, long durationUs);
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带引用计数的共享Sample，一次编码输出只拷贝一次，由多个{@link ISampleSink}共享。
+ * 引用计数归零时回到所属的{@link Pool}中复用。
+ */
+
+public class SharedSample extends MediaSample {
+
+    private final Pool mPool;
+    private final AtomicInteger mRefCount = new AtomicInteger(0);
+    public boolean isVideo;
+
+    private SharedSample(Pool pool, int initialCapacity) {
+        super(initialCapacity);
+        this.mPool = pool;
+    }
+
+    public void retain() {
+        mRefCount.incrementAndGet();
+    }
+
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount == 0) {
+            mPool.recycle(this);
+        } else if (refCount < 0) {
+            throw new IllegalStateException("SharedSample released too many times");
+        }
+    }
+
+    public int getRefCount() {
+        return mRefCount.get();
+    }
+
+    /**
+     * SharedSample的对象池，池中没有空闲对象时才会分配新的，最多缓存maxIdle个空闲对象
+     */
+    public static class Pool {
+        private final SharedSample[] mIdleSamples;
+        private final int mInitialCapacity;
+        private int mIdleCount = 0;
+        private int mAllocatedCount = 0;
+
+        public Pool(int maxIdle, int initialCapacity) {
+            mIdleSamples = new SharedSample[maxIdle];
+            mInitialCapacity = initialCapacity;
+        }
+
+        /**
+         * 获取一个引用计数为1的Sample
+         */
+        public SharedSample acquire() {
+            SharedSample sample;
+            synchronized (this) {
+                if (mIdleCount > 0) {
+                    sample = mIdleSamples[--mIdleCount];
+                    mIdleSamples[mIdleCount] = null;
+                } else {
+                    mAllocatedCount++;
+                    sample = null;
+                }
+            }
+            if (sample == null) {
+                sample = new SharedSample(this, mInitialCapacity);
+            }
+            sample.mRefCount.set(1);
+            return sample;
+        }
+
+        private synchronized void recycle(SharedSample sample) {
+            if (mIdleCount < mIdleSamples.length) {
+                mIdleSamples[mIdleCount++] = sample;
+            }
+        }
+
+        public synchronized int getAllocatedCount() {
+            return mAllocatedCount;
+        }
+
+        public synchronized int getIdleCount() {
+            return mIdleCount;
+        }
+    }
+}
@@ -7,98 +7,64 @@ import android.util.Log;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.CountDownLatch;
 
 /**
- * 线程安全的MediaMuxer，默认需要添加两个Track：视频和音频。
+ * 线程安全的MediaMuxer，两个Track都添加后才真正启动MediaMuxer，见{@link BaseMediaMuxer}。
  * Created by wangzongliang on 2017/4/17.
  */
 
-public class SyncMediaMuxer {
+public class SyncMediaMuxer extends BaseMediaMuxer {
     private static final String TAG = "SyncMediaMuxer";
     private MediaMuxer mMediaMuxer;
-    private boolean isStarted = false;
-    private boolean isRequestCancel = false;
-    private final Object mLocker = new Object();
-    //音频和视频两个轨道
-    private CountDownLatch mStartCountDownLatch = new CountDownLatch(2);
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
 
     public SyncMediaMuxer(String output) {
+        super(TAG);
         try {
             Log.d(TAG, "SyncMediaMuxer");
             mMediaMuxer = new MediaMuxer(output, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        isStarted = false;
     }
 
-    public void start() {
-        try {
-            mStartCountDownLatch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        synchronized (mLocker) {
-            if (!isStarted && !isRequestCancel) {
-                Log.d(TAG, "start");
-                mMediaMuxer.start();
-                isStarted = true;
-            }
-        }
+    @Override
+    protected boolean isOpened() {
+        return mMediaMuxer != null;
     }
 
-    public void stop() {
-        synchronized (mLocker) {
-            if (isStarted) {
-                Log.d(TAG, "stop");
-                isStarted = false;
-                mMediaMuxer.stop();
-            }
-        }
+    @Override
+    protected boolean onStart() {
+        mMediaMuxer.start();
+        return true;
     }
 
-    public void cancel() {
-        Log.d(TAG, "cancel");
-        synchronized (mLocker) {
-            isRequestCancel = true;
-            long count = mStartCountDownLatch.getCount();
-            for (int i = 0; i < count; i++) {
-                mStartCountDownLatch.countDown();
-            }
-        }
+    @Override
+    protected void onStop() {
+        Log.d(TAG, "stop");
+        mMediaMuxer.stop();
     }
 
-    public void release() {
-        synchronized (mLocker) {
-            Log.d(TAG, "release");
+    @Override
+    protected void onRelease() {
+        if (mMediaMuxer != null) {
             mMediaMuxer.release();
         }
     }
 
-    public int addAudioTrack(MediaFormat mediaFormat) {
-        synchronized (mLocker) {
-            int trackIndex = mMediaMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "addAudioTrack");
-            mStartCountDownLatch.countDown();
-            return trackIndex;
-        }
+    @Override
+    protected int onAddAudioTrack(MediaFormat mediaFormat) {
+        return mMediaMuxer.addTrack(mediaFormat);
     }
 
-    public int addVideoTrack(MediaFormat mediaFormat) {
-        synchronized (mLocker) {
-            int trackIndex = mMediaMuxer.addTrack(mediaFormat);
-            Log.d(TAG, "addVideoTrack");
-            mStartCountDownLatch.countDown();
-            return trackIndex;
-        }
+    @Override
+    protected int onAddVideoTrack(MediaFormat mediaFormat) {
+        return mMediaMuxer.addTrack(mediaFormat);
     }
 
-    public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
-        synchronized (mLocker) {
-            if (isStarted) {
-                mMediaMuxer.writeSampleData(trackIndex, byteBuffer, bufferInfo);
-            }
-        }
+    @Override
+    protected void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+        mBufferInfo.set(offset, size, presentationTimeUs, flags);
+        mMediaMuxer.writeSampleData(trackIndex, data, mBufferInfo);
     }
 }
@@ -0,0 +1,144 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于{@link TsWriter}的线程安全Muxer，输出MPEG-2 Transport Stream。
+ * TS可以边录制边读取，在任意关键帧处切分，stop时不需要写入索引，适合低延迟的HLS。
+ * 视频的SPS/PPS与音频的AudioSpecificConfig既可以来自MediaFormat，也可以来自CODEC_CONFIG数据。
+ */
+
+public class TsMediaMuxer extends BaseMediaMuxer {
+    private static final String TAG = "TsMediaMuxer";
+
+    private static final String KEY_CSD_0 = "csd-0";
+    private static final String KEY_CSD_1 = "csd-1";
+
+    private static final int VIDEO_TRACK_INDEX = 0;
+    private static final int AUDIO_TRACK_INDEX = 1;
+
+    private FileOutputStream mOutputStream;
+    private TsWriter mWriter;
+
+    //Annex-B格式的SPS和PPS，写在不带参数集的关键帧前
+    private byte[] mParameterSets;
+
+    private int mAudioObjectType = AacUtils.AUDIO_OBJECT_TYPE_AAC_LC;
+    private int mSamplingFrequencyIndex;
+    private int mChannelConfiguration;
+    private final byte[] mAdtsHeader = new byte[AacUtils.ADTS_HEADER_SIZE];
+
+    public TsMediaMuxer(String output) {
+        super(TAG);
+        try {
+            Log.d(TAG, "TsMediaMuxer");
+            mOutputStream = new FileOutputStream(output);
+            mWriter = new TsWriter(mOutputStream.getChannel(), true, true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected boolean isOpened() {
+        return mWriter != null;
+    }
+
+    @Override
+    protected boolean onStart() {
+        //TS没有文件头，PAT/PMT随数据写出
+        return true;
+    }
+
+    @Override
+    protected void onStop() {
+        Log.d(TAG, "stop packets:" + mWriter.getPacketCount());
+        try {
+            mWriter.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "stop failed", e);
+        }
+    }
+
+    @Override
+    protected void onRelease() {
+        if (mOutputStream != null) {
+            try {
+                mOutputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mOutputStream = null;
+        }
+    }
+
+    @Override
+    protected int onAddAudioTrack(MediaFormat mediaFormat) {
+        ByteBuffer csd = mediaFormat.getByteBuffer(KEY_CSD_0);
+        if (csd != null && csd.remaining() >= 2) {
+            setAudioSpecificConfig(csd, csd.position(), csd.remaining());
+        } else if (mediaFormat.containsKey(MediaFormat.KEY_SAMPLE_RATE)
+                && mediaFormat.containsKey(MediaFormat.KEY_CHANNEL_COUNT)) {
+            mSamplingFrequencyIndex = AacUtils.samplingFrequencyIndex(mediaFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE));
+            mChannelConfiguration = mediaFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        }
+        return AUDIO_TRACK_INDEX;
+    }
+
+    @Override
+    protected int onAddVideoTrack(MediaFormat mediaFormat) {
+        if (mParameterSets == null) {
+            mParameterSets = AvcUtils.toAnnexBParameterSets(mediaFormat.getByteBuffer(KEY_CSD_0),
+                    mediaFormat.getByteBuffer(KEY_CSD_1));
+        }
+        return VIDEO_TRACK_INDEX;
+    }
+
+    @Override
+    protected void onCodecConfig(int trackIndex, ByteBuffer data, int offset, int size) {
+        if (trackIndex == VIDEO_TRACK_INDEX) {
+            mParameterSets = AvcUtils.toAnnexB(data, offset, size);
+        } else if (size >= 2) {
+            setAudioSpecificConfig(data, offset, size);
+        }
+    }
+
+    /**
+     * 从AudioSpecificConfig中取得ADTS头的参数
+     */
+    private void setAudioSpecificConfig(ByteBuffer buffer, int offset, int size) {
+        byte[] audioSpecificConfig = new byte[size];
+        for (int i = 0; i < size; i++) {
+            audioSpecificConfig[i] = buffer.get(offset + i);
+        }
+        mAudioObjectType = AacUtils.audioObjectType(audioSpecificConfig);
+        mSamplingFrequencyIndex = AacUtils.samplingFrequencyIndex(audioSpecificConfig);
+        mChannelConfiguration = AacUtils.channelConfiguration(audioSpecificConfig);
+    }
+
+    @Override
+    protected void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+        try {
+            if (trackIndex == VIDEO_TRACK_INDEX) {
+                boolean isKeyFrame = (flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0;
+                byte[] prefix = null;
+                if (isKeyFrame && !AvcUtils.hasSpsBeforeSlice(data, offset, size)) {
+                    prefix = mParameterSets;
+                }
+                mWriter.writeVideoSample(prefix, data, offset, size, presentationTimeUs, isKeyFrame);
+            } else {
+                AacUtils.writeAdtsHeader(mAdtsHeader, mAudioObjectType, mSamplingFrequencyIndex,
+                        mChannelConfiguration, size);
+                mWriter.writeAudioSample(mAdtsHeader, data, offset, size, presentationTimeUs);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeSampleData failed", e);
+        }
+    }
+}
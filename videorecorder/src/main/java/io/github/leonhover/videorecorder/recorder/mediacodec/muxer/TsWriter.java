@@ -0,0 +1,363 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * MPEG-2 Transport Stream写入器，一个节目，包含H.264视频和ADTS格式的AAC音频，不依赖Android。
+ * <p>
+ * 每个视频关键帧前重复写入PAT/PMT，视频PES中带有PCR，可以在任意关键帧处切分，不需要收尾。
+ * 所有TS包都在同一个188字节的数组中组装，写入时不会分配内存。非线程安全。
+ */
+
+public class TsWriter {
+
+    public static final int PACKET_SIZE = 188;
+
+    public static final int PAT_PID = 0x0000;
+    public static final int PMT_PID = 0x1000;
+    public static final int VIDEO_PID = 0x0100;
+    public static final int AUDIO_PID = 0x0101;
+
+    public static final int STREAM_TYPE_H264 = 0x1B;
+    public static final int STREAM_TYPE_AAC = 0x0F;
+
+    private static final int STREAM_ID_VIDEO = 0xE0;
+    private static final int STREAM_ID_AUDIO = 0xC0;
+
+    private static final int PROGRAM_NUMBER = 1;
+    private static final int TRANSPORT_STREAM_ID = 1;
+
+    private static final int SYNC_BYTE = 0x47;
+    private static final int PES_HEADER_SIZE = 14;
+    private static final int PCR_ADAPTATION_SIZE = 8;
+    //PTS比PCR晚的时间，给解码器留出缓冲，单位为90kHz
+    private static final long PTS_DELAY = 63000;
+    private static final long MAX_33_BITS = 0x1FFFFFFFFL;
+
+    private static final int WRITE_BUFFER_SIZE = PACKET_SIZE * 1024;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final BufferedChannelWriter mWriter;
+    private final boolean hasVideo;
+    private final boolean hasAudio;
+
+    private final byte[] mPacket = new byte[PACKET_SIZE];
+    private final byte[] mPesHeader = new byte[PES_HEADER_SIZE];
+    private int mPatContinuityCounter = 0;
+    private int mPmtContinuityCounter = 0;
+    private int mVideoContinuityCounter = 0;
+    private int mAudioContinuityCounter = 0;
+    private long mPacketCount = 0;
+    private boolean isTableWritten = false;
+
+    public TsWriter(WritableByteChannel channel, boolean hasVideo, boolean hasAudio) {
+        this.mWriter = new BufferedChannelWriter(channel, WRITE_BUFFER_SIZE);
+        this.hasVideo = hasVideo;
+        this.hasAudio = hasAudio;
+    }
+
+    /**
+     * 写入一帧视频
+     *
+     * @param prefix             写在帧数据前面的数据，例如SPS/PPS，可以为null
+     * @param data               Annex-B格式的帧数据
+     * @param presentationTimeUs 显示时间，单位微秒
+     */
+    public void writeVideoSample(byte[] prefix, ByteBuffer data, int offset, int size,
+                                 long presentationTimeUs, boolean isKeyFrame) throws IOException {
+        if (isKeyFrame || !isTableWritten) {
+            writeTables();
+        }
+        int prefixSize = prefix != null ? prefix.length : 0;
+        writePes(VIDEO_PID, STREAM_ID_VIDEO, prefix, prefixSize, data, offset, size, presentationTimeUs, isKeyFrame);
+    }
+
+    /**
+     * 写入一帧音频
+     *
+     * @param adtsHeader         ADTS头
+     * @param data               AAC帧数据
+     * @param presentationTimeUs 显示时间，单位微秒
+     */
+    public void writeAudioSample(byte[] adtsHeader, ByteBuffer data, int offset, int size,
+                                 long presentationTimeUs) throws IOException {
+        if (!isTableWritten) {
+            writeTables();
+        }
+        writePes(AUDIO_PID, STREAM_ID_AUDIO, adtsHeader, adtsHeader.length, data, offset, size,
+                presentationTimeUs, !hasVideo);
+    }
+
+    /**
+     * 把缓冲的TS包写入Channel
+     */
+    public void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * 写入PAT和PMT
+     */
+    public void writeTables() throws IOException {
+        writePat();
+        writePmt();
+        isTableWritten = true;
+    }
+
+    private void writePat() throws IOException {
+        int position = writePsiHeader(PAT_PID, mPatContinuityCounter);
+        mPatContinuityCounter = (mPatContinuityCounter + 1) & 0x0F;
+
+        int sectionStart = position;
+        mPacket[position++] = 0x00;
+        //section_length = 5 + 4 * 节目数 + 4
+        position = writeSectionSyntax(position, 13, TRANSPORT_STREAM_ID);
+        mPacket[position++] = (byte) (PROGRAM_NUMBER >> 8);
+        mPacket[position++] = (byte) PROGRAM_NUMBER;
+        mPacket[position++] = (byte) (0xE0 | (PMT_PID >> 8));
+        mPacket[position++] = (byte) PMT_PID;
+        position = writeCrc(sectionStart, position);
+        finishPsiPacket(position);
+    }
+
+    private void writePmt() throws IOException {
+        int position = writePsiHeader(PMT_PID, mPmtContinuityCounter);
+        mPmtContinuityCounter = (mPmtContinuityCounter + 1) & 0x0F;
+
+        int streamCount = (hasVideo ? 1 : 0) + (hasAudio ? 1 : 0);
+        int pcrPid = hasVideo ? VIDEO_PID : AUDIO_PID;
+        int sectionStart = position;
+        mPacket[position++] = 0x02;
+        position = writeSectionSyntax(position, 13 + 5 * streamCount, PROGRAM_NUMBER);
+        mPacket[position++] = (byte) (0xE0 | (pcrPid >> 8));
+        mPacket[position++] = (byte) pcrPid;
+        //program_info_length = 0
+        mPacket[position++] = (byte) 0xF0;
+        mPacket[position++] = 0x00;
+        if (hasVideo) {
+            position = writeStreamInfo(position, STREAM_TYPE_H264, VIDEO_PID);
+        }
+        if (hasAudio) {
+            position = writeStreamInfo(position, STREAM_TYPE_AAC, AUDIO_PID);
+        }
+        position = writeCrc(sectionStart, position);
+        finishPsiPacket(position);
+    }
+
+    private int writePsiHeader(int pid, int continuityCounter) {
+        mPacket[0] = SYNC_BYTE;
+        mPacket[1] = (byte) (0x40 | (pid >> 8));
+        mPacket[2] = (byte) pid;
+        mPacket[3] = (byte) (0x10 | continuityCounter);
+        //pointer_field
+        mPacket[4] = 0x00;
+        return 5;
+    }
+
+    /**
+     * 写入section_length到last_section_number
+     */
+    private int writeSectionSyntax(int position, int sectionLength, int tableIdExtension) {
+        mPacket[position++] = (byte) (0xB0 | (sectionLength >> 8));
+        mPacket[position++] = (byte) sectionLength;
+        mPacket[position++] = (byte) (tableIdExtension >> 8);
+        mPacket[position++] = (byte) tableIdExtension;
+        //version 0, current_next_indicator 1
+        mPacket[position++] = (byte) 0xC1;
+        mPacket[position++] = 0x00;
+        mPacket[position++] = 0x00;
+        return position;
+    }
+
+    private int writeStreamInfo(int position, int streamType, int pid) {
+        mPacket[position++] = (byte) streamType;
+        mPacket[position++] = (byte) (0xE0 | (pid >> 8));
+        mPacket[position++] = (byte) pid;
+        mPacket[position++] = (byte) 0xF0;
+        mPacket[position++] = 0x00;
+        return position;
+    }
+
+    private int writeCrc(int start, int end) {
+        int crc = crc32(mPacket, start, end - start);
+        mPacket[end++] = (byte) (crc >> 24);
+        mPacket[end++] = (byte) (crc >> 16);
+        mPacket[end++] = (byte) (crc >> 8);
+        mPacket[end++] = (byte) crc;
+        return end;
+    }
+
+    private void finishPsiPacket(int position) throws IOException {
+        for (int i = position; i < PACKET_SIZE; i++) {
+            mPacket[i] = (byte) 0xFF;
+        }
+        writePacket();
+    }
+
+    /**
+     * 把prefix和data组成一个PES包，拆分为多个TS包写入
+     */
+    private void writePes(int pid, int streamId, byte[] prefix, int prefixSize, ByteBuffer data, int offset,
+                          int size, long presentationTimeUs, boolean isRandomAccess) throws IOException {
+        long pts = (presentationTimeUs * 9 / 100 + PTS_DELAY) & MAX_33_BITS;
+        long pcr = (presentationTimeUs * 9 / 100) & MAX_33_BITS;
+        boolean hasPcr = pid == (hasVideo ? VIDEO_PID : AUDIO_PID);
+
+        int pesHeaderSize = writePesHeader(streamId, pts, prefixSize + size);
+        int remaining = pesHeaderSize + prefixSize + size;
+        //已写入的字节数，依次为PES头、prefix和data
+        int written = 0;
+        boolean isFirst = true;
+
+        int dataPosition = data.position();
+        try {
+            while (remaining > 0) {
+                int position = 4;
+                int adaptationSize = 0;
+                if (isFirst && (hasPcr || isRandomAccess)) {
+                    adaptationSize = hasPcr ? PCR_ADAPTATION_SIZE : 2;
+                }
+                int payloadSize = PACKET_SIZE - 4 - adaptationSize;
+                if (remaining < payloadSize) {
+                    //最后一个包用adaptation field填充
+                    adaptationSize += payloadSize - remaining;
+                    payloadSize = remaining;
+                }
+
+                int continuityCounter = pid == VIDEO_PID ? mVideoContinuityCounter : mAudioContinuityCounter;
+                mPacket[0] = SYNC_BYTE;
+                mPacket[1] = (byte) ((isFirst ? 0x40 : 0x00) | (pid >> 8));
+                mPacket[2] = (byte) pid;
+                mPacket[3] = (byte) ((adaptationSize > 0 ? 0x30 : 0x10) | continuityCounter);
+                if (pid == VIDEO_PID) {
+                    mVideoContinuityCounter = (continuityCounter + 1) & 0x0F;
+                } else {
+                    mAudioContinuityCounter = (continuityCounter + 1) & 0x0F;
+                }
+
+                if (adaptationSize > 0) {
+                    position = writeAdaptationField(adaptationSize, isFirst && hasPcr, isFirst && isRandomAccess, pcr);
+                }
+
+                int end = position + payloadSize;
+                while (position < end) {
+                    if (written < pesHeaderSize) {
+                        int length = Math.min(pesHeaderSize - written, end - position);
+                        System.arraycopy(mPesHeader, written, mPacket, position, length);
+                        position += length;
+                        written += length;
+                    } else if (written < pesHeaderSize + prefixSize) {
+                        int prefixOffset = written - pesHeaderSize;
+                        int length = Math.min(prefixSize - prefixOffset, end - position);
+                        System.arraycopy(prefix, prefixOffset, mPacket, position, length);
+                        position += length;
+                        written += length;
+                    } else {
+                        int dataOffset = written - pesHeaderSize - prefixSize;
+                        int length = end - position;
+                        data.position(offset + dataOffset);
+                        data.get(mPacket, position, length);
+                        position += length;
+                        written += length;
+                    }
+                }
+
+                writePacket();
+                remaining -= payloadSize;
+                isFirst = false;
+            }
+        } finally {
+            data.position(dataPosition);
+        }
+    }
+
+    /**
+     * 写入adaptation field，adaptationSize包括adaptation_field_length本身
+     *
+     * @return payload开始的位置
+     */
+    private int writeAdaptationField(int adaptationSize, boolean hasPcr, boolean isRandomAccess, long pcr) {
+        int position = 4;
+        mPacket[position++] = (byte) (adaptationSize - 1);
+        if (adaptationSize == 1) {
+            return position;
+        }
+        mPacket[position++] = (byte) ((isRandomAccess ? 0x40 : 0x00) | (hasPcr ? 0x10 : 0x00));
+        if (hasPcr) {
+            mPacket[position++] = (byte) (pcr >> 25);
+            mPacket[position++] = (byte) (pcr >> 17);
+            mPacket[position++] = (byte) (pcr >> 9);
+            mPacket[position++] = (byte) (pcr >> 1);
+            //6位reserved，PCR扩展为0
+            mPacket[position++] = (byte) (((pcr & 0x01) << 7) | 0x7E);
+            mPacket[position++] = 0x00;
+        }
+        int end = 4 + adaptationSize;
+        while (position < end) {
+            mPacket[position++] = (byte) 0xFF;
+        }
+        return position;
+    }
+
+    /**
+     * 组装PES头，只带PTS
+     *
+     * @return PES头的长度
+     */
+    private int writePesHeader(int streamId, long pts, int payloadSize) {
+        mPesHeader[0] = 0x00;
+        mPesHeader[1] = 0x00;
+        mPesHeader[2] = 0x01;
+        mPesHeader[3] = (byte) streamId;
+        //PES_packet_length包括PES头中后面的8个字节，超出16位时视频可以填0
+        int pesPacketLength = payloadSize + 8;
+        if (pesPacketLength > 0xFFFF) {
+            pesPacketLength = 0;
+        }
+        mPesHeader[4] = (byte) (pesPacketLength >> 8);
+        mPesHeader[5] = (byte) pesPacketLength;
+        mPesHeader[6] = (byte) 0x80;
+        //PTS_DTS_flags = '10'
+        mPesHeader[7] = (byte) 0x80;
+        mPesHeader[8] = 0x05;
+        mPesHeader[9] = (byte) (0x21 | ((pts >> 29) & 0x0E));
+        mPesHeader[10] = (byte) (pts >> 22);
+        mPesHeader[11] = (byte) (((pts >> 14) & 0xFE) | 0x01);
+        mPesHeader[12] = (byte) (pts >> 7);
+        mPesHeader[13] = (byte) (((pts << 1) & 0xFE) | 0x01);
+        return PES_HEADER_SIZE;
+    }
+
+    private void writePacket() throws IOException {
+        mWriter.write(mPacket, 0, PACKET_SIZE);
+        mPacketCount++;
+    }
+
+    /**
+     * CRC32/MPEG-2：多项式0x04C11DB7，初始值0xFFFFFFFF，不反转，不异或输出
+     */
+    static int crc32(byte[] data, int offset, int length) {
+        int crc = 0xFFFFFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ data[i]) & 0xFF];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.surface;
+
+/**
+ * 按时间戳控制帧率，丢弃超出目标帧率的画面。每个目标帧间隔最多放行一帧，放行的时刻按固定间隔推进，
+ * 长时间的平均帧率等于目标帧率；比预定时刻提前不超过抖动容差的画面也会放行，避免相机帧间隔的抖动导致误丢。
+ * 来源帧率低于目标帧率时全部放行，并且不会积攒额度，之后来源变快也不会连续放行。
+ * <p>
+ * 纯Java实现，时间戳由调用者传入，可以在不同线程调用。
+ */
+
+public class FramePacer {
+
+    //默认抖动容差为目标帧间隔的1/4
+    private static final int DEFAULT_JITTER_DIVISOR = 4;
+
+    private long mIntervalNs = 0;
+    private long mJitterToleranceNs = 0;
+    private boolean isCustomJitterTolerance = false;
+
+    private long mNextDueNs = 0;
+    private long mLastTimestampNs = 0;
+    private boolean hasFrame = false;
+
+    private long mAdmittedCount = 0;
+    private long mDroppedCount = 0;
+
+    /**
+     * 设置目标帧率
+     *
+     * @param frameRate 帧率，不大于0时不限制
+     */
+    public synchronized void setTargetFrameRate(int frameRate) {
+        mIntervalNs = frameRate > 0 ? 1000000000L / frameRate : 0;
+        if (!isCustomJitterTolerance) {
+            mJitterToleranceNs = mIntervalNs / DEFAULT_JITTER_DIVISOR;
+        }
+        hasFrame = false;
+    }
+
+    /**
+     * 设置抖动容差，默认为目标帧间隔的1/4
+     *
+     * @param toleranceNs 容差，单位纳秒
+     */
+    public synchronized void setJitterTolerance(long toleranceNs) {
+        mJitterToleranceNs = toleranceNs;
+        isCustomJitterTolerance = true;
+    }
+
+    /**
+     * 判断一帧画面是否需要编码
+     *
+     * @param timestampNs 画面的时间戳，单位纳秒
+     * @return true 放行，false 丢弃
+     */
+    public synchronized boolean admit(long timestampNs) {
+        if (mIntervalNs <= 0) {
+            mAdmittedCount++;
+            return true;
+        }
+
+        if (!hasFrame || timestampNs < mLastTimestampNs) {
+            //第一帧或者时间戳回退，重新开始计时
+            hasFrame = true;
+            mLastTimestampNs = timestampNs;
+            mNextDueNs = timestampNs + mIntervalNs;
+            mAdmittedCount++;
+            return true;
+        }
+        mLastTimestampNs = timestampNs;
+
+        if (timestampNs < mNextDueNs - mJitterToleranceNs) {
+            mDroppedCount++;
+            return false;
+        }
+
+        //按固定间隔推进，但不能落后于当前帧，避免积攒额度
+        mNextDueNs = Math.max(mNextDueNs + mIntervalNs, timestampNs);
+        mAdmittedCount++;
+        return true;
+    }
+
+    /**
+     * 清空计时状态与计数
+     */
+    public synchronized void reset() {
+        hasFrame = false;
+        mAdmittedCount = 0;
+        mDroppedCount = 0;
+    }
+
+    public synchronized long getAdmittedCount() {
+        return mAdmittedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+}
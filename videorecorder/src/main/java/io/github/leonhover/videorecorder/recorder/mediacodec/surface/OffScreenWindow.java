@@ -54,6 +54,9 @@ public class OffScreenWindow implements Handler.Callback {
     private Handler mWindowHandler;
     private CallBack mCallBack;
 
+    //按目标帧率丢弃多余的画面
+    private final FramePacer mFramePacer = new FramePacer();
+
     public OffScreenWindow(EGLContext eglContext) {
         this.mShareEGLContext = eglContext;
         this.mWindowThread = new HandlerThread(OFFSCREEN_WINDOW_THREAD);
@@ -89,6 +92,29 @@ public class OffScreenWindow implements Handler.Callback {
         calculateMVPMatrix();
     }
 
+    /**
+     * 设定编码的目标帧率，超出的画面在渲染之前丢弃，不占用GPU与编码器。
+     *
+     * @param frameRate 帧率，不大于0时不限制
+     */
+    public void setFrameRate(int frameRate) {
+        mFramePacer.setTargetFrameRate(frameRate);
+    }
+
+    /**
+     * 附着Surface以来送去编码的画面数量
+     */
+    public long getAdmittedFrameCount() {
+        return mFramePacer.getAdmittedCount();
+    }
+
+    /**
+     * 附着Surface以来因为超出目标帧率而丢弃的画面数量
+     */
+    public long getDroppedFrameCount() {
+        return mFramePacer.getDroppedCount();
+    }
+
     /**
      * 根据预览大小与离屏窗口大小，计算M.V.P转换矩阵，保证画面不会压缩或拉伸。
      */
@@ -116,6 +142,7 @@ public class OffScreenWindow implements Handler.Callback {
     public void attachSurface(final Surface surface) {
         Log.d(TAG, "attachSurface");
         mSurfaceAttachedTime = System.nanoTime();
+        mFramePacer.reset();
         Message msg = mWindowHandler.obtainMessage(WINDOW_MSG_ATTACH_SURFACE);
         msg.obj = surface;
         msg.sendToTarget();
@@ -125,7 +152,8 @@ public class OffScreenWindow implements Handler.Callback {
      * 从OffScreenWindow中分离附着的Surface。
      */
     public void detachSurface() {
-        Log.d(TAG, "detachSurface");
+        Log.d(TAG, "detachSurface admitted:" + mFramePacer.getAdmittedCount()
+                + " dropped:" + mFramePacer.getDroppedCount());
         mSurfaceAttachedTime = SURFACE_ATTACHED_TIME_NONE;
         mWindowHandler.sendEmptyMessage(WINDOW_MSG_DETACH_SURFACE);
     }
@@ -166,6 +194,11 @@ public class OffScreenWindow implements Handler.Callback {
      */
     public void update(int textureIndex, SurfaceTexture surfaceTexture) {
         if (mSurfaceAttachedTime != SURFACE_ATTACHED_TIME_NONE) {
+            long presentationTime = System.nanoTime();
+            if (!mFramePacer.admit(presentationTime)) {
+                Log.d(TAG, "update drop frame");
+                return;
+            }
             Log.d(TAG, "update");
             Message msg = mWindowHandler.obtainMessage(WINDOW_MSG_UPDATE);
             Bundle extraData = msg.getData();
@@ -174,7 +207,7 @@ public class OffScreenWindow implements Handler.Callback {
                 msg.setData(extraData);
             }
 
-            extraData.putLong(UPDATE_PRESENTATION_TIME_KEY, (System.nanoTime()));
+            extraData.putLong(UPDATE_PRESENTATION_TIME_KEY, presentationTime);
             msg.arg1 = textureIndex;
             msg.obj = surfaceTexture;
             msg.sendToTarget();
@@ -0,0 +1,174 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AacFrameChunkerTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    //AudioRecorder每次读出的字节数
+    private static final int READ_BYTES = 2048;
+
+    @Test
+    public void stereoReadsAreMergedIntoWholeFrames() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 2, 2);
+        assertEquals(4096, chunker.getFrameBytes());
+        RecordingSink sink = new RecordingSink(3, 8192);
+
+        //双声道每次读出512个采样，两次读出一帧
+        long readDurationUs = 512 * 1000000L / SAMPLE_RATE;
+        for (int i = 0; i < 6; i++) {
+            ByteBuffer pcm = pcm(i, READ_BYTES);
+            assertEquals(READ_BYTES, chunker.feed(pcm, READ_BYTES, 1000000 + i * readDurationUs, sink));
+            assertFalse(pcm.hasRemaining());
+        }
+        assertEquals(3, sink.inputs.size());
+        assertEquals("0:0:4096@1000000", sink.inputs.get(0));
+        assertEquals("1:2:4096@" + (1000000 + 2 * readDurationUs), sink.inputs.get(1));
+        assertEquals("2:4:4096@" + (1000000 + 4 * readDurationUs), sink.inputs.get(2));
+        //每个输入只取一次空闲Buffer
+        assertEquals(3, sink.dequeueCount);
+        assertEquals(0, chunker.getPartialCount());
+    }
+
+    @Test
+    public void monoReadFillsOneFrame() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 1, 2);
+        RecordingSink sink = new RecordingSink(2, 8192);
+        assertEquals(READ_BYTES, chunker.feed(pcm(1, READ_BYTES), READ_BYTES, 0, sink));
+        assertEquals("0:1:2048@0", sink.inputs.get(0));
+
+        //float采样每帧4096字节
+        assertEquals(4096, new AacFrameChunker(SAMPLE_RATE, 1, 4).getFrameBytes());
+    }
+
+    @Test
+    public void readSpanningFramesKeepsTimestamps() {
+        //1字节对应1000us
+        AacFrameChunker chunker = new AacFrameChunker(500, 1, 2);
+        chunker.setDiscontinuityThreshold(Long.MAX_VALUE);
+        RecordingSink sink = new RecordingSink(4, 2048);
+
+        assertEquals(1500, chunker.feed(pcm(1, 1500), 1500, 0, sink));
+        assertEquals(1500, chunker.feed(pcm(2, 1500), 1500, 1500000, sink));
+        assertEquals(1500, chunker.feed(pcm(3, 1500), 1500, 3000000, sink));
+        assertEquals("0:1:2048@0", sink.inputs.get(0));
+        //第二帧从第二次读出剩下的数据开始
+        assertEquals("1:2:2048@2048000", sink.inputs.get(1));
+        assertEquals(2, sink.inputs.size());
+    }
+
+    @Test
+    public void stopsWhenNoInputBufferAndResumes() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 1, 2);
+        RecordingSink sink = new RecordingSink(1, 8192);
+
+        ByteBuffer pcm = pcm(1, 6144);
+        assertEquals(2048, chunker.feed(pcm, 6144, 0, sink));
+        assertEquals(4096, pcm.remaining());
+        assertEquals(1, sink.inputs.size());
+
+        sink.free(1);
+        long offsetUs = 1024 * 1000000L / SAMPLE_RATE;
+        assertEquals(2048, chunker.feed(pcm, 4096, offsetUs, sink));
+        assertEquals("1:1:2048@" + offsetUs, sink.inputs.get(1));
+    }
+
+    @Test
+    public void smallInputBufferHoldsWholeSamples() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 2, 2);
+        //输入Buffer只有1001字节，按4字节的采样对齐到1000
+        RecordingSink sink = new RecordingSink(8, 1001);
+        assertEquals(READ_BYTES, chunker.feed(pcm(1, READ_BYTES), READ_BYTES, 0, sink));
+        assertEquals("0:1:1000@0", sink.inputs.get(0));
+        assertEquals("1:1:1000@" + 250 * 1000000L / SAMPLE_RATE, sink.inputs.get(1));
+    }
+
+    @Test
+    public void discontinuityFlushesPartialFrame() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 2, 2);
+        RecordingSink sink = new RecordingSink(4, 8192);
+
+        chunker.feed(pcm(1, READ_BYTES), READ_BYTES, 0, sink);
+        assertEquals(0, sink.inputs.size());
+        //暂停恢复后时间戳跳变
+        chunker.feed(pcm(2, READ_BYTES), READ_BYTES, 5000000, sink);
+        assertEquals("0:1:2048@0", sink.inputs.get(0));
+        assertEquals(1, chunker.getPartialCount());
+
+        assertTrue(chunker.endOfStream(6000000, sink));
+        assertEquals("1:2:2048@5000000", sink.inputs.get(1));
+        assertEquals("2:EOS@6000000", sink.inputs.get(2));
+        assertEquals(2, chunker.getQueuedCount());
+    }
+
+    @Test
+    public void endOfStreamWaitsForInputBuffer() {
+        AacFrameChunker chunker = new AacFrameChunker(SAMPLE_RATE, 1, 2);
+        RecordingSink sink = new RecordingSink(0, 8192);
+        assertFalse(chunker.endOfStream(100, sink));
+        sink.free(1);
+        assertTrue(chunker.endOfStream(100, sink));
+        assertEquals("0:EOS@100", sink.inputs.get(0));
+        assertEquals(0, chunker.getQueuedCount());
+    }
+
+    private static ByteBuffer pcm(int value, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 模拟MediaCodec，空闲的输入Buffer用完后dequeue返回-1
+     */
+    private static class RecordingSink implements AacFrameChunker.Sink {
+        final List<String> inputs = new ArrayList<String>();
+        final ByteBuffer inputBuffer;
+        int freeCount;
+        int nextIndex = 0;
+        int dequeueCount = 0;
+
+        RecordingSink(int freeCount, int inputSize) {
+            this.freeCount = freeCount;
+            this.inputBuffer = ByteBuffer.allocateDirect(inputSize);
+        }
+
+        void free(int count) {
+            freeCount += count;
+        }
+
+        @Override
+        public int dequeueInputBuffer() {
+            if (freeCount == 0) {
+                return -1;
+            }
+            freeCount--;
+            dequeueCount++;
+            return nextIndex++;
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return inputBuffer;
+        }
+
+        @Override
+        public void queueInputBuffer(int index, int length, long presentationTimeUs, boolean isEndOfStream) {
+            if (isEndOfStream) {
+                inputs.add(index + ":EOS@" + presentationTimeUs);
+                return;
+            }
+            assertEquals(length, inputBuffer.position());
+            inputs.add(index + ":" + inputBuffer.get(0) + ":" + length + "@" + presentationTimeUs);
+        }
+    }
+}
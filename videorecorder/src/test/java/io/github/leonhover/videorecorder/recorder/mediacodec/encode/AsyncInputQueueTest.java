@@ -0,0 +1,169 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AsyncInputQueueTest {
+
+    //1字节对应1000us，方便检查时间戳
+    private static final int BYTES_PER_SECOND = 1000;
+
+    @Test
+    public void holdsInputBuffersUntilDataArrives() {
+        AsyncInputQueue queue = new AsyncInputQueue(new PcmRingBuffer(64, BYTES_PER_SECOND), 8);
+        RecordingSink sink = new RecordingSink(8);
+
+        //没有数据时不提交空Buffer
+        queue.onInputBufferAvailable(3);
+        queue.onInputBufferAvailable(5);
+        assertEquals(0, queue.drain(sink));
+        assertEquals(2, queue.getHeldInputCount());
+
+        assertTrue(queue.offer(pcm(1, 8), 8, 1000));
+        assertEquals(1, queue.drain(sink));
+        assertEquals(1, queue.getHeldInputCount());
+        assertEquals("3:1:8@1000", sink.inputs.get(0));
+
+        assertTrue(queue.offer(pcm(2, 4), 4, 9000));
+        assertTrue(queue.offer(pcm(3, 4), 4, 13000));
+        //输入Buffer大小为8，两次写入合并提交
+        assertEquals(1, queue.drain(sink));
+        assertEquals(0, queue.getPendingBytes());
+        assertEquals("5:2:8@9000", sink.inputs.get(1));
+        assertEquals(2, queue.getQueuedCount());
+    }
+
+    @Test
+    public void copiesDataSoCallerCanReuseBuffer() {
+        AsyncInputQueue queue = new AsyncInputQueue(new PcmRingBuffer(16, BYTES_PER_SECOND), 4);
+        RecordingSink sink = new RecordingSink(16);
+
+        ByteBuffer reused = pcm(7, 8);
+        assertTrue(queue.offer(reused, 8, 0));
+        reused.clear();
+        reused.put(pcm(9, 8));
+
+        queue.onInputBufferAvailable(0);
+        queue.drain(sink);
+        assertEquals("0:7:8@0", sink.inputs.get(0));
+    }
+
+    @Test
+    public void dropsNewDataWhenEncoderFallsBehind() {
+        AsyncInputQueue queue = new AsyncInputQueue(new PcmRingBuffer(16, BYTES_PER_SECOND), 4);
+        RecordingSink sink = new RecordingSink(8);
+
+        assertTrue(queue.offer(pcm(1, 8), 8, 0));
+        assertTrue(queue.offer(pcm(2, 8), 8, 8000));
+        assertFalse(queue.offer(pcm(3, 8), 8, 16000));
+        assertEquals(1, queue.getDroppedCount());
+
+        queue.onInputBufferAvailable(0);
+        queue.drain(sink);
+        //读出后可以继续送入，丢弃的数据不占时间
+        assertTrue(queue.offer(pcm(4, 8), 8, 24000));
+        queue.onInputBufferAvailable(1);
+        queue.onInputBufferAvailable(2);
+        queue.drain(sink);
+        assertEquals("0:1:8@0", sink.inputs.get(0));
+        assertEquals("1:2:8@8000", sink.inputs.get(1));
+        assertEquals("2:4:8@24000", sink.inputs.get(2));
+    }
+
+    @Test
+    public void endOfStreamIsQueuedOnceAfterPendingData() {
+        AsyncInputQueue queue = new AsyncInputQueue(new PcmRingBuffer(8, BYTES_PER_SECOND), 4);
+        RecordingSink sink = new RecordingSink(8);
+
+        assertTrue(queue.offer(pcm(1, 8), 8, 0));
+        //缓冲区已满，结束标记仍然被接受
+        queue.offerEndOfStream(100);
+        assertFalse(queue.offer(pcm(2, 8), 8, 50));
+
+        queue.onInputBufferAvailable(0);
+        assertEquals(1, queue.drain(sink));
+        queue.onInputBufferAvailable(1);
+        queue.onInputBufferAvailable(2);
+        assertEquals(1, queue.drain(sink));
+        assertEquals(1, queue.getHeldInputCount());
+        assertEquals("0:1:8@0", sink.inputs.get(0));
+        assertEquals("1:EOS@100", sink.inputs.get(1));
+
+        queue.reset();
+        assertEquals(0, queue.getHeldInputCount());
+        assertTrue(queue.offer(pcm(3, 8), 8, 200));
+        queue.onInputBufferAvailable(4);
+        queue.drain(sink);
+        assertEquals("4:3:8@200", sink.inputs.get(2));
+    }
+
+    @Test
+    public void submitsWholeFramesWhenFrameSizeIsSet() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(64, BYTES_PER_SECOND);
+        AsyncInputQueue queue = new AsyncInputQueue(ringBuffer, 4, 8);
+        RecordingSink sink = new RecordingSink(32);
+        queue.onInputBufferAvailable(0);
+        queue.onInputBufferAvailable(1);
+        queue.onInputBufferAvailable(2);
+
+        //不满一帧时等待
+        assertTrue(queue.offer(pcm(1, 4), 4, 0));
+        assertEquals(0, queue.drain(sink));
+        assertTrue(queue.offer(pcm(2, 6), 6, 4000));
+        assertEquals(1, queue.drain(sink));
+        assertEquals("0:1:8@0", sink.inputs.get(0));
+        assertEquals(2, queue.getPendingBytes());
+
+        //时间不连续，之前不满的部分先提交
+        assertTrue(queue.offer(pcm(3, 4), 4, 50000));
+        assertEquals(2, ringBuffer.availableUntilMark());
+        assertEquals(1, queue.drain(sink));
+        assertEquals("1:2:2@8000", sink.inputs.get(1));
+
+        //结束时剩下的数据与结束标记都提交
+        queue.offerEndOfStream(60000);
+        queue.onInputBufferAvailable(3);
+        assertEquals(2, queue.drain(sink));
+        assertEquals("2:3:4@50000", sink.inputs.get(2));
+        assertEquals("3:EOS@60000", sink.inputs.get(3));
+    }
+
+    private static ByteBuffer pcm(int value, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class RecordingSink implements AsyncInputQueue.Sink {
+        final List<String> inputs = new ArrayList<String>();
+        final ByteBuffer inputBuffer;
+
+        RecordingSink(int inputSize) {
+            inputBuffer = ByteBuffer.allocate(inputSize);
+        }
+
+        @Override
+        public ByteBuffer getInputBuffer(int index) {
+            return inputBuffer;
+        }
+
+        @Override
+        public void queueInput(int index, int length, long presentationTimeUs, boolean isEndOfStream) {
+            if (isEndOfStream) {
+                inputs.add(index + ":EOS@" + presentationTimeUs);
+                return;
+            }
+            assertEquals(length, inputBuffer.position());
+            int first = inputBuffer.get(0);
+            inputs.add(index + ":" + first + ":" + length + "@" + presentationTimeUs);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AudioTimestampGeneratorTest {
+
+    private static final int SAMPLE_RATE = 44100;
+    //2048字节的双声道16位PCM
+    private static final int SAMPLES_PER_READ = 512;
+    private static final long READ_DURATION_US = SAMPLES_PER_READ * 1000000L / SAMPLE_RATE;
+    private static final long START_US = 123456789L;
+    private static final long MAX_JITTER_US = 10000;
+
+    @Test
+    public void jitterDoesNotReachTimestamps() {
+        AudioTimestampGenerator generator = new AudioTimestampGenerator(SAMPLE_RATE);
+        Random random = new Random(1);
+        long maxStepErrorUs = 0;
+        long lastPtsUs = -1;
+        for (int i = 0; i < 10000; i++) {
+            long captureEndUs = START_US + (i + 1) * SAMPLES_PER_READ * 1000000L / SAMPLE_RATE;
+            long ptsUs = generator.onSamples(SAMPLES_PER_READ, captureEndUs + nextJitterUs(random));
+            if (lastPtsUs >= 0) {
+                maxStepErrorUs = Math.max(maxStepErrorUs, Math.abs(ptsUs - lastPtsUs - READ_DURATION_US));
+            }
+            lastPtsUs = ptsUs;
+        }
+        //每次间隔最多偏离一个微秒的取整误差加上最大修正量
+        assertTrue("step error:" + maxStepErrorUs, maxStepErrorUs <= 1 + READ_DURATION_US / 1000);
+        assertEquals(0, generator.getResyncCount());
+        //修正量不会超过抖动的范围
+        assertTrue(Math.abs(generator.getCorrectionUs()) <= MAX_JITTER_US);
+    }
+
+    @Test
+    public void correctsSlowDriftWithinBounds() {
+        //录音设备的时钟快了200ppm，一小时不修正会相差720ms
+        double deviceSampleRate = SAMPLE_RATE * (1 + 200e-6);
+        AudioTimestampGenerator generator = new AudioTimestampGenerator(SAMPLE_RATE);
+        Random random = new Random(2);
+        int reads = (int) (3600L * SAMPLE_RATE / SAMPLES_PER_READ);
+        long lastPtsUs = -1;
+        long maxErrorUs = 0;
+        for (int i = 0; i < reads; i++) {
+            long captureStartUs = START_US + (long) (i * SAMPLES_PER_READ * 1e6 / deviceSampleRate);
+            long captureEndUs = START_US + (long) ((i + 1) * SAMPLES_PER_READ * 1e6 / deviceSampleRate);
+            long ptsUs = generator.onSamples(SAMPLES_PER_READ, captureEndUs + nextJitterUs(random));
+            if (lastPtsUs >= 0) {
+                long stepUs = ptsUs - lastPtsUs;
+                assertTrue("step:" + stepUs, Math.abs(stepUs - READ_DURATION_US) <= 1 + READ_DURATION_US / 1000);
+            }
+            lastPtsUs = ptsUs;
+            if (i > reads / 10) {
+                maxErrorUs = Math.max(maxErrorUs, Math.abs(ptsUs - captureStartUs));
+            }
+        }
+        assertEquals(0, generator.getResyncCount());
+        //修正量接近实际偏差-720ms，之后与真实采集时间只差抖动带来的偏移
+        assertEquals(-720000, generator.getCorrectionUs(), 20000);
+        assertTrue("max error:" + maxErrorUs, maxErrorUs < 2 * MAX_JITTER_US);
+    }
+
+    @Test
+    public void noCorrectionWhenSlewDisabled() {
+        double deviceSampleRate = SAMPLE_RATE * (1 + 200e-6);
+        AudioTimestampGenerator generator = new AudioTimestampGenerator(SAMPLE_RATE);
+        generator.setMaxSlewPpm(0);
+        generator.setResyncThreshold(Long.MAX_VALUE);
+        int reads = (int) (600L * SAMPLE_RATE / SAMPLES_PER_READ);
+        long ptsUs = 0;
+        for (int i = 0; i < reads; i++) {
+            long captureEndUs = START_US + (long) ((i + 1) * SAMPLES_PER_READ * 1e6 / deviceSampleRate);
+            ptsUs = generator.onSamples(SAMPLES_PER_READ, captureEndUs);
+        }
+        assertEquals(0, generator.getCorrectionUs());
+        //起点按第一次读出确定，有几微秒的取整误差
+        assertEquals(START_US + (reads - 1) * SAMPLES_PER_READ * 1000000L / SAMPLE_RATE, ptsUs, 5);
+        //10分钟偏差120ms
+        assertEquals(-120000, generator.getLastErrorUs(), 1000);
+    }
+
+    @Test
+    public void resyncsAfterCaptureGap() {
+        AudioTimestampGenerator generator = new AudioTimestampGenerator(SAMPLE_RATE);
+        long clockUs = START_US;
+        long ptsUs = 0;
+        for (int i = 0; i < 10; i++) {
+            clockUs += READ_DURATION_US;
+            ptsUs = generator.onSamples(SAMPLES_PER_READ, clockUs);
+        }
+        assertEquals(START_US + 9 * READ_DURATION_US, ptsUs, 10);
+
+        //采集中断了500ms
+        clockUs += 500000 + READ_DURATION_US;
+        ptsUs = generator.onSamples(SAMPLES_PER_READ, clockUs);
+        assertEquals(1, generator.getResyncCount());
+        assertEquals(clockUs - READ_DURATION_US, ptsUs);
+        assertEquals(clockUs, generator.getNextPresentationTimeUs(), 1);
+
+        //之后继续按采样数推算
+        clockUs += READ_DURATION_US + 3000;
+        assertEquals(ptsUs + READ_DURATION_US, generator.onSamples(SAMPLES_PER_READ, clockUs), 1);
+        assertEquals(12 * SAMPLES_PER_READ, generator.getSampleCount());
+
+        generator.reset();
+        assertEquals(0, generator.getNextPresentationTimeUs());
+        assertEquals(0, generator.getResyncCount());
+        assertEquals(777000, generator.onSamples(SAMPLES_PER_READ, 777000 + READ_DURATION_US));
+    }
+
+    @Test
+    public void clockJumpBackwardsKeepsTimestampsIncreasing() {
+        AudioTimestampGenerator generator = new AudioTimestampGenerator(SAMPLE_RATE);
+        long clockUs = START_US;
+        long lastPtsUs = 0;
+        for (int i = 0; i < 10; i++) {
+            clockUs += READ_DURATION_US;
+            lastPtsUs = generator.onSamples(SAMPLES_PER_READ, clockUs);
+        }
+
+        //时钟向回跳了10秒
+        clockUs -= 10 * 1000000L;
+        for (int i = 0; i < 5; i++) {
+            clockUs += READ_DURATION_US;
+            long ptsUs = generator.onSamples(SAMPLES_PER_READ, clockUs);
+            assertTrue("pts:" + ptsUs + " last:" + lastPtsUs, ptsUs >= lastPtsUs + READ_DURATION_US);
+            lastPtsUs = ptsUs;
+        }
+        assertTrue(generator.getResyncCount() >= 1);
+        assertTrue(generator.getNextPresentationTimeUs() >= lastPtsUs + READ_DURATION_US);
+    }
+
+    private static long nextJitterUs(Random random) {
+        return (long) (random.nextDouble() * MAX_JITTER_US);
+    }
+}
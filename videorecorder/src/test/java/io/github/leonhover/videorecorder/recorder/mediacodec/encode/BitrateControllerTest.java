@@ -0,0 +1,95 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitrateControllerTest {
+
+    private static final int FRAME_RATE = 30;
+    private static final long FRAME_US = 1000000 / FRAME_RATE;
+
+    private long mNowMs = 0;
+    private long mPtsUs = 0;
+
+    /**
+     * 按当前码率模拟编码输出，每帧调用一次update
+     *
+     * @param fullness 编码器实际使用目标码率的比例
+     */
+    private int run(BitrateController controller, int durationMs, int queueDepth, long writeLatencyUs,
+                    float fullness) {
+        int bitRate = controller.getBitRate();
+        for (int elapsed = 0; elapsed < durationMs; elapsed += FRAME_US / 1000) {
+            int frameBytes = (int) (bitRate * fullness / 8 / FRAME_RATE);
+            controller.onFrameEncoded(frameBytes, mPtsUs, writeLatencyUs);
+            bitRate = controller.update(mNowMs, queueDepth);
+            mPtsUs += FRAME_US;
+            mNowMs += FRAME_US / 1000;
+        }
+        return bitRate;
+    }
+
+    @Test
+    public void decreasesMultiplicativelyDownToMinimum() {
+        BitrateController controller = new BitrateController(500000, 4000000, 4000000);
+        run(controller, 600, 20, 1000, 1f);
+        assertEquals(3000000, controller.getBitRate(), 1000);
+        assertEquals(1, controller.getDecreaseCount());
+
+        run(controller, 10000, 20, 1000, 1f);
+        assertEquals(500000, controller.getBitRate());
+    }
+
+    @Test
+    public void slowWritesAreCongestion() {
+        BitrateController controller = new BitrateController(500000, 4000000, 2000000);
+        run(controller, 600, 0, 80 * 1000, 1f);
+        assertEquals(1500000, controller.getBitRate(), 1000);
+    }
+
+    @Test
+    public void increasesAdditivelyAfterHoldTime() {
+        BitrateController controller = new BitrateController(500000, 4000000, 4000000);
+        run(controller, 600, 20, 1000, 1f);
+        int decreased = controller.getBitRate();
+
+        //降低后2秒内不升高
+        run(controller, 1500, 0, 1000, 1f);
+        assertEquals(decreased, controller.getBitRate());
+
+        run(controller, 1000, 0, 1000, 1f);
+        assertEquals(decreased + 200000, controller.getBitRate());
+
+        run(controller, 60000, 0, 1000, 1f);
+        assertEquals(4000000, controller.getBitRate());
+    }
+
+    @Test
+    public void doesNotIncreaseWhileEncoderUndershoots() {
+        BitrateController controller = new BitrateController(500000, 4000000, 1000000);
+        run(controller, 10000, 0, 1000, 0.5f);
+        assertEquals(1000000, controller.getBitRate());
+        assertEquals(0, controller.getIncreaseCount());
+        assertEquals(500000, controller.getMeasuredBitRate(), 20000);
+    }
+
+    @Test
+    public void overshootingEncoderIsCutFromMeasuredRate() {
+        BitrateController controller = new BitrateController(500000, 4000000, 2000000);
+        //实际输出是目标的1.5倍，降低时以目标码率为基准
+        run(controller, 600, 20, 1000, 1.5f);
+        assertEquals(1500000, controller.getBitRate(), 1000);
+
+        //实际输出只有目标的一半，直接以实际码率为基准
+        controller = new BitrateController(500000, 4000000, 4000000);
+        run(controller, 600, 20, 1000, 0.5f);
+        assertEquals(1500000, controller.getBitRate(), 30000);
+    }
+
+    @Test
+    public void initialBitRateIsClamped() {
+        assertEquals(4000000, new BitrateController(500000, 4000000, 8000000).getBitRate());
+        assertEquals(500000, new BitrateController(500000, 4000000, 100).getBitRate());
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncoderCapabilityCacheTest {
+
+    private static final String FINGERPRINT = "fixture/qcom/sdm845:9/PKQ1/1:user/release-keys";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("encoder_capabilities", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writeThenReadKeepsEveryField() throws Exception {
+        List<EncoderCapability> qcom = EncoderScorerTest.loadFixture("qcom.txt");
+        EncoderCapabilityCache.write(mFile, FINGERPRINT, qcom);
+
+        List<EncoderCapability> read = EncoderCapabilityCache.read(mFile, FINGERPRINT);
+        assertEquals(qcom.size(), read.size());
+        for (int i = 0; i < qcom.size(); i++) {
+            assertEquals(qcom.get(i).toLine(), read.get(i).toLine());
+        }
+
+        EncoderCapability avc = read.get(1);
+        assertTrue(avc.isHardware);
+        assertEquals(4, avc.profiles.length);
+        assertEquals(65536, avc.levels[2]);
+        assertEquals(4096, avc.maxWidth);
+        assertEquals(497664000L, avc.maxPixelRate);
+        assertEquals(EncoderCapability.BITRATE_MODE_CQ | EncoderCapability.BITRATE_MODE_VBR
+                | EncoderCapability.BITRATE_MODE_CBR, avc.bitrateModes);
+        EncoderCapability aac = read.get(3);
+        assertEquals(6, aac.maxChannelCount);
+        assertTrue(aac.isSampleRateSupported(44100));
+        assertFalse(aac.isSampleRateSupported(96000));
+    }
+
+    @Test
+    public void otherFingerprintInvalidatesCache() throws Exception {
+        EncoderCapabilityCache.write(mFile, FINGERPRINT, EncoderScorerTest.loadFixture("qcom.txt"));
+        assertNull(EncoderCapabilityCache.read(mFile, "fixture/qcom/sdm845:10/QKQ1/2:user/release-keys"));
+        assertNull(EncoderCapabilityCache.read(new File(mFile.getPath() + ".missing"), FINGERPRINT));
+    }
+
+    @Test
+    public void corruptedCacheIsIgnored() throws IOException {
+        FileOutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(("version=1\nfingerprint=" + FINGERPRINT + "\nname=OMX.qcom.video.encoder.avc;mime=video/avc;width=96\n")
+                    .getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+        assertNull(EncoderCapabilityCache.read(mFile, FINGERPRINT));
+    }
+
+    @Test
+    public void softwareEncodersAreDetectedByName() {
+        assertFalse(EncoderCapabilityCache.isHardware("OMX.google.h264.encoder"));
+        assertFalse(EncoderCapabilityCache.isHardware("c2.android.avc.encoder"));
+        assertFalse(EncoderCapabilityCache.isHardware("OMX.SEC.avc.sw.enc"));
+        assertTrue(EncoderCapabilityCache.isHardware("OMX.qcom.video.encoder.avc"));
+        assertTrue(EncoderCapabilityCache.isHardware("c2.exynos.h264.encoder"));
+    }
+}
@@ -0,0 +1,249 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.leonhover.videorecorder.pub.Profile;
+
+import static org.junit.Assert.*;
+
+public class EncoderPoolTest {
+
+    private static Profile.Builder builder() {
+        return new Profile.Builder()
+                .setVideoSize(1280, 720)
+                .setVideoFrameRate(30)
+                .setVideoBitRate(4000000)
+                .setVideoIFrameInterval(1)
+                .setAudioSamplingRate(44100)
+                .setAudioChannelCount(1)
+                .setAudioBitRate(64000);
+    }
+
+    @Test
+    public void sameEncodingParametersShareKey() {
+        //输出格式等与编码器无关的参数不影响复用
+        Profile a = builder().setOutputFormat(Profile.OUTPUT_FORMAT_MPEG_4).build();
+        Profile b = builder().setOutputFormat(Profile.OUTPUT_FORMAT_MPEG_TS).setFastStart(true).build();
+        assertEquals(EncoderPool.videoKey(a), EncoderPool.videoKey(b));
+        assertEquals(EncoderPool.audioKey(a), EncoderPool.audioKey(b));
+    }
+
+    @Test
+    public void differentEncodingParametersDoNotShareKey() {
+        Profile base = builder().build();
+        assertFalse(EncoderPool.videoKey(base).equals(EncoderPool.videoKey(builder().setVideoBitRate(2000000).build())));
+        assertFalse(EncoderPool.videoKey(base).equals(EncoderPool.videoKey(builder().setVideoSize(720, 1280).build())));
+        assertFalse(EncoderPool.videoKey(base).equals(EncoderPool.videoKey(builder().setVideoDrainThread(true).build())));
+        assertEquals(EncoderPool.videoKey(base), EncoderPool.videoKey(builder().setAudioBitRate(128000).build()));
+        assertFalse(EncoderPool.audioKey(base).equals(EncoderPool.audioKey(builder().setAudioBitRate(128000).build())));
+        assertFalse(EncoderPool.audioKey(base).equals(EncoderPool.audioKey(builder().setAudioSamplingRate(48000).build())));
+        assertFalse(EncoderPool.videoKey(base).equals(EncoderPool.videoKey(builder().setAsynchronousMode(true).build())));
+        assertFalse(EncoderPool.audioKey(base).equals(EncoderPool.audioKey(builder().setAsynchronousMode(true).build())));
+    }
+
+    @Test
+    public void acquireReturnsPrewarmedEncoder() {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile profile = builder().build();
+
+        pool.prewarm(profile);
+        pool.prewarm(profile);
+        assertEquals(1, factory.createCount);
+
+        FakeEncoder encoder = pool.acquire(profile);
+        assertNotNull(encoder);
+        assertEquals(1, encoder.prepareCount);
+        assertSame(profile, encoder.profile);
+        assertEquals(1, pool.getHitCount());
+
+        //已经取出，池中没有其他编码器
+        assertNull(pool.acquire(profile));
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void acquireDoesNotWaitForPreparingEncoder() {
+        FakeFactory factory = new FakeFactory(false);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile profile = builder().build();
+        pool.prewarm(profile);
+
+        //还在prepare时立即返回，编码器留在池中
+        long startMs = System.currentTimeMillis();
+        assertNull(pool.acquire(profile));
+        assertTrue(System.currentTimeMillis() - startMs < 100);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.size());
+        assertFalse(factory.created.get(0).isReleased);
+
+        pool.onPrepared(factory.created.get(0));
+        assertSame(factory.created.get(0), pool.acquire(profile));
+    }
+
+    @Test
+    public void recycledEncoderIsPreparedAgain() {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile profile = builder().build();
+        pool.prewarm(profile);
+        FakeEncoder encoder = pool.acquire(profile);
+
+        pool.recycle(encoder, profile);
+        assertEquals(2, encoder.prepareCount);
+        assertSame(encoder, pool.acquire(profile));
+        assertEquals(1, factory.createCount);
+
+        //相同参数只保留一个空闲的编码器
+        FakeEncoder other = new FakeEncoder();
+        pool.recycle(encoder, profile);
+        pool.recycle(other, profile);
+        assertTrue(other.isReleased);
+        assertFalse(encoder.isReleased);
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void mismatchedProfileReprepares() {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile hd = builder().build();
+        Profile sd = builder().setVideoSize(640, 360).setVideoBitRate(1000000).build();
+        pool.prewarm(hd);
+
+        FakeEncoder encoder = pool.acquire(sd);
+        assertSame(factory.created.get(0), encoder);
+        assertSame(sd, encoder.profile);
+        assertEquals(2, encoder.prepareCount);
+        assertEquals(1, pool.getReprepareCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, factory.createCount);
+    }
+
+    @Test
+    public void mismatchedProfileRepreparesForNextAcquire() {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile hd = builder().build();
+        Profile sd = builder().setVideoSize(640, 360).setVideoBitRate(1000000).build();
+        pool.prewarm(hd);
+        factory.isPreparedImmediately = false;
+
+        //重新prepare不等待，这一次使用新的编码器
+        assertNull(pool.acquire(sd));
+        assertEquals(1, pool.getReprepareCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.size());
+
+        FakeEncoder encoder = factory.created.get(0);
+        pool.onPrepared(encoder);
+        assertSame(encoder, pool.acquire(sd));
+        assertSame(sd, encoder.profile);
+    }
+
+    @Test
+    public void mismatchedProfileSkipsPreparingEncoder() {
+        FakeFactory factory = new FakeFactory(false);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        pool.prewarm(builder().build());
+
+        assertNull(pool.acquire(builder().setVideoBitRate(1000000).build()));
+        assertEquals(0, pool.getReprepareCount());
+        assertEquals(1, factory.created.get(0).prepareCount);
+    }
+
+    @Test
+    public void idleEncoderIsReleased() throws InterruptedException {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(20);
+        Profile profile = builder().build();
+        pool.prewarm(profile);
+
+        pool.trimIdle();
+        assertEquals(1, pool.size());
+
+        Thread.sleep(50);
+        assertNull(pool.acquire(profile));
+        assertTrue(factory.created.get(0).isReleased);
+        assertEquals(0, pool.size());
+
+        //归还后重新计时
+        FakeEncoder encoder = new FakeEncoder();
+        pool.recycle(encoder, profile);
+        assertSame(encoder, pool.acquire(profile));
+        assertFalse(encoder.isReleased);
+    }
+
+    @Test
+    public void releaseReleasesIdleAndLaterRecycledEncoders() {
+        FakeFactory factory = new FakeFactory(true);
+        PooledEncoders<FakeEncoder> pool = factory.newPool(0);
+        Profile profile = builder().build();
+        pool.prewarm(profile);
+
+        pool.release();
+        assertTrue(factory.created.get(0).isReleased);
+
+        FakeEncoder encoder = new FakeEncoder();
+        pool.recycle(encoder, profile);
+        assertTrue(encoder.isReleased);
+        pool.prewarm(profile);
+        assertEquals(1, factory.createCount);
+        assertNull(pool.acquire(profile));
+    }
+
+    private static class FakeEncoder {
+        Profile profile;
+        int prepareCount;
+        boolean isReleased;
+    }
+
+    /**
+     * 假的编码器，isPreparedImmediately为true时prepare立即完成，否则由测试调用onPrepared
+     */
+    private static class FakeFactory implements PooledEncoders.Factory<FakeEncoder> {
+        boolean isPreparedImmediately;
+        private PooledEncoders<FakeEncoder> pool;
+        final List<FakeEncoder> created = new ArrayList<FakeEncoder>();
+        int createCount;
+
+        FakeFactory(boolean isPreparedImmediately) {
+            this.isPreparedImmediately = isPreparedImmediately;
+        }
+
+        PooledEncoders<FakeEncoder> newPool(long idleTimeoutMs) {
+            pool = new PooledEncoders<FakeEncoder>(this, idleTimeoutMs);
+            return pool;
+        }
+
+        @Override
+        public String key(Profile profile) {
+            return EncoderPool.videoKey(profile);
+        }
+
+        @Override
+        public FakeEncoder create() {
+            createCount++;
+            FakeEncoder encoder = new FakeEncoder();
+            created.add(encoder);
+            return encoder;
+        }
+
+        @Override
+        public void prepare(FakeEncoder encoder, Profile profile) {
+            encoder.profile = profile;
+            encoder.prepareCount++;
+            if (isPreparedImmediately) {
+                pool.onPrepared(encoder);
+            }
+        }
+
+        @Override
+        public void release(FakeEncoder encoder) {
+            encoder.isReleased = true;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EncoderScorerTest {
+
+    private static final String AVC = "video/avc";
+    private static final String AAC = "audio/mp4a-latm";
+
+    static List<EncoderCapability> loadFixture(String name) throws IOException, URISyntaxException {
+        File file = new File(EncoderScorerTest.class.getResource("/encoder_capabilities/" + name).toURI());
+        String fingerprint = null;
+        if ("qcom.txt".equals(name)) {
+            fingerprint = "fixture/qcom/sdm845:9/PKQ1/1:user/release-keys";
+        } else if ("mtk.txt".equals(name)) {
+            fingerprint = "fixture/mtk/mt6750:7.0/NRD90M/1:user/release-keys";
+        }
+        List<EncoderCapability> capabilities = EncoderCapabilityCache.read(file, fingerprint);
+        assertNotNull(capabilities);
+        return capabilities;
+    }
+
+    @Test
+    public void prefersHardwareEncoderListedAfterSoftware() throws Exception {
+        List<EncoderCapability> qcom = loadFixture("qcom.txt");
+        //原来的实现会选中列表中第一个OMX.google.h264.encoder
+        assertEquals("OMX.google.h264.encoder", qcom.get(0).name);
+
+        assertEquals("OMX.qcom.video.encoder.avc",
+                EncoderScorer.chooseVideo(qcom, AVC, 1920, 1080, 30, 4000000).name);
+        assertEquals("OMX.qcom.video.encoder.avc",
+                EncoderScorer.chooseVideo(qcom, AVC, 3840, 2160, 30, 20000000).name);
+        assertEquals("OMX.google.aac.encoder",
+                EncoderScorer.chooseAudio(qcom, AAC, 44100, 2, 128000).name);
+    }
+
+    @Test
+    public void skipsEncoderWithoutSurfaceInput() throws Exception {
+        List<EncoderCapability> mtk = loadFixture("mtk.txt");
+        assertEquals(EncoderScorer.UNSUPPORTED, EncoderScorer.scoreVideo(mtk.get(1), AVC, 1280, 720, 30, 2000000));
+        assertEquals("OMX.MTK.VIDEO.ENCODER.AVC", EncoderScorer.chooseVideo(mtk, AVC, 1280, 720, 30, 2000000).name);
+    }
+
+    @Test
+    public void sizeLimitsFallBackToSoftwareOrNothing() throws Exception {
+        List<EncoderCapability> mtk = loadFixture("mtk.txt");
+        //硬件编码器最大1920x1088
+        assertEquals("OMX.google.h264.encoder", EncoderScorer.chooseVideo(mtk, AVC, 2048, 1536, 30, 8000000).name);
+        assertNull(EncoderScorer.chooseVideo(mtk, AVC, 3840, 2160, 30, 20000000));
+    }
+
+    @Test
+    public void frameRateBeyondThroughputLowersScore() throws Exception {
+        EncoderCapability hardware = loadFixture("mtk.txt").get(0);
+        int score30 = EncoderScorer.scoreVideo(hardware, AVC, 1920, 1080, 30, 8000000);
+        int score60 = EncoderScorer.scoreVideo(hardware, AVC, 1920, 1080, 60, 8000000);
+        assertTrue(score60 < score30);
+        assertTrue(score60 > EncoderScorer.UNSUPPORTED);
+    }
+
+    @Test
+    public void videoProfilesDoNotAffectScore() {
+        String line = "name=avc;mime=video/avc;hardware=1;profiles=%s;colors=2130708361;bitrateModes=2;"
+                + "width=16-1920;height=16-1088;pixelRate=244800000;bitrate=1-20000000";
+        EncoderCapability baseline = EncoderCapability.fromLine(String.format(line, "1:512"));
+        EncoderCapability high = EncoderCapability.fromLine(String.format(line, "1:512,2:512,8:512"));
+        //VideoEncoder没有设置KEY_PROFILE，支持High profile没有意义
+        assertEquals(EncoderScorer.scoreVideo(baseline, AVC, 1280, 720, 30, 2000000),
+                EncoderScorer.scoreVideo(high, AVC, 1280, 720, 30, 2000000));
+    }
+
+    @Test
+    public void audioSampleRateMustBeSupported() throws Exception {
+        List<EncoderCapability> mtk = loadFixture("mtk.txt");
+        //MTK的AAC编码器不支持44.1kHz
+        assertEquals("OMX.google.aac.encoder", EncoderScorer.chooseAudio(mtk, AAC, 44100, 1, 128000).name);
+        //分数相同时保持MediaCodecList的顺序
+        assertEquals("OMX.MTK.AUDIO.ENCODER.AAC", EncoderScorer.chooseAudio(mtk, AAC, 48000, 1, 128000).name);
+        assertEquals("OMX.google.aac.encoder", EncoderScorer.chooseAudio(mtk, AAC, 48000, 4, 128000).name);
+    }
+}
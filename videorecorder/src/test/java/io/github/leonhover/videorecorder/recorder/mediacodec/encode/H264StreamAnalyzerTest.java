@@ -0,0 +1,170 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class H264StreamAnalyzerTest {
+
+    private static final long FRAME_INTERVAL_US = 33333;
+
+    /**
+     * Baseline 16x16，每个访问单元以AUD开头，第一个是SPS/PPS（相当于CODEC_CONFIG），之后25帧，每10帧一个IDR
+     */
+    private static final String STREAM = "/h264/baseline_16x16_gop10.h264";
+
+    @Test
+    public void analyzesCapturedStream() throws Exception {
+        List<byte[]> accessUnits = readAccessUnits(STREAM);
+        assertEquals(26, accessUnits.size());
+
+        H264StreamAnalyzer analyzer = new H264StreamAnalyzer();
+        byte[] config = accessUnits.get(0);
+        assertEquals(H264StreamAnalyzer.SLICE_TYPE_UNKNOWN, analyzer.analyze(ByteBuffer.wrap(config), 0, config.length, 0));
+
+        long frameBytes = 0;
+        long keyFrameBytes = 0;
+        for (int i = 1; i < accessUnits.size(); i++) {
+            byte[] frame = accessUnits.get(i);
+            int sliceType = analyzer.analyze(ByteBuffer.wrap(frame), 0, frame.length, (i - 1) * FRAME_INTERVAL_US);
+            boolean isKeyFrame = (i - 1) % 10 == 0;
+            assertEquals(isKeyFrame ? H264StreamAnalyzer.SLICE_TYPE_I : H264StreamAnalyzer.SLICE_TYPE_P, sliceType);
+            frameBytes += frame.length;
+            if (isKeyFrame) {
+                keyFrameBytes += frame.length;
+            }
+        }
+
+        H264StreamAnalyzer.Stats stats = analyzer.getStats(new H264StreamAnalyzer.Stats());
+        assertEquals(25, stats.frameCount);
+        assertEquals(frameBytes, stats.totalBytes);
+        assertEquals(1, stats.spsCount);
+        assertEquals(1, stats.ppsCount);
+        assertEquals(3, stats.idrCount);
+        assertEquals(3, stats.iFrameCount);
+        assertEquals(22, stats.pFrameCount);
+        assertEquals(0, stats.bFrameCount);
+
+        assertEquals(10, stats.lastGopLength);
+        assertEquals(10, stats.maxGopLength);
+        assertEquals(10f, stats.averageGopLength, 0.001f);
+        assertEquals(5, stats.framesSinceKeyFrame);
+        assertEquals(10 * FRAME_INTERVAL_US, stats.lastKeyFrameIntervalUs);
+
+        assertEquals(keyFrameBytes / 3, stats.averageKeyFrameSize);
+        assertEquals((frameBytes - keyFrameBytes) / 22, stats.averageDeltaFrameSize);
+        assertTrue(stats.averageKeyFrameSize > stats.averageDeltaFrameSize * 10);
+        assertEquals(accessUnits.get(25).length, stats.lastFrameSize);
+
+        //25帧都在1秒的窗口内
+        assertEquals(25, stats.windowFrameCount);
+        assertEquals(frameBytes * 8 * 1000000 / (25 * FRAME_INTERVAL_US), stats.windowBitRate, 2);
+        assertEquals(30f, stats.windowFrameRate, 0.01f);
+
+        analyzer.reset();
+        stats = analyzer.getStats(stats);
+        assertEquals(0, stats.frameCount);
+        assertEquals(0, stats.windowFrameCount);
+    }
+
+    @Test
+    public void slidingWindowDropsOldFrames() throws Exception {
+        byte[] frame = readAccessUnits(STREAM).get(2);
+        H264StreamAnalyzer analyzer = new H264StreamAnalyzer();
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(ByteBuffer.wrap(frame), 0, frame.length, i * 40000L);
+        }
+
+        H264StreamAnalyzer.Stats stats = analyzer.getStats(new H264StreamAnalyzer.Stats());
+        assertEquals(25, stats.windowFrameCount);
+        assertEquals(25 * frame.length * 8, stats.windowBitRate, 1);
+        assertEquals(25f, stats.windowFrameRate, 0.01f);
+        assertEquals(0, stats.idrCount);
+    }
+
+    @Test
+    public void parsesLengthPrefixedFrame() throws Exception {
+        byte[] frame = readAccessUnits(STREAM).get(1);
+        //去掉AUD，只保留IDR，改成4字节长度前缀
+        int idrStart = indexOfStartCode(frame, 4);
+        int nalLength = frame.length - idrStart - 4;
+        ByteBuffer buffer = ByteBuffer.allocate(nalLength + 8);
+        buffer.putInt(0x7FFFFFFF);
+        buffer.putInt(nalLength);
+        buffer.put(frame, idrStart + 4, nalLength);
+
+        H264StreamAnalyzer analyzer = new H264StreamAnalyzer();
+        assertEquals(H264StreamAnalyzer.SLICE_TYPE_I, analyzer.analyze(buffer, 4, nalLength + 4, 0));
+        assertEquals(1, analyzer.getStats(new H264StreamAnalyzer.Stats()).idrCount);
+    }
+
+    @Test
+    public void skipsEmulationPreventionBytes() {
+        //first_mb_in_slice=8388607, slice_type=7，RBSP为00 00 01 00 00 00 22，需要插入两个防竞争字节
+        byte[] idr = {0, 0, 0, 1, 0x65, 0, 0, 3, 1, 0, 0, 3, 0, 0x22};
+        H264StreamAnalyzer analyzer = new H264StreamAnalyzer();
+        assertEquals(H264StreamAnalyzer.SLICE_TYPE_I, analyzer.analyze(ByteBuffer.wrap(idr), 0, idr.length, 0));
+
+        //first_mb_in_slice=0, slice_type=6
+        byte[] b = {0, 0, 0, 1, 0x01, (byte) 0x9E};
+        assertEquals(H264StreamAnalyzer.SLICE_TYPE_B, analyzer.analyze(ByteBuffer.wrap(b), 0, b.length, 33333));
+
+        //Slice头部被截断
+        byte[] truncated = {0, 0, 0, 1, 0x01, 0};
+        assertEquals(H264StreamAnalyzer.SLICE_TYPE_UNKNOWN,
+                analyzer.analyze(ByteBuffer.wrap(truncated), 0, truncated.length, 66666));
+
+        H264StreamAnalyzer.Stats stats = analyzer.getStats(new H264StreamAnalyzer.Stats());
+        assertEquals(2, stats.frameCount);
+        assertEquals(1, stats.iFrameCount);
+        assertEquals(1, stats.bFrameCount);
+    }
+
+    /**
+     * 按AUD把码流切分成访问单元
+     */
+    private static List<byte[]> readAccessUnits(String name) throws Exception {
+        InputStream input = H264StreamAnalyzerTest.class.getResourceAsStream(name);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        input.close();
+        byte[] stream = output.toByteArray();
+
+        List<byte[]> accessUnits = new ArrayList<byte[]>();
+        int start = 0;
+        int position = 0;
+        while ((position = indexOfStartCode(stream, position + 1)) >= 0) {
+            if ((stream[position + 4] & 0x1F) == 9) {
+                accessUnits.add(copy(stream, start, position));
+                start = position;
+            }
+        }
+        accessUnits.add(copy(stream, start, stream.length));
+        return accessUnits;
+    }
+
+    private static int indexOfStartCode(byte[] data, int from) {
+        for (int i = from; i + 4 < data.length; i++) {
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 0 && data[i + 3] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] copy(byte[] data, int from, int to) {
+        byte[] result = new byte[to - from];
+        System.arraycopy(data, from, result, 0, result.length);
+        return result;
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void percentilesFollowDistribution() {
+        LatencyStats stats = new LatencyStats();
+        //90个5.5ms，10个40.2ms
+        for (int i = 0; i < 90; i++) {
+            stats.record(5500);
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.record(40200);
+        }
+
+        assertEquals(100, stats.getCount());
+        assertEquals((90 * 5500 + 10 * 40200) / 100, stats.getAverageUs());
+        assertEquals(40200, stats.getMaxUs());
+        assertEquals(6000, stats.getPercentileUs(50));
+        assertEquals(6000, stats.getPercentileUs(90));
+        assertEquals(40200, stats.getPercentileUs(95));
+        assertEquals(40200, stats.getPercentileUs(100));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyStats stats = new LatencyStats();
+        stats.record(-100);
+        stats.record(5000 * 1000L);
+        assertEquals(2, stats.getCount());
+        assertEquals(5000 * 1000L, stats.getMaxUs());
+        assertEquals(1000, stats.getPercentileUs(50));
+        assertEquals(5000 * 1000L, stats.getPercentileUs(100));
+
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getPercentileUs(50));
+    }
+}
@@ -0,0 +1,74 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PauseControllerTest {
+
+    @Test
+    public void samplesAfterResumeAreShiftedByPausedTime() {
+        PauseController controller = new PauseController();
+        assertEquals(1000, controller.adjust(1000));
+
+        assertTrue(controller.pause(2000));
+        assertFalse(controller.pause(2500));
+        assertTrue(controller.isPaused());
+        //暂停前采集的数据保留，暂停后的丢弃
+        assertEquals(1999, controller.adjust(1999));
+        assertEquals(PauseController.DROP, controller.adjust(2000));
+        assertEquals(PauseController.DROP, controller.adjust(4000));
+
+        assertTrue(controller.resume(5000));
+        assertFalse(controller.resume(5100));
+        assertFalse(controller.isPaused());
+        assertEquals(3000, controller.getTotalPausedUs());
+        assertEquals(2000, controller.adjust(5000));
+        assertEquals(3000, controller.adjust(6000));
+        //暂停期间采集、恢复后才到达的数据也丢弃
+        assertEquals(PauseController.DROP, controller.adjust(4999));
+        assertEquals(1500, controller.adjust(1500));
+    }
+
+    @Test
+    public void multiplePausesAccumulate() {
+        PauseController controller = new PauseController();
+        controller.pause(1000);
+        controller.resume(2000);
+        controller.pause(3000);
+        controller.resume(3500);
+
+        assertEquals(1500, controller.getTotalPausedUs());
+        assertEquals(1500, controller.adjust(2500));
+        assertEquals(PauseController.DROP, controller.adjust(3200));
+        assertEquals(2500, controller.adjust(4000));
+
+        controller.reset();
+        assertEquals(4000, controller.adjust(4000));
+        assertEquals(0, controller.getTotalPausedUs());
+    }
+
+    @Test
+    public void outputIsContinuousAcrossPause() {
+        PauseController controller = new PauseController();
+        long frameUs = 33333;
+        long last = -1;
+        long now = 0;
+        for (int i = 0; i < 300; i++, now += frameUs) {
+            if (i == 100) {
+                controller.pause(now);
+            } else if (i == 200) {
+                controller.resume(now);
+            }
+            long pts = controller.adjust(now);
+            if (pts == PauseController.DROP) {
+                continue;
+            }
+            if (last >= 0) {
+                assertEquals(frameUs, pts - last);
+            }
+            last = pts;
+        }
+        assertEquals(199 * frameUs, last);
+    }
+}
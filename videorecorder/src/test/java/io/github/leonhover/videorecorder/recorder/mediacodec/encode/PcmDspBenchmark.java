@@ -0,0 +1,144 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * 48kHz双声道PCM经过高通、噪声门、增益、软限幅整条处理链的耗时，按AudioRecorder每次读出2048字节处理。
+ * 先预热再测量多轮，输出实时倍数（音频时长/处理耗时）与每块分配的字节数。
+ * 另外用一个不做任何处理的环节测量Buffer与short数组之间两次拷贝的耗时，以及它占整条处理链的比例。需要时去掉@Ignore运行。
+ */
+@Ignore("benchmark")
+public class PcmDspBenchmark {
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNEL_COUNT = 2;
+    private static final int BLOCK_BYTES = AudioRecorder.SAMPLES_PER_FRAME;
+    //每轮处理60秒的音频
+    private static final int BLOCKS_PER_ITERATION = SAMPLE_RATE * CHANNEL_COUNT * 2 * 60 / BLOCK_BYTES;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final double MIN_REAL_TIME_FACTOR = 100;
+    //两次拷贝占整条处理链耗时的上限
+    private static final double MAX_COPY_SHARE = 0.25;
+
+    @Test
+    public void fullChainRealTimeHeadroom() {
+        PcmProcessingChain chain = fullChain();
+
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(chain, block);
+        }
+
+        long allocatedStart = allocatedBytes();
+        long bestNanos = Long.MAX_VALUE;
+        long totalNanos = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long nanos = iteration(chain, block);
+            bestNanos = Math.min(bestNanos, nanos);
+            totalNanos += nanos;
+        }
+        long allocatedEnd = allocatedBytes();
+
+        double audioNanos = 60 * 1e9;
+        double averageFactor = audioNanos * MEASUREMENT_ITERATIONS / totalNanos;
+        double bestFactor = audioNanos / bestNanos;
+        long blocks = (long) BLOCKS_PER_ITERATION * MEASUREMENT_ITERATIONS;
+        double bytesPerBlock = allocatedStart < 0 ? -1 : (double) (allocatedEnd - allocatedStart) / blocks;
+        System.out.println(String.format("dsp chain 48kHz stereo: avg %.0fx, best %.0fx real time, %.0f ns/block, %.1f B/block allocated",
+                averageFactor, bestFactor, (double) totalNanos / blocks, bytesPerBlock));
+
+        assertTrue("real time factor " + averageFactor, averageFactor >= MIN_REAL_TIME_FACTOR);
+        if (bytesPerBlock >= 0) {
+            assertTrue("allocates " + bytesPerBlock + " bytes per block", bytesPerBlock < 1);
+        }
+    }
+
+    @Test
+    public void copyCostShareOfFullChain() {
+        PcmProcessingChain copyOnly = new PcmProcessingChain();
+        copyOnly.add(new PcmProcessor() {
+            @Override
+            public void configure(int sampleRate, int channelCount) {
+            }
+
+            @Override
+            public void process(short[] samples, int sampleCount) {
+            }
+
+            @Override
+            public void reset() {
+            }
+        });
+        copyOnly.configure(SAMPLE_RATE, CHANNEL_COUNT);
+        PcmProcessingChain chain = fullChain();
+
+        ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(copyOnly, block);
+            iteration(chain, block);
+        }
+
+        long copyNanos = Long.MAX_VALUE;
+        long chainNanos = Long.MAX_VALUE;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            copyNanos = Math.min(copyNanos, iteration(copyOnly, block));
+            chainNanos = Math.min(chainNanos, iteration(chain, block));
+        }
+
+        double share = (double) copyNanos / chainNanos;
+        System.out.println(String.format("dsp chain copy in/out: %.0f ns/block, full chain %.0f ns/block, copy share %.1f%%",
+                (double) copyNanos / BLOCKS_PER_ITERATION, (double) chainNanos / BLOCKS_PER_ITERATION, share * 100));
+        assertTrue("copy share " + share, share <= MAX_COPY_SHARE);
+    }
+
+    private static PcmProcessingChain fullChain() {
+        PcmProcessingChain chain = new PcmProcessingChain();
+        chain.add(new PcmHighPassFilter());
+        chain.add(new PcmNoiseGate());
+        chain.add(new PcmGain(PcmProcessingChain.dbToLinear(6f)));
+        chain.add(new PcmSoftLimiter());
+        chain.configure(SAMPLE_RATE, CHANNEL_COUNT);
+        return chain;
+    }
+
+    /**
+     * 每块先写入新的采集数据（正弦加噪声，部分块接近静音，覆盖噪声门的开关），再整条链处理
+     */
+    private static long iteration(PcmProcessingChain chain, ByteBuffer block) {
+        int samplesPerBlock = BLOCK_BYTES / 2;
+        int seed = 1;
+        long elapsed = 0;
+        for (int b = 0; b < BLOCKS_PER_ITERATION; b++) {
+            int amplitude = (b / 50) % 2 == 0 ? 12000 : 50;
+            for (int i = 0; i < samplesPerBlock; i++) {
+                seed = seed * 1103515245 + 12345;
+                int triangle = ((b * samplesPerBlock + i) & 0xFF) - 128;
+                block.putShort(i * 2, (short) (amplitude * triangle / 128 + (seed >> 24)));
+            }
+            long start = System.nanoTime();
+            chain.process(block, BLOCK_BYTES);
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,175 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import static org.junit.Assert.*;
+
+/**
+ * 比较采集线程到编码器的两种PCM交接方式：每帧分配对象并复制后放入ArrayBlockingQueue，
+ * 以及预先分配的PcmRingBuffer。按JMH的方式先预热再测量多轮，输出每帧耗时与每帧分配的字节数。
+ * 需要时去掉@Ignore运行。
+ */
+@Ignore("benchmark")
+public class PcmHandoffBenchmark {
+
+    //AudioRecorder每次读出的大小
+    private static final int FRAME_SIZE = 2048;
+    //MediaCodec输入Buffer的大小
+    private static final int INPUT_SIZE = 8192;
+    private static final int FRAMES_PER_ITERATION = 200 * 1000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+
+    @Test
+    public void compareQueueAndRingBuffer() {
+        Handoff queue = new QueueHandoff();
+        Handoff ring = new RingHandoff();
+
+        Result queueResult = run(queue);
+        Result ringResult = run(ring);
+        System.out.println("queue: " + queueResult);
+        System.out.println("ring : " + ringResult);
+
+        assertEquals(queue.checksum(), ring.checksum());
+        if (ringResult.bytesPerFrame >= 0) {
+            //稳定运行时不分配内存，留出测量本身的误差
+            assertTrue("ring allocates " + ringResult.bytesPerFrame + " bytes per frame", ringResult.bytesPerFrame < 1);
+        }
+    }
+
+    private static Result run(Handoff handoff) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(handoff);
+        }
+        handoff.reset();
+
+        Result result = new Result();
+        long allocatedStart = allocatedBytes();
+        long bestNanos = Long.MAX_VALUE;
+        long totalNanos = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long nanos = iteration(handoff);
+            bestNanos = Math.min(bestNanos, nanos);
+            totalNanos += nanos;
+        }
+        long allocatedEnd = allocatedBytes();
+        long frames = (long) FRAMES_PER_ITERATION * MEASUREMENT_ITERATIONS;
+        result.avgNanosPerFrame = (double) totalNanos / frames;
+        result.bestNanosPerFrame = (double) bestNanos / FRAMES_PER_ITERATION;
+        result.bytesPerFrame = allocatedStart < 0 ? -1 : (double) (allocatedEnd - allocatedStart) / frames;
+        return result;
+    }
+
+    /**
+     * 采集一帧、交接、编码器取出一帧，交替进行
+     */
+    private static long iteration(Handoff handoff) {
+        ByteBuffer captured = ByteBuffer.allocateDirect(FRAME_SIZE);
+        for (int i = 0; i < FRAME_SIZE; i++) {
+            captured.put(i, (byte) i);
+        }
+        ByteBuffer input = ByteBuffer.allocateDirect(INPUT_SIZE);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES_PER_ITERATION; i++) {
+            captured.clear();
+            captured.put(0, (byte) i);
+            handoff.offer(captured, FRAME_SIZE, i);
+            input.clear();
+            handoff.poll(input);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static abstract class Handoff {
+        long mChecksum;
+
+        abstract void offer(ByteBuffer data, int length, long ptsUs);
+
+        abstract void poll(ByteBuffer input);
+
+        void reset() {
+            mChecksum = 0;
+        }
+
+        long checksum() {
+            return mChecksum;
+        }
+    }
+
+    /**
+     * 修正引用问题后的旧方式：每帧分配一个数组并复制
+     */
+    private static class QueueHandoff extends Handoff {
+        private final ArrayBlockingQueue<Frame> mQueue = new ArrayBlockingQueue<Frame>(10);
+
+        @Override
+        void offer(ByteBuffer data, int length, long ptsUs) {
+            Frame frame = new Frame();
+            frame.data = new byte[length];
+            data.get(frame.data, 0, length);
+            frame.ptsUs = ptsUs;
+            mQueue.offer(frame);
+        }
+
+        @Override
+        void poll(ByteBuffer input) {
+            Frame frame = mQueue.poll();
+            if (frame != null) {
+                input.put(frame.data);
+                mChecksum += input.get(0) + frame.ptsUs;
+            }
+        }
+    }
+
+    private static class RingHandoff extends Handoff {
+        private final PcmRingBuffer mRingBuffer = new PcmRingBuffer(FRAME_SIZE * 10, 1000000);
+
+        @Override
+        void offer(ByteBuffer data, int length, long ptsUs) {
+            mRingBuffer.write(data, length, ptsUs * FRAME_SIZE);
+        }
+
+        @Override
+        void poll(ByteBuffer input) {
+            long ptsUs = mRingBuffer.peekPresentationTimeUs();
+            if (mRingBuffer.read(input, FRAME_SIZE) > 0) {
+                mChecksum += input.get(0) + ptsUs / FRAME_SIZE;
+            }
+        }
+    }
+
+    private static class Frame {
+        byte[] data;
+        long ptsUs;
+    }
+
+    private static class Result {
+        double avgNanosPerFrame;
+        double bestNanosPerFrame;
+        double bytesPerFrame;
+
+        @Override
+        public String toString() {
+            return String.format("avg %.1f ns/frame, best %.1f ns/frame, %.1f B/frame allocated",
+                    avgNanosPerFrame, bestNanosPerFrame, bytesPerFrame);
+        }
+    }
+}
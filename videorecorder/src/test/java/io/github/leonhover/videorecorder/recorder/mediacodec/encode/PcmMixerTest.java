@@ -0,0 +1,273 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PcmMixerTest {
+
+    private static final int SAMPLE_RATE = 48000;
+    //双声道2048字节
+    private static final int BLOCK_FRAMES = 512;
+
+    @Test
+    public void mixesMicWithSourcesUsingGains() {
+        PcmMixer mixer = new PcmMixer();
+        mixer.configure(SAMPLE_RATE, 2);
+        mixer.addSource(new ConstantSource(2000, 2, -1), SAMPLE_RATE, 2, 0.5f);
+        PcmMixer.Track track = mixer.addSource(new ConstantSource(400, 1, -1), SAMPLE_RATE, 1, 1f);
+        mixer.setMicGain(0.5f);
+
+        short[] mic = filled(BLOCK_FRAMES * 2, 1000);
+        mixer.process(mic, mic.length);
+        //500 + 1000 + 400，单声道音源复制到两个声道
+        assertEquals(1900, mic[0]);
+        assertEquals(1900, mic[1]);
+        assertEquals(1900, mic[mic.length - 1]);
+
+        track.setGain(0f);
+        mic = filled(BLOCK_FRAMES * 2, 1000);
+        mixer.process(mic, mic.length);
+        assertEquals(1500, mic[0]);
+
+        assertTrue(mixer.removeSource(track));
+        assertEquals(1, mixer.getSourceCount());
+    }
+
+    @Test
+    public void limitsInsteadOfClipping() {
+        PcmMixer mixer = new PcmMixer(-3f);
+        mixer.configure(SAMPLE_RATE, 1);
+        mixer.addSource(new ConstantSource(30000, 1, -1), SAMPLE_RATE, 1, 1f);
+        mixer.addSource(new ConstantSource(-30000, 1, -1), SAMPLE_RATE, 1, 0.1f);
+
+        short[] mic = {30000, -30000, 1000, 0};
+        mixer.process(mic, mic.length);
+        //57000超过满幅，压缩到阈值与满幅之间
+        assertTrue(mic[0] > 23197 && mic[0] <= Short.MAX_VALUE);
+        //-3000正常叠加
+        assertEquals(-3000, mic[1]);
+        assertTrue(mic[2] > 23197 && mic[2] < mic[0]);
+        assertTrue(mic[3] > 23197 && mic[3] < mic[2]);
+        assertEquals(3, mixer.getLimitedCount());
+    }
+
+    @Test
+    public void resamplesSourceToRecordingRate() {
+        //44.1kHz单声道1kHz正弦混入48kHz双声道，麦克风静音
+        SineSource source = new SineSource(44100, 1000, 10000);
+        PcmMixer mixer = new PcmMixer(0f);
+        mixer.configure(SAMPLE_RATE, 2);
+        mixer.addSource(source, 44100, 1, 1f);
+
+        short[] block = new short[BLOCK_FRAMES * 2];
+        int crossings = 0;
+        int maxStep = 0;
+        int previous = 0;
+        int blocks = SAMPLE_RATE / BLOCK_FRAMES;
+        for (int b = 0; b < blocks; b++) {
+            Arrays.fill(block, (short) 0);
+            mixer.process(block, block.length);
+            for (int i = 0; i < block.length; i += 2) {
+                assertEquals(block[i], block[i + 1]);
+                int sample = block[i];
+                if (b > 0 || i > 0) {
+                    maxStep = Math.max(maxStep, Math.abs(sample - previous));
+                    if (previous < 0 && sample >= 0) {
+                        crossings++;
+                    }
+                }
+                previous = sample;
+            }
+        }
+        int outputFrames = blocks * BLOCK_FRAMES;
+        //频率不变，每秒1000个周期
+        assertEquals(1000.0 * outputFrames / SAMPLE_RATE, crossings, 2);
+        //块之间连续，相邻采样的差不超过正弦的最大斜率
+        assertTrue("max step:" + maxStep, maxStep <= 2 * Math.PI * 1000 / SAMPLE_RATE * 10000 + 2);
+        //按采样率的比例消耗音源，最多多读出一帧用于插值
+        double expectedFrames = outputFrames * 44100.0 / SAMPLE_RATE;
+        assertEquals(expectedFrames, source.framesRead, 2);
+    }
+
+    @Test
+    public void resamplerDownmixesStereoToMono() {
+        PcmResampler resampler = new PcmResampler(new ConstantSource(0, 2, -1) {
+            @Override
+            public int read(short[] buffer, int offset, int frameCount) {
+                for (int i = 0; i < frameCount; i++) {
+                    buffer[offset + i * 2] = 1000;
+                    buffer[offset + i * 2 + 1] = 3000;
+                }
+                return frameCount;
+            }
+        }, 24000, 2);
+        resampler.configure(SAMPLE_RATE, 1);
+        short[] out = new short[100];
+        assertEquals(100, resampler.read(out, 100));
+        assertEquals(2000, out[0]);
+        assertEquals(2000, out[99]);
+    }
+
+    @Test
+    public void underrunMixesSilenceAndEndedSourceIsRemoved() {
+        PcmMixer mixer = new PcmMixer();
+        mixer.configure(SAMPLE_RATE, 1);
+        //一共只有700帧
+        ConstantSource source = new ConstantSource(1000, 1, 700);
+        PcmMixer.Track track = mixer.addSource(source, SAMPLE_RATE, 1, 1f);
+
+        short[] block = new short[BLOCK_FRAMES];
+        mixer.process(block, block.length);
+        assertEquals(1000, block[BLOCK_FRAMES - 1]);
+
+        //暂时没有数据，只剩插值用的一帧，整块都是静音
+        source.isStalled = true;
+        block = new short[BLOCK_FRAMES];
+        mixer.process(block, block.length);
+        assertEquals(0, block[0]);
+        assertEquals(1, track.getUnderrunCount());
+
+        //剩下的188帧混入187帧，之后是静音，音源结束不算数据不够
+        source.isStalled = false;
+        block = new short[BLOCK_FRAMES];
+        mixer.process(block, block.length);
+        assertEquals(1000, block[0]);
+        assertEquals(1000, block[186]);
+        assertEquals(0, block[187]);
+        assertEquals(1, track.getUnderrunCount());
+        assertFalse(track.isFinished());
+
+        mixer.process(block, block.length);
+        assertTrue(track.isFinished());
+        assertEquals(0, mixer.getSourceCount());
+    }
+
+    @Test
+    public void endedSourceIsClearedOffCaptureThread() {
+        PcmMixer mixer = new PcmMixer();
+        mixer.configure(SAMPLE_RATE, 1);
+        //预热1000块之后在测量的过程中结束
+        PcmMixer.Track ended = mixer.addSource(new ConstantSource(1000, 1, BLOCK_FRAMES * 1500), SAMPLE_RATE, 1, 1f);
+        PcmMixer.Track playing = mixer.addSource(new ConstantSource(500, 1, -1), SAMPLE_RATE, 1, 1f);
+        short[] block = new short[BLOCK_FRAMES];
+        for (int i = 0; i < 1000; i++) {
+            mixer.process(block, block.length);
+        }
+
+        //音源结束时采集线程不分配内存
+        long start = allocatedBytes();
+        for (int i = 0; i < 10000; i++) {
+            Arrays.fill(block, (short) 0);
+            mixer.process(block, block.length);
+        }
+        long end = allocatedBytes();
+        if (start >= 0) {
+            assertTrue("allocated " + (end - start), (end - start) / 10000.0 < 1);
+        }
+        assertTrue(ended.isFinished());
+        assertEquals(500, block[0]);
+        assertEquals(1, mixer.getSourceCount());
+
+        //结束的音源不能再移除，添加新的音源时一并清除
+        assertFalse(mixer.removeSource(ended));
+        mixer.addSource(new ConstantSource(200, 1, -1), SAMPLE_RATE, 1, 1f);
+        assertEquals(2, mixer.getSourceCount());
+        assertTrue(mixer.removeSource(playing));
+        assertEquals(1, mixer.getSourceCount());
+    }
+
+    @Test
+    public void doesNotAllocatePerBlock() {
+        PcmMixer mixer = new PcmMixer();
+        mixer.configure(SAMPLE_RATE, 2);
+        mixer.addSource(new SineSource(44100, 440, 8000), 44100, 1, 0.8f);
+        mixer.addSource(new ConstantSource(500, 2, -1), SAMPLE_RATE, 2, 1f);
+        short[] block = new short[BLOCK_FRAMES * 2];
+        for (int i = 0; i < 1000; i++) {
+            mixer.process(block, block.length);
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < 10000; i++) {
+            mixer.process(block, block.length);
+        }
+        long end = allocatedBytes();
+        if (start >= 0) {
+            assertTrue("allocated " + (end - start), (end - start) / 10000.0 < 1);
+        }
+    }
+
+    private static short[] filled(int count, int value) {
+        short[] samples = new short[count];
+        Arrays.fill(samples, (short) value);
+        return samples;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static class ConstantSource implements PcmMixer.Source {
+        final short value;
+        final int channelCount;
+        //剩下的帧数，-1表示无限
+        int remaining;
+        boolean isStalled = false;
+
+        ConstantSource(int value, int channelCount, int frames) {
+            this.value = (short) value;
+            this.channelCount = channelCount;
+            this.remaining = frames;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int frameCount) {
+            if (isStalled) {
+                return 0;
+            }
+            if (remaining == 0) {
+                return -1;
+            }
+            int frames = remaining < 0 ? frameCount : Math.min(frameCount, remaining);
+            Arrays.fill(buffer, offset, offset + frames * channelCount, value);
+            if (remaining > 0) {
+                remaining -= frames;
+            }
+            return frames;
+        }
+    }
+
+    private static class SineSource implements PcmMixer.Source {
+        final int sampleRate;
+        final double frequency;
+        final int amplitude;
+        long framesRead = 0;
+
+        SineSource(int sampleRate, double frequency, int amplitude) {
+            this.sampleRate = sampleRate;
+            this.frequency = frequency;
+            this.amplitude = amplitude;
+        }
+
+        @Override
+        public int read(short[] buffer, int offset, int frameCount) {
+            for (int i = 0; i < frameCount; i++) {
+                buffer[offset + i] = (short) (amplitude * Math.sin(2 * Math.PI * frequency * (framesRead + i) / sampleRate));
+            }
+            framesRead += frameCount;
+            return frameCount;
+        }
+    }
+}
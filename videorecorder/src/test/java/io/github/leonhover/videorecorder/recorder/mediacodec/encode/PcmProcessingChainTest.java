@@ -0,0 +1,214 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmProcessingChainTest {
+
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void processesDirectBufferInPlace() {
+        PcmProcessingChain chain = new PcmProcessingChain();
+        chain.add(new PcmGain(2f));
+        chain.configure(SAMPLE_RATE, 2);
+
+        ByteBuffer pcm = ByteBuffer.allocateDirect(16);
+        pcm.order(ByteOrder.nativeOrder());
+        pcm.putShort(0, (short) 100).putShort(2, (short) -100).putShort(4, (short) 20000).putShort(6, (short) -20000);
+        pcm.putShort(8, (short) 7).putShort(10, (short) 7);
+        //从position开始处理，不满一组声道的采样不处理
+        pcm.position(4).limit(14);
+        chain.process(pcm, 10);
+
+        assertEquals(4, pcm.position());
+        assertEquals(100, pcm.getShort(0));
+        assertEquals(Short.MAX_VALUE, pcm.getShort(4));
+        assertEquals(Short.MIN_VALUE, pcm.getShort(6));
+        assertEquals(14, pcm.getShort(8));
+        assertEquals(14, pcm.getShort(10));
+    }
+
+    @Test
+    public void processorsRunInOrder() {
+        PcmProcessingChain chain = new PcmProcessingChain();
+        chain.configure(SAMPLE_RATE, 1);
+        PcmGain gain = new PcmGain(4f);
+        chain.add(gain);
+        chain.add(new PcmSoftLimiter(-6f));
+
+        short[] samples = {16000};
+        ByteBuffer pcm = toBuffer(samples);
+        chain.process(pcm, 2);
+        //先放大到64000再限幅，不会超过满幅
+        int limited = pcm.getShort(0);
+        assertTrue(limited > 16384 && limited <= Short.MAX_VALUE);
+
+        assertTrue(chain.remove(gain));
+        assertFalse(chain.remove(gain));
+        pcm.putShort(0, (short) 1000);
+        chain.process(pcm, 2);
+        assertEquals(1000, pcm.getShort(0));
+    }
+
+    @Test
+    public void gainRampsToNewValue() {
+        PcmGain gain = new PcmGain(1f);
+        gain.configure(SAMPLE_RATE, 2);
+        gain.setGain(2f);
+        short[] samples = filled(200, 1000);
+        gain.process(samples, samples.length);
+        //两个声道同步过渡，最后一帧到达目标
+        assertEquals(samples[0], samples[1]);
+        assertTrue(samples[0] > 1000 && samples[0] < 1100);
+        assertEquals(2000, samples[198]);
+        assertEquals(2000, samples[199]);
+
+        samples = filled(4, 1000);
+        gain.process(samples, samples.length);
+        assertEquals(2000, samples[0]);
+
+        gain.setGainDb(-6.0206f);
+        gain.reset();
+        samples = filled(2, 1000);
+        gain.process(samples, samples.length);
+        assertEquals(500, samples[0], 1);
+    }
+
+    @Test
+    public void softLimiterIsTransparentBelowThreshold() {
+        PcmSoftLimiter limiter = new PcmSoftLimiter(-6f);
+        short[] samples = {0, 1000, -1000, 16000, -16000, 30000, Short.MAX_VALUE, Short.MIN_VALUE};
+        limiter.process(samples, samples.length);
+        assertEquals(0, samples[0]);
+        assertEquals(1000, samples[1]);
+        assertEquals(-1000, samples[2]);
+        assertEquals(16000, samples[3]);
+        assertEquals(-16000, samples[4]);
+        //高于阈值的部分被压缩，并且单调
+        assertTrue(samples[5] < 30000 && samples[5] > 16423);
+        assertTrue(samples[6] > samples[5] && samples[6] < Short.MAX_VALUE);
+        assertEquals(-samples[6], samples[7], 1);
+    }
+
+    @Test
+    public void highPassRemovesDcOffset() {
+        PcmHighPassFilter filter = new PcmHighPassFilter(20f);
+        filter.configure(SAMPLE_RATE, 2);
+        short[] samples = new short[SAMPLE_RATE * 2];
+        double dcBefore = 0;
+        for (int i = 0; i < samples.length; i += 2) {
+            //左声道直流偏置加1kHz正弦，右声道只有正弦
+            double sine = 8000 * Math.sin(2 * Math.PI * 1000 * (i / 2) / SAMPLE_RATE);
+            samples[i] = (short) (3000 + sine);
+            samples[i + 1] = (short) sine;
+            dcBefore += samples[i];
+        }
+        filter.process(samples, samples.length);
+
+        //后半秒的平均值接近0，正弦的幅度基本不变
+        double dc = 0;
+        int peak = 0;
+        for (int i = samples.length / 2; i < samples.length; i += 2) {
+            dc += samples[i];
+            peak = Math.max(peak, Math.abs(samples[i + 1]));
+        }
+        dc /= samples.length / 4;
+        assertEquals(3000, dcBefore / (samples.length / 2), 10);
+        assertEquals(0, dc, 20);
+        assertEquals(8000, peak, 100);
+    }
+
+    @Test
+    public void noiseGateClosesOnSilenceAndOpensOnSignal() {
+        //阈值-40dB约327，保持10ms，释放5ms
+        PcmNoiseGate gate = new PcmNoiseGate(-40f, Float.NEGATIVE_INFINITY, 1f, 10f, 5f);
+        gate.configure(SAMPLE_RATE, 1);
+
+        short[] noise = filled(SAMPLE_RATE / 10, 100);
+        gate.process(noise, noise.length);
+        //保持时间内不衰减
+        assertEquals(100, noise[SAMPLE_RATE / 200]);
+        //保持加释放之后基本静音
+        assertEquals(0, noise[noise.length - 1]);
+        assertTrue(gate.getGain() < 0.01f);
+
+        short[] speech = filled(SAMPLE_RATE / 100, 5000);
+        gate.process(speech, speech.length);
+        //启动时间1ms，之后恢复原样
+        assertTrue(speech[0] < 5000);
+        assertEquals(5000, speech[speech.length - 1], 1);
+
+        gate.reset();
+        assertEquals(1f, gate.getGain(), 0);
+    }
+
+    @Test
+    public void fullChainDoesNotAllocatePerBlock() {
+        PcmProcessingChain chain = new PcmProcessingChain();
+        chain.add(new PcmHighPassFilter());
+        chain.add(new PcmNoiseGate());
+        chain.add(new PcmGain(PcmProcessingChain.dbToLinear(6f)));
+        chain.add(new PcmSoftLimiter());
+        chain.configure(SAMPLE_RATE, 2);
+
+        ByteBuffer block = ByteBuffer.allocateDirect(AudioRecorder.SAMPLES_PER_FRAME).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 1000; i++) {
+            fillSine(block, i);
+            chain.process(block, block.capacity());
+        }
+
+        long start = allocatedBytes();
+        for (int i = 0; i < 10000; i++) {
+            fillSine(block, i);
+            chain.process(block, block.capacity());
+        }
+        long end = allocatedBytes();
+        if (start >= 0) {
+            assertTrue("allocated " + (end - start), (end - start) / 10000.0 < 1);
+        }
+    }
+
+    /**
+     * 每隔几块静音一次，让噪声门开合
+     */
+    private static void fillSine(ByteBuffer block, int blockIndex) {
+        int amplitude = blockIndex % 4 == 0 ? 0 : 12000;
+        for (int i = 0; i < block.capacity() / 2; i++) {
+            block.putShort(i * 2, (short) (amplitude * Math.sin(i * 0.05)));
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static short[] filled(int count, int value) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) value;
+        }
+        return samples;
+    }
+
+    private static ByteBuffer toBuffer(short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(samples.length * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < samples.length; i++) {
+            buffer.putShort(i * 2, samples[i]);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.encode;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    //48kHz 双声道 16bit
+    private static final int BYTES_PER_SECOND = 48000 * 2 * 2;
+
+    @Test
+    public void wrapsAroundAndDerivesTimestampsFromByteCount() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(1000, BYTES_PER_SECOND);
+        ByteBuffer dst = ByteBuffer.allocate(1000);
+        long expectedValue = 0;
+        for (int i = 0; i < 50; i++) {
+            //时间戳带有1ms以内的抖动，在容差内，按字节数推算
+            long ptsUs = i * 768 * 1000000L / BYTES_PER_SECOND + (i % 3) * 300;
+            assertTrue(ringBuffer.write(sequence(i * 384, 384), 768, ptsUs));
+            if (i == 0) {
+                assertEquals(0, ringBuffer.peekPresentationTimeUs());
+            }
+
+            while (ringBuffer.available() > 0) {
+                dst.clear();
+                long readPts = ringBuffer.peekPresentationTimeUs();
+                assertEquals(ringBuffer.getReadBytes() * 1000000L / BYTES_PER_SECOND, readPts);
+                int length = ringBuffer.read(dst, 500);
+                dst.flip();
+                for (int j = 0; j < length / 2; j++) {
+                    assertEquals((short) expectedValue++, dst.getShort());
+                }
+            }
+        }
+        assertEquals(50 * 384, expectedValue);
+        assertEquals(0, ringBuffer.getOverflowCount());
+    }
+
+    @Test
+    public void overflowDropsWholeWriteAndMarksDiscontinuity() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(1024, BYTES_PER_SECOND);
+        assertTrue(ringBuffer.write(sequence(0, 256), 512, 0));
+        assertTrue(ringBuffer.write(sequence(256, 256), 512, 2666));
+        assertFalse(ringBuffer.write(sequence(512, 256), 512, 5333));
+        assertEquals(1, ringBuffer.getOverflowCount());
+        assertEquals(512, ringBuffer.getDroppedBytes());
+
+        ByteBuffer dst = ByteBuffer.allocate(2048);
+        assertEquals(1024, ringBuffer.read(dst, 2048));
+        assertTrue(ringBuffer.write(sequence(768, 256), 512, 8000));
+
+        //溢出后的数据使用自己的时间戳，不会与之前的数据合并读出
+        assertTrue(ringBuffer.write(sequence(1024, 256), 512, 10666));
+        assertEquals(8000, ringBuffer.peekPresentationTimeUs());
+        dst.clear();
+        assertEquals(1024, ringBuffer.read(dst, 2048));
+        dst.flip();
+        assertEquals(768, dst.getShort(0));
+    }
+
+    @Test
+    public void retriedWriteAfterOverflowKeepsExactTimestamps() {
+        //44.1kHz单声道，按字节数推算的时间戳不是整数微秒
+        int bytesPerSecond = 44100 * 2;
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(1000, bytesPerSecond);
+        assertTrue(ringBuffer.write(sequence(0, 300), 600, 0));
+        long ptsUs = 600 * 1000000L / bytesPerSecond;
+        assertFalse(ringBuffer.write(sequence(300, 300), 600, ptsUs));
+
+        ByteBuffer dst = ByteBuffer.allocate(2000);
+        assertEquals(500, ringBuffer.read(dst, 500));
+        //重新写入被丢弃的数据，时间戳紧接着之前的数据，沿用原来的标记
+        assertTrue(ringBuffer.write(sequence(300, 300), 600, ptsUs));
+        assertEquals(500 * 1000000L / bytesPerSecond, ringBuffer.peekPresentationTimeUs());
+        assertEquals(700, ringBuffer.read(dst, 2000));
+        assertEquals(-1, ringBuffer.peekPresentationTimeUs());
+    }
+
+    @Test
+    public void timestampJumpStartsNewMark() {
+        PcmRingBuffer ringBuffer = new PcmRingBuffer(4096, BYTES_PER_SECOND);
+        assertTrue(ringBuffer.write(sequence(0, 192), 384, 0));
+        //跳过了100ms
+        assertTrue(ringBuffer.write(sequence(192, 192), 384, 102000));
+        ByteBuffer dst = ByteBuffer.allocate(4096);
+        assertEquals(384, ringBuffer.read(dst, 4096));
+        assertEquals(102000, ringBuffer.peekPresentationTimeUs());
+        assertEquals(384, ringBuffer.read(dst, 4096));
+        assertEquals(-1, ringBuffer.peekPresentationTimeUs());
+    }
+
+    /**
+     * 采集线程以不同的长度持续写入递增的采样，读出线程以不同的长度读出，检查数据没有丢失、重复或者损坏
+     */
+    @Test
+    public void concurrentTransferKeepsEverySample() throws InterruptedException {
+        final int totalSamples = 4 * 1000 * 1000;
+        final PcmRingBuffer ringBuffer = new PcmRingBuffer(8192, BYTES_PER_SECOND);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer data = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+                int next = 0;
+                int round = 0;
+                while (next < totalSamples) {
+                    int samples = Math.min(totalSamples - next, 64 + (round++ * 37) % 960);
+                    data.clear();
+                    for (int i = 0; i < samples; i++) {
+                        data.putShort((short) (next + i));
+                    }
+                    data.flip();
+                    long ptsUs = next * 2L * 1000000L / BYTES_PER_SECOND;
+                    while (!ringBuffer.write(data, samples * 2, ptsUs)) {
+                        Thread.yield();
+                    }
+                    next += samples;
+                }
+            }
+        });
+        producer.start();
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+        int expected = 0;
+        int round = 0;
+        while (expected < totalSamples) {
+            dst.clear();
+            long ptsUs = ringBuffer.peekPresentationTimeUs();
+            if (ptsUs < 0) {
+                //还没有数据，peek之后写入的数据留到下一轮
+                Thread.yield();
+                continue;
+            }
+            int length = ringBuffer.read(dst, 2 * (32 + (round++ * 53) % 1500));
+            if (length == 0) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected * 2L * 1000000L / BYTES_PER_SECOND, ptsUs);
+            assertEquals(0, length % 2);
+            dst.flip();
+            for (int i = 0; i < length / 2; i++) {
+                assertEquals((short) expected++, dst.getShort());
+            }
+        }
+        producer.join();
+
+        assertEquals(totalSamples * 2L, ringBuffer.getReadBytes());
+        assertEquals(0, ringBuffer.available());
+    }
+
+    private static ByteBuffer sequence(int start, int samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples * 2).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            buffer.putShort((short) (start + i));
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,28 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AacUtilsTest {
+
+    @Test
+    public void writesAdtsHeader() {
+        byte[] header = new byte[AacUtils.ADTS_HEADER_SIZE];
+        AacUtils.writeAdtsHeader(header, AacUtils.AUDIO_OBJECT_TYPE_AAC_LC,
+                AacUtils.samplingFrequencyIndex(44100), 2, 100);
+
+        byte[] expected = {(byte) 0xFF, (byte) 0xF1, 0x50, (byte) 0x80, 0x0D, 0x7F, (byte) 0xFC};
+        assertArrayEquals(expected, header);
+    }
+
+    @Test
+    public void parsesAudioSpecificConfig() {
+        //AAC-LC 44100Hz 单声道
+        byte[] audioSpecificConfig = {0x12, 0x08};
+        assertEquals(2, AacUtils.audioObjectType(audioSpecificConfig));
+        assertEquals(4, AacUtils.samplingFrequencyIndex(audioSpecificConfig));
+        assertEquals(1, AacUtils.channelConfiguration(audioSpecificConfig));
+        assertEquals(-1, AacUtils.samplingFrequencyIndex(44000));
+    }
+}
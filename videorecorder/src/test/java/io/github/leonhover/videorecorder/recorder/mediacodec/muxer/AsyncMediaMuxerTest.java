@@ -0,0 +1,195 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncMediaMuxerTest {
+
+    private static final int SAMPLES_PER_PRODUCER = 500;
+
+    private static class CountingMuxer implements IMediaMuxer {
+        volatile int writeCount;
+        volatile int writeCountAtStop = -1;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+            writeCountAtStop = writeCount;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public int addAudioTrack(MediaFormat mediaFormat) {
+            return 1;
+        }
+
+        @Override
+        public int addVideoTrack(MediaFormat mediaFormat) {
+            return 0;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+            writeCount++;
+        }
+    }
+
+    /**
+     * 打开闸门之前写入线程一直阻塞在第一个Sample上
+     */
+    private static class GatedMuxer extends CountingMuxer {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Integer> writtenFlags = new ArrayList<Integer>();
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            //flags保存在数据的第一个字节中
+            writtenFlags.add((int) byteBuffer.get(byteBuffer.position()));
+            super.writeSampleData(trackIndex, byteBuffer, bufferInfo);
+        }
+    }
+
+    private static void openLater(final CountDownLatch gate, final long delayMs) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                gate.countDown();
+            }
+        }).start();
+    }
+
+    private static void writeVideo(IMediaMuxer muxer, int count, int flags) {
+        ByteBuffer data = ByteBuffer.allocate(16);
+        data.put(0, (byte) flags);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 16;
+        info.flags = flags;
+        for (int i = 0; i < count; i++) {
+            muxer.writeSampleData(0, data, info);
+        }
+    }
+
+    @Test
+    public void fullQueueBlocksInsteadOfDropping() {
+        GatedMuxer gatedMuxer = new GatedMuxer();
+        AsyncMediaMuxer muxer = new AsyncMediaMuxer(gatedMuxer, 4);
+        muxer.addVideoTrack(null);
+        muxer.start();
+        //写入线程阻塞的时间超过入队的超时
+        openLater(gatedMuxer.gate, 600);
+
+        long startNs = System.nanoTime();
+        writeVideo(muxer, 20, 0);
+        assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(500));
+        muxer.stop();
+
+        assertEquals(20, gatedMuxer.writeCountAtStop);
+        assertEquals(0, muxer.getDroppedCount());
+    }
+
+    @Test
+    public void dropWhenFullKeepsKeyFrames() {
+        GatedMuxer gatedMuxer = new GatedMuxer();
+        AsyncMediaMuxer muxer = new AsyncMediaMuxer(gatedMuxer, 4);
+        muxer.setDropWhenFull(true);
+        muxer.addVideoTrack(null);
+        muxer.start();
+
+        writeVideo(muxer, 1, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        writeVideo(muxer, 1, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        //队列满后丢弃非关键帧，之后的非关键帧一直丢弃到下一个关键帧
+        writeVideo(muxer, 10, 0);
+        long dropped = muxer.getDroppedCount();
+        assertTrue(dropped > 0);
+        openLater(gatedMuxer.gate, 300);
+        writeVideo(muxer, 1, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        writeVideo(muxer, 2, 0);
+        muxer.stop();
+
+        assertEquals(dropped, muxer.getDroppedCount());
+        assertEquals(15 - dropped, gatedMuxer.writeCountAtStop);
+        int keyFrames = 0;
+        for (int flags : gatedMuxer.writtenFlags) {
+            if ((flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+                keyFrames++;
+            }
+        }
+        assertEquals(2, keyFrames);
+        assertEquals(MediaCodec.BUFFER_FLAG_CODEC_CONFIG, (int) gatedMuxer.writtenFlags.get(0));
+    }
+
+    @Test
+    public void stopWritesEverySampleQueuedBeforeIt() throws InterruptedException {
+        final CountingMuxer countingMuxer = new CountingMuxer();
+        final AsyncMediaMuxer muxer = new AsyncMediaMuxer(countingMuxer, 4);
+        muxer.start();
+
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int track = 0; track < 2; track++) {
+            final int trackIndex = track;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer data = ByteBuffer.allocate(16);
+                    MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+                    info.size = 16;
+                    for (int i = 0; i < SAMPLES_PER_PRODUCER; i++) {
+                        info.presentationTimeUs = i;
+                        muxer.writeSampleData(trackIndex, data, info);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        muxer.stop();
+
+        assertEquals(2 * SAMPLES_PER_PRODUCER, countingMuxer.writeCountAtStop);
+        assertEquals(0, muxer.getDroppedCount());
+    }
+
+    @Test
+    public void samplesAfterStopAreCounted() {
+        CountingMuxer countingMuxer = new CountingMuxer();
+        AsyncMediaMuxer muxer = new AsyncMediaMuxer(countingMuxer, 4);
+        muxer.start();
+        muxer.stop();
+
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 16;
+        muxer.writeSampleData(0, ByteBuffer.allocate(16), info);
+
+        assertEquals(0, countingMuxer.writeCount);
+        assertEquals(1, muxer.getDroppedCount());
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BaseMediaMuxerTest {
+
+    private static class RecordingMuxer extends BaseMediaMuxer {
+        boolean isOpened = true;
+        boolean isStartSucceeded = true;
+        int startCount;
+        int stopCount;
+        final List<Long> written = new ArrayList<Long>();
+        final List<Integer> codecConfigs = new ArrayList<Integer>();
+
+        RecordingMuxer() {
+            super("RecordingMuxer");
+        }
+
+        @Override
+        protected boolean isOpened() {
+            return isOpened;
+        }
+
+        @Override
+        protected boolean onStart() {
+            startCount++;
+            return isStartSucceeded;
+        }
+
+        @Override
+        protected void onStop() {
+            stopCount++;
+        }
+
+        @Override
+        protected void onRelease() {
+        }
+
+        @Override
+        protected int onAddAudioTrack(MediaFormat mediaFormat) {
+            return 1;
+        }
+
+        @Override
+        protected int onAddVideoTrack(MediaFormat mediaFormat) {
+            return 0;
+        }
+
+        @Override
+        protected void onCodecConfig(int trackIndex, ByteBuffer data, int offset, int size) {
+            codecConfigs.add(trackIndex);
+        }
+
+        @Override
+        protected void onWriteSample(int trackIndex, ByteBuffer data, int offset, int size, long presentationTimeUs, int flags) {
+            assertEquals(presentationTimeUs, data.get(offset));
+            written.add(presentationTimeUs);
+        }
+    }
+
+    private static void write(IMediaMuxer muxer, int trackIndex, long presentationTimeUs, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = 1;
+        info.size = 4;
+        info.presentationTimeUs = presentationTimeUs;
+        info.flags = flags;
+        ByteBuffer data = ByteBuffer.allocate(8);
+        data.put(1, (byte) presentationTimeUs);
+        muxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Test
+    public void samplesBeforeStartAreWrittenInOrder() {
+        RecordingMuxer muxer = new RecordingMuxer();
+        assertEquals(0, muxer.addVideoTrack(null));
+        muxer.start();
+        write(muxer, 0, 1, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, 0, 2, 0);
+        assertEquals(0, muxer.startCount);
+
+        //另一个Track添加后启动
+        assertEquals(1, muxer.addAudioTrack(null));
+        assertEquals(1, muxer.startCount);
+        write(muxer, 1, 3, 0);
+        assertEquals(3, muxer.written.size());
+        assertEquals(Long.valueOf(1), muxer.written.get(0));
+        assertEquals(Long.valueOf(3), muxer.written.get(2));
+
+        muxer.stop();
+        muxer.stop();
+        assertEquals(1, muxer.stopCount);
+        write(muxer, 1, 4, 0);
+        assertEquals(3, muxer.written.size());
+    }
+
+    @Test
+    public void codecConfigIsNotWrittenAsSample() {
+        RecordingMuxer muxer = new RecordingMuxer();
+        write(muxer, 0, 1, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        assertEquals(1, muxer.codecConfigs.size());
+        muxer.addVideoTrack(null);
+        muxer.addAudioTrack(null);
+        muxer.start();
+        assertTrue(muxer.written.isEmpty());
+    }
+
+    @Test
+    public void unopenedOutputRejectsTracksAndSamples() {
+        RecordingMuxer muxer = new RecordingMuxer();
+        muxer.isOpened = false;
+        assertEquals(-1, muxer.addVideoTrack(null));
+        assertEquals(-1, muxer.addAudioTrack(null));
+        muxer.start();
+        write(muxer, 0, 1, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        assertEquals(0, muxer.startCount);
+        assertTrue(muxer.written.isEmpty());
+    }
+
+    @Test
+    public void invalidTrackAndFailedStartDropSamples() {
+        RecordingMuxer muxer = new RecordingMuxer();
+        muxer.isStartSucceeded = false;
+        write(muxer, -1, 1, 0);
+        write(muxer, 0, 2, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.addVideoTrack(null);
+        muxer.addAudioTrack(null);
+        muxer.start();
+        assertEquals(1, muxer.startCount);
+        assertTrue(muxer.written.isEmpty());
+        write(muxer, 0, 3, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        assertTrue(muxer.written.isEmpty());
+        muxer.stop();
+        assertEquals(0, muxer.stopCount);
+    }
+
+    @Test
+    public void cancelBeforeStartDropsPendingSamples() {
+        RecordingMuxer muxer = new RecordingMuxer();
+        muxer.addVideoTrack(null);
+        write(muxer, 0, 1, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.cancel();
+        muxer.addAudioTrack(null);
+        muxer.start();
+        assertEquals(0, muxer.startCount);
+        assertTrue(muxer.written.isEmpty());
+    }
+}
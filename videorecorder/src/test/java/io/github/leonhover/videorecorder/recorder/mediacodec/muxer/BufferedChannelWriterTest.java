@@ -0,0 +1,40 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import static org.junit.Assert.*;
+
+public class BufferedChannelWriterTest {
+
+    @Test
+    public void keepsOrderAcrossSmallAndLargeWrites() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(outputStream);
+        BufferedChannelWriter writer = new BufferedChannelWriter(channel, 16);
+
+        byte[] expected = new byte[100];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        ByteBuffer src = ByteBuffer.wrap(expected);
+
+        writer.write(expected, 0, 10);
+        writer.write(src, 10, 40);
+        assertEquals(0, src.position());
+        assertEquals(100, src.limit());
+        //小于缓冲区时只在缓冲区满或者flush时写出
+        writer.write(src, 50, 5);
+        assertEquals(50, outputStream.size());
+        writer.write(expected, 55, 45);
+        writer.flush();
+
+        assertArrayEquals(expected, outputStream.toByteArray());
+        assertEquals(100, writer.getWrittenBytes());
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ElementaryStreamMuxerTest {
+
+    //编码器输出的CODEC_CONFIG：Annex-B格式的SPS和PPS
+    private static final byte[] PARAMETER_SETS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1E, 0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06};
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, 1, 2, 3};
+    //没有起始码的P帧
+    private static final byte[] SLICE = {0x41, 4, 5, 6};
+    //AAC-LC 44100Hz 单声道
+    private static final byte[] ASC = {0x12, 0x08};
+    private static final byte[] AAC_FRAME = {7, 8, 9, 10, 11};
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("elementary", ".dir");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private static void write(IMediaMuxer muxer, int trackIndex, byte[] data, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = 0;
+        info.size = data.length;
+        info.flags = flags;
+        muxer.writeSampleData(trackIndex, ByteBuffer.wrap(data), info);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            output.write(part, 0, part.length);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    public void writesAnnexBWithParameterSetsBeforeIdr() throws IOException {
+        ElementaryStreamMuxer muxer = new ElementaryStreamMuxer(new File(mDir, "record.mp4").getPath());
+        int videoTrack = muxer.addVideoTrack(new MediaFormat());
+        muxer.addAudioTrack(new MediaFormat());
+        muxer.start();
+        write(muxer, videoTrack, PARAMETER_SETS, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        write(muxer, videoTrack, IDR, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, videoTrack, SLICE, 0);
+        write(muxer, videoTrack, concat(PARAMETER_SETS, IDR), MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.stop();
+        muxer.release();
+
+        //自带SPS的关键帧前不再重复参数集，没有起始码的NAL补上起始码
+        byte[] expected = concat(PARAMETER_SETS, IDR, AvcUtils.START_CODE, SLICE, PARAMETER_SETS, IDR);
+        assertArrayEquals(expected, read(new File(mDir, "record" + ElementaryStreamMuxer.VIDEO_EXTENSION)));
+    }
+
+    @Test
+    public void writesAdtsHeaderFromCodecConfig() throws IOException {
+        ElementaryStreamMuxer muxer = new ElementaryStreamMuxer(new File(mDir, "record.mp4").getPath());
+        //先添加音频，Track index按添加顺序分配
+        int audioTrack = muxer.addAudioTrack(new MediaFormat());
+        int videoTrack = muxer.addVideoTrack(new MediaFormat());
+        assertEquals(0, audioTrack);
+        assertEquals(1, videoTrack);
+        muxer.start();
+        write(muxer, audioTrack, ASC, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        write(muxer, audioTrack, AAC_FRAME, 0);
+        write(muxer, -1, AAC_FRAME, 0);
+        muxer.stop();
+        muxer.release();
+
+        byte[] header = new byte[AacUtils.ADTS_HEADER_SIZE];
+        AacUtils.writeAdtsHeader(header, AacUtils.AUDIO_OBJECT_TYPE_AAC_LC, 4, 1, AAC_FRAME.length);
+        assertArrayEquals(concat(header, AAC_FRAME), read(new File(mDir, "record" + ElementaryStreamMuxer.AUDIO_EXTENSION)));
+        assertEquals(0, new File(mDir, "record" + ElementaryStreamMuxer.VIDEO_EXTENSION).length());
+    }
+
+    @Test
+    public void replacesOnlyTheFileExtension() {
+        File subDir = new File(mDir, "v1.0");
+        assertTrue(subDir.mkdir());
+        new ElementaryStreamMuxer(new File(subDir, "record").getPath()).release();
+        new ElementaryStreamMuxer(new File(mDir, "record.2.mp4").getPath()).release();
+
+        assertTrue(new File(subDir, "record" + ElementaryStreamMuxer.VIDEO_EXTENSION).exists());
+        assertTrue(new File(subDir, "record" + ElementaryStreamMuxer.AUDIO_EXTENSION).exists());
+        assertTrue(new File(mDir, "record.2" + ElementaryStreamMuxer.VIDEO_EXTENSION).exists());
+        for (File file : subDir.listFiles()) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void unopenedOutputRejectsTracks() {
+        ElementaryStreamMuxer muxer = new ElementaryStreamMuxer(new File(mDir, "missing/record.mp4").getPath());
+        assertEquals(-1, muxer.addVideoTrack(new MediaFormat()));
+        assertEquals(-1, muxer.addAudioTrack(new MediaFormat()));
+        muxer.release();
+    }
+}
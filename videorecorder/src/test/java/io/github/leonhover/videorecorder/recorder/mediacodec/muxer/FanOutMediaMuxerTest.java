@@ -0,0 +1,248 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FanOutMediaMuxerTest {
+
+    //超过编码器等待警告的时间
+    private static final long BLOCK_SINK_DELAY_MS = 300;
+
+    private static class RecordingSink implements ISampleSink {
+        final List<Long> videoTimes = new ArrayList<Long>();
+        final List<Boolean> videoKeyFrames = new ArrayList<Boolean>();
+        final long delayMs;
+        volatile boolean isStarted;
+        volatile boolean isStopped;
+
+        RecordingSink(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public void addTrack(int trackIndex, MediaFormat mediaFormat, boolean isVideo) {
+        }
+
+        @Override
+        public void start() {
+            isStarted = true;
+        }
+
+        @Override
+        public void writeSample(SharedSample sample) {
+            assertTrue(sample.getRefCount() > 0);
+            if (sample.isVideo) {
+                videoTimes.add(sample.presentationTimeUs);
+                videoKeyFrames.add(sample.isKeyFrame());
+            }
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    @Test
+    public void slowDropSinkDoesNotStallOthers() {
+        RecordingSink fastSink = new RecordingSink(0);
+        RecordingSink slowSink = new RecordingSink(20);
+        FanOutMediaMuxer muxer = new FanOutMediaMuxer();
+        muxer.addSink(fastSink, FanOutMediaMuxer.POLICY_BLOCK);
+        muxer.addSink(slowSink, FanOutMediaMuxer.POLICY_DROP, 4);
+
+        int videoTrack = muxer.addVideoTrack(null);
+        muxer.addAudioTrack(null);
+        muxer.start();
+
+        ByteBuffer data = ByteBuffer.allocate(100);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        long begin = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            info.offset = 0;
+            info.size = 100;
+            info.presentationTimeUs = i;
+            info.flags = i % 10 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+            muxer.writeSampleData(videoTrack, data, info);
+        }
+        long writeMs = (System.nanoTime() - begin) / 1000000;
+        muxer.stop();
+
+        assertTrue("encoder stalled " + writeMs + "ms", writeMs < 500);
+        assertTrue(fastSink.isStarted && fastSink.isStopped);
+        assertEquals(100, fastSink.videoTimes.size());
+        assertTrue(muxer.getDroppedCount(slowSink) > 0);
+        assertEquals(100, slowSink.videoTimes.size() + muxer.getDroppedCount(slowSink));
+
+        //丢帧后从关键帧继续
+        for (int i = 1; i < slowSink.videoTimes.size(); i++) {
+            long time = slowSink.videoTimes.get(i);
+            if (time != slowSink.videoTimes.get(i - 1) + 1) {
+                assertTrue(slowSink.videoKeyFrames.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void blockSinkNeverDrops() {
+        RecordingSink slowSink = new RecordingSink(BLOCK_SINK_DELAY_MS);
+        FanOutMediaMuxer muxer = new FanOutMediaMuxer();
+        muxer.addSink(slowSink, FanOutMediaMuxer.POLICY_BLOCK, 1);
+
+        int videoTrack = muxer.addVideoTrack(null);
+        muxer.addAudioTrack(null);
+        muxer.start();
+
+        ByteBuffer data = ByteBuffer.allocate(100);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        for (int i = 0; i < 4; i++) {
+            info.offset = 0;
+            info.size = 100;
+            info.presentationTimeUs = i;
+            info.flags = 0;
+            muxer.writeSampleData(videoTrack, data, info);
+        }
+        muxer.stop();
+
+        assertEquals(0, muxer.getDroppedCount(slowSink));
+        assertEquals(4, slowSink.videoTimes.size());
+    }
+
+    /**
+     * 打开闸门之前阻塞在第一个Sample上，记录收到的每个Sample
+     */
+    private static class GatedSink extends RecordingSink {
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch received;
+        final CountDownLatch audioReceived = new CountDownLatch(1);
+
+        GatedSink(int expected) {
+            super(0);
+            received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void writeSample(SharedSample sample) {
+            received.countDown();
+            if (!sample.isVideo) {
+                audioReceived.countDown();
+            }
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void writeVideo(IMediaMuxer muxer, int trackIndex, long presentationTimeUs) {
+        ByteBuffer data = ByteBuffer.allocate(100);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 100;
+        info.presentationTimeUs = presentationTimeUs;
+        info.flags = MediaCodec.BUFFER_FLAG_KEY_FRAME;
+        muxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Test
+    public void waitingBlockSinkDoesNotStallOtherEncoder() throws InterruptedException {
+        final GatedSink blockSink = new GatedSink(1);
+        GatedSink dropSink = new GatedSink(1);
+        dropSink.gate.countDown();
+        final FanOutMediaMuxer muxer = new FanOutMediaMuxer();
+        muxer.addSink(blockSink, FanOutMediaMuxer.POLICY_BLOCK, 1);
+        muxer.addSink(dropSink, FanOutMediaMuxer.POLICY_DROP);
+
+        final int videoTrack = muxer.addVideoTrack(null);
+        final int audioTrack = muxer.addAudioTrack(null);
+        muxer.start();
+
+        //视频编码器：第一个Sample阻塞在Sink中，之后的Sample占满队列后等待
+        Thread videoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 3; i++) {
+                    writeVideo(muxer, videoTrack, i);
+                }
+            }
+        });
+        videoThread.start();
+        assertTrue(blockSink.received.await(1, TimeUnit.SECONDS));
+
+        //音频编码器的Sample不需要等视频编码器，先到达不会等待的Sink
+        Thread audioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeVideo(muxer, audioTrack, 100);
+            }
+        });
+        audioThread.start();
+        assertTrue(dropSink.audioReceived.await(1, TimeUnit.SECONDS));
+
+        blockSink.gate.countDown();
+        videoThread.join();
+        audioThread.join();
+        muxer.stop();
+        assertEquals(0, muxer.getDroppedCount(blockSink));
+        assertEquals(0, muxer.getDroppedCount(dropSink));
+    }
+
+    @Test
+    public void stopBeforeStartDoesNotStopSinks() {
+        RecordingSink sink = new RecordingSink(0);
+        FanOutMediaMuxer muxer = new FanOutMediaMuxer();
+        muxer.addSink(sink, FanOutMediaMuxer.POLICY_BLOCK, 1);
+
+        int videoTrack = muxer.addVideoTrack(null);
+        ByteBuffer data = ByteBuffer.allocate(100);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 100;
+        muxer.writeSampleData(videoTrack, data, info);
+        muxer.stop();
+        muxer.addAudioTrack(null);
+        muxer.start();
+        muxer.writeSampleData(videoTrack, data, info);
+
+        assertFalse(sink.isStarted);
+        assertFalse(sink.isStopped);
+        assertTrue(sink.videoTimes.isEmpty());
+    }
+
+    @Test
+    public void samplesAreRecycled() {
+        SharedSample.Pool pool = new SharedSample.Pool(2, 16);
+        SharedSample first = pool.acquire();
+        first.retain();
+        first.release();
+        assertEquals(0, pool.getIdleCount());
+        first.release();
+        assertEquals(1, pool.getIdleCount());
+        assertSame(first, pool.acquire());
+        assertEquals(1, pool.getAllocatedCount());
+    }
+}
@@ -0,0 +1,163 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 检查FragmentedMp4Writer输出的Box结构
+ */
+public class FragmentedMp4WriterTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+    private static final byte[] ASC = {0x12, 0x10};
+
+    private File mFile;
+    private RandomAccessFile mRandomAccessFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("fmp4", ".mp4");
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mRandomAccessFile.close();
+        mFile.delete();
+    }
+
+    @Test
+    public void ftypAndMoovAreWrittenOnStart() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        writer.start();
+
+        ByteBuffer file = readFile();
+        byte[] expectedFtyp = {
+                0, 0, 0, 0x1C, 'f', 't', 'y', 'p',
+                'i', 's', 'o', '6', 0, 0, 0, 0,
+                'i', 's', 'o', '6', 'i', 's', 'o', 'm', 'i', 's', 'o', '2', 'a', 'v', 'c', '1', 'm', 'p', '4', '1'};
+        expectedFtyp[3] = (byte) expectedFtyp.length;
+        assertArrayEquals(expectedFtyp, bytes(file, 0, expectedFtyp.length));
+
+        assertEquals("moov", type(file, expectedFtyp.length));
+        assertEquals(file.limit(), expectedFtyp.length + file.getInt(expectedFtyp.length));
+
+        int avcC = indexOf(file, "avcC");
+        byte[] expectedAvcC = {
+                0, 0, 0, 0x19, 'a', 'v', 'c', 'C',
+                1, 0x42, (byte) 0xC0, 0x1E, (byte) 0xFF, (byte) 0xE1,
+                0, 6, 0x67, 0x42, (byte) 0xC0, 0x1E, (byte) 0xDA, 0x02,
+                1, 0, 4, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80};
+        expectedAvcC[3] = (byte) expectedAvcC.length;
+        assertArrayEquals(expectedAvcC, bytes(file, avcC, expectedAvcC.length));
+
+        int esds = indexOf(file, "esds");
+        assertTrue(esds > 0);
+        assertTrue(indexOf(file, "trex") > 0);
+    }
+
+    @Test
+    public void samplesAreSplitIntoFragmentsAtKeyFrames() throws IOException {
+        FragmentedMp4Writer writer = newWriter();
+        writer.start();
+        int moovEnd = (int) mRandomAccessFile.length();
+
+        //0ms关键帧，500ms普通帧，1000ms关键帧开始新的片段
+        writer.writeSample(0, annexB(new byte[]{0x65, 1, 2, 3}), 0, true);
+        writer.writeSample(1, ByteBuffer.wrap(new byte[]{9, 9}), 10000, true);
+        writer.writeSample(0, annexB(new byte[]{0x41, 4, 5}), 500000, false);
+        writer.writeSample(1, ByteBuffer.wrap(new byte[]{8, 8, 8}), 600000, true);
+        writer.writeSample(0, annexB(new byte[]{0x65, 6}), 1000000, true);
+        writer.finish();
+        assertEquals(2, writer.getFragmentCount());
+
+        ByteBuffer file = readFile();
+        int position = moovEnd;
+        int[] sequence = {1, 2};
+        for (int fragment = 0; fragment < 2; fragment++) {
+            assertEquals("moof", type(file, position));
+            int moofSize = file.getInt(position);
+            int mfhd = indexOf(file, "mfhd", position);
+            assertEquals(sequence[fragment], file.getInt(mfhd + 12));
+            int mdat = position + moofSize;
+            assertEquals("mdat", type(file, mdat));
+            position = mdat + file.getInt(mdat);
+        }
+        assertEquals(file.limit(), position);
+
+        //第一个片段：视频两帧，音频两帧
+        int trun = indexOf(file, "trun", moovEnd);
+        assertEquals(0x000701, file.getInt(trun + 8) & 0xFFFFFF);
+        assertEquals(2, file.getInt(trun + 12));
+        int dataOffset = file.getInt(trun + 16);
+        //duration, size, flags
+        assertEquals(45000, file.getInt(trun + 20));
+        assertEquals(8, file.getInt(trun + 24));
+        assertEquals(0x02000000, file.getInt(trun + 28));
+        assertEquals(7, file.getInt(trun + 36));
+        assertEquals(0x01010000, file.getInt(trun + 40));
+
+        //起始码转换为4字节长度
+        byte[] expectedVideo = {0, 0, 0, 4, 0x65, 1, 2, 3, 0, 0, 0, 3, 0x41, 4, 5};
+        assertArrayEquals(expectedVideo, bytes(file, moovEnd + dataOffset, expectedVideo.length));
+
+        int audioTrun = indexOf(file, "trun", trun + 8);
+        int audioTfdt = indexOf(file, "tfdt", trun + 8);
+        assertEquals(441, file.getLong(audioTfdt + 12));
+        assertArrayEquals(new byte[]{9, 9, 8, 8, 8}, bytes(file, moovEnd + file.getInt(audioTrun + 16), 5));
+    }
+
+    private FragmentedMp4Writer newWriter() {
+        FragmentedMp4Writer writer = new FragmentedMp4Writer(mRandomAccessFile.getChannel(), 1000);
+        assertEquals(0, writer.addTrack(Mp4TrackFormat.createVideo(320, 240, SPS, PPS)));
+        assertEquals(1, writer.addTrack(Mp4TrackFormat.createAudio(44100, 1, ASC)));
+        return writer;
+    }
+
+    private ByteBuffer readFile() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) mRandomAccessFile.length());
+        mRandomAccessFile.getChannel().read(buffer, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ByteBuffer annexB(byte[] nal) {
+        ByteBuffer buffer = ByteBuffer.allocate(nal.length + 4);
+        buffer.putInt(1).put(nal).flip();
+        return buffer;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = buffer.get(offset + i);
+        }
+        return ret;
+    }
+
+    private static String type(ByteBuffer buffer, int boxStart) {
+        return new String(bytes(buffer, boxStart + 4, 4));
+    }
+
+    private static int indexOf(ByteBuffer buffer, String type) {
+        return indexOf(buffer, type, 0);
+    }
+
+    private static int indexOf(ByteBuffer buffer, String type, int from) {
+        for (int i = from; i + 4 <= buffer.limit(); i++) {
+            if (type.equals(new String(bytes(buffer, i, 4)))) {
+                return i - 4;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,120 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class InterleavingMediaMuxerTest {
+
+    private static final int WINDOW_MS = 1000;
+
+    /**
+     * 打开闸门之前第一次写入一直阻塞，记录写入的时间戳
+     */
+    private static class GatedMuxer implements IMediaMuxer {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<Long> written = Collections.synchronizedList(new ArrayList<Long>());
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public int addAudioTrack(MediaFormat mediaFormat) {
+            return 1;
+        }
+
+        @Override
+        public int addVideoTrack(MediaFormat mediaFormat) {
+            return 0;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+            entered.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            //时间戳保存在数据的第一个字节中
+            written.add((long) byteBuffer.get(byteBuffer.position()));
+        }
+    }
+
+    private static void write(IMediaMuxer muxer, int trackIndex, long presentationTimeUs) {
+        ByteBuffer data = ByteBuffer.allocate(4);
+        data.put(0, (byte) presentationTimeUs);
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = 4;
+        info.presentationTimeUs = presentationTimeUs;
+        muxer.writeSampleData(trackIndex, data, info);
+    }
+
+    @Test
+    public void invalidTrackIsDropped() {
+        GatedMuxer gatedMuxer = new GatedMuxer();
+        gatedMuxer.gate.countDown();
+        InterleavingMediaMuxer muxer = new InterleavingMediaMuxer(gatedMuxer, WINDOW_MS);
+        write(muxer, -1, 1);
+        write(muxer, 2, 2);
+        muxer.stop();
+        assertTrue(gatedMuxer.written.isEmpty());
+    }
+
+    @Test
+    public void slowDownstreamDoesNotBlockOtherTrack() throws InterruptedException {
+        final GatedMuxer gatedMuxer = new GatedMuxer();
+        final InterleavingMediaMuxer muxer = new InterleavingMediaMuxer(gatedMuxer, WINDOW_MS);
+
+        write(muxer, 1, 0);
+        //两个Track都到达后第一个Sample可以输出，视频线程阻塞在被包装的Muxer中
+        Thread videoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write(muxer, 0, 1);
+            }
+        });
+        videoThread.start();
+        assertTrue(gatedMuxer.entered.await(1, TimeUnit.SECONDS));
+
+        //音频线程不需要等待视频线程的写入
+        long startNs = System.nanoTime();
+        for (int i = 2; i < 10; i++) {
+            write(muxer, 1, i);
+        }
+        assertTrue(System.nanoTime() - startNs < TimeUnit.MILLISECONDS.toNanos(500));
+
+        gatedMuxer.gate.countDown();
+        videoThread.join();
+        muxer.stop();
+
+        assertEquals(10, gatedMuxer.written.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Long.valueOf(i), gatedMuxer.written.get(i));
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 测量Sample日志的开销：60fps 4Mbps视频加44.1kHz AAC音频，比较不写日志与不同同步间隔下写日志的耗时。
+ * 录制时长默认60秒，可以通过-Djournal.benchmark.seconds修改。需要时去掉@Ignore运行。
+ */
+@Ignore("benchmark")
+public class JournalOverheadBenchmark {
+
+    private static final int VIDEO_FRAME_RATE = 60;
+    private static final int VIDEO_BIT_RATE = 4 * 1000 * 1000;
+    private static final int KEY_FRAME_INTERVAL = VIDEO_FRAME_RATE * 2;
+    private static final int AUDIO_SAMPLE_RATE = 44100;
+    private static final int AUDIO_FRAME_SIZE = 372;//128kbps
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1F, 0x01};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06};
+    private static final byte[] ASC = {0x12, 0x08};
+
+    @Test
+    public void measureJournalOverhead() throws IOException {
+        int seconds = Integer.getInteger("journal.benchmark.seconds", 60);
+        //预热
+        run(seconds, false, 0);
+
+        long baseline = run(seconds, false, 0);
+        System.out.println("journal benchmark " + seconds + "s: no journal " + baseline / 1000000 + "ms");
+        int[] syncIntervals = {0, 120, 30, 1};
+        for (int syncInterval : syncIntervals) {
+            long elapsed = run(seconds, true, syncInterval);
+            System.out.println("journal benchmark " + seconds + "s: journal sync every " + syncInterval + " samples "
+                    + elapsed / 1000000 + "ms, overhead " + (elapsed - baseline) / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * @return 写入耗时，单位为纳秒
+     */
+    private static long run(int seconds, boolean isJournalEnabled, int syncInterval) throws IOException {
+        File file = File.createTempFile("journal_benchmark", ".mp4");
+        File journal = Mp4JournalRepair.getJournalFile(file.getPath());
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        RandomAccessFile journalOutput = isJournalEnabled ? new RandomAccessFile(journal, "rw") : null;
+        try {
+            JournaledMp4Writer writer = new JournaledMp4Writer(output.getChannel(),
+                    isJournalEnabled ? new SampleJournal(journalOutput.getChannel()) : null, syncInterval);
+            writer.addTrack(Mp4TrackFormat.createVideo(1280, 720, SPS, PPS));
+            writer.addTrack(Mp4TrackFormat.createAudio(AUDIO_SAMPLE_RATE, 2, ASC));
+
+            int videoFrameSize = VIDEO_BIT_RATE / 8 / VIDEO_FRAME_RATE;
+            ByteBuffer video = ByteBuffer.allocateDirect(videoFrameSize * 4);
+            ByteBuffer audio = ByteBuffer.allocateDirect(AUDIO_FRAME_SIZE);
+            long durationUs = seconds * 1000000L;
+            long audioFrameUs = 1024 * 1000000L / AUDIO_SAMPLE_RATE;
+
+            long start = System.nanoTime();
+            writer.start();
+            int videoIndex = 0;
+            long audioTimeUs = 0;
+            while (true) {
+                long videoTimeUs = videoIndex * 1000000L / VIDEO_FRAME_RATE;
+                if (videoTimeUs >= durationUs && audioTimeUs >= durationUs) {
+                    break;
+                }
+                if (videoTimeUs <= audioTimeUs) {
+                    boolean isKeyFrame = videoIndex % KEY_FRAME_INTERVAL == 0;
+                    int size = isKeyFrame ? videoFrameSize * 4 : videoFrameSize;
+                    video.clear();
+                    video.put(AvcUtils.START_CODE).put((byte) (isKeyFrame ? 0x65 : 0x41));
+                    video.position(size).flip();
+                    writer.writeSample(0, video, videoTimeUs, isKeyFrame);
+                    videoIndex++;
+                } else {
+                    audio.clear();
+                    writer.writeSample(1, audio, audioTimeUs, true);
+                    audioTimeUs += audioFrameUs;
+                }
+            }
+            writer.finish();
+            long elapsed = System.nanoTime() - start;
+
+            assertEquals(seconds * VIDEO_FRAME_RATE, videoIndex);
+            return elapsed;
+        } finally {
+            output.close();
+            if (journalOutput != null) {
+                journalOutput.close();
+            }
+            file.delete();
+            journal.delete();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class JournaledMp4MuxerTest {
+
+    private File mFile;
+    private File mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("journaled", ".mp4");
+        mJournal = Mp4JournalRepair.getJournalFile(mFile.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+        mJournal.delete();
+    }
+
+    @Test
+    public void missingCsdRejectsTracks() {
+        JournaledMp4Muxer muxer = new JournaledMp4Muxer(mFile.getPath(), 0);
+        assertEquals(-1, muxer.addAudioTrack(new MediaFormat()));
+        assertEquals(-1, muxer.addVideoTrack(new MediaFormat()));
+        muxer.release();
+    }
+
+    @Test
+    public void cancelBeforeStartDeletesJournal() {
+        JournaledMp4Muxer muxer = new JournaledMp4Muxer(mFile.getPath(), 0);
+        assertTrue(mJournal.exists());
+        muxer.start();
+        muxer.cancel();
+        muxer.release();
+        assertFalse(mJournal.exists());
+        assertFalse(Mp4JournalRepair.findInterrupted(mFile.getParentFile()).contains(mFile));
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class M3u8PlaylistWriterTest {
+
+    @Test
+    public void listsFinishedSegmentsAndEndsOnFinish() throws IOException {
+        File file = File.createTempFile("playlist", ".m3u8");
+        try {
+            M3u8PlaylistWriter writer = new M3u8PlaylistWriter(file);
+            writer.addSegment("video_000.mp4", 4.0);
+            writer.addSegment("video_001.mp4", 4.2);
+
+            String playlist = read(file);
+            assertTrue(playlist.startsWith("#EXTM3U\n"));
+            assertTrue(playlist.contains("#EXT-X-TARGETDURATION:5\n"));
+            assertTrue(playlist.contains("#EXTINF:4.000,\nvideo_000.mp4\n#EXTINF:4.200,\nvideo_001.mp4\n"));
+            assertFalse(playlist.contains("#EXT-X-ENDLIST"));
+
+            writer.finish();
+            assertTrue(read(file).endsWith("video_001.mp4\n#EXT-X-ENDLIST\n"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < bytes.length) {
+                read += inputStream.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,121 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 比较faststart与直接拷贝整个文件的耗时和吞吐量（MB/s），faststart的额外开销只有读取和修改moov。
+ * 文件大小默认4096MB，相当于1080p 16Mbps录制半小时，偏移超过32位，会覆盖co64的路径；
+ * 可以通过-Dfaststart.benchmark.mb修改，例如-Dfaststart.benchmark.mb=128快速运行。
+ * mdat使用稀疏文件生成，两个输出文件不是稀疏的，需要约两倍文件大小的磁盘空间。
+ * 需要时去掉@Ignore运行。
+ */
+@Ignore("benchmark")
+public class Mp4FastStartBenchmark {
+
+    private static final long MB = 1024 * 1024;
+    private static final int CHUNK_COUNT = 100000;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    //第一轮用于预热
+    private static final int ROUNDS = 3;
+    private static final long DEFAULT_SIZE_MB = 4096;
+    private static final long MAX_STCO_OFFSET = 0xFFFFFFFFL;
+
+    @Test
+    public void compareWithPlainCopy() throws IOException {
+        long mdatSize = Long.getLong("faststart.benchmark.mb", DEFAULT_SIZE_MB) * MB;
+        File input = File.createTempFile("faststart_benchmark", ".mp4");
+        File output = new File(input.getPath() + ".out");
+        File copyOutput = new File(input.getPath() + ".copy");
+        try {
+            long fileSize = createMoovAtEnd(input, mdatSize);
+            //取每种方式最快的一次；每轮都写入新文件
+            long fastStartMs = Long.MAX_VALUE;
+            long copyMs = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                output.delete();
+                long start = System.nanoTime();
+                assertTrue(Mp4FastStart.process(input, output));
+                fastStartMs = Math.min(fastStartMs, (System.nanoTime() - start) / 1000000);
+                //移动moov后偏移超过32位时stco升级为co64，每个条目多4个字节
+                assertTrue(output.length() == fileSize || output.length() == fileSize + CHUNK_COUNT * 4L);
+
+                copyOutput.delete();
+                start = System.nanoTime();
+                plainCopy(input, copyOutput);
+                copyMs = Math.min(copyMs, (System.nanoTime() - start) / 1000000);
+                assertEquals(fileSize, copyOutput.length());
+            }
+
+            System.out.println("faststart " + (fileSize / MB) + "MB: faststart " + fastStartMs
+                    + "ms " + throughput(fileSize, fastStartMs) + "MB/s, plain copy " + copyMs
+                    + "ms " + throughput(fileSize, copyMs) + "MB/s");
+        } finally {
+            input.delete();
+            output.delete();
+            copyOutput.delete();
+        }
+    }
+
+    private static long throughput(long bytes, long elapsedMs) {
+        return bytes * 1000 / MB / Math.max(1, elapsedMs);
+    }
+
+    private static long createMoovAtEnd(File file, long mdatSize) throws IOException {
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(1024);
+        builder.startBox("ftyp").putFourCC("isom").putInt(0x200).putFourCC("isom").endBox();
+        int ftypSize = builder.size();
+        builder.putInt(1).putFourCC("mdat").putLong(mdatSize + 16);
+        ByteBuffer header = builder.buffer();
+
+        builder = new Mp4BoxBuilder(CHUNK_COUNT * 8 + 1024);
+        builder.startBox("moov").startBox("trak").startBox("mdia").startBox("minf").startBox("stbl");
+        long chunkSize = mdatSize / CHUNK_COUNT;
+        //与MediaMuxer一样，偏移超过32位时使用co64
+        boolean isCo64 = ftypSize + 16 + (CHUNK_COUNT - 1) * chunkSize > MAX_STCO_OFFSET;
+        builder.startFullBox(isCo64 ? "co64" : "stco", 0, 0).putInt(CHUNK_COUNT);
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            long offset = ftypSize + 16 + i * chunkSize;
+            if (isCo64) {
+                builder.putLong(offset);
+            } else {
+                builder.putInt((int) offset);
+            }
+        }
+        builder.endBox().endBox().endBox().endBox().endBox().endBox();
+        ByteBuffer moov = builder.buffer();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.getChannel().write(header, 0);
+            long moovStart = ftypSize + 16 + mdatSize;
+            randomAccessFile.setLength(moovStart);
+            randomAccessFile.getChannel().write(moov, moovStart);
+            return randomAccessFile.length();
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void plainCopy(File input, File output) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(input, "r");
+        RandomAccessFile out = new RandomAccessFile(output, "rw");
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
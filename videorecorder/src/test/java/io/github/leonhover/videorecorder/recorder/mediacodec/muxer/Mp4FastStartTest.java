@@ -0,0 +1,145 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class Mp4FastStartTest {
+
+    private static final int CHUNK_COUNT = 4;
+    private static final int CHUNK_SIZE = 25;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("faststart", ".mp4");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /**
+     * ftyp + mdat + moov，moov中的stco指向mdat中的每个chunk
+     */
+    private static byte[] buildMoovAtEnd() {
+        Mp4BoxBuilder builder = new Mp4BoxBuilder(1024);
+        builder.startBox("ftyp").putFourCC("isom").putInt(0x200).putFourCC("isom").endBox();
+        int mdatStart = builder.size();
+        builder.startBox("mdat");
+        for (int i = 0; i < CHUNK_COUNT * CHUNK_SIZE; i++) {
+            builder.putByte(i);
+        }
+        builder.endBox();
+
+        builder.startBox("moov");
+        builder.startFullBox("mvhd", 0, 0).putZeros(96).endBox();
+        builder.startBox("trak").startBox("mdia").startBox("minf").startBox("stbl");
+        builder.startFullBox("stsd", 0, 0).putInt(0).endBox();
+        builder.startFullBox("stco", 0, 0).putInt(CHUNK_COUNT);
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            builder.putInt(mdatStart + 8 + i * CHUNK_SIZE);
+        }
+        builder.endBox();
+        builder.endBox().endBox().endBox().endBox();
+        builder.endBox();
+
+        ByteBuffer buffer = builder.buffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static int indexOf(byte[] data, String type) {
+        for (int i = 0; i + 4 <= data.length; i++) {
+            if (data[i] == type.charAt(0) && data[i + 1] == type.charAt(1)
+                    && data[i + 2] == type.charAt(2) && data[i + 3] == type.charAt(3)) {
+                return i - 4;
+            }
+        }
+        return -1;
+    }
+
+    private void write(byte[] data) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(0);
+            file.write(data);
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] read() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            byte[] data = new byte[(int) file.length()];
+            file.readFully(data);
+            return data;
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void movesMoovBeforeMdatAndShiftsChunkOffsets() throws IOException {
+        byte[] original = buildMoovAtEnd();
+        write(original);
+
+        assertTrue(Mp4FastStart.process(mFile));
+        byte[] relocated = read();
+        assertEquals(original.length, relocated.length);
+
+        int ftypSize = ByteBuffer.wrap(relocated).getInt(0);
+        assertEquals(ftypSize, indexOf(relocated, "moov"));
+        assertTrue(indexOf(relocated, "moov") < indexOf(relocated, "mdat"));
+
+        ByteBuffer buffer = ByteBuffer.wrap(relocated);
+        int stco = indexOf(relocated, "stco");
+        assertEquals(CHUNK_COUNT, buffer.getInt(stco + 12));
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            int offset = buffer.getInt(stco + 16 + 4 * i);
+            //chunk的第一个字节
+            assertEquals((byte) (i * CHUNK_SIZE), relocated[offset]);
+        }
+
+        //已经是faststart
+        assertFalse(Mp4FastStart.process(mFile));
+        assertArrayEquals(relocated, read());
+    }
+
+    @Test
+    public void upgradesStcoToCo64WhenOffsetsOverflow() {
+        byte[] original = buildMoovAtEnd();
+        int moovStart = indexOf(original, "moov");
+        ByteBuffer moov = ByteBuffer.wrap(original, moovStart, original.length - moovStart).slice();
+
+        long shift = 0xFFFFFFF0L;
+        ByteBuffer rebuilt = Mp4FastStart.rebuildWithCo64(moov, shift);
+        assertEquals(moov.limit() + 4 * CHUNK_COUNT, rebuilt.remaining());
+        assertEquals(rebuilt.remaining(), rebuilt.getInt(0));
+
+        byte[] bytes = new byte[rebuilt.remaining()];
+        rebuilt.duplicate().get(bytes);
+        assertEquals(-1, indexOf(bytes, "stco"));
+        int co64 = indexOf(bytes, "co64");
+        int stco = indexOf(original, "stco");
+        ByteBuffer originalBuffer = ByteBuffer.wrap(original);
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            assertEquals(originalBuffer.getInt(stco + 16 + 4 * i) + shift, rebuilt.getLong(co64 + 16 + 8 * i));
+        }
+        //父box的大小也要更新
+        int stbl = indexOf(bytes, "stbl");
+        int originalStbl = indexOf(original, "stbl");
+        assertEquals(originalBuffer.getInt(originalStbl) + 4 * CHUNK_COUNT, rebuilt.getInt(stbl));
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class Mp4JournalRepairTest {
+
+    private static final byte[] SPS = {0x67, 0x42, (byte) 0x80, 0x1E, 0x01};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x06};
+    private static final byte[] ASC = {0x12, 0x10};
+
+    private static final int VIDEO_FRAME_SIZE = 1000;
+    private static final int AUDIO_FRAME_SIZE = 200;
+
+    private File mFile;
+    private File mJournal;
+    private RandomAccessFile mOutput;
+    private RandomAccessFile mJournalOutput;
+    private JournaledMp4Writer mWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("journal", ".mp4");
+        mJournal = Mp4JournalRepair.getJournalFile(mFile.getPath());
+        mOutput = new RandomAccessFile(mFile, "rw");
+        mJournalOutput = new RandomAccessFile(mJournal, "rw");
+        mWriter = new JournaledMp4Writer(mOutput.getChannel(), new SampleJournal(mJournalOutput.getChannel()), 0);
+        mWriter.addTrack(Mp4TrackFormat.createVideo(640, 480, SPS, PPS));
+        mWriter.addTrack(Mp4TrackFormat.createAudio(44100, 1, ASC));
+        mWriter.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mOutput.close();
+        mJournalOutput.close();
+        mFile.delete();
+        mJournal.delete();
+    }
+
+    /**
+     * 25fps视频，每个视频帧后面跟一个音频帧，每15帧一个关键帧
+     */
+    private void writeSamples(int from, int count) throws IOException {
+        ByteBuffer video = ByteBuffer.allocate(4 + VIDEO_FRAME_SIZE);
+        ByteBuffer audio = ByteBuffer.allocate(AUDIO_FRAME_SIZE);
+        for (int i = from; i < from + count; i++) {
+            video.clear();
+            video.put(AvcUtils.START_CODE).put((byte) (i % 15 == 0 ? 0x65 : 0x41));
+            while (video.hasRemaining()) {
+                video.put((byte) i);
+            }
+            video.flip();
+            mWriter.writeSample(0, video, i * 40000L, i % 15 == 0);
+
+            audio.clear();
+            while (audio.hasRemaining()) {
+                audio.put((byte) i);
+            }
+            audio.flip();
+            mWriter.writeSample(1, audio, i * 23220L, true);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int indexOf(byte[] data, String type, int from) {
+        for (int i = from; i + 4 <= data.length; i++) {
+            if (data[i] == type.charAt(0) && data[i + 1] == type.charAt(1)
+                    && data[i + 2] == type.charAt(2) && data[i + 3] == type.charAt(3)) {
+                return i - 4;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void repairedFileEqualsCleanlyFinishedFile() throws IOException {
+        writeSamples(0, 60);
+        mWriter.sync();
+        File crashed = new File(mFile.getPath() + ".crashed");
+        FileOutputStream copy = new FileOutputStream(crashed);
+        try {
+            copy.write(read(mFile));
+        } finally {
+            copy.close();
+        }
+
+        try {
+            mWriter.finish();
+            assertTrue(Mp4JournalRepair.repair(crashed, mJournal));
+            assertArrayEquals(read(mFile), read(crashed));
+            assertFalse(mJournal.exists());
+        } finally {
+            crashed.delete();
+        }
+    }
+
+    @Test
+    public void journalNeverPointsPastWrittenData() throws IOException {
+        //日志缓冲区写满多次，MP4缓冲区还没有满
+        for (int i = 0; i < 300; i++) {
+            writeSamples(i, 1);
+            SampleJournal.Recovery recovery = SampleJournal.read(mJournal, Long.MAX_VALUE);
+            assertTrue(recovery.dataEnd <= mOutput.length());
+        }
+        assertTrue(SampleJournal.read(mJournal, Long.MAX_VALUE).sampleCount > 0);
+    }
+
+    @Test
+    public void dropsSampleCutOffByCrash() throws IOException {
+        writeSamples(0, 30);
+        mWriter.sync();
+        long length = mOutput.length();
+        //最后一个音频帧只写了一半
+        mOutput.setLength(length - AUDIO_FRAME_SIZE / 2);
+        //日志最后一条记录也只写了一半
+        mJournalOutput.seek(mJournalOutput.length());
+        mJournalOutput.write(new byte[SampleJournal.RECORD_SIZE / 2]);
+
+        assertTrue(Mp4JournalRepair.findInterrupted(mFile.getParentFile()).contains(mFile));
+        assertTrue(Mp4JournalRepair.repair(mFile));
+
+        byte[] repaired = read(mFile);
+        ByteBuffer buffer = ByteBuffer.wrap(repaired);
+        //顶层box依次是ftyp free mdat moov，并且正好覆盖整个文件
+        int position = 0;
+        String[] types = {"ftyp", "free", "mdat", "moov"};
+        for (String type : types) {
+            assertEquals(type, new String(repaired, position + 4, 4, "US-ASCII"));
+            position += buffer.getInt(position);
+        }
+        assertEquals(repaired.length, position);
+        int moov = indexOf(repaired, "moov", 0);
+        assertEquals(length - AUDIO_FRAME_SIZE, moov);
+
+        //视频30帧，音频29帧
+        int videoStsz = indexOf(repaired, "stsz", moov);
+        int audioStsz = indexOf(repaired, "stsz", videoStsz + 8);
+        assertEquals(30, buffer.getInt(videoStsz + 16));
+        assertEquals(4 + VIDEO_FRAME_SIZE, buffer.getInt(videoStsz + 20));
+        assertEquals(29, buffer.getInt(audioStsz + 16));
+
+        //关键帧0和15
+        int stss = indexOf(repaired, "stss", moov);
+        assertEquals(2, buffer.getInt(stss + 12));
+        assertEquals(16, buffer.getInt(stss + 20));
+
+        //stco指向每一帧的长度前缀
+        int stco = indexOf(repaired, "stco", moov);
+        assertEquals(30, buffer.getInt(stco + 12));
+        int secondFrame = buffer.getInt(stco + 20);
+        assertEquals(VIDEO_FRAME_SIZE, buffer.getInt(secondFrame));
+        assertEquals(0x41, repaired[secondFrame + 4]);
+        assertEquals(1, repaired[secondFrame + 5]);
+
+        //25fps，所有视频帧的时长都是3600
+        int stts = indexOf(repaired, "stts", moov);
+        assertEquals(1, buffer.getInt(stts + 12));
+        assertEquals(30, buffer.getInt(stts + 16));
+        assertEquals(3600, buffer.getInt(stts + 20));
+
+        assertFalse(mJournal.exists());
+    }
+
+    @Test
+    public void returnsFalseWithoutSamples() throws IOException {
+        long length = mOutput.length();
+        assertFalse(Mp4JournalRepair.repair(mFile));
+        assertEquals(length, mFile.length());
+        assertTrue(mJournal.exists());
+    }
+
+    @Test
+    public void deletesJournalWithoutHeader() throws IOException {
+        //录制开始前被中断，日志是空的
+        mJournalOutput.setLength(0);
+        assertTrue(Mp4JournalRepair.findInterrupted(mFile.getParentFile()).contains(mFile));
+        assertFalse(Mp4JournalRepair.repair(mFile));
+        assertFalse(mJournal.exists());
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PendingSampleQueueTest {
+
+    @Test
+    public void drainsInArrivalOrderWithCopiedData() {
+        PendingSampleQueue queue = new PendingSampleQueue(8, 1024);
+        ByteBuffer data = ByteBuffer.allocate(4);
+        for (int i = 0; i < 3; i++) {
+            data.putInt(0, i);
+            assertTrue(queue.add(i % 2, data, 0, 4, i * 1000, 0));
+        }
+
+        final List<Integer> values = new ArrayList<Integer>();
+        queue.drain(new SampleRingBuffer.Consumer() {
+            @Override
+            public void onSample(MediaSample sample) {
+                assertEquals(values.size() % 2, sample.trackIndex);
+                assertEquals(values.size() * 1000, sample.presentationTimeUs);
+                values.add(sample.data().getInt(0));
+            }
+        });
+        assertEquals(3, values.size());
+        assertEquals(Integer.valueOf(0), values.get(0));
+        assertEquals(Integer.valueOf(2), values.get(2));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void dropsWhenBoundsAreExceeded() {
+        PendingSampleQueue queue = new PendingSampleQueue(2, 10);
+        ByteBuffer data = ByteBuffer.allocate(8);
+        assertTrue(queue.add(0, data, 0, 8, 0, 0));
+        assertFalse(queue.add(0, data, 0, 8, 1, 0));
+        assertTrue(queue.add(0, data, 0, 2, 2, 0));
+        assertFalse(queue.add(0, data, 0, 0, 3, 0));
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void evictsOldestGopWhenFull() {
+        PendingSampleQueue queue = new PendingSampleQueue(4, 1024);
+        queue.setVideoTrackIndex(0);
+        ByteBuffer data = ByteBuffer.allocate(8);
+        assertTrue(queue.add(0, data, 0, 8, 0, MediaSample.FLAG_KEY_FRAME));
+        assertTrue(queue.add(1, data, 0, 8, 0, 0));
+        assertTrue(queue.add(0, data, 0, 8, 1, 0));
+        assertTrue(queue.add(0, data, 0, 8, 2, MediaSample.FLAG_KEY_FRAME));
+        assertTrue(queue.add(0, data, 0, 8, 3, 0));
+        assertEquals(3, queue.getDroppedCount());
+        assertEquals(2, queue.size());
+
+        final List<Long> times = new ArrayList<Long>();
+        queue.drain(new SampleRingBuffer.Consumer() {
+            @Override
+            public void onSample(MediaSample sample) {
+                if (times.isEmpty()) {
+                    assertEquals(MediaSample.FLAG_KEY_FRAME, sample.flags);
+                }
+                times.add(sample.presentationTimeUs);
+            }
+        });
+        assertEquals(Long.valueOf(2), times.get(0));
+        assertEquals(Long.valueOf(3), times.get(1));
+    }
+
+    @Test
+    public void dropsVideoUntilKeyFrameWhenOneGopFillsQueue() {
+        PendingSampleQueue queue = new PendingSampleQueue(2, 1024);
+        queue.setVideoTrackIndex(0);
+        ByteBuffer data = ByteBuffer.allocate(8);
+        assertTrue(queue.add(0, data, 0, 8, 0, MediaSample.FLAG_KEY_FRAME));
+        assertTrue(queue.add(0, data, 0, 8, 1, 0));
+        assertFalse(queue.add(0, data, 0, 8, 2, 0));
+        assertFalse(queue.add(1, data, 0, 8, 2, 0));
+        assertFalse(queue.add(0, data, 0, 8, 3, 0));
+        assertEquals(2, queue.size());
+
+        //新的关键帧替换掉整个旧的GOP
+        assertTrue(queue.add(0, data, 0, 8, 4, MediaSample.FLAG_KEY_FRAME));
+        assertTrue(queue.add(0, data, 0, 8, 5, 0));
+        assertEquals(2, queue.size());
+        assertEquals(5, queue.getDroppedCount());
+    }
+}
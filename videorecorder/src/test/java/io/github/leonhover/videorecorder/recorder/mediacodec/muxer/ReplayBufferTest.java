@@ -0,0 +1,98 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReplayBufferTest {
+
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    private final ByteBuffer mData = ByteBuffer.allocate(1024);
+
+    private boolean write(ReplayBuffer buffer, int track, int size, long timeMs, boolean isKeyFrame) {
+        for (int i = 0; i < size; i++) {
+            mData.put(i, (byte) timeMs);
+        }
+        return buffer.write(track, track == VIDEO, mData, 0, size, timeMs * 1000,
+                isKeyFrame ? MediaSample.FLAG_KEY_FRAME : 0);
+    }
+
+    @Test
+    public void startsAtVideoKeyFrame() {
+        ReplayBuffer buffer = new ReplayBuffer(1024, 64, 0);
+        assertFalse(write(buffer, AUDIO, 10, 0, false));
+        assertFalse(write(buffer, VIDEO, 10, 0, false));
+        assertTrue(write(buffer, VIDEO, 10, 33, true));
+        assertTrue(write(buffer, AUDIO, 10, 40, false));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void evictsWholeGopWhenFull() {
+        ReplayBuffer buffer = new ReplayBuffer(1000, 64, 0);
+        //每个GOP: 关键帧 + 3帧 + 音频，共5 * 50字节
+        long timeMs = 0;
+        for (int gop = 0; gop < 10; gop++) {
+            for (int frame = 0; frame < 4; frame++) {
+                assertTrue(write(buffer, VIDEO, 50, timeMs, frame == 0));
+                if (frame == 1) {
+                    assertTrue(write(buffer, AUDIO, 50, timeMs, false));
+                }
+                timeMs += 100;
+            }
+        }
+
+        //最多放下4个GOP
+        assertEquals(20, buffer.size());
+        MediaSample sample = new MediaSample(16);
+        long head = buffer.getHeadSequence();
+        assertTrue(buffer.read(head, sample));
+        assertTrue(sample.isKeyFrame());
+        assertEquals(VIDEO, sample.trackIndex);
+        assertEquals(2400 * 1000, sample.presentationTimeUs);
+        assertFalse(buffer.read(head - 1, sample));
+        assertEquals(6, buffer.getEvictedGopCount());
+    }
+
+    @Test
+    public void keepsDataIntactAcrossWrap() {
+        ReplayBuffer buffer = new ReplayBuffer(1000, 64, 0);
+        for (int i = 0; i < 50; i++) {
+            write(buffer, VIDEO, 30 + (i % 7) * 20, i, i % 3 == 0);
+        }
+
+        MediaSample sample = new MediaSample(16);
+        for (long sequence = buffer.getHeadSequence(); sequence < buffer.getTailSequence(); sequence++) {
+            assertTrue(buffer.read(sequence, sample));
+            int i = (int) (sample.presentationTimeUs / 1000);
+            assertEquals(30 + (i % 7) * 20, sample.size());
+            for (int j = 0; j < sample.size(); j++) {
+                assertEquals((byte) i, sample.data().get(j));
+            }
+        }
+    }
+
+    @Test
+    public void evictsByDuration() {
+        ReplayBuffer buffer = new ReplayBuffer(100 * 1024, 1024, 3000 * 1000L);
+        for (int i = 0; i < 100; i++) {
+            write(buffer, VIDEO, 10, i * 100, i % 10 == 0);
+        }
+
+        //最后一帧9900ms，保留的GOP从7000ms开始
+        assertEquals(2900 * 1000L, buffer.getDurationUs());
+    }
+
+    @Test
+    public void dropsSampleLargerThanCapacity() {
+        ReplayBuffer buffer = new ReplayBuffer(100, 8, 0);
+        assertTrue(write(buffer, VIDEO, 50, 0, true));
+        assertFalse(write(buffer, VIDEO, 200, 33, false));
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(1, buffer.size());
+    }
+}
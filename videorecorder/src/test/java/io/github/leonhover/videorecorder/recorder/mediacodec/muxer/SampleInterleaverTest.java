@@ -0,0 +1,89 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleInterleaverTest {
+
+    private static final int VIDEO = 0;
+    private static final int AUDIO = 1;
+
+    private final List<Long> mOutput = new ArrayList<Long>();
+    private final SampleInterleaver.Output mCollector = new SampleInterleaver.Output() {
+        @Override
+        public void onSample(MediaSample sample) {
+            assertEquals(sample.presentationTimeUs, sample.data().getLong(0));
+            mOutput.add(sample.presentationTimeUs);
+        }
+    };
+
+    @Test
+    public void samplesLeaveInTimestampOrder() {
+        SampleInterleaver interleaver = new SampleInterleaver(2, 16, 1000, 8);
+        //视频线程先跑了一段，音频随后追上
+        push(interleaver, VIDEO, 0);
+        push(interleaver, VIDEO, 33000);
+        push(interleaver, VIDEO, 66000);
+        assertTrue(mOutput.isEmpty());
+
+        push(interleaver, AUDIO, 10000);
+        assertEquals(list(0, 10000), mOutput);
+        push(interleaver, AUDIO, 40000);
+        push(interleaver, AUDIO, 70000);
+        assertEquals(list(0, 10000, 33000, 40000, 66000), mOutput);
+
+        interleaver.flush(mCollector);
+        assertEquals(list(0, 10000, 33000, 40000, 66000, 70000), mOutput);
+        assertEquals(0, interleaver.getBufferedCount());
+        assertEquals(2, interleaver.getReorderedCount());
+        assertEquals(2, interleaver.getMaxReorderDepth());
+        assertEquals(4, interleaver.getMaxBufferedSamples());
+    }
+
+    @Test
+    public void windowLimitsHoldingTime() {
+        SampleInterleaver interleaver = new SampleInterleaver(2, 16, 100, 8);
+        //音频一直没有到达，超过窗口后视频照常输出
+        push(interleaver, VIDEO, 0);
+        push(interleaver, VIDEO, 50000);
+        assertTrue(mOutput.isEmpty());
+        push(interleaver, VIDEO, 150000);
+        assertEquals(list(0, 50000), mOutput);
+    }
+
+    @Test
+    public void fullBufferEmitsOldest() {
+        SampleInterleaver interleaver = new SampleInterleaver(2, 2, 10000, 8);
+        push(interleaver, VIDEO, 0);
+        push(interleaver, VIDEO, 1000);
+        push(interleaver, VIDEO, 2000);
+        assertEquals(list(0), mOutput);
+    }
+
+    @Test
+    public void endedTrackDoesNotBlock() {
+        SampleInterleaver interleaver = new SampleInterleaver(2, 16, 10000, 8);
+        push(interleaver, VIDEO, 0);
+        interleaver.endTrack(AUDIO, mCollector);
+        assertEquals(list(0), mOutput);
+    }
+
+    private void push(SampleInterleaver interleaver, int track, long presentationTimeUs) {
+        ByteBuffer data = ByteBuffer.allocate(8);
+        data.putLong(0, presentationTimeUs);
+        interleaver.push(track, data, 0, 8, presentationTimeUs, 0, mCollector);
+    }
+
+    private static List<Long> list(long... values) {
+        List<Long> ret = new ArrayList<Long>();
+        for (long value : values) {
+            ret.add(value);
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多生产者并发写入SampleRingBuffer，检查数据完整且每个生产者内部保持顺序
+ */
+public class SampleRingBufferTest {
+
+    private static final int PRODUCERS = 3;
+    private static final int SAMPLES_PER_PRODUCER = 20000;
+
+    @Test
+    public void allSamplesAreDeliveredInProducerOrder() throws InterruptedException {
+        final SampleRingBuffer ringBuffer = new SampleRingBuffer(16, 8);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer data = ByteBuffer.allocate(16);
+                    for (int i = 0; i < SAMPLES_PER_PRODUCER; i++) {
+                        data.clear();
+                        //长度随序号变化，覆盖槽位扩容
+                        int size = 8 + (i % 3) * 4;
+                        data.putInt(producer).putInt(i);
+                        while (data.position() < size) {
+                            data.putInt(i);
+                        }
+                        data.flip();
+                        assertTrue(ringBuffer.offer(producer, data, 0, size, i, 0, Long.MAX_VALUE));
+                    }
+                }
+            });
+            producers[p].start();
+        }
+
+        final int[] next = new int[PRODUCERS];
+        final int[] received = new int[1];
+        SampleRingBuffer.Consumer consumer = new SampleRingBuffer.Consumer() {
+            @Override
+            public void onSample(MediaSample sample) {
+                ByteBuffer data = sample.data();
+                int producer = data.getInt(0);
+                int sequence = data.getInt(4);
+                assertEquals(producer, sample.trackIndex);
+                assertEquals(next[producer], sequence);
+                assertEquals(sequence, sample.presentationTimeUs);
+                assertEquals(8 + (sequence % 3) * 4, sample.size());
+                next[producer]++;
+                received[0]++;
+            }
+        };
+
+        while (received[0] < PRODUCERS * SAMPLES_PER_PRODUCER) {
+            if (ringBuffer.drain(consumer, 8) == 0) {
+                ringBuffer.awaitSamples(1000 * 1000L);
+            }
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertEquals(0, ringBuffer.drain(consumer, 8));
+        assertEquals(0, ringBuffer.getDroppedCount());
+    }
+
+    @Test
+    public void offerTimesOutWhenFull() {
+        SampleRingBuffer ringBuffer = new SampleRingBuffer(2, 4);
+        ByteBuffer data = ByteBuffer.allocate(4);
+        assertTrue(ringBuffer.offer(0, data, 0, 4, 0, 0, 0));
+        assertTrue(ringBuffer.offer(0, data, 0, 4, 1, 0, 0));
+        assertFalse(ringBuffer.offer(0, data, 0, 4, 2, 0, 1000 * 1000L));
+        assertEquals(1, ringBuffer.getDroppedCount());
+        assertEquals(2, ringBuffer.size());
+    }
+}
@@ -0,0 +1,247 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class SegmentedMediaMuxerTest {
+
+    private static final String OUTPUT = new File(System.getProperty("java.io.tmpdir"), "segment.mp4").getPath();
+    private static final int VIDEO_SAMPLE_SIZE = 100;
+
+    private static class FakeMuxer implements IMediaMuxer {
+        final String path;
+        boolean isStarted;
+        boolean isStopped;
+        boolean isReleased;
+        int videoCount;
+        int audioCount;
+
+        FakeMuxer(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void start() {
+            isStarted = true;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public void release() {
+            isReleased = true;
+        }
+
+        @Override
+        public int addAudioTrack(MediaFormat mediaFormat) {
+            return 1;
+        }
+
+        @Override
+        public int addVideoTrack(MediaFormat mediaFormat) {
+            return 0;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, MediaCodec.BufferInfo bufferInfo) {
+            if (trackIndex == 0) {
+                videoCount++;
+            } else {
+                audioCount++;
+            }
+        }
+    }
+
+    private static class FakeFactory implements SegmentedMediaMuxer.MuxerFactory {
+        final List<FakeMuxer> muxers = new ArrayList<FakeMuxer>();
+
+        @Override
+        public IMediaMuxer createMediaMuxer(String path) {
+            FakeMuxer muxer = new FakeMuxer(path);
+            muxers.add(muxer);
+            return muxer;
+        }
+    }
+
+    private static class RecordingCallBack implements SegmentedMediaMuxer.CallBack {
+        int syncFrameRequests;
+        final List<String> finishedPaths = new ArrayList<String>();
+
+        @Override
+        public void onSyncFrameRequested(SegmentedMediaMuxer muxer) {
+            syncFrameRequests++;
+        }
+
+        @Override
+        public void onSegmentFinished(SegmentedMediaMuxer muxer, String path, long durationUs) {
+            finishedPaths.add(path);
+        }
+    }
+
+    /**
+     * 手动执行的finisher，模拟创建分段很慢
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            tasks.add(runnable);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final FakeFactory mFactory = new FakeFactory();
+    private final RecordingCallBack mCallBack = new RecordingCallBack();
+
+    private SegmentedMediaMuxer create(int segmentDurationMs, long segmentMaxBytes, Executor finisher) {
+        SegmentedMediaMuxer muxer = new SegmentedMediaMuxer(OUTPUT, segmentDurationMs, segmentMaxBytes, mFactory,
+                null, finisher);
+        muxer.setCallBack(mCallBack);
+        muxer.addVideoTrack(new MediaFormat());
+        muxer.addAudioTrack(new MediaFormat());
+        muxer.start();
+        return muxer;
+    }
+
+    private static void write(IMediaMuxer muxer, int trackIndex, long presentationTimeMs, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.size = trackIndex == 0 ? VIDEO_SAMPLE_SIZE : 10;
+        info.presentationTimeUs = presentationTimeMs * 1000;
+        info.flags = flags;
+        muxer.writeSampleData(trackIndex, ByteBuffer.allocate(info.size), info);
+    }
+
+    private static String segmentPath(int index) {
+        return OUTPUT.replace(".mp4", "_00" + index + ".mp4");
+    }
+
+    @Test
+    public void rotatesByDurationAtKeyFrame() {
+        SegmentedMediaMuxer muxer = create(1000, 0, DIRECT_EXECUTOR);
+        //第一个分段与提前创建的下一个分段
+        assertEquals(2, mFactory.muxers.size());
+
+        for (int i = 0; i <= 12; i++) {
+            write(muxer, 0, i * 100, i == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        }
+        //1000ms之后的非关键帧只请求一次关键帧
+        assertEquals(1, mCallBack.syncFrameRequests);
+        assertEquals(1, muxer.getSegmentCount());
+
+        write(muxer, 0, 1300, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        assertEquals(2, muxer.getSegmentCount());
+        FakeMuxer first = mFactory.muxers.get(0);
+        FakeMuxer second = mFactory.muxers.get(1);
+        assertEquals(13, first.videoCount);
+        assertEquals(1, second.videoCount);
+        assertTrue(second.isStarted);
+
+        //早于切分点的音频仍写入旧分段，越过切分点后旧分段结束
+        write(muxer, 1, 1250, 0);
+        assertFalse(first.isStopped);
+        write(muxer, 1, 1350, 0);
+        assertTrue(first.isStopped);
+        assertTrue(first.isReleased);
+        assertEquals(1, first.audioCount);
+        assertEquals(1, second.audioCount);
+
+        muxer.stop();
+        assertTrue(second.isStopped);
+        //提前创建的第三个分段没有用到，被释放，序号不计入
+        assertTrue(mFactory.muxers.get(2).isReleased);
+        assertEquals(2, muxer.getSegmentCount());
+        assertEquals(2, mCallBack.finishedPaths.size());
+        assertEquals(segmentPath(0), mCallBack.finishedPaths.get(0));
+        assertEquals(segmentPath(1), mCallBack.finishedPaths.get(1));
+    }
+
+    @Test
+    public void rotatesBySizeAtKeyFrame() {
+        SegmentedMediaMuxer muxer = create(0, 3 * VIDEO_SAMPLE_SIZE, DIRECT_EXECUTOR);
+        write(muxer, 0, 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, 0, 33, 0);
+        write(muxer, 0, 66, 0);
+        assertEquals(0, mCallBack.syncFrameRequests);
+        write(muxer, 0, 100, 0);
+        assertEquals(1, mCallBack.syncFrameRequests);
+        write(muxer, 0, 133, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        assertEquals(2, muxer.getSegmentCount());
+        assertEquals(4, mFactory.muxers.get(0).videoCount);
+        assertEquals(1, mFactory.muxers.get(1).videoCount);
+        muxer.stop();
+    }
+
+    @Test
+    public void keepsWritingWhenNextSegmentIsNotPrepared() {
+        ManualExecutor finisher = new ManualExecutor();
+        SegmentedMediaMuxer muxer = create(1000, 0, finisher);
+        //下一个分段还在创建中
+        assertEquals(1, mFactory.muxers.size());
+
+        write(muxer, 0, 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, 0, 1000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, 0, 1100, 0);
+        //不等待，也不在编码器线程中创建分段
+        assertEquals(1, mFactory.muxers.size());
+        assertEquals(0, mCallBack.syncFrameRequests);
+        assertEquals(3, mFactory.muxers.get(0).videoCount);
+
+        finisher.runAll();
+        assertEquals(2, mFactory.muxers.size());
+        write(muxer, 0, 1200, 0);
+        assertEquals(1, mCallBack.syncFrameRequests);
+        write(muxer, 0, 1300, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        assertEquals(2, muxer.getSegmentCount());
+        assertEquals(1, mFactory.muxers.get(1).videoCount);
+
+        muxer.stop();
+        finisher.runAll();
+        assertEquals(2, mCallBack.finishedPaths.size());
+    }
+
+    @Test
+    public void releaseFinishesClosingSegment() {
+        SegmentedMediaMuxer muxer = create(1000, 0, DIRECT_EXECUTOR);
+        write(muxer, 0, 0, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        write(muxer, 0, 1000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        //音频没有越过切分点，旧分段还没有结束
+        FakeMuxer first = mFactory.muxers.get(0);
+        assertFalse(first.isReleased);
+
+        muxer.release();
+        assertTrue(first.isStopped);
+        assertTrue(first.isReleased);
+        assertTrue(mFactory.muxers.get(1).isReleased);
+        assertTrue(mFactory.muxers.get(2).isReleased);
+    }
+}
@@ -0,0 +1,157 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TsMediaMuxerTest {
+
+    private static final int PACKET_SIZE = TsWriter.PACKET_SIZE;
+    //PES头的长度
+    private static final int PES_HEADER_SIZE = 14;
+
+    private static final byte[] PARAMETER_SETS = {0, 0, 0, 1, 0x67, 0x42, (byte) 0x80, 0x1E, 0, 0, 0, 1, 0x68, (byte) 0xCE, 0x06};
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, 1, 2, 3};
+    private static final byte[] SLICE = {0, 0, 0, 1, 0x41, 4, 5, 6};
+    //AAC-LC 44100Hz 单声道
+    private static final byte[] ASC = {0x12, 0x08};
+    private static final byte[] AAC_FRAME = {7, 8, 9, 10, 11};
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("segment", ".ts");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static void write(IMediaMuxer muxer, int trackIndex, byte[] data, long presentationTimeUs, int flags) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        info.offset = 0;
+        info.size = data.length;
+        info.presentationTimeUs = presentationTimeUs;
+        info.flags = flags;
+        muxer.writeSampleData(trackIndex, ByteBuffer.wrap(data), info);
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) input.length()];
+            input.readFully(data);
+            return data;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static int pid(byte[] ts, int packet) {
+        return ((ts[packet * PACKET_SIZE + 1] & 0x1F) << 8) | (ts[packet * PACKET_SIZE + 2] & 0xFF);
+    }
+
+    /**
+     * adaptation field的flags，没有adaptation field时返回-1
+     */
+    private static int adaptationFlags(byte[] ts, int packet) {
+        int start = packet * PACKET_SIZE;
+        if ((ts[start + 3] & 0x20) == 0 || ts[start + 4] == 0) {
+            return -1;
+        }
+        return ts[start + 5] & 0xFF;
+    }
+
+    private static long pcrBase(byte[] ts, int packet) {
+        int start = packet * PACKET_SIZE + 6;
+        return ((ts[start] & 0xFFL) << 25) | ((ts[start + 1] & 0xFFL) << 17)
+                | ((ts[start + 2] & 0xFFL) << 9) | ((ts[start + 3] & 0xFFL) << 1) | ((ts[start + 4] & 0x80) >> 7);
+    }
+
+    /**
+     * 去掉TS头、adaptation field与PES头之后的数据
+     */
+    private static byte[] pesPayload(byte[] ts, int packet) {
+        int start = packet * PACKET_SIZE;
+        int position = start + 4;
+        if ((ts[start + 3] & 0x20) != 0) {
+            position += 1 + (ts[start + 4] & 0xFF);
+        }
+        return Arrays.copyOfRange(ts, position + PES_HEADER_SIZE, start + PACKET_SIZE);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] ret = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, ret, first.length, second.length);
+        return ret;
+    }
+
+    @Test
+    public void writesTablesPcrAndPendingSamples() throws IOException {
+        TsMediaMuxer muxer = new TsMediaMuxer(mFile.getPath());
+        int videoTrack = muxer.addVideoTrack(new MediaFormat());
+        write(muxer, videoTrack, PARAMETER_SETS, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        //音频Track还没有添加，关键帧先缓存
+        write(muxer, videoTrack, IDR, 1000000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.start();
+        assertEquals(0, mFile.length());
+
+        int audioTrack = muxer.addAudioTrack(new MediaFormat());
+        write(muxer, audioTrack, ASC, 0, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+        write(muxer, audioTrack, AAC_FRAME, 1010000, 0);
+        write(muxer, videoTrack, SLICE, 1033000, 0);
+        write(muxer, videoTrack, IDR, 2000000, MediaCodec.BUFFER_FLAG_KEY_FRAME);
+        muxer.stop();
+        muxer.release();
+
+        byte[] ts = read(mFile);
+        assertEquals(0, ts.length % PACKET_SIZE);
+        int[] expectedPids = {TsWriter.PAT_PID, TsWriter.PMT_PID, TsWriter.VIDEO_PID, TsWriter.AUDIO_PID,
+                TsWriter.VIDEO_PID, TsWriter.PAT_PID, TsWriter.PMT_PID, TsWriter.VIDEO_PID};
+        assertEquals(expectedPids.length, ts.length / PACKET_SIZE);
+        for (int i = 0; i < expectedPids.length; i++) {
+            assertEquals("packet " + i, expectedPids[i], pid(ts, i));
+            assertEquals(0x47, ts[i * PACKET_SIZE] & 0xFF);
+        }
+
+        //缓存的关键帧：random_access_indicator和PCR，前面补上参数集
+        assertEquals(0x50, adaptationFlags(ts, 2));
+        assertEquals(90000, pcrBase(ts, 2));
+        byte[] keyFrame = concat(PARAMETER_SETS, IDR);
+        assertArrayEquals(keyFrame, Arrays.copyOf(pesPayload(ts, 2), keyFrame.length));
+
+        //音频不带PCR，ADTS头来自CODEC_CONFIG
+        assertEquals(0, adaptationFlags(ts, 3) & 0x10);
+        byte[] header = new byte[AacUtils.ADTS_HEADER_SIZE];
+        AacUtils.writeAdtsHeader(header, AacUtils.AUDIO_OBJECT_TYPE_AAC_LC, 4, 1, AAC_FRAME.length);
+        byte[] audio = concat(header, AAC_FRAME);
+        assertArrayEquals(audio, Arrays.copyOf(pesPayload(ts, 3), audio.length));
+
+        //非关键帧只带PCR
+        assertEquals(0x10, adaptationFlags(ts, 4));
+        assertEquals(1033000 * 9 / 100, pcrBase(ts, 4));
+        assertArrayEquals(SLICE, Arrays.copyOf(pesPayload(ts, 4), SLICE.length));
+        assertEquals(0x50, adaptationFlags(ts, 7));
+    }
+
+    @Test
+    public void unopenedOutputRejectsTracks() {
+        TsMediaMuxer muxer = new TsMediaMuxer(new File(mFile.getPath() + ".missing", "segment.ts").getPath());
+        assertEquals(-1, muxer.addVideoTrack(new MediaFormat()));
+        assertEquals(-1, muxer.addAudioTrack(new MediaFormat()));
+        muxer.release();
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.muxer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+public class TsWriterTest {
+
+    private static final int PACKET_SIZE = TsWriter.PACKET_SIZE;
+
+    private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+    private final TsWriter mWriter = new TsWriter(Channels.newChannel(mOutput), true, true);
+
+    private byte[] flush() throws IOException {
+        mWriter.flush();
+        byte[] bytes = mOutput.toByteArray();
+        assertEquals(0, bytes.length % PACKET_SIZE);
+        for (int i = 0; i < bytes.length; i += PACKET_SIZE) {
+            assertEquals(0x47, bytes[i] & 0xFF);
+        }
+        return bytes;
+    }
+
+    private static int pid(byte[] ts, int packet) {
+        return ((ts[packet * PACKET_SIZE + 1] & 0x1F) << 8) | (ts[packet * PACKET_SIZE + 2] & 0xFF);
+    }
+
+    @Test
+    public void writesKnownPat() throws IOException {
+        mWriter.writeTables();
+        byte[] ts = flush();
+        assertEquals(2 * PACKET_SIZE, ts.length);
+
+        int[] expected = {0x47, 0x40, 0x00, 0x10, 0x00, 0x00, 0xB0, 0x0D, 0x00, 0x01, 0xC1, 0x00, 0x00,
+                0x00, 0x01, 0xF0, 0x00, 0x2A, 0xB1, 0x04, 0xB2};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("byte " + i, expected[i], ts[i] & 0xFF);
+        }
+        for (int i = expected.length; i < PACKET_SIZE; i++) {
+            assertEquals(0xFF, ts[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void writesPmtWithBothStreams() throws IOException {
+        mWriter.writeTables();
+        byte[] ts = flush();
+        assertEquals(TsWriter.PMT_PID, pid(ts, 1));
+
+        int section = PACKET_SIZE + 5;
+        assertEquals(0x02, ts[section]);
+        int sectionLength = ((ts[section + 1] & 0x0F) << 8) | (ts[section + 2] & 0xFF);
+        assertEquals(23, sectionLength);
+        //PCR PID为视频
+        assertEquals(0xE1, ts[section + 8] & 0xFF);
+        assertEquals(0x00, ts[section + 9] & 0xFF);
+        assertEquals(TsWriter.STREAM_TYPE_H264, ts[section + 12]);
+        assertEquals(TsWriter.STREAM_TYPE_AAC, ts[section + 17]);
+        //包含CRC在内计算的CRC为0
+        assertEquals(0, TsWriter.crc32(ts, section, 3 + sectionLength));
+    }
+
+    @Test
+    public void splitsVideoPesWithPcrAndStuffing() throws IOException {
+        byte[] prefix = {0, 0, 0, 1, 0x67, 0x42};
+        byte[] frame = new byte[400];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+        ByteBuffer data = ByteBuffer.wrap(frame);
+        data.position(3);
+
+        mWriter.writeVideoSample(prefix, data, 0, frame.length, 1000000, true);
+        assertEquals(3, data.position());
+        byte[] ts = flush();
+
+        //PAT、PMT加上3个视频包
+        assertEquals(5 * PACKET_SIZE, ts.length);
+        assertEquals(5, mWriter.getPacketCount());
+
+        int first = 2 * PACKET_SIZE;
+        assertEquals(TsWriter.VIDEO_PID, pid(ts, 2));
+        assertEquals(0x40, ts[first + 1] & 0x40);
+        //adaptation field带有random_access_indicator和PCR
+        assertEquals(0x30, ts[first + 3] & 0xF0);
+        assertEquals(7, ts[first + 4]);
+        assertEquals(0x50, ts[first + 5] & 0xFF);
+        long pcrBase = ((ts[first + 6] & 0xFFL) << 25) | ((ts[first + 7] & 0xFFL) << 17)
+                | ((ts[first + 8] & 0xFFL) << 9) | ((ts[first + 9] & 0xFFL) << 1) | ((ts[first + 10] & 0x80) >> 7);
+        assertEquals(90000, pcrBase);
+
+        int pes = first + 12;
+        assertEquals(0x00, ts[pes]);
+        assertEquals(0x00, ts[pes + 1]);
+        assertEquals(0x01, ts[pes + 2]);
+        assertEquals(0xE0, ts[pes + 3] & 0xFF);
+        long pts = ((ts[pes + 9] & 0x0EL) << 29) | ((ts[pes + 10] & 0xFFL) << 22) | ((ts[pes + 11] & 0xFEL) << 14)
+                | ((ts[pes + 12] & 0xFFL) << 7) | ((ts[pes + 13] & 0xFEL) >> 1);
+        assertEquals(90000 + 63000, pts);
+
+        //拼接所有payload，除PES头外应该等于prefix + frame
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        int expectedCounter = 0;
+        for (int packet = 2; packet < 5; packet++) {
+            int start = packet * PACKET_SIZE;
+            assertEquals(expectedCounter++, ts[start + 3] & 0x0F);
+            int position = start + 4;
+            if ((ts[start + 3] & 0x20) != 0) {
+                position += 1 + (ts[start + 4] & 0xFF);
+            }
+            payload.write(ts, position, start + PACKET_SIZE - position);
+        }
+        byte[] pesBytes = payload.toByteArray();
+        assertEquals(14 + prefix.length + frame.length, pesBytes.length);
+        for (int i = 0; i < prefix.length; i++) {
+            assertEquals(prefix[i], pesBytes[14 + i]);
+        }
+        for (int i = 0; i < frame.length; i++) {
+            assertEquals(frame[i], pesBytes[14 + prefix.length + i]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.leonhover.videorecorder.recorder.mediacodec.surface;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FramePacerTest {
+
+    private static final long SECOND_NS = 1000000000L;
+
+    /**
+     * 以sourceRate的帧率输入durationSec秒，时间戳带有±jitterNs的随机抖动
+     */
+    private static void feed(FramePacer pacer, int sourceRate, int durationSec, long jitterNs, long startNs) {
+        Random random = new Random(7);
+        long intervalNs = SECOND_NS / sourceRate;
+        for (int i = 0; i < sourceRate * durationSec; i++) {
+            long jitter = jitterNs > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterNs) : 0;
+            pacer.admit(startNs + i * intervalNs + jitter);
+        }
+    }
+
+    @Test
+    public void pacesFasterSourceToTargetRate() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(16);
+        feed(pacer, 30, 10, 0, 0);
+        assertEquals(160, pacer.getAdmittedCount(), 1);
+        assertEquals(300, pacer.getAdmittedCount() + pacer.getDroppedCount());
+    }
+
+    @Test
+    public void jitterDoesNotChangeRate() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(15);
+        feed(pacer, 30, 10, 4 * 1000 * 1000, SECOND_NS);
+        assertEquals(150, pacer.getAdmittedCount(), 2);
+    }
+
+    @Test
+    public void matchingRateWithJitterKeepsEveryFrame() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(30);
+        feed(pacer, 30, 10, 3 * 1000 * 1000, SECOND_NS);
+        assertEquals(300, pacer.getAdmittedCount());
+        assertEquals(0, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void slowerSourceIsNotThrottledAndDoesNotBuildCredit() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(30);
+        feed(pacer, 10, 5, 0, 0);
+        assertEquals(50, pacer.getAdmittedCount());
+
+        //来源突然变快，之后仍然按目标帧率放行
+        pacer.reset();
+        long start = 5 * SECOND_NS;
+        feed(pacer, 120, 2, 0, start);
+        assertEquals(60, pacer.getAdmittedCount(), 2);
+    }
+
+    @Test
+    public void disabledAdmitsEverything() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(0);
+        feed(pacer, 60, 1, 0, 0);
+        assertEquals(60, pacer.getAdmittedCount());
+        assertEquals(0, pacer.getDroppedCount());
+    }
+
+    @Test
+    public void timestampGoingBackwardsRestarts() {
+        FramePacer pacer = new FramePacer();
+        pacer.setTargetFrameRate(10);
+        assertTrue(pacer.admit(10 * SECOND_NS));
+        assertFalse(pacer.admit(10 * SECOND_NS + SECOND_NS / 30));
+        assertTrue(pacer.admit(SECOND_NS));
+    }
+}